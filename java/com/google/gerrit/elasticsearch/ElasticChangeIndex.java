@@ -61,6 +61,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -130,9 +131,34 @@ class ElasticChangeIndex extends AbstractElasticIndex<Change.Id, ChangeData>
     }
   }
 
+  @Override
+  public void replaceAll(Collection<ChangeData> cds) {
+    if (cds.isEmpty()) {
+      return;
+    }
+    BulkRequest bulk = null;
+    for (ChangeData cd : cds) {
+      IndexRequest index = new IndexRequest(getId(cd), indexName);
+      bulk = bulk == null ? index : bulk.add(index);
+      bulk.add(new UpdateRequest<>(schema, cd, skipFields));
+    }
+
+    String uri = getURI(type, BULK);
+    Response response = postRequest(uri, bulk, getRefreshParam());
+    int statusCode = response.getStatusLine().getStatusCode();
+    if (statusCode != HttpStatus.SC_OK) {
+      throw new StorageException(
+          String.format(
+              "Failed to replace %d changes in index %s: %s", cds.size(), indexName, statusCode));
+    }
+  }
+
   @Override
   public DataSource<ChangeData> getSource(Predicate<ChangeData> p, QueryOptions opts)
       throws QueryParseException {
+    if (opts.searchAfter() != null) {
+      throw new QueryParseException("search-after is not supported by the Elasticsearch index");
+    }
     Set<Change.Status> statuses = ChangeIndexRewriter.getPossibleStatus(p);
     List<String> indexes = Lists.newArrayListWithCapacity(2);
     if (!client.adapter().omitType()) {
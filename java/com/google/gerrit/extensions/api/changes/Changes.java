@@ -80,6 +80,7 @@ public interface Changes {
     private String query;
     private int limit;
     private int start;
+    private String searchAfter;
     private boolean isNoLimit;
     private Set<ListChangesOption> options = EnumSet.noneOf(ListChangesOption.class);
     private ListMultimap<String, String> pluginOptions = ArrayListMultimap.create();
@@ -106,6 +107,17 @@ public interface Changes {
       return this;
     }
 
+    /**
+     * Continue after the last change of a previous page.
+     *
+     * @param searchAfter value of {@link ChangeInfo#_searchAfter} of the last change of the
+     *     previous page.
+     */
+    public QueryRequest withSearchAfter(String searchAfter) {
+      this.searchAfter = searchAfter;
+      return this;
+    }
+
     /** Set an option on the request, appending to existing options. */
     public QueryRequest withOption(ListChangesOption options) {
       this.options.add(options);
@@ -152,6 +164,10 @@ public interface Changes {
       return start;
     }
 
+    public String getSearchAfter() {
+      return searchAfter;
+    }
+
     public Set<ListChangesOption> getOptions() {
       return options;
     }
@@ -169,6 +185,9 @@ public interface Changes {
       if (start != 0) {
         sb.append(", start=").append(start);
       }
+      if (searchAfter != null) {
+        sb.append(", searchAfter=").append(searchAfter);
+      }
       if (!options.isEmpty()) {
         sb.append("options=").append(options);
       }
@@ -40,6 +40,10 @@ public class RestApiMetrics {
   final Counter3<String, Integer, String> errorCount;
   final Timer1<String> serverLatency;
   final Histogram1<String> responseBytes;
+  final Timer1<String> cpuTime;
+  final Histogram1<String> allocatedBytes;
+  final Counter1<String> jsonBytesStreamed;
+  final Counter1<String> jsonBytesBuffered;
 
   @Inject
   RestApiMetrics(MetricMaker metrics) {
@@ -80,6 +84,40 @@ public class RestApiMetrics {
                 .setCumulative()
                 .setUnit(Units.BYTES),
             viewField);
+
+    cpuTime =
+        metrics.newTimer(
+            "http/server/rest_api/cpu_time",
+            new Description("CPU time of REST API calls by view, including background threads")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            viewField);
+
+    allocatedBytes =
+        metrics.newHistogram(
+            "http/server/rest_api/allocated_bytes",
+            new Description(
+                    "Bytes allocated on the heap by REST API calls by view, including background"
+                        + " threads")
+                .setCumulative()
+                .setUnit(Units.BYTES),
+            viewField);
+
+    jsonBytesStreamed =
+        metrics.newCounter(
+            "http/server/rest_api/json_bytes_streamed",
+            new Description("Bytes of JSON responses streamed to the client by view")
+                .setCumulative()
+                .setUnit(Units.BYTES),
+            viewField);
+
+    jsonBytesBuffered =
+        metrics.newCounter(
+            "http/server/rest_api/json_bytes_buffered",
+            new Description("Bytes of JSON responses buffered in memory before sending by view")
+                .setCumulative()
+                .setUnit(Units.BYTES),
+            viewField);
   }
 
   String view(ViewData viewData) {
@@ -116,6 +116,7 @@ import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.logging.PerformanceLogContext;
 import com.google.gerrit.server.logging.PerformanceLogger;
 import com.google.gerrit.server.logging.RequestId;
+import com.google.gerrit.server.logging.ResourceUsage;
 import com.google.gerrit.server.logging.TraceContext;
 import com.google.gerrit.server.logging.TraceContext.TraceTimer;
 import com.google.gerrit.server.notedb.ChangeNotes;
@@ -166,6 +167,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -218,6 +220,7 @@ public class RestApiServlet extends HttpServlet {
   public static final int SC_TOO_MANY_REQUESTS = 429;
 
   private static final int HEAP_EST_SIZE = 10 * 8 * 1024; // Presize 10 blocks.
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
   private static final String PLAIN_TEXT = "text/plain";
   private static final Pattern TYPE_SPLIT_PATTERN = Pattern.compile("[ ,;][ ,;]*");
 
@@ -250,6 +253,7 @@ public class RestApiServlet extends HttpServlet {
     final ChangeFinder changeFinder;
     final RetryHelper retryHelper;
     final PluginSetContext<ExceptionHook> exceptionHooks;
+    final int jsonStreamingThreshold;
 
     @Inject
     Globals(
@@ -280,6 +284,7 @@ public class RestApiServlet extends HttpServlet {
       this.retryHelper = retryHelper;
       this.exceptionHooks = exceptionHooks;
       allowOrigin = makeAllowOrigin(config);
+      jsonStreamingThreshold = config.getInt("httpd", "jsonStreamingThreshold", 250);
     }
 
     private static Pattern makeAllowOrigin(Config cfg) {
@@ -325,7 +330,7 @@ public class RestApiServlet extends HttpServlet {
     RestResource rsrc = TopLevelResource.INSTANCE;
     ViewData viewData = null;
 
-    try (TraceContext traceContext = enableTracing(req, res)) {
+    try (TraceContext traceContext = enableTracing(req, res).measureResourceUsage()) {
       List<IdString> path = splitPath(req);
 
       try (PerThreadCache ignored = PerThreadCache.create()) {
@@ -595,8 +600,12 @@ public class RestApiServlet extends HttpServlet {
           Object value = Response.unwrap(response);
           if (value instanceof BinaryResult) {
             responseBytes = replyBinaryResult(req, res, (BinaryResult) value);
+          } else if (isStreamable(value)) {
+            responseBytes = replyJsonStream(req, res, qp.config(), (Collection<?>) value);
+            globals.metrics.jsonBytesStreamed.incrementBy(getViewName(viewData), responseBytes);
           } else {
             responseBytes = replyJson(req, res, false, qp.config(), value);
+            globals.metrics.jsonBytesBuffered.incrementBy(getViewName(viewData), responseBytes);
           }
         }
       } catch (MalformedJsonException | JsonParseException e) {
@@ -713,6 +722,16 @@ public class RestApiServlet extends HttpServlet {
         }
         globals.metrics.serverLatency.record(
             metric, System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        Optional<ResourceUsage> resourceUsage = traceContext.getResourceUsage();
+        if (resourceUsage.isPresent()) {
+          if (resourceUsage.get().cpuTimeNanos() >= 0) {
+            globals.metrics.cpuTime.record(
+                metric, resourceUsage.get().cpuTimeNanos(), TimeUnit.NANOSECONDS);
+          }
+          if (resourceUsage.get().allocatedBytes() >= 0) {
+            globals.metrics.allocatedBytes.record(metric, resourceUsage.get().allocatedBytes());
+          }
+        }
         globals.auditService.dispatch(
             new ExtendedHttpAuditEvent(
                 globals.webSession.get().getSessionId(),
@@ -899,6 +918,12 @@ public class RestApiServlet extends HttpServlet {
     }
   }
 
+  private boolean isStreamable(Object value) {
+    return globals.jsonStreamingThreshold > 0
+        && value instanceof Collection
+        && ((Collection<?>) value).size() >= globals.jsonStreamingThreshold;
+  }
+
   private String getViewName(ViewData viewData) {
     return viewData != null && viewData.view != null ? globals.metrics.view(viewData) : "_unknown";
   }
@@ -1355,6 +1380,64 @@ public class RestApiServlet extends HttpServlet {
         req, res, asBinaryResult(buf).setContentType(JSON_TYPE).setCharacterEncoding(UTF_8));
   }
 
+  /**
+   * Streams a JSON list reply on the given HTTP servlet response.
+   *
+   * <p>Unlike {@link #replyJson(HttpServletRequest, HttpServletResponse, boolean,
+   * ListMultimap, Object)} the reply is not rendered into a heap buffer first. The elements are
+   * serialized one by one into a bounded buffer that is flushed to the (optionally gzip compressed)
+   * response stream whenever it fills up. As the length of the reply isn't known upfront, no
+   * Content-Length header is set.
+   *
+   * @param req the HTTP servlet request
+   * @param res the HTTP servlet response on which the reply should be set
+   * @param config config parameters for the JSON formatting
+   * @param result the elements of the JSON list
+   * @return the length of the response
+   * @throws IOException
+   */
+  static long replyJsonStream(
+      @Nullable HttpServletRequest req,
+      HttpServletResponse res,
+      ListMultimap<String, String> config,
+      Collection<?> result)
+      throws IOException {
+    res.setContentType(JSON_TYPE);
+    res.setCharacterEncoding(UTF_8.name());
+    if (req != null && "HEAD".equals(req.getMethod())) {
+      return 0;
+    }
+
+    boolean gzip = acceptsGzip(req);
+    if (gzip) {
+      res.setHeader("Content-Encoding", "gzip");
+    }
+    Gson gson = newGson(config, req);
+    try (CountingOutputStream dst = new CountingOutputStream(res.getOutputStream())) {
+      GZIPOutputStream gz = gzip ? new GZIPOutputStream(dst, STREAM_BUFFER_SIZE) : null;
+      OutputStream out = gz != null ? gz : dst;
+      out.write(JSON_MAGIC);
+      Writer w = new BufferedWriter(new OutputStreamWriter(out, UTF_8), STREAM_BUFFER_SIZE);
+      JsonWriter json = gson.newJsonWriter(w);
+      json.beginArray();
+      for (Object element : result) {
+        if (element == null) {
+          json.nullValue();
+        } else {
+          gson.toJson(element, element.getClass(), json);
+        }
+      }
+      json.endArray();
+      json.flush();
+      w.write('\n');
+      w.flush();
+      if (gz != null) {
+        gz.finish();
+      }
+      return dst.getCount();
+    }
+  }
+
   private static Gson newGson(
       ListMultimap<String, String> config, @Nullable HttpServletRequest req) {
     GsonBuilder gb = OutputFormat.JSON_COMPACT.newGsonBuilder();
@@ -21,6 +21,7 @@ import com.google.gerrit.index.query.FieldBundle;
 import com.google.gerrit.index.query.IndexPredicate;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
+import java.util.Collection;
 import java.util.Optional;
 
 /**
@@ -50,6 +51,20 @@ public interface Index<K, V> {
    */
   void replace(V obj);
 
+  /**
+   * Update several documents in the index.
+   *
+   * <p>Semantically equivalent to calling {@link #replace(Object)} for each document.
+   * Implementations should override this to write all documents in a single batch.
+   *
+   * @param objs document objects
+   */
+  default void replaceAll(Collection<V> objs) {
+    for (V obj : objs) {
+      replace(obj);
+    }
+  }
+
   /**
    * Delete a document from the index by key.
    *
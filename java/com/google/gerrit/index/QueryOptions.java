@@ -19,6 +19,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.primitives.Ints;
+import com.google.gerrit.common.Nullable;
 import java.util.Set;
 import java.util.function.Function;
 
@@ -27,7 +28,19 @@ public abstract class QueryOptions {
   public static QueryOptions create(IndexConfig config, int start, int limit, Set<String> fields) {
     checkArgument(start >= 0, "start must be nonnegative: %s", start);
     checkArgument(limit > 0, "limit must be positive: %s", limit);
-    return new AutoValue_QueryOptions(config, start, limit, ImmutableSet.copyOf(fields));
+    return new AutoValue_QueryOptions(config, start, limit, ImmutableSet.copyOf(fields), null);
+  }
+
+  public static QueryOptions create(
+      IndexConfig config,
+      int start,
+      int limit,
+      Set<String> fields,
+      @Nullable Object searchAfter) {
+    checkArgument(start >= 0, "start must be nonnegative: %s", start);
+    checkArgument(limit > 0, "limit must be positive: %s", limit);
+    return new AutoValue_QueryOptions(
+        config, start, limit, ImmutableSet.copyOf(fields), searchAfter);
   }
 
   public QueryOptions convertForBackend() {
@@ -36,7 +49,7 @@ public abstract class QueryOptions {
     int backendLimit = config().maxLimit();
     int limit = Ints.saturatedCast((long) limit() + start());
     limit = Math.min(limit, backendLimit);
-    return create(config(), 0, limit, fields());
+    return create(config(), 0, limit, fields(), searchAfter());
   }
 
   public abstract IndexConfig config();
@@ -47,15 +60,30 @@ public abstract class QueryOptions {
 
   public abstract ImmutableSet<String> fields();
 
+  /**
+   * Opaque cursor of the last result of the previous page.
+   *
+   * <p>If set, the index backend continues the query right after the entity described by this
+   * cursor instead of skipping {@link #start()} results from the beginning. Backends that don't
+   * understand the cursor must reject the query. {@link #start()} is still honored, relative to the
+   * cursor.
+   */
+  @Nullable
+  public abstract Object searchAfter();
+
   public QueryOptions withLimit(int newLimit) {
-    return create(config(), start(), newLimit, fields());
+    return create(config(), start(), newLimit, fields(), searchAfter());
   }
 
   public QueryOptions withStart(int newStart) {
-    return create(config(), newStart, limit(), fields());
+    return create(config(), newStart, limit(), fields(), searchAfter());
+  }
+
+  public QueryOptions withSearchAfter(@Nullable Object newSearchAfter) {
+    return create(config(), start(), limit(), fields(), newSearchAfter);
   }
 
   public QueryOptions filterFields(Function<QueryOptions, Set<String>> filter) {
-    return create(config(), start(), limit(), filter.apply(this));
+    return create(config(), start(), limit(), filter.apply(this), searchAfter());
   }
 }
@@ -87,6 +87,7 @@ public abstract class QueryProcessor<T> {
   private final AtomicBoolean used;
 
   protected int start;
+  @Nullable protected Object searchAfter;
 
   private boolean enforceVisibility = true;
   private int userProvidedLimit;
@@ -123,6 +124,21 @@ public abstract class QueryProcessor<T> {
     return this;
   }
 
+  /**
+   * Continue the query after the entity described by the given index cursor.
+   *
+   * <p>The cursor is opaque to the query processor and is passed through to the index backend
+   * unchanged, see {@link QueryOptions#searchAfter()}.
+   *
+   * @param searchAfter cursor of the last entity of the previous page, or null to start from the
+   *     beginning.
+   * @return this.
+   */
+  public QueryProcessor<T> setSearchAfter(@Nullable Object searchAfter) {
+    this.searchAfter = searchAfter;
+    return this;
+  }
+
   /**
    * Specify whether to enforce visibility by filtering out results that are not visible to the
    * user.
@@ -243,7 +259,9 @@ public abstract class QueryProcessor<T> {
         // Always bump limit by 1, even if this results in exceeding the permitted
         // max for this user. The only way to see if there are more entities is to
         // ask for one more result from the query.
-        QueryOptions opts = createOptions(indexConfig, start, limit + 1, getRequestedFields());
+        QueryOptions opts =
+            createOptions(indexConfig, start, limit + 1, getRequestedFields())
+                .withSearchAfter(searchAfter);
         logger.atFine().log("Query options: " + opts);
         Predicate<T> pred = rewriter.rewrite(q, opts);
         if (enforceVisibility) {
@@ -49,6 +49,7 @@ import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
 import com.google.gerrit.server.logging.LoggingContextAwareScheduledExecutorService;
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -279,6 +280,29 @@ public abstract class AbstractLuceneIndex<K, V> implements Index<K, V> {
     return submit(() -> writer.deleteDocuments(term));
   }
 
+  ListenableFuture<?> replace(List<Term> terms, List<Document> docs) {
+    checkArgument(
+        terms.size() == docs.size(), "%s terms for %s documents", terms.size(), docs.size());
+    if (terms.isEmpty()) {
+      return Futures.immediateFuture(null);
+    }
+    return submit(
+        () -> {
+          long gen = -1;
+          for (int i = 0; i < terms.size(); i++) {
+            gen = writer.updateDocument(terms.get(i), docs.get(i));
+          }
+          return gen;
+        });
+  }
+
+  ListenableFuture<?> delete(List<Term> terms) {
+    if (terms.isEmpty()) {
+      return Futures.immediateFuture(null);
+    }
+    return submit(() -> writer.deleteDocuments(terms.toArray(new Term[0])));
+  }
+
   private ListenableFuture<?> submit(Callable<Long> task) {
     ListenableFuture<Long> future = Futures.nonCancellationPropagating(writerThread.submit(task));
     return Futures.transformAsync(
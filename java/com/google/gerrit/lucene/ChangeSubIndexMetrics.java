@@ -0,0 +1,53 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.lucene;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Per sub-index latencies of change queries against the Lucene change index. */
+@Singleton
+class ChangeSubIndexMetrics {
+  final Timer1<String> searchLatency;
+  final Timer1<String> loadDocumentsLatency;
+
+  @Inject
+  ChangeSubIndexMetrics(MetricMaker metricMaker) {
+    Field<String> subIndexField =
+        Field.ofString("sub_index", Metadata.Builder::indexName)
+            .description("name of the change sub-index")
+            .build();
+    searchLatency =
+        metricMaker.newTimer(
+            "index/lucene/change_sub_index/search_latency",
+            new Description("Latency for searching a single change sub-index")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            subIndexField);
+    loadDocumentsLatency =
+        metricMaker.newTimer(
+            "index/lucene/change_sub_index/load_documents_latency",
+            new Description("Latency for loading stored fields of matches from a change sub-index")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            subIndexField);
+  }
+}
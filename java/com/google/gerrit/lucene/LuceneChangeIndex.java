@@ -37,7 +37,10 @@ import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.PatchSet;
@@ -54,6 +57,7 @@ import com.google.gerrit.index.query.FieldBundle;
 import com.google.gerrit.index.query.Predicate;
 import com.google.gerrit.index.query.QueryParseException;
 import com.google.gerrit.index.query.ResultSet;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.StarredChangesUtil;
 import com.google.gerrit.server.change.MergeabilityComputationBehavior;
@@ -63,6 +67,7 @@ import com.google.gerrit.server.index.IndexExecutor;
 import com.google.gerrit.server.index.IndexUtils;
 import com.google.gerrit.server.index.change.ChangeField;
 import com.google.gerrit.server.index.change.ChangeIndex;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.index.change.ChangeIndexRewriter;
 import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -73,7 +78,9 @@ import com.google.protobuf.MessageLite;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -86,6 +93,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
@@ -159,7 +167,14 @@ public class LuceneChangeIndex implements ChangeIndex {
     Change.Id extract(IndexableField f);
   }
 
+  @FunctionalInterface
+  private interface SubIndexTask<V> {
+    V call(int subIndex) throws IOException;
+  }
+
   private final ListeningExecutorService executor;
+  private final ListeningExecutorService queryExecutor;
+  private final ChangeSubIndexMetrics metrics;
   private final ChangeData.Factory changeDataFactory;
   private final Schema<ChangeData> schema;
   private final QueryBuilder<ChangeData> queryBuilder;
@@ -178,10 +193,14 @@ public class LuceneChangeIndex implements ChangeIndex {
       @GerritServerConfig Config cfg,
       SitePaths sitePaths,
       @IndexExecutor(INTERACTIVE) ListeningExecutorService executor,
+      @LuceneQueryExecutor ListeningExecutorService queryExecutor,
+      ChangeSubIndexMetrics metrics,
       ChangeData.Factory changeDataFactory,
       @Assisted Schema<ChangeData> schema)
       throws IOException {
     this.executor = executor;
+    this.queryExecutor = queryExecutor;
+    this.metrics = metrics;
     this.changeDataFactory = changeDataFactory;
     this.schema = schema;
     this.skipFields =
@@ -280,6 +299,36 @@ public class LuceneChangeIndex implements ChangeIndex {
     }
   }
 
+  @Override
+  public void replaceAll(Collection<ChangeData> cds) {
+    List<Term> openIds = new ArrayList<>();
+    List<Document> openDocs = new ArrayList<>();
+    List<Term> closedIds = new ArrayList<>();
+    List<Document> closedDocs = new ArrayList<>();
+    for (ChangeData cd : cds) {
+      Term id = LuceneChangeIndex.idTerm(idTerm, idField, cd);
+      Document doc = openIndex.toDocument(cd);
+      if (cd.change().isNew()) {
+        openIds.add(id);
+        openDocs.add(doc);
+      } else {
+        closedIds.add(id);
+        closedDocs.add(doc);
+      }
+    }
+    try {
+      // Each sub-index writes its batch in a single task of its writer thread.
+      Futures.allAsList(
+              closedIndex.delete(openIds),
+              openIndex.replace(openIds, openDocs),
+              openIndex.delete(closedIds),
+              closedIndex.replace(closedIds, closedDocs))
+          .get();
+    } catch (ExecutionException | InterruptedException e) {
+      throw new StorageException(e);
+    }
+  }
+
   @Override
   public void delete(Change.Id changeId) {
     Term id = LuceneChangeIndex.idTerm(idTerm, idField, changeId);
@@ -307,7 +356,8 @@ public class LuceneChangeIndex implements ChangeIndex {
     if (!Sets.intersection(statuses, CLOSED_STATUSES).isEmpty()) {
       indexes.add(closedIndex);
     }
-    return new QuerySource(indexes, p, opts, getSort(), openIndex::toFieldBundle);
+    return new QuerySource(
+        indexes, p, opts, getSort(), getSearchAfter(opts), openIndex::toFieldBundle);
   }
 
   @Override
@@ -323,12 +373,32 @@ public class LuceneChangeIndex implements ChangeIndex {
         new SortField(idSortFieldName, SortField.Type.LONG, true));
   }
 
+  @Nullable
+  private static FieldDoc getSearchAfter(QueryOptions opts) throws QueryParseException {
+    Object searchAfter = opts.searchAfter();
+    if (searchAfter == null) {
+      return null;
+    }
+    if (!(searchAfter instanceof ChangeIndexCursor)) {
+      throw new QueryParseException("Unsupported search-after cursor: " + searchAfter);
+    }
+    ChangeIndexCursor cursor = (ChangeIndexCursor) searchAfter;
+    // Sort values are unique per change, so the doc ID is never needed as a tie breaker. Use the
+    // largest possible value to make sure the document of the cursor itself is skipped, no matter
+    // which sub-index it lives in.
+    return new FieldDoc(
+        Integer.MAX_VALUE,
+        Float.NaN,
+        new Object[] {cursor.lastUpdatedOn(), (long) cursor.changeId().get()});
+  }
+
   private class QuerySource implements ChangeDataSource {
     private final List<ChangeSubIndex> indexes;
     private final Predicate<ChangeData> predicate;
     private final Query query;
     private final QueryOptions opts;
     private final Sort sort;
+    @Nullable private final FieldDoc searchAfter;
     private final Function<Document, FieldBundle> rawDocumentMapper;
 
     private QuerySource(
@@ -336,6 +406,7 @@ public class LuceneChangeIndex implements ChangeIndex {
         Predicate<ChangeData> predicate,
         QueryOptions opts,
         Sort sort,
+        @Nullable FieldDoc searchAfter,
         Function<Document, FieldBundle> rawDocumentMapper)
         throws QueryParseException {
       this.indexes = indexes;
@@ -343,6 +414,7 @@ public class LuceneChangeIndex implements ChangeIndex {
       this.query = requireNonNull(queryBuilder.toQuery(predicate), "null query from Lucene");
       this.opts = opts;
       this.sort = sort;
+      this.searchAfter = searchAfter;
       this.rawDocumentMapper = rawDocumentMapper;
     }
 
@@ -420,19 +492,42 @@ public class LuceneChangeIndex implements ChangeIndex {
         if (Integer.MAX_VALUE - opts.limit() < opts.start()) {
           realLimit = Integer.MAX_VALUE;
         }
-        TopFieldDocs[] hits = new TopFieldDocs[indexes.size()];
+        int limit = realLimit;
         for (int i = 0; i < indexes.size(); i++) {
           searchers[i] = indexes.get(i).acquire();
-          hits[i] = searchers[i].search(query, realLimit, sort);
         }
-        TopDocs docs = TopDocs.merge(sort, realLimit, hits);
-
-        List<Document> result = new ArrayList<>(docs.scoreDocs.length);
-        for (int i = opts.start(); i < docs.scoreDocs.length; i++) {
-          ScoreDoc sd = docs.scoreDocs[i];
-          result.add(searchers[sd.shardIndex].doc(sd.doc, fields));
+        List<TopFieldDocs> hits =
+            forEachSubIndex(
+                i -> {
+                  try (Timer1.Context<String> ignored =
+                      metrics.searchLatency.start(subIndexName(i))) {
+                    return searchAfter != null
+                        ? searchers[i].searchAfter(searchAfter, query, limit, sort)
+                        : searchers[i].search(query, limit, sort);
+                  }
+                });
+        TopDocs docs = TopDocs.merge(sort, realLimit, hits.toArray(new TopFieldDocs[0]));
+
+        ScoreDoc[] scoreDocs = docs.scoreDocs;
+        int start = opts.start();
+        if (start >= scoreDocs.length) {
+          return Collections.emptyList();
         }
-        return result;
+        Document[] result = new Document[scoreDocs.length - start];
+        forEachSubIndex(
+            i -> {
+              try (Timer1.Context<String> ignored =
+                  metrics.loadDocumentsLatency.start(subIndexName(i))) {
+                for (int j = start; j < scoreDocs.length; j++) {
+                  ScoreDoc sd = scoreDocs[j];
+                  if (sd.shardIndex == i) {
+                    result[j - start] = searchers[i].doc(sd.doc, fields);
+                  }
+                }
+                return null;
+              }
+            });
+        return Arrays.asList(result);
       } finally {
         for (int i = 0; i < indexes.size(); i++) {
           if (searchers[i] != null) {
@@ -445,6 +540,41 @@ public class LuceneChangeIndex implements ChangeIndex {
         }
       }
     }
+
+    /**
+     * Runs a task for each sub-index and returns the results in sub-index order.
+     *
+     * <p>If there is more than one sub-index the tasks are run in parallel on the query executor.
+     * This method only returns once all tasks are done, so that the caller can safely release the
+     * searchers afterwards.
+     */
+    private <V> List<V> forEachSubIndex(SubIndexTask<V> task) throws IOException {
+      if (indexes.size() == 1) {
+        return Collections.singletonList(task.call(0));
+      }
+
+      List<ListenableFuture<V>> futures = new ArrayList<>(indexes.size());
+      for (int i = 0; i < indexes.size(); i++) {
+        int subIndex = i;
+        futures.add(queryExecutor.submit(() -> task.call(subIndex)));
+      }
+      try {
+        Uninterruptibles.getUninterruptibly(Futures.successfulAsList(futures));
+        List<V> result = new ArrayList<>(futures.size());
+        for (ListenableFuture<V> f : futures) {
+          result.add(Futures.getDone(f));
+        }
+        return result;
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new StorageException(e.getCause());
+      }
+    }
+
+    private String subIndexName(int i) {
+      return indexes.get(i) == openIndex ? CHANGES_OPEN : CHANGES_CLOSED;
+    }
   }
 
   private class ChangeDataResults implements ResultSet<ChangeData> {
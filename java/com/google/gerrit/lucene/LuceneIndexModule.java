@@ -15,14 +15,19 @@
 package com.google.gerrit.lucene;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.index.project.ProjectIndex;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.index.AbstractIndexModule;
 import com.google.gerrit.server.index.VersionManager;
 import com.google.gerrit.server.index.account.AccountIndex;
 import com.google.gerrit.server.index.change.ChangeIndex;
 import com.google.gerrit.server.index.group.GroupIndex;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import java.util.Map;
 import org.apache.lucene.search.BooleanQuery;
 import org.eclipse.jgit.lib.Config;
@@ -80,4 +85,17 @@ public class LuceneIndexModule extends AbstractIndexModule {
         cfg.getInt("index", "maxTerms", BooleanQuery.getMaxClauseCount()));
     return super.getIndexConfig(cfg);
   }
+
+  @Provides
+  @Singleton
+  @LuceneQueryExecutor
+  ListeningExecutorService getQueryExecutor(@GerritServerConfig Config cfg, WorkQueue workQueue) {
+    int threads = cfg.getInt("index", "lucene", "queryThreads", 0);
+    if (threads < 0) {
+      return MoreExecutors.newDirectExecutorService();
+    } else if (threads == 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    return MoreExecutors.listeningDecorator(workQueue.createQueue(threads, "Lucene-Query", true));
+  }
 }
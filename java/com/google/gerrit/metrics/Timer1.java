@@ -81,17 +81,21 @@ public abstract class Timer1<F1> implements RegistrationHandle {
   public final void record(F1 fieldValue, long value, TimeUnit unit) {
     long durationMs = unit.toMillis(value);
 
-    Metadata.Builder metadataBuilder = Metadata.builder();
-    field.metadataMapper().accept(metadataBuilder, fieldValue);
-    Metadata metadata = metadataBuilder.build();
-
+    // The metadata is only built if performance logging is enabled.
     LoggingContext.getInstance()
-        .addPerformanceLogRecord(() -> PerformanceLogRecord.create(name, durationMs, metadata));
+        .addPerformanceLogRecord(
+            () -> PerformanceLogRecord.create(name, durationMs, metadata(fieldValue)));
 
     logger.atFinest().log("%s (%s = %s) took %dms", name, field.name(), fieldValue, durationMs);
     doRecord(fieldValue, value, unit);
   }
 
+  private Metadata metadata(F1 fieldValue) {
+    Metadata.Builder metadataBuilder = Metadata.builder();
+    field.metadataMapper().accept(metadataBuilder, fieldValue);
+    return metadataBuilder.build();
+  }
+
   /**
    * Record a value in the distribution.
    *
@@ -88,13 +88,12 @@ public abstract class Timer2<F1, F2> implements RegistrationHandle {
   public final void record(F1 fieldValue1, F2 fieldValue2, long value, TimeUnit unit) {
     long durationMs = unit.toMillis(value);
 
-    Metadata.Builder metadataBuilder = Metadata.builder();
-    field1.metadataMapper().accept(metadataBuilder, fieldValue1);
-    field2.metadataMapper().accept(metadataBuilder, fieldValue2);
-    Metadata metadata = metadataBuilder.build();
-
+    // The metadata is only built if performance logging is enabled.
     LoggingContext.getInstance()
-        .addPerformanceLogRecord(() -> PerformanceLogRecord.create(name, durationMs, metadata));
+        .addPerformanceLogRecord(
+            () ->
+                PerformanceLogRecord.create(
+                    name, durationMs, metadata(fieldValue1, fieldValue2)));
 
     logger.atFinest().log(
         "%s (%s = %s, %s = %s) took %dms",
@@ -102,6 +101,13 @@ public abstract class Timer2<F1, F2> implements RegistrationHandle {
     doRecord(fieldValue1, fieldValue2, value, unit);
   }
 
+  private Metadata metadata(F1 fieldValue1, F2 fieldValue2) {
+    Metadata.Builder metadataBuilder = Metadata.builder();
+    field1.metadataMapper().accept(metadataBuilder, fieldValue1);
+    field2.metadataMapper().accept(metadataBuilder, fieldValue2);
+    return metadataBuilder.build();
+  }
+
   /**
    * Record a value in the distribution.
    *
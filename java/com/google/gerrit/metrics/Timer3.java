@@ -96,14 +96,12 @@ public abstract class Timer3<F1, F2, F3> implements RegistrationHandle {
       F1 fieldValue1, F2 fieldValue2, F3 fieldValue3, long value, TimeUnit unit) {
     long durationMs = unit.toMillis(value);
 
-    Metadata.Builder metadataBuilder = Metadata.builder();
-    field1.metadataMapper().accept(metadataBuilder, fieldValue1);
-    field2.metadataMapper().accept(metadataBuilder, fieldValue2);
-    field3.metadataMapper().accept(metadataBuilder, fieldValue3);
-    Metadata metadata = metadataBuilder.build();
-
+    // The metadata is only built if performance logging is enabled.
     LoggingContext.getInstance()
-        .addPerformanceLogRecord(() -> PerformanceLogRecord.create(name, durationMs, metadata));
+        .addPerformanceLogRecord(
+            () ->
+                PerformanceLogRecord.create(
+                    name, durationMs, metadata(fieldValue1, fieldValue2, fieldValue3)));
 
     logger.atFinest().log(
         "%s (%s = %s, %s = %s, %s = %s) took %dms",
@@ -118,6 +116,14 @@ public abstract class Timer3<F1, F2, F3> implements RegistrationHandle {
     doRecord(fieldValue1, fieldValue2, fieldValue3, value, unit);
   }
 
+  private Metadata metadata(F1 fieldValue1, F2 fieldValue2, F3 fieldValue3) {
+    Metadata.Builder metadataBuilder = Metadata.builder();
+    field1.metadataMapper().accept(metadataBuilder, fieldValue1);
+    field2.metadataMapper().accept(metadataBuilder, fieldValue2);
+    field3.metadataMapper().accept(metadataBuilder, fieldValue3);
+    return metadataBuilder.build();
+  }
+
   /**
    * Record a value in the distribution.
    *
@@ -31,6 +31,7 @@ abstract class BucketedHistogram implements BucketedMetric {
   protected final Field<?>[] fields;
   protected final HistogramImpl total;
   private final Map<Object, HistogramImpl> cells;
+  private final CellIndex<HistogramImpl> index = new CellIndex<>();
   private final Object lock = new Object();
 
   BucketedHistogram(
@@ -52,11 +53,21 @@ abstract class BucketedHistogram implements BucketedMetric {
   }
 
   HistogramImpl forceCreate(Object f1, Object f2) {
-    return forceCreate(ImmutableList.of(f1, f2));
+    HistogramImpl c = index.get(f1, f2);
+    if (c == null) {
+      c = forceCreate(ImmutableList.of(f1, f2));
+      index.put(f1, f2, c);
+    }
+    return c;
   }
 
   HistogramImpl forceCreate(Object f1, Object f2, Object f3) {
-    return forceCreate(ImmutableList.of(f1, f2, f3));
+    HistogramImpl c = index.get(f1, f2, f3);
+    if (c == null) {
+      c = forceCreate(ImmutableList.of(f1, f2, f3));
+      index.put(f1, f2, f3, c);
+    }
+    return c;
   }
 
   HistogramImpl forceCreate(Object key) {
@@ -31,6 +31,7 @@ abstract class BucketedTimer implements BucketedMetric {
   protected final Field<?>[] fields;
   protected final TimerImpl total;
   private final Map<Object, TimerImpl> cells;
+  private final CellIndex<TimerImpl> index = new CellIndex<>();
   private final Object lock = new Object();
 
   BucketedTimer(DropWizardMetricMaker metrics, String name, Description desc, Field<?>... fields) {
@@ -51,11 +52,21 @@ abstract class BucketedTimer implements BucketedMetric {
   }
 
   TimerImpl forceCreate(Object f1, Object f2) {
-    return forceCreate(ImmutableList.of(f1, f2));
+    TimerImpl c = index.get(f1, f2);
+    if (c == null) {
+      c = forceCreate(ImmutableList.of(f1, f2));
+      index.put(f1, f2, c);
+    }
+    return c;
   }
 
   TimerImpl forceCreate(Object f1, Object f2, Object f3) {
-    return forceCreate(ImmutableList.of(f1, f2, f3));
+    TimerImpl c = index.get(f1, f2, f3);
+    if (c == null) {
+      c = forceCreate(ImmutableList.of(f1, f2, f3));
+      index.put(f1, f2, f3, c);
+    }
+    return c;
   }
 
   TimerImpl forceCreate(Object key) {
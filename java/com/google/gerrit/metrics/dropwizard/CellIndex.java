@@ -0,0 +1,71 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.metrics.dropwizard;
+
+import com.google.gerrit.common.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the cells of a metric with two or three fields, nested by field value.
+ *
+ * <p>Looking up an existing cell doesn't allocate a key combining the field values, which matters
+ * since metrics are recorded on hot paths. Cells are only added to the index after they were
+ * created, so lookups that miss must fall back to the cell map of the metric.
+ *
+ * @param <V> type of the cells.
+ */
+class CellIndex<V> {
+  private final ConcurrentHashMap<Object, Object> root = new ConcurrentHashMap<>();
+
+  @Nullable
+  V get(Object f1, Object f2) {
+    ConcurrentHashMap<Object, V> byF2 = next(root, f1);
+    return byF2 != null ? byF2.get(f2) : null;
+  }
+
+  @Nullable
+  V get(Object f1, Object f2, Object f3) {
+    ConcurrentHashMap<Object, Object> byF2 = next(root, f1);
+    if (byF2 == null) {
+      return null;
+    }
+    ConcurrentHashMap<Object, V> byF3 = next(byF2, f2);
+    return byF3 != null ? byF3.get(f3) : null;
+  }
+
+  void put(Object f1, Object f2, V cell) {
+    ConcurrentHashMap<Object, V> byF2 = create(root, f1);
+    byF2.put(f2, cell);
+  }
+
+  void put(Object f1, Object f2, Object f3, V cell) {
+    ConcurrentHashMap<Object, Object> byF2 = create(root, f1);
+    ConcurrentHashMap<Object, V> byF3 = create(byF2, f2);
+    byF3.put(f3, cell);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private static <T> ConcurrentHashMap<Object, T> next(
+      ConcurrentHashMap<Object, Object> map, Object key) {
+    return (ConcurrentHashMap<Object, T>) map.get(key);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> ConcurrentHashMap<Object, T> create(
+      ConcurrentHashMap<Object, Object> map, Object key) {
+    return (ConcurrentHashMap<Object, T>) map.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+  }
+}
@@ -16,6 +16,7 @@ package com.google.gerrit.server;
 
 import com.google.auto.value.AutoValue;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.logging.ResourceUsage;
 import com.google.gerrit.server.logging.TraceContext;
 import java.util.Optional;
 
@@ -67,6 +68,17 @@ public abstract class RequestInfo {
    */
   public abstract Optional<Project.NameKey> project();
 
+  /**
+   * The resources that the request consumed so far. Only available if the resource usage of the
+   * request is measured (see {@link TraceContext#measureResourceUsage()}).
+   *
+   * <p>The returned {@link ResourceUsage} keeps accumulating while the request is processed. Only
+   * the resources consumed by the calling thread up to now are guaranteed to be included.
+   */
+  public Optional<ResourceUsage> resourceUsage() {
+    return traceContext().getResourceUsage();
+  }
+
   public static RequestInfo.Builder builder(
       RequestType requestType, CurrentUser callingUser, TraceContext traceContext) {
     return new AutoValue_RequestInfo.Builder()
@@ -16,13 +16,20 @@ package com.google.gerrit.server.account;
 
 import static com.google.gerrit.server.account.externalids.ExternalId.SCHEME_USERNAME;
 
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.account.externalids.ExternalId;
 import com.google.gerrit.server.account.externalids.ExternalIds;
 import com.google.gerrit.server.cache.CacheModule;
@@ -39,11 +46,20 @@ import com.google.inject.Module;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -55,6 +71,9 @@ public class AccountCacheImpl implements AccountCache {
 
   private static final String BYID_AND_REV_NAME = "accounts";
 
+  /** Maximum number of threads loading accounts of one lookup, including the caller. */
+  private static final int MAX_LOADING_THREADS = 4;
+
   public static Module module() {
     return new CacheModule() {
       @Override
@@ -76,6 +95,8 @@ public class AccountCacheImpl implements AccountCache {
   private final GitRepositoryManager repoManager;
   private final AllUsersName allUsersName;
   private final DefaultPreferencesCache defaultPreferenceCache;
+  private final ExecutorService fanOutExecutor;
+  private final Metrics metrics;
 
   @Inject
   AccountCacheImpl(
@@ -84,12 +105,16 @@ public class AccountCacheImpl implements AccountCache {
           LoadingCache<CachedAccountDetails.Key, CachedAccountDetails> accountDetailsCache,
       GitRepositoryManager repoManager,
       AllUsersName allUsersName,
-      DefaultPreferencesCache defaultPreferenceCache) {
+      DefaultPreferencesCache defaultPreferenceCache,
+      @FanOutExecutor ExecutorService fanOutExecutor,
+      Metrics metrics) {
     this.externalIds = externalIds;
     this.accountDetailsCache = accountDetailsCache;
     this.repoManager = repoManager;
     this.allUsersName = allUsersName;
     this.defaultPreferenceCache = defaultPreferenceCache;
+    this.fanOutExecutor = fanOutExecutor;
+    this.metrics = metrics;
   }
 
   @Override
@@ -113,6 +138,10 @@ public class AccountCacheImpl implements AccountCache {
                 ? defaultPreferenceCache.get(ref.getObjectId())
                 : DefaultPreferencesCache.EMPTY;
 
+        if (accountIds.size() > 1) {
+          return getAll(allUsers, accountIds, defaultPreferences);
+        }
+
         ImmutableMap.Builder<Account.Id, AccountState> result = ImmutableMap.builder();
         for (Account.Id id : accountIds) {
           Ref userRef = allUsers.exactRef(RefNames.refsUsers(id));
@@ -135,6 +164,88 @@ public class AccountCacheImpl implements AccountCache {
     }
   }
 
+  /**
+   * Looks up many accounts at once.
+   *
+   * <p>The user refs of all accounts are read with a single ref database lookup. Account details
+   * that are not cached yet are loaded concurrently, by the caller and by helpers on the {@link
+   * FanOutExecutor}, each loading through the cache.
+   */
+  private Map<Account.Id, AccountState> getAll(
+      Repository allUsers, Set<Account.Id> accountIds, CachedPreferences defaultPreferences)
+      throws IOException, ExecutionException {
+    metrics.batchLookupSize.record(accountIds.size());
+    Map<String, Ref> userRefs =
+        allUsers
+            .getRefDatabase()
+            .exactRef(accountIds.stream().map(RefNames::refsUsers).toArray(String[]::new));
+
+    Map<Account.Id, CachedAccountDetails> details = new HashMap<>();
+    List<CachedAccountDetails.Key> missing = new ArrayList<>();
+    for (Account.Id id : accountIds) {
+      Ref userRef = userRefs.get(RefNames.refsUsers(id));
+      if (userRef == null) {
+        continue;
+      }
+      CachedAccountDetails.Key key = CachedAccountDetails.Key.create(id, userRef.getObjectId());
+      CachedAccountDetails cached = accountDetailsCache.getIfPresent(key);
+      if (cached != null) {
+        details.put(id, cached);
+      } else {
+        missing.add(key);
+      }
+    }
+    metrics.batchLookupHits.incrementBy(details.size());
+    metrics.batchLookupColdLoads.incrementBy(missing.size());
+    details.putAll(load(missing));
+
+    ImmutableMap.Builder<Account.Id, AccountState> result = ImmutableMap.builder();
+    for (Account.Id id : accountIds) {
+      CachedAccountDetails d = details.get(id);
+      if (d != null) {
+        result.put(id, AccountState.forCachedAccount(d, defaultPreferences, externalIds));
+      }
+    }
+    return result.build();
+  }
+
+  private Map<Account.Id, CachedAccountDetails> load(List<CachedAccountDetails.Key> keys)
+      throws ExecutionException {
+    Map<Account.Id, CachedAccountDetails> result = new ConcurrentHashMap<>();
+    if (keys.isEmpty()) {
+      return result;
+    }
+
+    // The caller works on the queue as well, so that progress doesn't depend on free threads in
+    // the executor.
+    Queue<CachedAccountDetails.Key> pending = new ConcurrentLinkedQueue<>(keys);
+    Callable<Void> loader =
+        () -> {
+          CachedAccountDetails.Key key;
+          while ((key = pending.poll()) != null) {
+            result.put(key.accountId(), accountDetailsCache.get(key));
+          }
+          return null;
+        };
+    int helpers = Math.min(keys.size(), MAX_LOADING_THREADS) - 1;
+    List<Future<Void>> futures = new ArrayList<>(helpers);
+    for (int i = 0; i < helpers; i++) {
+      futures.add(fanOutExecutor.submit(loader));
+    }
+    try {
+      loader.call();
+      for (Future<Void> f : futures) {
+        Uninterruptibles.getUninterruptibly(f);
+      }
+    } catch (Exception e) {
+      // Stop the helpers from loading accounts that won't be used.
+      pending.clear();
+      Throwables.throwIfInstanceOf(e, ExecutionException.class);
+      throw new ExecutionException(e);
+    }
+    return result;
+  }
+
   @Override
   public Optional<AccountState> getByUsername(String username) {
     try {
@@ -154,6 +265,33 @@ public class AccountCacheImpl implements AccountCache {
     return AccountState.forAccount(account.build());
   }
 
+  @Singleton
+  static class Metrics {
+    final Histogram0 batchLookupSize;
+    final Counter0 batchLookupHits;
+    final Counter0 batchLookupColdLoads;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      batchLookupSize =
+          metricMaker.newHistogram(
+              "caches/accounts/batch_lookup_size",
+              new Description("Number of accounts looked up together in the account cache")
+                  .setCumulative()
+                  .setUnit("accounts"));
+      batchLookupHits =
+          metricMaker.newCounter(
+              "caches/accounts/batch_lookup_hits",
+              new Description("Accounts of batch lookups that were found in the account cache")
+                  .setRate());
+      batchLookupColdLoads =
+          metricMaker.newCounter(
+              "caches/accounts/batch_lookup_cold_loads",
+              new Description("Accounts of batch lookups that had to be loaded from NoteDb")
+                  .setRate());
+    }
+  }
+
   @Singleton
   static class Loader extends CacheLoader<CachedAccountDetails.Key, CachedAccountDetails> {
     private final GitRepositoryManager repoManager;
@@ -129,6 +129,9 @@ class ChangesImpl implements Changes {
     }
     qc.setLimit(q.getLimit());
     qc.setStart(q.getStart());
+    if (q.getSearchAfter() != null) {
+      qc.setSearchAfter(q.getSearchAfter());
+    }
     qc.setNoLimit(q.getNoLimit());
     for (ListChangesOption option : q.getOptions()) {
       qc.addOption(option);
@@ -0,0 +1,51 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import java.time.Instant;
+import java.util.concurrent.Executor;
+
+/**
+ * Disk storage of an {@link AbstractPersistentCache}.
+ *
+ * @param <K> type of the keys.
+ * @param <V> type of the values.
+ */
+public interface PersistentCacheStore<K, V> {
+  /** Returns false if the store certainly doesn't hold a value for the key. */
+  boolean mightContain(K key);
+
+  @Nullable
+  ValueHolder<V> getIfPresent(K key);
+
+  /** Returns whether a value that was created at the given time should be reloaded. */
+  boolean needsRefresh(Instant created);
+
+  void put(K key, ValueHolder<V> holder);
+
+  /** Stores an entry in the background. */
+  default void putAsync(Executor executor, K key, ValueHolder<V> holder) {
+    executor.execute(() -> put(key, holder));
+  }
+
+  void invalidate(K key);
+
+  void invalidateAll();
+
+  DiskStats diskStats();
+}
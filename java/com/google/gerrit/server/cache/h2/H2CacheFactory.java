@@ -21,15 +21,19 @@ import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.cache.AbstractPersistentCache;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
 import com.google.gerrit.server.cache.CacheBackend;
 import com.google.gerrit.server.cache.MemoryCacheFactory;
 import com.google.gerrit.server.cache.PersistentCacheDef;
+import com.google.gerrit.server.cache.PersistentCacheDefProxy;
 import com.google.gerrit.server.cache.PersistentCacheFactory;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore.BloomFilterSettings;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore.WriteBehind;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
-import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
 import com.google.gerrit.server.logging.LoggingContextAwareScheduledExecutorService;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -37,10 +41,10 @@ import com.google.inject.Singleton;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -55,34 +59,52 @@ import org.eclipse.jgit.lib.Config;
 class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  static final String BLOOM_FILTER_SUFFIX = ".bloom";
+
+  /** Expected false positive probability above which a BloomFilter is rebuilt. */
+  private static final double BLOOM_FILTER_MAX_FPP = 0.1;
+
   private final MemoryCacheFactory memCacheFactory;
   private final Config config;
   private final Path cacheDir;
   private final List<H2CacheImpl<?, ?>> caches;
   private final DynamicMap<Cache<?, ?>> cacheMap;
-  private final ExecutorService executor;
+  private final ScheduledExecutorService executor;
   private final ScheduledExecutorService cleanup;
+  private final ScheduledExecutorService bloomFilterRebuild;
   private final long h2CacheSize;
   private final boolean h2AutoServer;
+  private final int writeBatchSize;
+  private final int writeBufferSize;
+  private final Duration writeFlushInterval;
+  private final H2CacheMetrics metrics;
 
   @Inject
   H2CacheFactory(
       MemoryCacheFactory memCacheFactory,
       @GerritServerConfig Config cfg,
       SitePaths site,
-      DynamicMap<Cache<?, ?>> cacheMap) {
+      DynamicMap<Cache<?, ?>> cacheMap,
+      H2CacheMetrics metrics) {
     this.memCacheFactory = memCacheFactory;
     config = cfg;
     cacheDir = getCacheDir(site, cfg.getString("cache", null, "directory"));
     h2CacheSize = cfg.getLong("cache", null, "h2CacheSize", -1);
     h2AutoServer = cfg.getBoolean("cache", null, "h2AutoServer", false);
+    writeBatchSize = cfg.getInt("cache", null, "h2WriteBatchSize", 256);
+    writeBufferSize = cfg.getInt("cache", null, "h2WriteBufferSize", 16384);
+    writeFlushInterval =
+        Duration.ofMillis(
+            ConfigUtil.getTimeUnit(
+                cfg, "cache", null, "h2WriteFlushInterval", 100, TimeUnit.MILLISECONDS));
+    this.metrics = metrics;
     caches = new LinkedList<>();
     this.cacheMap = cacheMap;
 
     if (cacheDir != null) {
       executor =
-          new LoggingContextAwareExecutorService(
-              Executors.newFixedThreadPool(
+          new LoggingContextAwareScheduledExecutorService(
+              Executors.newScheduledThreadPool(
                   1, new ThreadFactoryBuilder().setNameFormat("DiskCache-Store-%d").build()));
       cleanup =
           new LoggingContextAwareScheduledExecutorService(
@@ -92,9 +114,18 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
                       .setNameFormat("DiskCache-Prune-%d")
                       .setDaemon(true)
                       .build()));
+      bloomFilterRebuild =
+          new LoggingContextAwareScheduledExecutorService(
+              Executors.newScheduledThreadPool(
+                  1,
+                  new ThreadFactoryBuilder()
+                      .setNameFormat("DiskCache-BloomFilter-%d")
+                      .setDaemon(true)
+                      .build()));
     } else {
       executor = null;
       cleanup = null;
+      bloomFilterRebuild = null;
     }
   }
 
@@ -136,6 +167,7 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
     if (executor != null) {
       try {
         cleanup.shutdownNow();
+        bloomFilterRebuild.shutdownNow();
 
         List<Runnable> pending = executor.shutdownNow();
         if (executor.awaitTermination(15, TimeUnit.MINUTES)) {
@@ -168,7 +200,7 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
       return memCacheFactory.build(in, backend);
     }
 
-    H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
+    PersistentCacheDefProxy<K, V> def = new PersistentCacheDefProxy<>(in);
     SqlStore<K, V> store = newSqlStore(def, limit);
     H2CacheImpl<K, V> cache =
         new H2CacheImpl<>(
@@ -192,13 +224,13 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
       return memCacheFactory.build(in, loader, backend);
     }
 
-    H2CacheDefProxy<K, V> def = new H2CacheDefProxy<>(in);
+    PersistentCacheDefProxy<K, V> def = new PersistentCacheDefProxy<>(in);
     SqlStore<K, V> store = newSqlStore(def, limit);
     Cache<K, ValueHolder<V>> mem =
         (Cache<K, ValueHolder<V>>)
             memCacheFactory.build(
                 def,
-                (CacheLoader<K, V>) new H2CacheImpl.Loader<>(executor, store, loader),
+                (CacheLoader<K, V>) new AbstractPersistentCache.Loader<>(executor, store, loader),
                 backend);
     H2CacheImpl<K, V> cache = new H2CacheImpl<>(executor, store, def.keyType(), mem);
     synchronized (caches) {
@@ -238,6 +270,16 @@ class H2CacheFactory implements PersistentCacheFactory, LifecycleListener {
         def.version(),
         maxSize,
         def.expireAfterWrite(),
-        def.expireFromMemoryAfterAccess());
+        def.expireFromMemoryAfterAccess(),
+        writeBatchSize > 1
+            ? new WriteBehind(
+                def.name(), writeBatchSize, writeBufferSize, writeFlushInterval, executor, metrics)
+            : null,
+        new BloomFilterSettings(
+            def.name(),
+            cacheDir.resolve(def.name() + BLOOM_FILTER_SUFFIX),
+            BLOOM_FILTER_MAX_FPP,
+            bloomFilterRebuild,
+            metrics));
   }
 }
@@ -14,28 +14,29 @@
 
 package com.google.gerrit.server.cache.h2;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
 import com.google.common.base.Throwables;
-import com.google.common.cache.AbstractLoadingCache;
 import com.google.common.cache.Cache;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.CacheStats;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.hash.BloomFilter;
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gerrit.common.Nullable;
-import com.google.gerrit.server.cache.PersistentCache;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.cache.AbstractPersistentCache;
+import com.google.gerrit.server.cache.PersistentCacheStore;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
-import com.google.gerrit.server.logging.Metadata;
-import com.google.gerrit.server.logging.TraceContext;
-import com.google.gerrit.server.logging.TraceContext.TraceTimer;
 import com.google.gerrit.server.util.time.TimeUtil;
 import com.google.inject.TypeLiteral;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InvalidClassException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -44,16 +45,19 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -66,131 +70,35 @@ import java.util.concurrent.atomic.AtomicLong;
  * such as the PatchListCache.
  *
  * <p>Cache stores and invalidations are performed on a background thread, hiding the latency
- * associated with serializing the key and value pairs and writing them to the database log.
+ * associated with serializing the key and value pairs and writing them to the database log. Unless
+ * disabled, stores and access time updates are buffered and written in batches, see {@link
+ * SqlStore.WriteBehind}.
  *
  * <p>A BloomFilter is used around the database to reduce the number of SELECTs issued against the
  * database for new cache items that have not been seen before, a common operation for the
  * PatchListCache. The BloomFilter is sized when the cache starts to be 64,000 entries or double the
- * number of items currently in the database table.
+ * number of items currently in the database table. It is kept across restarts and rebuilt when it
+ * gets too full, see {@link SqlStore.BloomFilterSettings}.
  *
  * <p>This cache does not export its items as a ConcurrentMap.
  *
  * @see H2CacheFactory
  */
-public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements PersistentCache {
+public class H2CacheImpl<K, V> extends AbstractPersistentCache<K, V> {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private static final ImmutableSet<String> OLD_CLASS_NAMES =
       ImmutableSet.of("com.google.gerrit.server.change.ChangeKind");
 
-  private final Executor executor;
   private final SqlStore<K, V> store;
-  private final TypeLiteral<K> keyType;
-  private final Cache<K, ValueHolder<V>> mem;
 
   H2CacheImpl(
       Executor executor,
       SqlStore<K, V> store,
       TypeLiteral<K> keyType,
       Cache<K, ValueHolder<V>> mem) {
-    this.executor = executor;
+    super(executor, store, keyType, mem);
     this.store = store;
-    this.keyType = keyType;
-    this.mem = mem;
-  }
-
-  @Override
-  public V getIfPresent(Object objKey) {
-    if (!keyType.getRawType().isInstance(objKey)) {
-      return null;
-    }
-
-    @SuppressWarnings("unchecked")
-    K key = (K) objKey;
-
-    ValueHolder<V> h = mem.getIfPresent(key);
-    if (h != null) {
-      return h.value;
-    }
-
-    if (store.mightContain(key)) {
-      h = store.getIfPresent(key);
-      if (h != null) {
-        mem.put(key, h);
-        return h.value;
-      }
-    }
-    return null;
-  }
-
-  @Override
-  public V get(K key) throws ExecutionException {
-    if (mem instanceof LoadingCache) {
-      LoadingCache<K, ValueHolder<V>> asLoadingCache = (LoadingCache<K, ValueHolder<V>>) mem;
-      ValueHolder<V> valueHolder = asLoadingCache.get(key);
-      if (store.needsRefresh(valueHolder.created)) {
-        asLoadingCache.refresh(key);
-      }
-      return valueHolder.value;
-    }
-    throw new UnsupportedOperationException();
-  }
-
-  @Override
-  public V get(K key, Callable<? extends V> valueLoader) throws ExecutionException {
-    return mem.get(
-            key,
-            () -> {
-              if (store.mightContain(key)) {
-                ValueHolder<V> h = store.getIfPresent(key);
-                if (h != null) {
-                  return h;
-                }
-              }
-
-              ValueHolder<V> h =
-                  new ValueHolder<>(valueLoader.call(), Instant.ofEpochMilli(TimeUtil.nowMs()));
-              executor.execute(() -> store.put(key, h));
-              return h;
-            })
-        .value;
-  }
-
-  @Override
-  public void put(K key, V val) {
-    final ValueHolder<V> h = new ValueHolder<>(val, Instant.ofEpochMilli(TimeUtil.nowMs()));
-    mem.put(key, h);
-    executor.execute(() -> store.put(key, h));
-  }
-
-  @SuppressWarnings("unchecked")
-  @Override
-  public void invalidate(Object key) {
-    if (keyType.getRawType().isInstance(key) && store.mightContain((K) key)) {
-      executor.execute(() -> store.invalidate((K) key));
-    }
-    mem.invalidate(key);
-  }
-
-  @Override
-  public void invalidateAll() {
-    store.invalidateAll();
-    mem.invalidateAll();
-  }
-
-  @Override
-  public long size() {
-    return mem.size();
-  }
-
-  @Override
-  public CacheStats stats() {
-    return mem.stats();
-  }
-
-  @Override
-  public DiskStats diskStats() {
-    return store.diskStats();
   }
 
   void start() {
@@ -198,96 +106,82 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
   }
 
   void stop() {
-    for (Map.Entry<K, ValueHolder<V>> e : mem.asMap().entrySet()) {
-      ValueHolder<V> h = e.getValue();
-      if (!h.clean) {
-        store.put(e.getKey(), h);
-      }
-    }
+    store.flush();
+    persistMemory();
     store.close();
   }
 
   void prune(ScheduledExecutorService service) {
     store.prune(mem);
-
-    Calendar cal = Calendar.getInstance();
-    cal.set(Calendar.HOUR_OF_DAY, 01);
-    cal.set(Calendar.MINUTE, 0);
-    cal.set(Calendar.SECOND, 0);
-    cal.set(Calendar.MILLISECOND, 0);
-    cal.add(Calendar.DAY_OF_MONTH, 1);
-
-    long delay = cal.getTimeInMillis() - TimeUtil.nowMs();
-    @SuppressWarnings("unused")
-    Future<?> possiblyIgnoredError =
-        service.schedule(() -> prune(service), delay, TimeUnit.MILLISECONDS);
+    scheduleNightly(service, () -> prune(service));
   }
 
-  static class ValueHolder<V> {
-    final V value;
-    final Instant created;
-    volatile boolean clean;
-
-    ValueHolder(V value, Instant created) {
-      this.value = value;
-      this.created = created;
-    }
-  }
-
-  static class Loader<K, V> extends CacheLoader<K, ValueHolder<V>> {
-    private final Executor executor;
-    private final SqlStore<K, V> store;
-    private final CacheLoader<K, V> loader;
-
-    Loader(Executor executor, SqlStore<K, V> store, CacheLoader<K, V> loader) {
-      this.executor = executor;
-      this.store = store;
-      this.loader = loader;
+  static class SqlStore<K, V> implements PersistentCacheStore<K, V> {
+    /**
+     * Settings of the write-behind buffer of a store.
+     *
+     * <p>Puts and access time updates are collected in a bounded buffer, coalescing updates of the
+     * same key, and written in one transaction once {@code batchSize} of them are pending or
+     * {@code flushInterval} after the first one was buffered. Updates that don't fit into the
+     * buffer are dropped; a dropped put is retried when the cache is stopped if the value is still
+     * held in memory.
+     */
+    static class WriteBehind {
+      final String cacheName;
+      final int batchSize;
+      final int bufferSize;
+      final Duration flushInterval;
+      final ScheduledExecutorService executor;
+      final H2CacheMetrics metrics;
+
+      WriteBehind(
+          String cacheName,
+          int batchSize,
+          int bufferSize,
+          Duration flushInterval,
+          ScheduledExecutorService executor,
+          H2CacheMetrics metrics) {
+        this.cacheName = cacheName;
+        this.batchSize = batchSize;
+        this.bufferSize = bufferSize;
+        this.flushInterval = flushInterval;
+        this.executor = executor;
+        this.metrics = metrics;
+      }
     }
 
-    @Override
-    public ValueHolder<V> load(K key) throws Exception {
-      try (TraceTimer timer =
-          TraceContext.newTimer(
-              "Loading value from cache", Metadata.builder().cacheKey(key.toString()).build())) {
-        if (store.mightContain(key)) {
-          ValueHolder<V> h = store.getIfPresent(key);
-          if (h != null) {
-            return h;
-          }
-        }
-
-        final ValueHolder<V> h =
-            new ValueHolder<>(loader.load(key), Instant.ofEpochMilli(TimeUtil.nowMs()));
-        executor.execute(() -> store.put(key, h));
-        return h;
+    /**
+     * Settings for keeping the BloomFilter of a store across restarts.
+     *
+     * <p>The filter is written to {@code file} when the store is closed, and read back instead of
+     * scanning all keys in the database when the store is opened again. The file is deleted once it
+     * was read, so that a filter lacking keys written before an unclean shutdown is never used.
+     *
+     * <p>Puts add their keys to the filter, but pruned keys can't be removed from it. Once the
+     * expected false positive probability of the filter exceeds {@code maxFpp}, it is rebuilt from
+     * the database on {@code executor}. The rebuild scans the whole table, so {@code executor}
+     * must not be the executor that writes to the store.
+     */
+    static class BloomFilterSettings {
+      final String cacheName;
+      final Path file;
+      final double maxFpp;
+      final Executor executor;
+      final H2CacheMetrics metrics;
+
+      BloomFilterSettings(
+          String cacheName, Path file, double maxFpp, Executor executor, H2CacheMetrics metrics) {
+        this.cacheName = cacheName;
+        this.file = file;
+        this.maxFpp = maxFpp;
+        this.executor = executor;
+        this.metrics = metrics;
       }
     }
 
-    @Override
-    public ListenableFuture<ValueHolder<V>> reload(K key, ValueHolder<V> oldValue)
-        throws Exception {
-      ListenableFuture<V> reloadedValue = loader.reload(key, oldValue.value);
-      Futures.addCallback(
-          reloadedValue,
-          new FutureCallback<V>() {
-            @Override
-            public void onSuccess(V result) {
-              store.put(key, new ValueHolder<>(result, TimeUtil.now()));
-            }
-
-            @Override
-            public void onFailure(Throwable t) {
-              logger.atWarning().withCause(t).log("Unable to reload cache value");
-            }
-          },
-          executor);
+    /** "GBF1", written before the version of the store and the filter itself. */
+    private static final int BLOOM_FILTER_MAGIC = 0x47424631;
 
-      return Futures.transform(reloadedValue, v -> new ValueHolder<>(v, TimeUtil.now()), executor);
-    }
-  }
-
-  static class SqlStore<K, V> {
     private final String url;
     private final KeyType<K> keyType;
     private final CacheSerializer<V> valueSerializer;
@@ -299,7 +193,19 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
     private final AtomicLong hitCount = new AtomicLong();
     private final AtomicLong missCount = new AtomicLong();
     private volatile BloomFilter<K> bloomFilter;
-    private int estimatedSize;
+    private volatile int estimatedSize;
+    @Nullable private final WriteBehind writeBehind;
+    private final Map<K, ValueHolder<V>> pendingPuts = new ConcurrentHashMap<>();
+    private final Set<K> pendingTouches = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Object flushLock = new Object();
+    @Nullable private final BloomFilterSettings bloomFilterSettings;
+    private final AtomicBoolean rebuildingBloomFilter = new AtomicBoolean();
+    private final Object bloomFilterLock = new Object();
+
+    /** Keys added to the BloomFilter while it is rebuilt, guarded by {@code bloomFilterLock}. */
+    @Nullable private Set<K> keysAddedDuringRebuild;
 
     SqlStore(
         String jdbcUrl,
@@ -310,6 +216,30 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
         long maxSize,
         @Nullable Duration expireAfterWrite,
         @Nullable Duration refreshAfterWrite) {
+      this(
+          jdbcUrl,
+          keyType,
+          keySerializer,
+          valueSerializer,
+          version,
+          maxSize,
+          expireAfterWrite,
+          refreshAfterWrite,
+          null,
+          null);
+    }
+
+    SqlStore(
+        String jdbcUrl,
+        TypeLiteral<K> keyType,
+        CacheSerializer<K> keySerializer,
+        CacheSerializer<V> valueSerializer,
+        int version,
+        long maxSize,
+        @Nullable Duration expireAfterWrite,
+        @Nullable Duration refreshAfterWrite,
+        @Nullable WriteBehind writeBehind,
+        @Nullable BloomFilterSettings bloomFilterSettings) {
       this.url = jdbcUrl;
       this.keyType = createKeyType(keyType, keySerializer);
       this.valueSerializer = valueSerializer;
@@ -317,6 +247,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       this.maxSize = maxSize;
       this.expireAfterWrite = expireAfterWrite;
       this.refreshAfterWrite = refreshAfterWrite;
+      this.writeBehind = writeBehind;
+      this.bloomFilterSettings = bloomFilterSettings;
 
       int cores = Runtime.getRuntime().availableProcessors();
       int keep = Math.min(cores, 16);
@@ -334,20 +266,36 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
 
     synchronized void open() {
       if (bloomFilter == null) {
-        bloomFilter = buildBloomFilter();
+        if (bloomFilterSettings != null) {
+          bloomFilterSettings.metrics.registerBloomFilter(
+              bloomFilterSettings.cacheName, this::bloomFilterFpp);
+          bloomFilter = readBloomFilter();
+        }
+        if (bloomFilter == null) {
+          bloomFilter = buildBloomFilter();
+        }
       }
     }
 
     void close() {
+      if (bloomFilterSettings != null) {
+        bloomFilterSettings.metrics.unregisterBloomFilter(bloomFilterSettings.cacheName);
+        writeBloomFilter();
+      }
       SqlHandle h;
       while ((h = handles.poll()) != null) {
         h.close();
       }
     }
 
-    boolean mightContain(K key) {
+    @Override
+    public boolean mightContain(K key) {
       BloomFilter<K> b = bloomFilter;
       if (b == null) {
+        if (bloomFilterSettings != null) {
+          // The filter is read or built in the background by open(). Don't block on it.
+          return true;
+        }
         synchronized (this) {
           b = bloomFilter;
           if (b == null) {
@@ -359,7 +307,100 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       return b == null || b.mightContain(key);
     }
 
+    private double bloomFilterFpp() {
+      BloomFilter<K> b = bloomFilter;
+      return b != null ? b.expectedFpp() : 1;
+    }
+
+    @Nullable
+    private BloomFilter<K> readBloomFilter() {
+      Path file = bloomFilterSettings.file;
+      if (!Files.exists(file)) {
+        return null;
+      }
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+        if (in.readInt() != BLOOM_FILTER_MAGIC || in.readInt() != version) {
+          return null;
+        }
+        BloomFilter<K> b = BloomFilter.readFrom(in, keyType.funnel());
+        estimatedSize = (int) Math.min(Integer.MAX_VALUE, b.approximateElementCount());
+        return b;
+      } catch (IOException | RuntimeException e) {
+        logger.atWarning().withCause(e).log("Cannot read BloomFilter for %s from %s", url, file);
+        return null;
+      } finally {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Cannot delete %s", file);
+        }
+      }
+    }
+
+    private void writeBloomFilter() {
+      BloomFilter<K> b = bloomFilter;
+      if (b == null) {
+        return;
+      }
+      Path file = bloomFilterSettings.file;
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try {
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+          out.writeInt(BLOOM_FILTER_MAGIC);
+          out.writeInt(version);
+          b.writeTo(out);
+        }
+        Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot write BloomFilter for %s to %s", url, file);
+      }
+    }
+
+    private void maybeRebuildBloomFilter(BloomFilter<K> b) {
+      if (bloomFilterSettings == null
+          || b.expectedFpp() <= bloomFilterSettings.maxFpp
+          || !rebuildingBloomFilter.compareAndSet(false, true)) {
+        return;
+      }
+      bloomFilterSettings.executor.execute(
+          () -> {
+            try {
+              synchronized (bloomFilterLock) {
+                keysAddedDuringRebuild = new HashSet<>();
+              }
+              // Count the entries again to size the new filter.
+              estimatedSize = 0;
+              BloomFilter<K> rebuilt = buildBloomFilter();
+              synchronized (bloomFilterLock) {
+                if (rebuilt != null) {
+                  // The scan may miss rows written while it runs, and buffered puts that are
+                  // flushed after it. Their keys were added to the old filter in the meantime.
+                  keysAddedDuringRebuild.forEach(rebuilt::put);
+                  pendingPuts.keySet().forEach(rebuilt::put);
+                  bloomFilter = rebuilt;
+                }
+                keysAddedDuringRebuild = null;
+              }
+            } finally {
+              rebuildingBloomFilter.set(false);
+            }
+          });
+    }
+
     private BloomFilter<K> buildBloomFilter() {
+      if (bloomFilterSettings == null) {
+        return scanBloomFilter();
+      }
+      try (Timer1.Context<String> ignored =
+          bloomFilterSettings.metrics.bloomFilterBuildLatency.start(
+              bloomFilterSettings.cacheName)) {
+        return scanBloomFilter();
+      }
+    }
+
+    private BloomFilter<K> scanBloomFilter() {
       SqlHandle c = null;
       try {
         c = acquire();
@@ -398,6 +439,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
             throw e;
           }
         }
+        // Buffered puts are not in the database yet.
+        pendingPuts.keySet().forEach(b::put);
         return b;
       } catch (IOException | SQLException e) {
         logger.atWarning().log("Cannot build BloomFilter for %s: %s", url, e.getMessage());
@@ -408,7 +451,14 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    ValueHolder<V> getIfPresent(K key) {
+    @Override
+    public ValueHolder<V> getIfPresent(K key) {
+      ValueHolder<V> pending = pendingPuts.get(key);
+      if (pending != null) {
+        hitCount.incrementAndGet();
+        return pending;
+      }
+
       SqlHandle c = null;
       try {
         c = acquire();
@@ -438,7 +488,7 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
           ValueHolder<V> h = new ValueHolder<>(val, created.toInstant());
           h.clean = true;
           hitCount.incrementAndGet();
-          touch(c, key);
+          touchLater(c, key);
           return h;
         } finally {
           c.get.clearParameters();
@@ -471,7 +521,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       return age.compareTo(expireAfterWrite) > 0;
     }
 
-    private boolean needsRefresh(Instant created) {
+    @Override
+    public boolean needsRefresh(Instant created) {
       if (refreshAfterWrite == null) {
         return false;
       }
@@ -479,6 +530,19 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       return age.compareTo(refreshAfterWrite) > 0;
     }
 
+    private void touchLater(SqlHandle c, K key) throws IOException, SQLException {
+      if (writeBehind == null) {
+        touch(c, key);
+        return;
+      }
+      if (pendingTouches.size() >= writeBehind.bufferSize) {
+        writeBehind.metrics.writeDropped.increment(writeBehind.cacheName);
+        return;
+      }
+      pendingTouches.add(key);
+      scheduleFlush();
+    }
+
     private void touch(SqlHandle c, K key) throws IOException, SQLException {
       if (c.touch == null) {
         c.touch = c.conn.prepareStatement("UPDATE data SET accessed=? WHERE k=? AND version=?");
@@ -493,16 +557,153 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    void put(K key, ValueHolder<V> holder) {
+    /**
+     * Stores an entry in the background.
+     *
+     * <p>If write-behind is enabled, the entry is buffered and written together with other entries
+     * by {@link #flush()}; otherwise a task writing only this entry is submitted to {@code
+     * executor}.
+     */
+    @Override
+    public void putAsync(Executor executor, K key, ValueHolder<V> holder) {
+      if (writeBehind == null) {
+        executor.execute(() -> put(key, holder));
+        return;
+      }
       if (holder.clean) {
         return;
       }
+      if (pendingPuts.size() >= writeBehind.bufferSize && !pendingPuts.containsKey(key)) {
+        writeBehind.metrics.writeDropped.increment(writeBehind.cacheName);
+        return;
+      }
+      addToBloomFilter(key);
+      pendingPuts.put(key, holder);
+      scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+      if (pendingPuts.size() + pendingTouches.size() >= writeBehind.batchSize) {
+        if (flushRequested.compareAndSet(false, true)) {
+          writeBehind.executor.execute(this::flush);
+        }
+      } else if (flushScheduled.compareAndSet(false, true)) {
+        @SuppressWarnings("unused")
+        Future<?> possiblyIgnoredError =
+            writeBehind.executor.schedule(
+                this::flush, writeBehind.flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+      }
+    }
 
-      BloomFilter<K> b = bloomFilter;
-      if (b != null) {
+    /** Writes all buffered puts and access time updates to the database. */
+    void flush() {
+      if (writeBehind == null) {
+        return;
+      }
+      synchronized (flushLock) {
+        flushScheduled.set(false);
+        flushRequested.set(false);
+        while (!pendingPuts.isEmpty() || !pendingTouches.isEmpty()) {
+          Map<K, ValueHolder<V>> puts = new HashMap<>();
+          for (Iterator<Map.Entry<K, ValueHolder<V>>> i = pendingPuts.entrySet().iterator();
+              i.hasNext() && puts.size() < writeBehind.batchSize; ) {
+            Map.Entry<K, ValueHolder<V>> e = i.next();
+            if (pendingPuts.remove(e.getKey(), e.getValue())) {
+              puts.put(e.getKey(), e.getValue());
+            }
+          }
+          Set<K> touches = new HashSet<>();
+          for (Iterator<K> i = pendingTouches.iterator();
+              i.hasNext() && puts.size() + touches.size() < writeBehind.batchSize; ) {
+            K key = i.next();
+            i.remove();
+            // A put also updates the access time.
+            if (!puts.containsKey(key)) {
+              touches.add(key);
+            }
+          }
+          writeBatch(puts, touches);
+        }
+      }
+    }
+
+    private void writeBatch(Map<K, ValueHolder<V>> puts, Set<K> touches) {
+      SqlHandle c = null;
+      try (Timer1.Context<String> ignored =
+          writeBehind.metrics.writeFlushLatency.start(writeBehind.cacheName)) {
+        c = acquire();
+        if (c.put == null) {
+          c.put =
+              c.conn.prepareStatement(
+                  "MERGE INTO data (k, v, version, created, accessed) VALUES(?,?,?,?,?)");
+        }
+        if (c.touch == null) {
+          c.touch = c.conn.prepareStatement("UPDATE data SET accessed=? WHERE k=? AND version=?");
+        }
+        Timestamp now = TimeUtil.nowTs();
+        c.conn.setAutoCommit(false);
+        try {
+          for (Map.Entry<K, ValueHolder<V>> e : puts.entrySet()) {
+            keyType.set(c.put, 1, e.getKey());
+            c.put.setBytes(2, valueSerializer.serialize(e.getValue().value));
+            c.put.setInt(3, version);
+            c.put.setTimestamp(4, Timestamp.from(e.getValue().created));
+            c.put.setTimestamp(5, now);
+            c.put.addBatch();
+          }
+          for (K key : touches) {
+            c.touch.setTimestamp(1, now);
+            keyType.set(c.touch, 2, key);
+            c.touch.setInt(3, version);
+            c.touch.addBatch();
+          }
+          c.put.executeBatch();
+          c.touch.executeBatch();
+          c.conn.commit();
+          puts.values().forEach(h -> h.clean = true);
+          // A rebuild may have scanned the table before this commit.
+          puts.keySet().forEach(this::addToBloomFilter);
+        } catch (IOException | SQLException e) {
+          c.conn.rollback();
+          throw e;
+        } finally {
+          c.put.clearBatch();
+          c.touch.clearBatch();
+          c.conn.setAutoCommit(true);
+        }
+      } catch (IOException | SQLException e) {
+        logger.atWarning().withCause(e).log(
+            "Cannot write %d entries to cache %s", puts.size() + touches.size(), url);
+        c = close(c);
+      } finally {
+        release(c);
+      }
+      writeBehind.metrics.writeBatchSize.record(
+          writeBehind.cacheName, puts.size() + touches.size());
+    }
+
+    private void addToBloomFilter(K key) {
+      BloomFilter<K> b;
+      synchronized (bloomFilterLock) {
+        b = bloomFilter;
+        if (b == null) {
+          return;
+        }
         b.put(key);
-        bloomFilter = b;
+        if (keysAddedDuringRebuild != null) {
+          keysAddedDuringRebuild.add(key);
+        }
       }
+      maybeRebuildBloomFilter(b);
+    }
+
+    @Override
+    public void put(K key, ValueHolder<V> holder) {
+      if (holder.clean) {
+        return;
+      }
+
+      addToBloomFilter(key);
 
       SqlHandle c = null;
       try {
@@ -520,6 +721,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
           c.put.setTimestamp(5, TimeUtil.nowTs());
           c.put.executeUpdate();
           holder.clean = true;
+          // A rebuild may have scanned the table before this update.
+          addToBloomFilter(key);
         } finally {
           c.put.clearParameters();
         }
@@ -531,7 +734,10 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    void invalidate(K key) {
+    @Override
+    public void invalidate(K key) {
+      pendingPuts.remove(key);
+      pendingTouches.remove(key);
       SqlHandle c = null;
       try {
         c = acquire();
@@ -557,7 +763,10 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    void invalidateAll() {
+    @Override
+    public void invalidateAll() {
+      pendingPuts.clear();
+      pendingTouches.clear();
       SqlHandle c = null;
       try {
         c = acquire();
@@ -619,7 +828,8 @@ public class H2CacheImpl<K, V> extends AbstractLoadingCache<K, V> implements Per
       }
     }
 
-    DiskStats diskStats() {
+    @Override
+    public DiskStats diskStats() {
       long size = 0;
       long space = 0;
       SqlHandle c = null;
@@ -0,0 +1,109 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.h2;
+
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
+/** Metrics of the H2 backed persistent caches. */
+@Singleton
+class H2CacheMetrics {
+  private static final Field<String> F_NAME =
+      Field.ofString("cache_name", Metadata.Builder::cacheName).build();
+
+  /** Number of entries written to the database by one flush of the write-behind buffer. */
+  final Histogram1<String> writeBatchSize;
+
+  /** Latency of writing one batch of the write-behind buffer to the database. */
+  final Timer1<String> writeFlushLatency;
+
+  /** Puts and access time updates dropped because the write-behind buffer was full. */
+  final Counter1<String> writeDropped;
+
+  /** Latency of building the BloomFilter of a cache from the keys in its database. */
+  final Timer1<String> bloomFilterBuildLatency;
+
+  private final Map<String, DoubleSupplier> bloomFilterFpp = new ConcurrentHashMap<>();
+
+  @Inject
+  H2CacheMetrics(MetricMaker metrics) {
+    writeBatchSize =
+        metrics.newHistogram(
+            "caches/disk/write_batch_size",
+            new Description("Number of entries written to a persistent cache in one batch")
+                .setCumulative()
+                .setUnit("entries"),
+            F_NAME);
+    writeFlushLatency =
+        metrics.newTimer(
+            "caches/disk/write_flush_latency",
+            new Description("Latency of writing one batch of entries to a persistent cache")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            F_NAME);
+    writeDropped =
+        metrics.newCounter(
+            "caches/disk/write_dropped",
+            new Description(
+                    "Puts and access time updates dropped because the write buffer of a"
+                        + " persistent cache was full")
+                .setRate()
+                .setUnit("entries"),
+            F_NAME);
+    bloomFilterBuildLatency =
+        metrics.newTimer(
+            "caches/disk/bloom_filter_build_latency",
+            new Description("Latency of building the BloomFilter of a persistent cache")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            F_NAME);
+
+    CallbackMetric1<String, Double> fpp =
+        metrics.newCallbackMetric(
+            "caches/disk/bloom_filter_fpp",
+            Double.class,
+            new Description(
+                    "Expected false positive probability of the BloomFilter of a persistent cache")
+                .setGauge()
+                .setUnit("probability"),
+            F_NAME);
+    metrics.newTrigger(
+        fpp,
+        () -> {
+          bloomFilterFpp.forEach((name, f) -> fpp.set(name, f.getAsDouble()));
+          fpp.prune();
+        });
+  }
+
+  void registerBloomFilter(String cacheName, DoubleSupplier fpp) {
+    bloomFilterFpp.put(cacheName, fpp);
+  }
+
+  void unregisterBloomFilter(String cacheName) {
+    bloomFilterFpp.remove(cacheName);
+  }
+}
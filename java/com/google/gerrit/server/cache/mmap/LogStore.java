@@ -0,0 +1,680 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Comparator.comparingLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
+import com.google.gerrit.server.cache.PersistentCache.DiskStats;
+import com.google.gerrit.server.cache.PersistentCacheStore;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.protobuf.ByteString;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only key/value log backing a {@link MmapCacheImpl}.
+ *
+ * <p>Every put and invalidation appends a checksummed record to a single file per cache. An
+ * in-memory index maps each serialized key to the location of its latest record, so lookups of
+ * missing keys never touch the disk and hits are served from read-only memory mappings of the
+ * file. The index is rebuilt by scanning the log when the store is opened; a torn or corrupt tail
+ * left behind by a crash is truncated.
+ *
+ * <p>Records carry the {@link com.google.gerrit.server.cache.PersistentCacheDef#version()} they
+ * were written with. Records of other versions are ignored on open and dropped by {@link
+ * #compact(Cache)}, which rewrites the live entries into a new file and atomically replaces the
+ * old one. Compaction also evicts the least recently accessed entries until the live data fits
+ * into the disk limit. Access times that changed since they were last written are appended as
+ * records when the store is closed, so that they survive restarts.
+ *
+ * <p>The index is kept on the heap. Each entry costs about 130 bytes plus the length of its
+ * serialized key, so 1 million entries with keys of 50 bytes take about 180 MiB.
+ */
+class LogStore<K, V> implements PersistentCacheStore<K, V> {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** "GCKV", followed by the format version. */
+  private static final int MAGIC = 0x47434b56;
+
+  private static final int FORMAT_VERSION = 2;
+  private static final int FILE_HEADER_SIZE = 8;
+
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+  private static final byte ACCESS = 3;
+
+  /** Type (1), version (4), created (8), key length (4) and value length (4). */
+  private static final int RECORD_HEADER_SIZE = 21;
+
+  /** CRC32 of the record header, key and value. */
+  private static final int RECORD_TRAILER_SIZE = 4;
+
+  static final int DEFAULT_REGION_SIZE = 64 << 20;
+
+  private final Path path;
+  private final CacheSerializer<K> keySerializer;
+  private final CacheSerializer<V> valueSerializer;
+  private final int version;
+  private final long maxSize;
+  private final int regionSize;
+  @Nullable private final Duration expireAfterWrite;
+  @Nullable private final Duration refreshAfterWrite;
+  private final Map<ByteString, Location> index = new ConcurrentHashMap<>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final Object writeLock = new Object();
+  private volatile Segment segment;
+
+  // Total size of the records referenced by the index, guarded by writeLock.
+  private long liveBytes;
+
+  LogStore(
+      Path path,
+      CacheSerializer<K> keySerializer,
+      CacheSerializer<V> valueSerializer,
+      int version,
+      long maxSize,
+      int regionSize,
+      @Nullable Duration expireAfterWrite,
+      @Nullable Duration refreshAfterWrite) {
+    this.path = path;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+    this.version = version;
+    this.maxSize = maxSize;
+    this.regionSize = regionSize;
+    this.expireAfterWrite = expireAfterWrite;
+    this.refreshAfterWrite = refreshAfterWrite;
+  }
+
+  void open() {
+    segment();
+  }
+
+  void close() {
+    synchronized (writeLock) {
+      Segment s = segment;
+      if (s != null) {
+        writeAccessTimes(s);
+        s.close(path);
+        segment = null;
+        index.clear();
+        liveBytes = 0;
+      }
+    }
+  }
+
+  @Override
+  public boolean mightContain(K key) {
+    return segment() == null || index.containsKey(toBytes(key));
+  }
+
+  @Override
+  @Nullable
+  public ValueHolder<V> getIfPresent(K key) {
+    if (segment() == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    ByteString k = toBytes(key);
+    Location loc = index.get(k);
+    if (loc == null) {
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    Instant created = Instant.ofEpochMilli(loc.created);
+    if (expired(created)) {
+      invalidate(key);
+      missCount.incrementAndGet();
+      return null;
+    }
+
+    try {
+      Record r = loc.segment.readRecord(loc.offset, loc.length);
+      if (r == null || r.type != PUT || !r.key.equals(k)) {
+        logger.atWarning().log("Corrupt record for %s in cache %s", key, path);
+        index.remove(k, loc);
+        missCount.incrementAndGet();
+        return null;
+      }
+      ValueHolder<V> h = new ValueHolder<>(valueSerializer.deserialize(r.value), created);
+      h.clean = true;
+      loc.accessed = TimeUtil.nowMs();
+      loc.accessWritten = false;
+      hitCount.incrementAndGet();
+      return h;
+    } catch (IOException e) {
+      // Includes reads racing with compaction that closed the previous file.
+      logger.atWarning().withCause(e).log("Cannot read cache %s for %s", path, key);
+      missCount.incrementAndGet();
+      return null;
+    }
+  }
+
+  @Override
+  public boolean needsRefresh(Instant created) {
+    if (refreshAfterWrite == null) {
+      return false;
+    }
+    Duration age = Duration.between(created, TimeUtil.now());
+    return age.compareTo(refreshAfterWrite) > 0;
+  }
+
+  private boolean expired(Instant created) {
+    if (expireAfterWrite == null) {
+      return false;
+    }
+    Duration age = Duration.between(created, TimeUtil.now());
+    return age.compareTo(expireAfterWrite) > 0;
+  }
+
+  @Override
+  public void put(K key, ValueHolder<V> holder) {
+    if (holder.clean) {
+      return;
+    }
+
+    byte[] k = keySerializer.serialize(key);
+    long created = holder.created.toEpochMilli();
+    ByteBuffer record = encode(PUT, version, created, k, valueSerializer.serialize(holder.value));
+    synchronized (writeLock) {
+      Segment s = segment();
+      if (s == null) {
+        return;
+      }
+      try {
+        long offset = s.append(record);
+        Location old =
+            index.put(ByteString.copyFrom(k), new Location(s, offset, record.limit(), created));
+        liveBytes += record.limit() - (old != null ? old.length : 0);
+        holder.clean = true;
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot put into cache %s", path);
+      }
+    }
+  }
+
+  @Override
+  public void invalidate(K key) {
+    byte[] k = keySerializer.serialize(key);
+    synchronized (writeLock) {
+      Segment s = segment();
+      if (s == null) {
+        return;
+      }
+      Location old = index.remove(ByteString.copyFrom(k));
+      if (old == null) {
+        return;
+      }
+      liveBytes -= old.length;
+      try {
+        s.append(encode(DELETE, version, TimeUtil.nowMs(), k, new byte[0]));
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot invalidate cache %s", path);
+      }
+    }
+  }
+
+  @Override
+  public void invalidateAll() {
+    synchronized (writeLock) {
+      index.clear();
+      liveBytes = 0;
+      try {
+        rewrite();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot invalidate cache %s", path);
+      }
+    }
+  }
+
+  /**
+   * Rewrites the log to contain only the live entries.
+   *
+   * <p>Expired entries are dropped, and if the live entries exceed the disk limit, the least
+   * recently accessed entries that are not present in the in-memory cache are dropped as well.
+   *
+   * @param mem in-memory cache in front of this store.
+   */
+  void compact(Cache<K, ?> mem) {
+    synchronized (writeLock) {
+      Segment s = segment();
+      if (s == null) {
+        return;
+      }
+
+      int expired = 0;
+      for (Map.Entry<ByteString, Location> e : index.entrySet()) {
+        if (expired(Instant.ofEpochMilli(e.getValue().created))) {
+          index.remove(e.getKey());
+          liveBytes -= e.getValue().length;
+          expired++;
+        }
+      }
+
+      int evicted = 0;
+      if (liveBytes > maxSize) {
+        List<Map.Entry<ByteString, Location>> entries = new ArrayList<>(index.entrySet());
+        entries.sort(comparingLong(e -> e.getValue().accessed));
+        for (Map.Entry<ByteString, Location> e : entries) {
+          if (liveBytes <= maxSize) {
+            break;
+          }
+          if (mem.getIfPresent(keySerializer.deserialize(e.getKey().toByteArray())) != null) {
+            continue;
+          }
+          index.remove(e.getKey());
+          liveBytes -= e.getValue().length;
+          evicted++;
+        }
+      }
+
+      long garbage = s.end - FILE_HEADER_SIZE - liveBytes;
+      if (garbage <= 0) {
+        return;
+      }
+      try {
+        rewrite();
+        logger.atInfo().log(
+            "Compacted cache %s: dropped %d expired and %d evicted entries, reclaimed %d bytes",
+            path, expired, evicted, garbage);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot compact cache %s", path);
+      }
+    }
+  }
+
+  @Override
+  public DiskStats diskStats() {
+    Segment s = segment;
+    return new DiskStats(index.size(), s != null ? s.end : 0, hitCount.get(), missCount.get());
+  }
+
+  @VisibleForTesting
+  long liveBytes() {
+    synchronized (writeLock) {
+      return liveBytes;
+    }
+  }
+
+  @Nullable
+  private Segment segment() {
+    Segment s = segment;
+    if (s == null) {
+      synchronized (writeLock) {
+        s = segment;
+        if (s == null) {
+          try {
+            s = load();
+            segment = s;
+          } catch (IOException e) {
+            logger.atWarning().withCause(e).log("Cannot open cache %s", path);
+          }
+        }
+      }
+    }
+    return s;
+  }
+
+  /** Opens the log and rebuilds the index from it. Must be called holding {@code writeLock}. */
+  private Segment load() throws IOException {
+    FileChannel ch = FileChannel.open(path, CREATE, READ, WRITE);
+    try {
+      long size = ch.size();
+      if (!hasValidHeader(ch)) {
+        if (size > 0) {
+          logger.atWarning().log("Cache file %s has an unknown format, flushing it", path);
+        }
+        ch.truncate(0);
+        writeHeader(ch);
+        return new Segment(ch, regionSize, FILE_HEADER_SIZE);
+      }
+
+      Segment s = new Segment(ch, regionSize, size);
+      long pos = FILE_HEADER_SIZE;
+      int stale = 0;
+      while (pos < size) {
+        Record r = s.readRecord(pos, size - pos);
+        if (r == null) {
+          logger.atWarning().log(
+              "Truncating cache file %s from %d to %d bytes after a corrupt record",
+              path, size, pos);
+          s.truncate(pos);
+          break;
+        }
+        if (r.version != version) {
+          stale++;
+        } else if (r.type == PUT) {
+          Location old = index.put(r.key, new Location(s, pos, r.length, r.created));
+          liveBytes += r.length - (old != null ? old.length : 0);
+        } else if (r.type == ACCESS) {
+          Location loc = index.get(r.key);
+          if (loc != null) {
+            loc.accessed = r.created;
+          }
+        } else {
+          Location old = index.remove(r.key);
+          liveBytes -= old != null ? old.length : 0;
+        }
+        pos += r.length;
+      }
+      if (stale > 0) {
+        logger.atInfo().log(
+            "Ignoring %d records not matching version %d in cache %s", stale, version, path);
+      }
+      return s;
+    } catch (IOException | RuntimeException e) {
+      ch.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Writes all entries of the index to a new file, replaces the current file with it and points
+   * the index to the new file. Must be called holding {@code writeLock}.
+   *
+   * <p>Readers that looked up a location before the swap keep reading from the previous file until
+   * it is closed at the end of this method.
+   */
+  private void rewrite() throws IOException {
+    Segment old = segment;
+    Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+    Map<ByteString, Location> live = new HashMap<>(index);
+    Map<ByteString, Long> offsets = new HashMap<>(live.size());
+    long pos = FILE_HEADER_SIZE;
+    try (FileChannel out = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+      writeHeader(out);
+      for (Map.Entry<ByteString, Location> e : live.entrySet()) {
+        Location loc = e.getValue();
+        writeFully(out, ByteBuffer.wrap(loc.segment.read(loc.offset, loc.length)), pos);
+        offsets.put(e.getKey(), pos);
+        pos += loc.length;
+      }
+      out.force(true);
+    }
+    Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+
+    Segment s = new Segment(FileChannel.open(path, READ, WRITE), regionSize, pos);
+    for (Map.Entry<ByteString, Location> e : live.entrySet()) {
+      Location loc = e.getValue();
+      Location moved = new Location(s, offsets.get(e.getKey()), loc.length, loc.created);
+      moved.accessed = loc.accessed;
+      // The new file only holds the time of creation.
+      moved.accessWritten = loc.accessed == loc.created;
+      // Readers may have dropped a corrupt entry in the meantime.
+      index.replace(e.getKey(), loc, moved);
+    }
+    segment = s;
+    if (old != null) {
+      old.close(path);
+    }
+  }
+
+  /**
+   * Appends the access times that are not written to the log yet. Must be called holding {@code
+   * writeLock}.
+   */
+  private void writeAccessTimes(Segment s) {
+    int written = 0;
+    try {
+      for (Map.Entry<ByteString, Location> e : index.entrySet()) {
+        Location loc = e.getValue();
+        if (!loc.accessWritten && loc.segment == s) {
+          s.append(encode(ACCESS, version, loc.accessed, e.getKey().toByteArray(), new byte[0]));
+          loc.accessWritten = true;
+          written++;
+        }
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot write access times of cache %s", path);
+    }
+    logger.atFine().log("Wrote %d access times of cache %s", written, path);
+  }
+
+  private ByteString toBytes(K key) {
+    return ByteString.copyFrom(keySerializer.serialize(key));
+  }
+
+  private static boolean hasValidHeader(FileChannel ch) throws IOException {
+    if (ch.size() < FILE_HEADER_SIZE) {
+      return false;
+    }
+    ByteBuffer b = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    readFully(ch, b, 0);
+    b.flip();
+    return b.getInt() == MAGIC && b.getInt() == FORMAT_VERSION;
+  }
+
+  private static void writeHeader(FileChannel ch) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    b.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+    writeFully(ch, b, 0);
+  }
+
+  private static ByteBuffer encode(byte type, int version, long created, byte[] k, byte[] v) {
+    int length = RECORD_HEADER_SIZE + k.length + v.length + RECORD_TRAILER_SIZE;
+    ByteBuffer b = ByteBuffer.allocate(length);
+    b.put(type).putInt(version).putLong(created).putInt(k.length).putInt(v.length).put(k).put(v);
+    CRC32 crc = new CRC32();
+    crc.update(b.array(), 0, length - RECORD_TRAILER_SIZE);
+    b.putInt((int) crc.getValue());
+    b.flip();
+    return b;
+  }
+
+  private static void readFully(FileChannel ch, ByteBuffer dst, long pos) throws IOException {
+    while (dst.hasRemaining()) {
+      int n = ch.read(dst, pos);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      pos += n;
+    }
+  }
+
+  private static void writeFully(FileChannel ch, ByteBuffer src, long pos) throws IOException {
+    while (src.hasRemaining()) {
+      pos += ch.write(src, pos);
+    }
+  }
+
+  /** Location of the latest record of a key. */
+  private static class Location {
+    final Segment segment;
+    final long offset;
+    final int length;
+    final long created;
+    volatile long accessed;
+
+    /** Whether {@link #accessed} is written to the log. */
+    volatile boolean accessWritten = true;
+
+    Location(Segment segment, long offset, int length, long created) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+      this.created = created;
+      this.accessed = created;
+    }
+  }
+
+  /** A decoded record. */
+  private static class Record {
+    final byte type;
+    final int version;
+    final long created;
+    final ByteString key;
+    final byte[] value;
+    final int length;
+
+    Record(byte type, int version, long created, ByteString key, byte[] value, int length) {
+      this.type = type;
+      this.version = version;
+      this.created = created;
+      this.key = key;
+      this.value = value;
+      this.length = length;
+    }
+  }
+
+  /**
+   * An open log file.
+   *
+   * <p>The file is mapped in read-only regions of {@code regionSize} bytes once it has grown past
+   * the end of a region. Records in the last, partially written region or spanning two regions
+   * are read with positional reads instead.
+   */
+  private static class Segment {
+    final FileChannel channel;
+    final int regionSize;
+    volatile long end;
+    private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+
+    Segment(FileChannel channel, int regionSize, long end) {
+      this.channel = channel;
+      this.regionSize = regionSize;
+      this.end = end;
+    }
+
+    /** Appends a record. Must be called holding the write lock of the store. */
+    long append(ByteBuffer record) throws IOException {
+      long offset = end;
+      writeFully(channel, record.duplicate(), offset);
+      end = offset + record.limit();
+      return offset;
+    }
+
+    /** Drops a corrupt tail of the file. Must be called before the segment is shared. */
+    void truncate(long size) throws IOException {
+      channel.truncate(size);
+      end = size;
+      regions = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Reads and verifies the record at the given offset.
+     *
+     * @return the record, or null if it is truncated or corrupt.
+     */
+    @Nullable
+    Record readRecord(long offset, long maxLength) throws IOException {
+      if (maxLength < RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE) {
+        return null;
+      }
+      ByteBuffer h = ByteBuffer.wrap(read(offset, RECORD_HEADER_SIZE));
+      byte type = h.get();
+      int version = h.getInt();
+      long created = h.getLong();
+      int keyLength = h.getInt();
+      int valueLength = h.getInt();
+      long length = (long) RECORD_HEADER_SIZE + keyLength + valueLength + RECORD_TRAILER_SIZE;
+      if ((type != PUT && type != DELETE && type != ACCESS)
+          || keyLength < 0
+          || valueLength < 0
+          || length > maxLength
+          || length > Integer.MAX_VALUE) {
+        return null;
+      }
+
+      byte[] data = read(offset, (int) length);
+      CRC32 crc = new CRC32();
+      crc.update(data, 0, data.length - RECORD_TRAILER_SIZE);
+      if ((int) crc.getValue() != ByteBuffer.wrap(data).getInt(data.length - RECORD_TRAILER_SIZE)) {
+        return null;
+      }
+      ByteString key = ByteString.copyFrom(data, RECORD_HEADER_SIZE, keyLength);
+      byte[] value =
+          Arrays.copyOfRange(
+              data, RECORD_HEADER_SIZE + keyLength, RECORD_HEADER_SIZE + keyLength + valueLength);
+      return new Record(type, version, created, key, value, (int) length);
+    }
+
+    byte[] read(long offset, int length) throws IOException {
+      byte[] dst = new byte[length];
+      int r = (int) (offset / regionSize);
+      int off = (int) (offset % regionSize);
+      if (off + length <= regionSize) {
+        MappedByteBuffer region = region(r);
+        if (region != null) {
+          ByteBuffer b = region.duplicate();
+          b.position(off);
+          b.get(dst);
+          return dst;
+        }
+      }
+      readFully(channel, ByteBuffer.wrap(dst), offset);
+      return dst;
+    }
+
+    @Nullable
+    private MappedByteBuffer region(int r) throws IOException {
+      MappedByteBuffer[] current = regions;
+      if (r < current.length && current[r] != null) {
+        return current[r];
+      }
+      if ((long) (r + 1) * regionSize > end) {
+        return null;
+      }
+      synchronized (this) {
+        current = regions;
+        if (r >= current.length || current[r] == null) {
+          MappedByteBuffer[] grown = Arrays.copyOf(current, Math.max(current.length, r + 1));
+          grown[r] = channel.map(MapMode.READ_ONLY, (long) r * regionSize, regionSize);
+          regions = grown;
+          return grown[r];
+        }
+        return current[r];
+      }
+    }
+
+    void close(Path path) {
+      try {
+        channel.force(true);
+        channel.close();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot close cache file %s", path);
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import com.google.common.cache.Cache;
+import com.google.gerrit.server.cache.AbstractPersistentCache;
+import com.google.inject.TypeLiteral;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Hybrid in-memory and disk backed cache built on an append-only, memory-mapped log.
+ *
+ * <p>This cache behaves like the H2 based {@code H2CacheImpl}: the in-memory cache is checked
+ * first, then the {@link LogStore}, and finally the CacheLoader, if any. Cache stores and
+ * invalidations are performed on a background thread.
+ *
+ * <p>Unlike the H2 backend, the store keeps an exact in-memory index of the keys on disk, so no
+ * BloomFilter is needed, and reads of persisted values do not go through SQL and JDBC.
+ *
+ * <p>This cache does not export its items as a ConcurrentMap.
+ *
+ * @see MmapCacheFactory
+ */
+public class MmapCacheImpl<K, V> extends AbstractPersistentCache<K, V> {
+  private final LogStore<K, V> store;
+
+  MmapCacheImpl(
+      Executor executor,
+      LogStore<K, V> store,
+      TypeLiteral<K> keyType,
+      Cache<K, ValueHolder<V>> mem) {
+    super(executor, store, keyType, mem);
+    this.store = store;
+  }
+
+  void start() {
+    store.open();
+  }
+
+  void stop() {
+    persistMemory();
+    store.close();
+  }
+
+  void compact(ScheduledExecutorService service) {
+    store.compact(mem);
+    scheduleNightly(service, () -> compact(service));
+  }
+}
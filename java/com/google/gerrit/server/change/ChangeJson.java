@@ -39,6 +39,7 @@ import static java.util.stream.Collectors.toList;
 import com.google.common.base.Joiner;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
@@ -72,8 +73,10 @@ import com.google.gerrit.extensions.common.RevisionInfo;
 import com.google.gerrit.extensions.common.SubmitRequirementInfo;
 import com.google.gerrit.extensions.common.TrackingIdInfo;
 import com.google.gerrit.extensions.restapi.Url;
+import com.google.gerrit.index.RefState;
 import com.google.gerrit.index.query.QueryResult;
 import com.google.gerrit.mail.Address;
+import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
 import com.google.gerrit.metrics.MetricMaker;
@@ -89,7 +92,10 @@ import com.google.gerrit.server.account.AccountInfoComparator;
 import com.google.gerrit.server.account.AccountLoader;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.TrackingFooters;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.index.StalenessCheckResult;
 import com.google.gerrit.server.index.change.ChangeField;
+import com.google.gerrit.server.index.change.StalenessChecker;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.ReviewerStateInternal;
 import com.google.gerrit.server.patch.PatchListNotAvailableException;
@@ -100,6 +106,7 @@ import com.google.gerrit.server.project.RemoveReviewerControl;
 import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeData.ChangedLines;
+import com.google.gerrit.server.query.change.ChangeNotesBatchLoader;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
@@ -110,6 +117,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -181,6 +189,8 @@ public class ChangeJson {
     private final Timer0 toChangeInfoLatency;
     private final Timer0 toChangeInfosLatency;
     private final Timer0 formatQueryResultsLatency;
+    private final Counter0 submitRuleEvaluationsAvoided;
+    private final Counter0 staleIndexedSubmitRecords;
 
     @Inject
     Metrics(MetricMaker metricMaker) {
@@ -202,6 +212,20 @@ public class ChangeJson {
               new Description("Latency for formatQueryResults invocations in ChangeJson")
                   .setCumulative()
                   .setUnit(Units.MILLISECONDS));
+      submitRuleEvaluationsAvoided =
+          metricMaker.newCounter(
+              "change/submit_rule_evaluations_avoided",
+              new Description("Submit rule evaluations saved by submit records read from the index")
+                  .setRate()
+                  .setUnit("evaluations"));
+      staleIndexedSubmitRecords =
+          metricMaker.newCounter(
+              "change/stale_indexed_submit_records",
+              new Description(
+                      "Changes whose submit records read from the index were dropped because the"
+                          + " index document is stale")
+                  .setRate()
+                  .setUnit("changes"));
     }
   }
 
@@ -214,6 +238,8 @@ public class ChangeJson {
   private final Provider<ConsistencyChecker> checkerProvider;
   private final ActionJson actionJson;
   private final ChangeNotes.Factory notesFactory;
+  private final ChangeNotesBatchLoader notesLoader;
+  private final GitRepositoryManager repoManager;
   private final LabelsJson labelsJson;
   private final RemoveReviewerControl removeReviewerControl;
   private final TrackingFooters trackingFooters;
@@ -221,10 +247,13 @@ public class ChangeJson {
   private final RevisionJson revisionJson;
   private final Optional<PluginDefinedAttributesFactory> pluginDefinedAttributesFactory;
   private final boolean includeMergeable;
+  private final boolean verifyIndexedSubmitRecords;
   private final boolean lazyLoad;
 
   private AccountLoader accountLoader;
   private FixInput fix;
+  /** Changes whose submit records read from the index were already checked. */
+  private final Set<Change.Id> checkedSubmitRecords = new HashSet<>();
 
   @Inject
   ChangeJson(
@@ -236,6 +265,8 @@ public class ChangeJson {
       Provider<ConsistencyChecker> checkerProvider,
       ActionJson actionJson,
       ChangeNotes.Factory notesFactory,
+      ChangeNotesBatchLoader notesLoader,
+      GitRepositoryManager repoManager,
       LabelsJson.Factory labelsJsonFactory,
       RemoveReviewerControl removeReviewerControl,
       TrackingFooters trackingFooters,
@@ -252,6 +283,8 @@ public class ChangeJson {
     this.checkerProvider = checkerProvider;
     this.actionJson = actionJson;
     this.notesFactory = notesFactory;
+    this.notesLoader = notesLoader;
+    this.repoManager = repoManager;
     this.labelsJson = labelsJsonFactory.create(options);
     this.removeReviewerControl = removeReviewerControl;
     this.trackingFooters = trackingFooters;
@@ -259,6 +292,8 @@ public class ChangeJson {
     this.revisionJson = revisionJsonFactory.create(options);
     this.options = Sets.immutableEnumSet(options);
     this.includeMergeable = MergeabilityComputationBehavior.fromConfig(cfg).includeInApi();
+    this.verifyIndexedSubmitRecords =
+        cfg.getBoolean("change", null, "verifyIndexedSubmitRecords", false);
     this.lazyLoad = containsAnyOf(this.options, REQUIRE_LAZY_LOAD);
     this.pluginDefinedAttributesFactory = pluginDefinedAttributesFactory;
 
@@ -382,6 +417,7 @@ public class ChangeJson {
 
   private void ensureLoaded(Iterable<ChangeData> all) {
     if (lazyLoad) {
+      notesLoader.load(all);
       ChangeData.ensureChangeLoaded(all);
       if (has(ALL_REVISIONS)) {
         ChangeData.ensureAllPatchSetsLoaded(all);
@@ -399,6 +435,53 @@ public class ChangeJson {
     }
   }
 
+  /**
+   * Counts the submit rule evaluations that submit records read from the index save, once per
+   * change.
+   *
+   * <p>Strict records are always used, for the submit requirements. Lenient records are only used
+   * for labels; for open changes they are the strict ones.
+   *
+   * <p>If {@code change.verifyIndexedSubmitRecords} is set, records are only kept if the ref states
+   * stored in the index document still match the repositories. Records of stale changes are
+   * dropped, so that the submit rules are evaluated again.
+   */
+  private void checkIndexedSubmitRecords(ChangeData cd) {
+    if (cd.getRefStates() == null || !checkedSubmitRecords.add(cd.getId())) {
+      // Not read from the index, or already checked.
+      return;
+    }
+    List<SubmitRecord> strict = cd.getSubmitRecords(SUBMIT_RULE_OPTIONS_STRICT);
+    List<SubmitRecord> lenient =
+        has(LABELS) || has(DETAILED_LABELS)
+            ? cd.getSubmitRecords(SUBMIT_RULE_OPTIONS_LENIENT)
+            : null;
+    int avoided = (strict != null ? 1 : 0) + (lenient != null && lenient != strict ? 1 : 0);
+    if (avoided == 0) {
+      return;
+    }
+    if (verifyIndexedSubmitRecords && isStale(cd)) {
+      cd.clearSubmitRecords();
+      metrics.staleIndexedSubmitRecords.increment();
+    } else {
+      metrics.submitRuleEvaluationsAvoided.incrementBy(avoided);
+    }
+  }
+
+  private boolean isStale(ChangeData cd) {
+    StalenessCheckResult result =
+        StalenessChecker.check(
+            repoManager,
+            cd.getId(),
+            RefState.parseStates(cd.getRefStates()),
+            StalenessChecker.parsePatterns(
+                cd.getRefStatePatterns() != null ? cd.getRefStatePatterns() : ImmutableList.of()));
+    if (result.isStale()) {
+      logger.atFine().log("Not using submit records from index: %s", result.reason().orElse(""));
+    }
+    return result.isStale();
+  }
+
   private boolean has(ListChangesOption option) {
     return options.contains(option);
   }
@@ -406,6 +489,9 @@ public class ChangeJson {
   private List<ChangeInfo> toChangeInfos(
       List<ChangeData> changes, Map<Change.Id, ChangeInfo> cache) {
     try (Timer0.Context ignored = metrics.toChangeInfosLatency.start()) {
+      if (lazyLoad) {
+        notesLoader.load(changes);
+      }
       List<ChangeInfo> changeInfos = new ArrayList<>(changes.size());
       for (int i = 0; i < changes.size(); i++) {
         // We can only cache and re-use an entity if it's not the last in the list. The last entity
@@ -503,6 +589,7 @@ public class ChangeJson {
       }
     }
 
+    checkIndexedSubmitRecords(cd);
     Change in = cd.change();
     out.project = in.getProject().get();
     out.branch = in.getDest().shortName();
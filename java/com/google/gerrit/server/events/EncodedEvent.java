@@ -0,0 +1,76 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link Event} together with its JSON encoding in the {@link EventGson} format.
+ *
+ * <p>The event is encoded lazily and at most once, no matter to how many listeners it is delivered.
+ * The encoded bytes are never handed out, so a single instance can safely be shared by all
+ * listeners and the threads writing it to clients.
+ */
+public final class EncodedEvent {
+  /** Creates an encoded event that is not shared with other listeners. */
+  public static EncodedEvent create(Event event, Gson gson) {
+    return new EncodedEvent(event, gson, null);
+  }
+
+  private final Event event;
+  private final Supplier<byte[]> json;
+
+  EncodedEvent(Event event, Gson gson, @Nullable Timer1<String> encodeLatency) {
+    this.event = event;
+    this.json =
+        Suppliers.memoize(
+            () -> {
+              if (encodeLatency == null) {
+                return encode(gson, event);
+              }
+              try (Timer1.Context<String> ignored = encodeLatency.start(event.getType())) {
+                return encode(gson, event);
+              }
+            });
+  }
+
+  private static byte[] encode(Gson gson, Event event) {
+    return (gson.toJson(event) + "\n").getBytes(UTF_8);
+  }
+
+  public Event getEvent() {
+    return event;
+  }
+
+  /**
+   * Writes the JSON encoding of the event, terminated by a newline, to the given stream.
+   *
+   * <p>The event is encoded on the first call of this method on any thread.
+   *
+   * @param out stream to write the event to.
+   * @throws IOException if writing to the stream failed.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(json.get());
+  }
+}
@@ -0,0 +1,28 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+/**
+ * A {@link UserScopedEventListener} that receives events together with their shared JSON encoding.
+ *
+ * <p>Listeners that send events to clients in the {@link EventGson} format should implement this
+ * interface, so that each event is encoded only once, no matter how many listeners receive it.
+ *
+ * <p>{@link EventBroker} delivers events to {@link #onEvent(EncodedEvent)}. Dispatchers that don't
+ * know about this interface still call {@link #onEvent(Event)}.
+ */
+public interface EncodedEventListener extends UserScopedEventListener {
+  void onEvent(EncodedEvent event);
+}
@@ -23,8 +23,15 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.config.GerritInstanceId;
+import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
@@ -56,6 +63,34 @@ public class EventBroker implements EventDispatcher {
     }
   }
 
+  @Singleton
+  public static class Metrics {
+    final Timer1<String> encodeLatency;
+    final Timer1<String> fanOutLatency;
+
+    @Inject
+    public Metrics(MetricMaker metricMaker) {
+      Field<String> typeField =
+          Field.ofString("type", Metadata.Builder::eventType).description("event type").build();
+      encodeLatency =
+          metricMaker.newTimer(
+              "events/encode_latency",
+              new Description("Latency for encoding an event to JSON for all stream listeners")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              typeField);
+      fanOutLatency =
+          metricMaker.newTimer(
+              "events/fan_out_latency",
+              new Description(
+                      "Latency for checking visibility of an event and handing it over to all"
+                          + " user scoped listeners")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              typeField);
+    }
+  }
+
   /** Listeners to receive changes as they happen (limited by visibility of user). */
   protected final PluginSetContext<UserScopedEventListener> listeners;
 
@@ -69,6 +104,9 @@ public class EventBroker implements EventDispatcher {
 
   protected final String gerritInstanceId;
 
+  private final Gson gson;
+  private final Metrics metrics;
+
   @Inject
   public EventBroker(
       PluginSetContext<UserScopedEventListener> listeners,
@@ -76,13 +114,41 @@ public class EventBroker implements EventDispatcher {
       PermissionBackend permissionBackend,
       ProjectCache projectCache,
       ChangeNotes.Factory notesFactory,
-      @Nullable @GerritInstanceId String gerritInstanceId) {
+      @Nullable @GerritInstanceId String gerritInstanceId,
+      @EventGson Gson gson,
+      Metrics metrics) {
     this.listeners = listeners;
     this.unrestrictedListeners = unrestrictedListeners;
     this.permissionBackend = permissionBackend;
     this.projectCache = projectCache;
     this.notesFactory = notesFactory;
     this.gerritInstanceId = gerritInstanceId;
+    this.gson = gson;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Constructor for subclasses that don't provide the Gson instance to encode events with.
+   *
+   * <p>Events are still encoded only once for all {@link EncodedEventListener}s, but no metrics are
+   * recorded.
+   */
+  public EventBroker(
+      PluginSetContext<UserScopedEventListener> listeners,
+      PluginSetContext<EventListener> unrestrictedListeners,
+      PermissionBackend permissionBackend,
+      ProjectCache projectCache,
+      ChangeNotes.Factory notesFactory,
+      @Nullable @GerritInstanceId String gerritInstanceId) {
+    this(
+        listeners,
+        unrestrictedListeners,
+        permissionBackend,
+        projectCache,
+        notesFactory,
+        gerritInstanceId,
+        new EventGsonProvider().get(),
+        new Metrics(new DisabledMetricMaker()));
   }
 
   @Override
@@ -110,12 +176,33 @@ public class EventBroker implements EventDispatcher {
     unrestrictedListeners.runEach(l -> l.onEvent(event));
   }
 
+  /**
+   * Wraps the event for delivery to user scoped listeners.
+   *
+   * <p>The returned instance must be shared by all listeners the event is delivered to, so that the
+   * event is encoded at most once.
+   */
+  protected EncodedEvent encode(Event event) {
+    return new EncodedEvent(event, gson, metrics.encodeLatency);
+  }
+
+  protected static void deliver(UserScopedEventListener listener, EncodedEvent event) {
+    if (listener instanceof EncodedEventListener) {
+      ((EncodedEventListener) listener).onEvent(event);
+    } else {
+      listener.onEvent(event.getEvent());
+    }
+  }
+
   protected void fireEvent(Change change, ChangeEvent event) throws PermissionBackendException {
     setInstanceId(event);
-    for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
-      CurrentUser user = c.call(UserScopedEventListener::getUser);
-      if (isVisibleTo(change, user)) {
-        c.run(l -> l.onEvent(event));
+    EncodedEvent encoded = encode(event);
+    try (Timer1.Context<String> ignored = metrics.fanOutLatency.start(event.getType())) {
+      for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
+        CurrentUser user = c.call(UserScopedEventListener::getUser);
+        if (isVisibleTo(change, user)) {
+          c.run(l -> deliver(l, encoded));
+        }
       }
     }
     fireEventForUnrestrictedListeners(event);
@@ -123,11 +210,13 @@ public class EventBroker implements EventDispatcher {
 
   protected void fireEvent(Project.NameKey project, ProjectEvent event) {
     setInstanceId(event);
-    for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
-
-      CurrentUser user = c.call(UserScopedEventListener::getUser);
-      if (isVisibleTo(project, user)) {
-        c.run(l -> l.onEvent(event));
+    EncodedEvent encoded = encode(event);
+    try (Timer1.Context<String> ignored = metrics.fanOutLatency.start(event.getType())) {
+      for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
+        CurrentUser user = c.call(UserScopedEventListener::getUser);
+        if (isVisibleTo(project, user)) {
+          c.run(l -> deliver(l, encoded));
+        }
       }
     }
     fireEventForUnrestrictedListeners(event);
@@ -136,10 +225,13 @@ public class EventBroker implements EventDispatcher {
   protected void fireEvent(BranchNameKey branchName, RefEvent event)
       throws PermissionBackendException {
     setInstanceId(event);
-    for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
-      CurrentUser user = c.call(UserScopedEventListener::getUser);
-      if (isVisibleTo(branchName, user)) {
-        c.run(l -> l.onEvent(event));
+    EncodedEvent encoded = encode(event);
+    try (Timer1.Context<String> ignored = metrics.fanOutLatency.start(event.getType())) {
+      for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
+        CurrentUser user = c.call(UserScopedEventListener::getUser);
+        if (isVisibleTo(branchName, user)) {
+          c.run(l -> deliver(l, encoded));
+        }
       }
     }
     fireEventForUnrestrictedListeners(event);
@@ -147,10 +239,13 @@ public class EventBroker implements EventDispatcher {
 
   protected void fireEvent(Event event) throws PermissionBackendException {
     setInstanceId(event);
-    for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
-      CurrentUser user = c.call(UserScopedEventListener::getUser);
-      if (isVisibleTo(event, user)) {
-        c.run(l -> l.onEvent(event));
+    EncodedEvent encoded = encode(event);
+    try (Timer1.Context<String> ignored = metrics.fanOutLatency.start(event.getType())) {
+      for (PluginSetEntryContext<UserScopedEventListener> c : listeners) {
+        CurrentUser user = c.call(UserScopedEventListener::getUser);
+        if (isVisibleTo(event, user)) {
+          c.run(l -> deliver(l, encoded));
+        }
       }
     }
     fireEventForUnrestrictedListeners(event);
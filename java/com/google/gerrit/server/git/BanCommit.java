@@ -76,6 +76,33 @@ public class BanCommit {
     }
   }
 
+  /**
+   * Loads the list of commits to reject from {@code refs/meta/reject-commits} completely into
+   * memory.
+   *
+   * <p>Unlike the map returned by {@link #loadRejectCommitsMap(Repository, RevWalk)}, which reads
+   * the notes lazily through the reader of {@code walk}, the returned map can be read by several
+   * threads at once, as long as it isn't modified.
+   *
+   * @param repo repository from which the rejected commits should be loaded
+   * @param walk open revwalk on repo.
+   * @return NoteMap of commits to be rejected.
+   * @throws IOException the map cannot be loaded.
+   */
+  public static NoteMap loadRejectCommitsMapInMemory(Repository repo, RevWalk walk)
+      throws IOException {
+    NoteMap lazy = loadRejectCommitsMap(repo, walk);
+    NoteMap loaded = NoteMap.newEmptyMap();
+    try {
+      for (Note note : lazy) {
+        loaded.set(note, note.getData());
+      }
+    } catch (RuntimeException badMap) {
+      throw new IOException("Cannot load " + RefNames.REFS_REJECT_COMMITS, badMap);
+    }
+    return loaded;
+  }
+
   private final Provider<IdentifiedUser> currentUser;
   private final GitRepositoryManager repoManager;
   private final TimeZone tz;
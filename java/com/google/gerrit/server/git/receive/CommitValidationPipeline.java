@@ -0,0 +1,185 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git.receive;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.server.util.RequestScopePropagator;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+/**
+ * Validates the commits of a push concurrently, while the caller keeps walking them.
+ *
+ * <p>Results are consumed in the order in which the validations were submitted, and consumption
+ * stops at the first invalid commit. At most {@code parallelism} validations are in flight at any
+ * time. With a parallelism of 1 commits are validated by the calling thread, as they are submitted.
+ *
+ * <p>This class is not thread safe.
+ */
+class CommitValidationPipeline implements AutoCloseable {
+  /** Validation of a single commit. */
+  @FunctionalInterface
+  interface Validation {
+    /**
+     * Validates the commit.
+     *
+     * @param reader reader to use for the validation.
+     * @param cmd command to reject if the commit is invalid.
+     */
+    BranchCommitValidator.Result validate(ObjectReader reader, ReceiveCommand cmd)
+        throws IOException;
+  }
+
+  /** Result of a validation that ran in another thread, against a copy of the command. */
+  private static class Outcome {
+    final BranchCommitValidator.Result result;
+    final ReceiveCommand cmd;
+
+    Outcome(BranchCommitValidator.Result result, ReceiveCommand cmd) {
+      this.result = result;
+      this.cmd = cmd;
+    }
+  }
+
+  private final Repository repo;
+  private final ObjectReader reader;
+  private final ReceiveCommand cmd;
+  private final ExecutorService executor;
+  private final RequestScopePropagator requestScopePropagator;
+  private final int parallelism;
+  private final Consumer<BranchCommitValidator.Result> resultConsumer;
+  private final Deque<Future<Outcome>> pending;
+
+  private boolean valid = true;
+
+  /**
+   * @param repo repository that is pushed to; validations in other threads open their own reader on
+   *     it.
+   * @param reader reader used for validations in the calling thread.
+   * @param cmd command that is rejected if a commit is invalid.
+   * @param executor executor that runs the validations.
+   * @param requestScopePropagator propagates the request scope of the push to the validations.
+   * @param parallelism maximum number of validations in flight.
+   * @param resultConsumer consumes the results, in submission order, up to the first invalid one.
+   */
+  CommitValidationPipeline(
+      Repository repo,
+      ObjectReader reader,
+      ReceiveCommand cmd,
+      ExecutorService executor,
+      RequestScopePropagator requestScopePropagator,
+      int parallelism,
+      Consumer<BranchCommitValidator.Result> resultConsumer) {
+    this.repo = repo;
+    this.reader = reader;
+    this.cmd = cmd;
+    this.executor = executor;
+    this.requestScopePropagator = requestScopePropagator;
+    this.parallelism = parallelism;
+    this.resultConsumer = resultConsumer;
+    this.pending = new ArrayDeque<>();
+  }
+
+  /**
+   * Submits the validation of a commit.
+   *
+   * @return false if a commit consumed so far is invalid; no further validations should be
+   *     submitted then.
+   */
+  boolean submit(Validation validation) throws IOException {
+    if (!valid) {
+      return false;
+    }
+    if (parallelism <= 1) {
+      return consume(new Outcome(validation.validate(reader, cmd), cmd));
+    }
+    while (pending.size() >= parallelism) {
+      if (!consume(take(pending.removeFirst()))) {
+        return false;
+      }
+    }
+    pending.addLast(
+        executor.submit(
+            requestScopePropagator.wrap(
+                () -> {
+                  // The command is only modified by the calling thread, validations in other
+                  // threads reject a copy of it.
+                  ReceiveCommand copy =
+                      new ReceiveCommand(
+                          cmd.getOldId(), cmd.getNewId(), cmd.getRefName(), cmd.getType());
+                  try (ObjectReader threadReader = repo.newObjectReader()) {
+                    return new Outcome(validation.validate(threadReader, copy), copy);
+                  }
+                })));
+    while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+      if (!consume(take(pending.removeFirst()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Waits for all submitted validations.
+   *
+   * @return whether all commits submitted so far are valid.
+   */
+  boolean finish() throws IOException {
+    while (valid && !pending.isEmpty()) {
+      consume(take(pending.removeFirst()));
+    }
+    return valid;
+  }
+
+  /** Cancels validations whose result is no longer needed. */
+  @Override
+  public void close() {
+    for (Future<Outcome> f : pending) {
+      f.cancel(false);
+    }
+    pending.clear();
+  }
+
+  private boolean consume(Outcome outcome) {
+    resultConsumer.accept(outcome.result);
+    if (!outcome.result.isValid()) {
+      valid = false;
+      if (outcome.cmd != cmd) {
+        cmd.setResult(outcome.cmd.getResult(), outcome.cmd.getMessage());
+      }
+      close();
+    }
+    return valid;
+  }
+
+  private static Outcome take(Future<Outcome> f) throws IOException {
+    try {
+      return Uninterruptibles.getUninterruptibly(f);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    }
+  }
+}
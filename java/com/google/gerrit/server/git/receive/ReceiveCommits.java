@@ -98,10 +98,12 @@ import com.google.gerrit.extensions.validators.CommentForValidation.CommentType;
 import com.google.gerrit.extensions.validators.CommentValidationContext;
 import com.google.gerrit.extensions.validators.CommentValidationFailure;
 import com.google.gerrit.extensions.validators.CommentValidator;
+import com.google.gerrit.index.IndexConfig;
 import com.google.gerrit.server.ApprovalsUtil;
 import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.CommentsUtil;
 import com.google.gerrit.server.CreateGroupPermissionSyncer;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.PatchSetUtil;
 import com.google.gerrit.server.PublishCommentUtil;
@@ -204,6 +206,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -327,6 +330,8 @@ class ReceiveCommits {
   private final PatchSetInfoFactory patchSetInfoFactory;
   private final PatchSetUtil psUtil;
   private final DynamicSet<PerformanceLogger> performanceLoggers;
+  private final ExecutorService fanOutExecutor;
+  private final IndexConfig indexConfig;
   private final PermissionBackend permissionBackend;
   private final ProjectCache projectCache;
   private final Provider<InternalChangeQuery> queryProvider;
@@ -407,6 +412,8 @@ class ReceiveCommits {
       PatchSetInfoFactory patchSetInfoFactory,
       PatchSetUtil psUtil,
       DynamicSet<PerformanceLogger> performanceLoggers,
+      @FanOutExecutor ExecutorService fanOutExecutor,
+      IndexConfig indexConfig,
       PermissionBackend permissionBackend,
       ProjectCache projectCache,
       Provider<InternalChangeQuery> queryProvider,
@@ -424,6 +431,7 @@ class ReceiveCommits {
       SubmoduleOp.Factory subOpFactory,
       TagCache tagCache,
       SetPrivateOp.Factory setPrivateOpFactory,
+      SharedRefIndexCache sharedRefIndexCache,
       @Assisted ProjectState projectState,
       @Assisted IdentifiedUser user,
       @Assisted ReceivePack rp,
@@ -458,6 +466,8 @@ class ReceiveCommits {
     this.projectCache = projectCache;
     this.psUtil = psUtil;
     this.performanceLoggers = performanceLoggers;
+    this.fanOutExecutor = fanOutExecutor;
+    this.indexConfig = indexConfig;
     this.publishCommentsOp = publishCommentsOp;
     this.queryProvider = queryProvider;
     this.receiveConfig = receiveConfig;
@@ -484,7 +494,11 @@ class ReceiveCommits {
     project = projectState.getProject();
     labelTypes = projectState.getLabelTypes();
     permissions = permissionBackend.user(user).project(project.getNameKey());
-    rejectCommits = BanCommit.loadRejectCommitsMap(repo, rp.getRevWalk());
+    // Commits validated in other threads can't share the reader that lazily loads the map.
+    rejectCommits =
+        receiveConfig.commitValidationThreads > 1
+            ? BanCommit.loadRejectCommitsMapInMemory(repo, rp.getRevWalk())
+            : BanCommit.loadRejectCommitsMap(repo, rp.getRevWalk());
 
     // Collections populated during processing.
     errors = MultimapBuilder.linkedHashKeys().arrayListValues().build();
@@ -511,7 +525,9 @@ class ReceiveCommits {
     boolean useRefCache = config.getBoolean("receive", "enableInMemoryRefCache", true);
     receivePackRefCache =
         useRefCache
-            ? ReceivePackRefCache.withAdvertisedRefs(() -> allRefsWatcher.getAllRefs())
+            ? ReceivePackRefCache.withSharedIndex(
+                () -> allRefsWatcher.getAllRefs(),
+                refs -> sharedRefIndexCache.get(projectState.getNameKey(), refs))
             : ReceivePackRefCache.noCache(receivePack.getRepository().getRefDatabase());
   }
 
@@ -574,9 +590,10 @@ class ReceiveCommits {
     int commandCount = commands.size();
     try (TraceContext traceContext =
             TraceContext.newTrace(
-                tracePushOption.isPresent(),
-                tracePushOption.orElse(null),
-                (tagName, traceId) -> addMessage(tagName + ": " + traceId));
+                    tracePushOption.isPresent(),
+                    tracePushOption.orElse(null),
+                    (tagName, traceId) -> addMessage(tagName + ": " + traceId))
+                .measureResourceUsage();
         TraceTimer traceTimer =
             newTimer("processCommands", Metadata.builder().resourceCount(commandCount));
         PerformanceLogContext performanceLogContext =
@@ -2083,7 +2100,8 @@ class ReceiveCommits {
       BranchCommitValidator validator =
           commitValidatorFactory.create(projectState, magicBranch.dest, user);
 
-      try {
+      try (CommitValidationPipeline validation =
+          newCommitValidationPipeline(receivePack.getRevWalk(), magicBranch.cmd)) {
         RevCommit start = setUpWalkForSelectingChanges();
         if (start == null) {
           return Collections.emptyList();
@@ -2153,14 +2171,17 @@ class ReceiveCommits {
           }
 
           List<String> idList = c.getFooterLines(FooterConstants.CHANGE_ID);
-          if (!idList.isEmpty()) {
-            pending.put(c, lookupByChangeKey(c, Change.key(idList.get(idList.size() - 1).trim())));
-          } else {
-            pending.put(c, lookupByCommit(c));
-          }
+          ChangeLookup lookup =
+              new ChangeLookup(
+                  c, idList.isEmpty() ? null : Change.key(idList.get(idList.size() - 1).trim()));
+          pending.put(c, lookup);
 
           int n = pending.size() + newChanges.size();
           if (maxBatchChanges != 0 && n > maxBatchChanges) {
+            if (!validation.finish()) {
+              logger.atFine().log("Aborting early due to invalid commit");
+              return Collections.emptyList();
+            }
             logger.atFine().log("%d changes exceeds limit of %d", n, maxBatchChanges);
             reject(
                 magicBranch.cmd,
@@ -2170,7 +2191,7 @@ class ReceiveCommits {
 
           if (commitAlreadyTracked) {
             boolean changeExistsOnDestBranch = false;
-            for (ChangeData cd : pending.get(c).destChanges) {
+            for (ChangeData cd : lookup(lookup)) {
               if (cd.change().getDest().equals(magicBranch.dest)) {
                 changeExistsOnDestBranch = true;
                 break;
@@ -2184,16 +2205,10 @@ class ReceiveCommits {
                 "Creating new change for %s even though it is already tracked", name);
           }
 
-          BranchCommitValidator.Result validationResult =
-              validator.validateCommit(
-                  receivePack.getRevWalk().getObjectReader(),
-                  magicBranch.cmd,
-                  c,
-                  magicBranch.merged,
-                  rejectCommits,
-                  null);
-          messages.addAll(validationResult.messages());
-          if (!validationResult.isValid()) {
+          if (!validation.submit(
+              (reader, cmd) ->
+                  validator.validateCommit(
+                      reader, cmd, c, magicBranch.merged, rejectCommits, null))) {
             // Not a change the user can propose? Abort as early as possible.
             logger.atFine().log("Aborting early due to invalid commit");
             return Collections.emptyList();
@@ -2201,6 +2216,10 @@ class ReceiveCommits {
 
           // Don't allow merges to be uploaded in commit chain via all-not-in-target
           if (newChangeForAllNotInTarget && c.getParentCount() > 1) {
+            if (!validation.finish()) {
+              logger.atFine().log("Aborting early due to invalid commit");
+              return Collections.emptyList();
+            }
             reject(
                 magicBranch.cmd,
                 "Pushing merges in commit chains with 'all not in target' is not allowed,\n"
@@ -2214,6 +2233,10 @@ class ReceiveCommits {
             continue;
           }
         }
+        if (!validation.finish()) {
+          logger.atFine().log("Aborting due to invalid commit");
+          return Collections.emptyList();
+        }
         logger.atFine().log(
             "Finished initial RevWalk with %d commits total: %d already"
                 + " tracked, %d new changes with no Change-Id, and %d deferred"
@@ -2224,6 +2247,7 @@ class ReceiveCommits {
           rejectImplicitMerges(mergedParents);
         }
 
+        lookupByChangeKeys(pending.values());
         for (Iterator<ChangeLookup> itr = pending.values().iterator(); itr.hasNext(); ) {
           ChangeLookup p = itr.next();
           if (p.changeKey == null) {
@@ -2236,7 +2260,7 @@ class ReceiveCommits {
             return Collections.emptyList();
           }
 
-          List<ChangeData> changes = p.destChanges;
+          List<ChangeData> changes = lookup(p);
           if (changes.size() > 1) {
             logger.atFine().log(
                 "Multiple changes in branch %s with Change-Id %s: %s",
@@ -2461,25 +2485,63 @@ class ReceiveCommits {
     final RevCommit commit;
 
     @Nullable final Change.Key changeKey;
-    final List<ChangeData> destChanges;
 
-    ChangeLookup(RevCommit c, @Nullable Change.Key key, final List<ChangeData> destChanges) {
+    /** Changes on the destination branch, or null if they were not looked up yet. */
+    @Nullable List<ChangeData> destChanges;
+
+    ChangeLookup(RevCommit c, @Nullable Change.Key key) {
       this.commit = c;
       this.changeKey = key;
-      this.destChanges = destChanges;
     }
   }
 
-  private ChangeLookup lookupByChangeKey(RevCommit c, Change.Key key) {
+  /** Returns the changes of a lookup, looking them up if that was not done yet. */
+  private List<ChangeData> lookup(ChangeLookup p) {
+    if (p.destChanges == null) {
+      p.destChanges =
+          p.changeKey != null ? lookupByChangeKey(p.changeKey) : lookupByCommit(p.commit);
+    }
+    return p.destChanges;
+  }
+
+  /**
+   * Looks up the changes of all pending lookups by Change-Id with batched index queries, so that a
+   * push of a long series of commits doesn't issue one query per commit.
+   *
+   * <p>Lookups by commit and lookups of malformed Change-Ids are left to {@link
+   * #lookup(ChangeLookup)}.
+   */
+  private void lookupByChangeKeys(Collection<ChangeLookup> lookups) {
+    Set<Change.Key> keys = new LinkedHashSet<>();
+    for (ChangeLookup p : lookups) {
+      if (p.destChanges == null && p.changeKey != null && isValidChangeId(p.changeKey.get())) {
+        keys.add(p.changeKey);
+      }
+    }
+    if (keys.isEmpty()) {
+      return;
+    }
+    try (TraceTimer traceTimer =
+        newTimer("lookupByChangeKeys", Metadata.builder().resourceCount(keys.size()))) {
+      ListMultimap<Change.Key, ChangeData> changesByKey =
+          InternalChangeQuery.byBranchKeys(queryProvider, indexConfig, magicBranch.dest, keys);
+      for (ChangeLookup p : lookups) {
+        if (p.destChanges == null && p.changeKey != null && keys.contains(p.changeKey)) {
+          p.destChanges = changesByKey.get(p.changeKey);
+        }
+      }
+    }
+  }
+
+  private List<ChangeData> lookupByChangeKey(Change.Key key) {
     try (TraceTimer traceTimer = newTimer("lookupByChangeKey")) {
-      return new ChangeLookup(c, key, queryProvider.get().byBranchKey(magicBranch.dest, key));
+      return queryProvider.get().byBranchKey(magicBranch.dest, key);
     }
   }
 
-  private ChangeLookup lookupByCommit(RevCommit c) {
+  private List<ChangeData> lookupByCommit(RevCommit c) {
     try (TraceTimer traceTimer = newTimer("lookupByCommit")) {
-      return new ChangeLookup(
-          c, null, queryProvider.get().byBranchCommit(magicBranch.dest, c.getName()));
+      return queryProvider.get().byBranchCommit(magicBranch.dest, c.getName());
     }
   }
 
@@ -3143,6 +3205,17 @@ class ReceiveCommits {
     }
   }
 
+  private CommitValidationPipeline newCommitValidationPipeline(RevWalk walk, ReceiveCommand cmd) {
+    return new CommitValidationPipeline(
+        repo,
+        walk.getObjectReader(),
+        cmd,
+        fanOutExecutor,
+        requestScopePropagator,
+        receiveConfig.commitValidationThreads,
+        r -> messages.addAll(r.messages()));
+  }
+
   /**
    * Validates the commits that a regular push brings in.
    *
@@ -3178,7 +3251,7 @@ class ReceiveCommits {
       RevWalk walk = receivePack.getRevWalk();
       walk.reset();
       walk.sort(RevSort.NONE);
-      try {
+      try (CommitValidationPipeline validation = newCommitValidationPipeline(walk, cmd)) {
         RevObject parsedObject = walk.parseAny(cmd.getNewId());
         if (!(parsedObject instanceof RevCommit)) {
           return;
@@ -3192,6 +3265,9 @@ class ReceiveCommits {
           // commit validator requires to validate all commits. In this case, however,
           // we don't need to check the commit limit.
           if (++n > limit && !skipValidation) {
+            if (!validation.finish()) {
+              break;
+            }
             logger.atFine().log("Number of new commits exceeds limit of %d", limit);
             reject(
                 cmd,
@@ -3203,14 +3279,15 @@ class ReceiveCommits {
             continue;
           }
 
-          BranchCommitValidator.Result validationResult =
-              validator.validateCommit(
-                  walk.getObjectReader(), cmd, c, false, rejectCommits, null, skipValidation);
-          messages.addAll(validationResult.messages());
-          if (!validationResult.isValid()) {
+          RevCommit commit = c;
+          if (!validation.submit(
+              (reader, command) ->
+                  validator.validateCommit(
+                      reader, command, commit, false, rejectCommits, null, skipValidation))) {
             break;
           }
         }
+        validation.finish();
         logger.atFine().log("Validated %d new commits", n);
       } catch (IOException err) {
         cmd.setResult(REJECTED_MISSING_OBJECT);
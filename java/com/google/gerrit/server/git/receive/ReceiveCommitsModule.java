@@ -21,5 +21,6 @@ public class ReceiveCommitsModule extends FactoryModule {
   protected void configure() {
     bind(ReceiveConfig.class);
     factory(ReplaceOp.Factory.class);
+    install(SharedRefIndexCache.module());
   }
 }
@@ -24,6 +24,8 @@ import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.RefNames;
 import java.io.IOException;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
@@ -58,6 +60,24 @@ public interface ReceivePackRefCache {
     return new WithAdvertisedRefs(allRefsSupplier);
   }
 
+  /**
+   * Returns an instance that answers calls based on refs previously advertised and captured in
+   * {@link AllRefsWatcher}, like {@link #withAdvertisedRefs(Supplier)}. Inverse lookups are
+   * answered from a {@link SharedRefIndex} that is shared with other pushes to the same repository
+   * and only needs to be updated for the refs that changed since it was last used. Lookups are
+   * answered as of the own advertisement, also after other pushes synced the shared index. Only
+   * once the shared index no longer knows all updates since, lookups fall back to maps built from
+   * the advertised refs, as in {@link #withAdvertisedRefs(Supplier)}.
+   *
+   * @param allRefsSupplier supplies the advertised refs.
+   * @param indexLoader returns a view of the shared index, updated to the given advertised refs.
+   */
+  static ReceivePackRefCache withSharedIndex(
+      Supplier<Map<String, Ref>> allRefsSupplier,
+      Function<Map<String, Ref>, SharedRefIndex.View> indexLoader) {
+    return new WithSharedIndex(allRefsSupplier, indexLoader);
+  }
+
   /** Returns a list of refs whose name starts with {@code prefix} that point to {@code id}. */
   ImmutableList<Ref> tipsFromObjectId(ObjectId id, @Nullable String prefix) throws IOException;
 
@@ -171,4 +191,83 @@ public interface ReceivePackRefCache {
       }
     }
   }
+
+  class WithSharedIndex implements ReceivePackRefCache {
+    private final Supplier<Map<String, Ref>> allRefsSupplier;
+    private final Function<Map<String, Ref>, SharedRefIndex.View> indexLoader;
+
+    // Lazily populated during processing.
+    private Map<String, Ref> allRefs;
+    private SharedRefIndex.View index;
+    /** Answers inverse lookups once the shared index was synced to another advertisement. */
+    private WithAdvertisedRefs fallback;
+
+    private WithSharedIndex(
+        Supplier<Map<String, Ref>> allRefsSupplier,
+        Function<Map<String, Ref>, SharedRefIndex.View> indexLoader) {
+      this.allRefsSupplier = allRefsSupplier;
+      this.indexLoader = indexLoader;
+    }
+
+    @Override
+    public ImmutableList<Ref> tipsFromObjectId(ObjectId id, @Nullable String prefix) {
+      ImmutableList<String> names = fallback == null ? index().namesByObjectId(id) : null;
+      if (names == null) {
+        return fallback().tipsFromObjectId(id, prefix);
+      }
+      return resolve(names, prefix);
+    }
+
+    @Override
+    public ImmutableList<Ref> byPrefix(String prefix) {
+      if (RefNames.isRefsChanges(prefix)) {
+        Change.Id cId = Change.Id.fromRefPart(prefix);
+        if (cId != null) {
+          ImmutableList<String> names = fallback == null ? index().namesByChange(cId) : null;
+          if (names == null) {
+            return fallback().byPrefix(prefix);
+          }
+          return resolve(names, prefix);
+        }
+      }
+      return allRefs().values().stream()
+          .filter(r -> r.getName().startsWith(prefix))
+          .collect(toImmutableList());
+    }
+
+    @Override
+    @Nullable
+    public Ref exactRef(String name) {
+      return allRefs().get(name);
+    }
+
+    private Map<String, Ref> allRefs() {
+      if (allRefs == null) {
+        allRefs = allRefsSupplier.get();
+      }
+      return allRefs;
+    }
+
+    private ImmutableList<Ref> resolve(ImmutableList<String> names, @Nullable String prefix) {
+      return names.stream()
+          .filter(n -> prefix == null || n.startsWith(prefix))
+          .map(n -> allRefs().get(n))
+          .filter(Objects::nonNull)
+          .collect(toImmutableList());
+    }
+
+    private SharedRefIndex.View index() {
+      if (index == null) {
+        index = indexLoader.apply(allRefs());
+      }
+      return index;
+    }
+
+    private WithAdvertisedRefs fallback() {
+      if (fallback == null) {
+        fallback = new WithAdvertisedRefs(this::allRefs);
+      }
+      return fallback;
+    }
+  }
 }
@@ -0,0 +1,296 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git.receive;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.entities.Change;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * Inverse index of the refs of a repository, shared by the pushes to it.
+ *
+ * <p>The index maps object IDs and change IDs to ref names. Each push brings the index up to date
+ * with the refs it advertised by {@link #sync(Map)}, which only re-indexes refs whose value differs
+ * from the indexed one.
+ *
+ * <p>Pushes that run concurrently may sync the index to different advertisements. Lookups are
+ * therefore done through the {@link View} that {@link #sync(Map)} returned, which answers them as
+ * of that sync. The ref updates of later syncs are kept to undo them for the lookups of earlier
+ * views, up to {@link #MAX_RETAINED_UPDATES} updates. A view stops answering lookups once updates
+ * it depends on were dropped. Callers must fall back to their own advertised refs then.
+ */
+class SharedRefIndex {
+  /** Maximum number of ref updates kept to answer the lookups of views of earlier syncs. */
+  @VisibleForTesting static final int MAX_RETAINED_UPDATES = 10_000;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // All guarded by lock.
+  private final Map<String, ObjectId> idsByName = new HashMap<>();
+  private final Map<ObjectId, ImmutableList<String>> namesByObjectId = new HashMap<>();
+  private final Map<Change.Id, ImmutableList<String>> namesByChange = new HashMap<>();
+  /** Incremented by each sync that modifies the index. */
+  private long generation;
+  /** Updates of the syncs after {@link #oldestGeneration}, oldest first. */
+  private final Deque<Delta> deltas = new ArrayDeque<>();
+  private int retainedUpdates;
+  /** Oldest generation whose views can still answer lookups. */
+  private long oldestGeneration;
+
+  /** Ref updates of a sync that modified the index. */
+  private static class Delta {
+    /** Generation of the index after the sync. */
+    final long generation;
+
+    final ListMultimap<ObjectId, String> addedByObjectId = ArrayListMultimap.create();
+    final ListMultimap<ObjectId, String> removedByObjectId = ArrayListMultimap.create();
+    final ListMultimap<Change.Id, String> addedByChange = ArrayListMultimap.create();
+    final ListMultimap<Change.Id, String> removedByChange = ArrayListMultimap.create();
+    int size;
+
+    Delta(long generation) {
+      this.generation = generation;
+    }
+  }
+
+  /** The index as synced to the advertised refs of one push. */
+  class View {
+    private final long generation;
+    private final int modified;
+
+    private View(long generation, int modified) {
+      this.generation = generation;
+      this.modified = modified;
+    }
+
+    /** Returns the number of refs that were added, updated or removed by the sync. */
+    int modified() {
+      return modified;
+    }
+
+    /**
+     * Returns the names of the refs that point to {@code id}, {@code null} if the updates of the
+     * index since this view was synced are no longer known.
+     */
+    @Nullable
+    ImmutableList<String> namesByObjectId(ObjectId id) {
+      return lookup(
+          generation,
+          SharedRefIndex.this.namesByObjectId,
+          id,
+          d -> d.addedByObjectId,
+          d -> d.removedByObjectId);
+    }
+
+    /**
+     * Returns the names of the refs of a change, {@code null} if the updates of the index since
+     * this view was synced are no longer known.
+     */
+    @Nullable
+    ImmutableList<String> namesByChange(Change.Id changeId) {
+      return lookup(
+          generation,
+          SharedRefIndex.this.namesByChange,
+          changeId,
+          d -> d.addedByChange,
+          d -> d.removedByChange);
+    }
+  }
+
+  /**
+   * Updates the index to contain exactly the given refs.
+   *
+   * @param refs refs by name, as advertised to a push.
+   * @return view of the index to do the lookups of the push.
+   */
+  View sync(Map<String, Ref> refs) {
+    lock.writeLock().lock();
+    try {
+      Delta delta = new Delta(generation + 1);
+      int modified = syncImpl(refs, delta);
+      if (modified > 0) {
+        generation++;
+        retain(delta);
+      }
+      return new View(generation, modified);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void retain(Delta delta) {
+    deltas.addLast(delta);
+    retainedUpdates += delta.size;
+    while (retainedUpdates > MAX_RETAINED_UPDATES) {
+      Delta dropped = deltas.removeFirst();
+      retainedUpdates -= dropped.size;
+      oldestGeneration = dropped.generation;
+    }
+  }
+
+  private int syncImpl(Map<String, Ref> refs, Delta delta) {
+    int modified = 0;
+    int indexed = 0;
+    for (Map.Entry<String, Ref> e : refs.entrySet()) {
+      ObjectId id = e.getValue().getObjectId();
+      if (id == null) {
+        continue;
+      }
+      indexed++;
+      String name = e.getKey();
+      ObjectId old = idsByName.put(name, id);
+      if (!Objects.equals(old, id)) {
+        if (old != null) {
+          unindex(name, old, delta);
+        }
+        index(name, id, delta);
+        modified++;
+      }
+    }
+    if (idsByName.size() > indexed) {
+      for (Iterator<Map.Entry<String, ObjectId>> it = idsByName.entrySet().iterator();
+          it.hasNext(); ) {
+        Map.Entry<String, ObjectId> e = it.next();
+        Ref ref = refs.get(e.getKey());
+        if (ref == null || ref.getObjectId() == null) {
+          it.remove();
+          unindex(e.getKey(), e.getValue(), delta);
+          modified++;
+        }
+      }
+    }
+    return modified;
+  }
+
+  /** Returns the number of indexed refs. */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return idsByName.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns an estimate of the memory used by the index, in bytes. */
+  long estimatedBytes() {
+    lock.readLock().lock();
+    try {
+      return 256L * idsByName.size() + 128L * retainedUpdates;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Looks up names as of a generation, by undoing the updates of the later syncs on the current
+   * names.
+   */
+  @Nullable
+  private <K> ImmutableList<String> lookup(
+      long viewGeneration,
+      Map<K, ImmutableList<String>> names,
+      K key,
+      Function<Delta, ListMultimap<K, String>> added,
+      Function<Delta, ListMultimap<K, String>> removed) {
+    lock.readLock().lock();
+    try {
+      if (viewGeneration < oldestGeneration) {
+        return null;
+      }
+      ImmutableList<String> current = names.getOrDefault(key, ImmutableList.of());
+      if (viewGeneration == generation) {
+        return current;
+      }
+      Set<String> result = new LinkedHashSet<>(current);
+      for (Iterator<Delta> it = deltas.descendingIterator(); it.hasNext(); ) {
+        Delta d = it.next();
+        if (d.generation <= viewGeneration) {
+          break;
+        }
+        result.removeAll(added.apply(d).get(key));
+        result.addAll(removed.apply(d).get(key));
+      }
+      return ImmutableList.copyOf(result);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void index(String name, ObjectId id, Delta delta) {
+    ObjectId key = id.copy();
+    namesByObjectId.compute(key, (k, names) -> add(names, name));
+    Change.Id changeId = Change.Id.fromRef(name);
+    if (changeId != null) {
+      namesByChange.compute(changeId, (k, names) -> add(names, name));
+    }
+    // Syncs with more updates than are retained are dropped anyway, don't record them.
+    if (delta.size++ < MAX_RETAINED_UPDATES) {
+      delta.addedByObjectId.put(key, name);
+      if (changeId != null) {
+        delta.addedByChange.put(changeId, name);
+      }
+    }
+  }
+
+  private void unindex(String name, ObjectId id, Delta delta) {
+    namesByObjectId.computeIfPresent(id, (k, names) -> remove(names, name));
+    Change.Id changeId = Change.Id.fromRef(name);
+    if (changeId != null) {
+      namesByChange.computeIfPresent(changeId, (k, names) -> remove(names, name));
+    }
+    if (delta.size++ < MAX_RETAINED_UPDATES) {
+      delta.removedByObjectId.put(id, name);
+      if (changeId != null) {
+        delta.removedByChange.put(changeId, name);
+      }
+    }
+  }
+
+  private static ImmutableList<String> add(@Nullable ImmutableList<String> names, String name) {
+    if (names == null) {
+      return ImmutableList.of(name);
+    }
+    return ImmutableList.<String>builderWithExpectedSize(names.size() + 1)
+        .addAll(names)
+        .add(name)
+        .build();
+  }
+
+  @Nullable
+  private static ImmutableList<String> remove(ImmutableList<String> names, String name) {
+    ImmutableList<String> result =
+        names.stream().filter(n -> !n.equals(name)).collect(toImmutableList());
+    return result.isEmpty() ? null : result;
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git.receive;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.Map;
+import org.eclipse.jgit.lib.Ref;
+
+/** Holds the {@link SharedRefIndex} of recently pushed to repositories. */
+@Singleton
+class SharedRefIndexCache {
+  static final String CACHE_NAME = "receive_ref_index";
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Project.NameKey.class, SharedRefIndex.class)
+            .maximumWeight(256 << 20)
+            .weigher(IndexWeigher.class);
+        bind(SharedRefIndexCache.class);
+      }
+    };
+  }
+
+  /** Approximates the memory used by an index, in bytes. */
+  static class IndexWeigher implements Weigher<Project.NameKey, SharedRefIndex> {
+    @Override
+    public int weigh(Project.NameKey key, SharedRefIndex value) {
+      return (int) Math.min(value.estimatedBytes(), Integer.MAX_VALUE);
+    }
+  }
+
+  private final Cache<Project.NameKey, SharedRefIndex> cache;
+  private final Counter0 refsIndexed;
+
+  @Inject
+  SharedRefIndexCache(
+      @Named(CACHE_NAME) Cache<Project.NameKey, SharedRefIndex> cache, MetricMaker metricMaker) {
+    this.cache = cache;
+    this.refsIndexed =
+        metricMaker.newCounter(
+            "receivecommits/ref_index/refs_indexed",
+            new Description("Refs that were updated in the shared ref index of pushes")
+                .setRate()
+                .setUnit("refs"));
+  }
+
+  /**
+   * Returns a view of the shared index of a repository, updated to the refs advertised to a push.
+   *
+   * @param project project that is pushed to.
+   * @param advertisedRefs all refs of the repository, as advertised to the push.
+   */
+  SharedRefIndex.View get(Project.NameKey project, Map<String, Ref> advertisedRefs) {
+    SharedRefIndex index = cache.asMap().computeIfAbsent(project, p -> new SharedRefIndex());
+    try (TraceTimer timer =
+        TraceContext.newTimer(
+            "Updating shared ref index", Metadata.builder().projectName(project.get()).build())) {
+      SharedRefIndex.View view = index.sync(advertisedRefs);
+      refsIndexed.incrementBy(view.modified());
+      if (view.modified() > 0) {
+        // Put the index back to have its new size accounted for.
+        cache.put(project, index);
+      }
+      return view;
+    }
+  }
+}
@@ -23,6 +23,9 @@ import java.util.List;
  *
  * <p>Invoked by Gerrit when a new commit is received, has passed basic Gerrit validation and can be
  * then subject to extra validation checks.
+ *
+ * <p>If {@code receive.commitValidationThreads} is greater than 1, the commits of a push are
+ * validated concurrently, so implementations must be thread-safe.
  */
 @ExtensionPoint
 public interface CommitValidationListener {
@@ -34,6 +34,11 @@ import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.extensions.api.config.ConsistencyCheckInfo.ConsistencyProblemInfo;
 import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer2;
 import com.google.gerrit.server.GerritPersonIdent;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.account.externalids.ExternalIdsConsistencyChecker;
@@ -45,10 +50,12 @@ import com.google.gerrit.server.events.CommitReceivedEvent;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.ValidationError;
 import com.google.gerrit.server.git.validators.ValidationMessage.Type;
+import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.permissions.RefPermission;
 import com.google.gerrit.server.plugincontext.PluginSetContext;
+import com.google.gerrit.server.plugincontext.PluginSetEntryContext;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectConfig;
 import com.google.gerrit.server.project.ProjectState;
@@ -89,6 +96,29 @@ public class CommitValidators {
   public static final Pattern NEW_PATCHSET_PATTERN =
       Pattern.compile("^" + REFS_CHANGES + "(?:[0-9][0-9]/)?([1-9][0-9]*)(?:/[1-9][0-9]*)?$");
 
+  @Singleton
+  static class Metrics {
+    final Timer2<String, String> latency;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      latency =
+          metricMaker.newTimer(
+              "receivecommits/validation/latency",
+              new Description("Latency of a commit validator for validating a single commit")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              Field.ofString("plugin", Metadata.Builder::pluginName)
+                  .description(
+                      "The name of the plugin that provides the commit validator,"
+                          + " 'gerrit' for core validators.")
+                  .build(),
+              Field.ofString("validator", Metadata.Builder::className)
+                  .description("The class name of the commit validator.")
+                  .build());
+    }
+  }
+
   @Singleton
   public static class Factory {
     private final PersonIdent gerritIdent;
@@ -102,6 +132,7 @@ public class CommitValidators {
     private final ProjectCache projectCache;
     private final ProjectConfig.Factory projectConfigFactory;
     private final Config config;
+    private final Metrics metrics;
 
     @Inject
     Factory(
@@ -115,7 +146,8 @@ public class CommitValidators {
         ExternalIdsConsistencyChecker externalIdsConsistencyChecker,
         AccountValidator accountValidator,
         ProjectCache projectCache,
-        ProjectConfig.Factory projectConfigFactory) {
+        ProjectConfig.Factory projectConfigFactory,
+        Metrics metrics) {
       this.gerritIdent = gerritIdent;
       this.urlFormatter = urlFormatter;
       this.config = config;
@@ -127,6 +159,7 @@ public class CommitValidators {
       this.accountValidator = accountValidator;
       this.projectCache = projectCache;
       this.projectConfigFactory = projectConfigFactory;
+      this.metrics = metrics;
     }
 
     public CommitValidators forReceiveCommits(
@@ -155,11 +188,11 @@ public class CommitValidators {
                   projectState, user, urlFormatter.get(), config, sshInfo, change))
           .add(new ConfigValidator(projectConfigFactory, branch, user, rw, allUsers, allProjects))
           .add(new BannedCommitsValidator(rejectCommits))
-          .add(new PluginCommitValidationListener(pluginValidators, skipValidation))
+          .add(new PluginCommitValidationListener(pluginValidators, skipValidation, metrics))
           .add(new ExternalIdUpdateListener(allUsers, externalIdsConsistencyChecker))
           .add(new AccountCommitValidator(repoManager, allUsers, accountValidator))
           .add(new GroupCommitValidator(allUsers));
-      return new CommitValidators(validators.build());
+      return new CommitValidators(validators.build(), metrics);
     }
 
     public CommitValidators forGerritCommits(
@@ -184,11 +217,11 @@ public class CommitValidators {
               new ChangeIdValidator(
                   projectState, user, urlFormatter.get(), config, sshInfo, change))
           .add(new ConfigValidator(projectConfigFactory, branch, user, rw, allUsers, allProjects))
-          .add(new PluginCommitValidationListener(pluginValidators))
+          .add(new PluginCommitValidationListener(pluginValidators, false, metrics))
           .add(new ExternalIdUpdateListener(allUsers, externalIdsConsistencyChecker))
           .add(new AccountCommitValidator(repoManager, allUsers, accountValidator))
           .add(new GroupCommitValidator(allUsers));
-      return new CommitValidators(validators.build());
+      return new CommitValidators(validators.build(), metrics);
     }
 
     public CommitValidators forMergedCommits(
@@ -215,14 +248,16 @@ public class CommitValidators {
           .add(new ProjectStateValidationListener(projectState))
           .add(new AuthorUploaderValidator(user, perm, urlFormatter.get()))
           .add(new CommitterUploaderValidator(user, perm, urlFormatter.get()));
-      return new CommitValidators(validators.build());
+      return new CommitValidators(validators.build(), metrics);
     }
   }
 
   private final List<CommitValidationListener> validators;
+  private final Metrics metrics;
 
-  CommitValidators(List<CommitValidationListener> validators) {
+  CommitValidators(List<CommitValidationListener> validators, Metrics metrics) {
     this.validators = validators;
+    this.metrics = metrics;
   }
 
   public List<CommitValidationMessage> validate(CommitReceivedEvent receiveEvent)
@@ -230,7 +265,15 @@ public class CommitValidators {
     List<CommitValidationMessage> messages = new ArrayList<>();
     try {
       for (CommitValidationListener commitValidator : validators) {
-        messages.addAll(commitValidator.onCommitReceived(receiveEvent));
+        if (commitValidator instanceof PluginCommitValidationListener) {
+          // Times each of the plugin listeners on its own.
+          messages.addAll(commitValidator.onCommitReceived(receiveEvent));
+          continue;
+        }
+        try (Timer2.Context<String, String> ignored =
+            metrics.latency.start("gerrit", commitValidator.getClass().getSimpleName())) {
+          messages.addAll(commitValidator.onCommitReceived(receiveEvent));
+        }
       }
     } catch (CommitValidationException e) {
       logger.atFine().withCause(e).log(
@@ -542,6 +585,7 @@ public class CommitValidators {
   public static class PluginCommitValidationListener implements CommitValidationListener {
     private boolean skipValidation;
     private final PluginSetContext<CommitValidationListener> commitValidationListeners;
+    @Nullable private final Metrics metrics;
 
     public PluginCommitValidationListener(
         final PluginSetContext<CommitValidationListener> commitValidationListeners) {
@@ -551,11 +595,20 @@ public class CommitValidators {
     public PluginCommitValidationListener(
         final PluginSetContext<CommitValidationListener> commitValidationListeners,
         boolean skipValidation) {
+      this(commitValidationListeners, skipValidation, null);
+    }
+
+    PluginCommitValidationListener(
+        PluginSetContext<CommitValidationListener> commitValidationListeners,
+        boolean skipValidation,
+        @Nullable Metrics metrics) {
       this.skipValidation = skipValidation;
       this.commitValidationListeners = commitValidationListeners;
+      this.metrics = metrics;
     }
 
     private void runValidator(
+        String pluginName,
         CommitValidationListener validator,
         List<CommitValidationMessage> messages,
         CommitReceivedEvent receiveEvent)
@@ -563,7 +616,14 @@ public class CommitValidators {
       if (skipValidation && !validator.shouldValidateAllCommits()) {
         return;
       }
-      messages.addAll(validator.onCommitReceived(receiveEvent));
+      if (metrics == null) {
+        messages.addAll(validator.onCommitReceived(receiveEvent));
+        return;
+      }
+      try (Timer2.Context<String, String> ignored =
+          metrics.latency.start(pluginName, validator.getClass().getSimpleName())) {
+        messages.addAll(validator.onCommitReceived(receiveEvent));
+      }
     }
 
     @Override
@@ -571,8 +631,11 @@ public class CommitValidators {
         throws CommitValidationException {
       List<CommitValidationMessage> messages = new ArrayList<>();
       try {
-        commitValidationListeners.runEach(
-            l -> runValidator(l, messages, receiveEvent), CommitValidationException.class);
+        for (PluginSetEntryContext<CommitValidationListener> c : commitValidationListeners) {
+          c.run(
+              l -> runValidator(c.getPluginName(), l, messages, receiveEvent),
+              CommitValidationException.class);
+        }
       } catch (CommitValidationException e) {
         messages.addAll(e.getMessages());
         throw new CommitValidationException(e.getMessage(), messages);
@@ -0,0 +1,71 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.index.change;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Splitter;
+import com.google.common.io.BaseEncoding;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.index.query.QueryParseException;
+import com.google.gerrit.server.query.change.ChangeData;
+import java.util.List;
+
+/**
+ * Position of a change in the sort order of the change index.
+ *
+ * <p>Change queries are sorted by {@link ChangeField#UPDATED} descending, then by change number
+ * descending. A cursor captures both values of the last change on a page, so that index backends
+ * can continue the query right after it instead of skipping over all previous pages.
+ *
+ * <p>The string form returned by {@link #encode()} is opaque to clients.
+ */
+@AutoValue
+public abstract class ChangeIndexCursor {
+  private static final BaseEncoding ENCODING = BaseEncoding.base64Url().omitPadding();
+  private static final char SEPARATOR = ':';
+
+  public static ChangeIndexCursor create(long lastUpdatedOn, Change.Id changeId) {
+    return new AutoValue_ChangeIndexCursor(lastUpdatedOn, changeId);
+  }
+
+  public static ChangeIndexCursor of(ChangeData cd) {
+    return create(cd.change().getLastUpdatedOn().getTime(), cd.getId());
+  }
+
+  public static ChangeIndexCursor decode(String cursor) throws QueryParseException {
+    try {
+      String s = new String(ENCODING.decode(cursor), UTF_8);
+      List<String> parts = Splitter.on(SEPARATOR).splitToList(s);
+      if (parts.size() == 2) {
+        return create(Long.parseLong(parts.get(0)), Change.id(Integer.parseInt(parts.get(1))));
+      }
+    } catch (IllegalArgumentException e) {
+      // Fall through, NumberFormatException is an IllegalArgumentException.
+    }
+    throw new QueryParseException("Invalid search-after cursor: " + cursor);
+  }
+
+  /** Last updated timestamp of the change, in milliseconds since the epoch. */
+  public abstract long lastUpdatedOn();
+
+  public abstract Change.Id changeId();
+
+  public String encode() {
+    String s = Long.toString(lastUpdatedOn()) + SEPARATOR + changeId().get();
+    return ENCODING.encode(s.getBytes(UTF_8));
+  }
+}
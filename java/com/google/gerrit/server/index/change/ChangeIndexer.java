@@ -17,6 +17,7 @@ package com.google.gerrit.server.index.change;
 import static com.google.gerrit.server.git.QueueProvider.QueueType.BATCH;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -27,6 +28,12 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.exceptions.StorageException;
 import com.google.gerrit.extensions.events.ChangeIndexedListener;
 import com.google.gerrit.index.Index;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram1;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.index.IndexExecutor;
 import com.google.gerrit.server.index.StalenessCheckResult;
@@ -37,9 +44,12 @@ import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.plugincontext.PluginSetContext;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangeNotesBatchLoader;
 import com.google.gerrit.server.util.RequestContext;
 import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.inject.Inject;
 import com.google.inject.OutOfScopeException;
+import com.google.inject.Singleton;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
 import java.util.ArrayList;
@@ -68,10 +78,40 @@ public class ChangeIndexer {
     ChangeIndexer create(ListeningExecutorService executor, ChangeIndexCollection indexes);
   }
 
+  @Singleton
+  static class Metrics {
+    final Timer1<Integer> bulkReplaceLatency;
+    final Histogram1<Integer> bulkReplaceSize;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      Field<Integer> versionField =
+          Field.ofInteger("version", Metadata.Builder::indexVersion)
+              .description("index version")
+              .build();
+      bulkReplaceLatency =
+          metricMaker.newTimer(
+              "index/change/bulk_replace_latency",
+              new Description("Latency for replacing a batch of changes in a change index")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              versionField);
+      bulkReplaceSize =
+          metricMaker.newHistogram(
+              "index/change/bulk_replace_size",
+              new Description("Number of changes replaced in a batch in a change index")
+                  .setCumulative()
+                  .setUnit("changes"),
+              versionField);
+    }
+  }
+
   @Nullable private final ChangeIndexCollection indexes;
   @Nullable private final ChangeIndex index;
   private final ChangeData.Factory changeDataFactory;
   private final ChangeNotes.Factory notesFactory;
+  private final ChangeNotesBatchLoader notesLoader;
+  private final Metrics metrics;
   private final ThreadLocalRequestContext context;
   private final ListeningExecutorService batchExecutor;
   private final ListeningExecutorService executor;
@@ -89,6 +129,8 @@ public class ChangeIndexer {
       @GerritServerConfig Config cfg,
       ChangeData.Factory changeDataFactory,
       ChangeNotes.Factory notesFactory,
+      ChangeNotesBatchLoader notesLoader,
+      Metrics metrics,
       ThreadLocalRequestContext context,
       PluginSetContext<ChangeIndexedListener> indexedListeners,
       StalenessChecker stalenessChecker,
@@ -98,6 +140,8 @@ public class ChangeIndexer {
     this.executor = executor;
     this.changeDataFactory = changeDataFactory;
     this.notesFactory = notesFactory;
+    this.notesLoader = notesLoader;
+    this.metrics = metrics;
     this.context = context;
     this.indexedListeners = indexedListeners;
     this.stalenessChecker = stalenessChecker;
@@ -112,6 +156,8 @@ public class ChangeIndexer {
       @GerritServerConfig Config cfg,
       ChangeData.Factory changeDataFactory,
       ChangeNotes.Factory notesFactory,
+      ChangeNotesBatchLoader notesLoader,
+      Metrics metrics,
       ThreadLocalRequestContext context,
       PluginSetContext<ChangeIndexedListener> indexedListeners,
       StalenessChecker stalenessChecker,
@@ -121,6 +167,8 @@ public class ChangeIndexer {
     this.executor = executor;
     this.changeDataFactory = changeDataFactory;
     this.notesFactory = notesFactory;
+    this.notesLoader = notesLoader;
+    this.metrics = metrics;
     this.context = context;
     this.indexedListeners = indexedListeners;
     this.stalenessChecker = stalenessChecker;
@@ -163,6 +211,24 @@ public class ChangeIndexer {
     return Futures.allAsList(futures);
   }
 
+  /**
+   * Start indexing multiple changes as a single batch.
+   *
+   * <p>Unlike {@link #indexAsync(Project.NameKey, Collection)}, which indexes each change in a task
+   * of its own, this loads the notes of all changes together and writes them to each index with a
+   * single {@link Index#replaceAll(Collection)} call.
+   *
+   * @param project the project to which the changes belong.
+   * @param ids changes to index.
+   * @return future for completing indexing of all changes.
+   */
+  public ListenableFuture<?> indexAllAsync(Project.NameKey project, Collection<Change.Id> ids) {
+    for (Change.Id id : ids) {
+      fireChangeScheduledForIndexingEvent(project.get(), id.get());
+    }
+    return submit(new BulkIndexTask(project, ImmutableList.copyOf(ids)));
+  }
+
   /**
    * Synchronously index a change, then check if the index is stale due to a race condition.
    *
@@ -220,6 +286,28 @@ public class ChangeIndexer {
     fireChangeIndexedEvent(cd.project().get(), cd.getId().get());
   }
 
+  private void indexImpl(List<ChangeData> cds) {
+    logger.atFine().log("Replace %d changes in index.", cds.size());
+    for (Index<?, ChangeData> i : getWriteIndexes()) {
+      int version = i.getSchema().getVersion();
+      try (TraceTimer traceTimer =
+              TraceContext.newTimer(
+                  "Replacing changes in index",
+                  Metadata.builder().resourceCount(cds.size()).indexVersion(version).build());
+          Timer1.Context<Integer> ignored = metrics.bulkReplaceLatency.start(version)) {
+        i.replaceAll(cds);
+      } catch (RuntimeException e) {
+        throw new StorageException(
+            String.format("Failed to replace %d changes in index version %d", cds.size(), version),
+            e);
+      }
+      metrics.bulkReplaceSize.record(version, cds.size());
+    }
+    for (ChangeData cd : cds) {
+      fireChangeIndexedEvent(cd.project().get(), cd.getId().get());
+    }
+  }
+
   private void fireChangeScheduledForIndexingEvent(String projectName, int id) {
     indexedListeners.runEach(l -> l.onChangeScheduledForIndexing(projectName, id));
   }
@@ -342,16 +430,7 @@ public class ChangeIndexer {
     @Override
     public final T call() throws Exception {
       try {
-        RequestContext newCtx =
-            () -> {
-              throw new OutOfScopeException("No user during ChangeIndexer");
-            };
-        RequestContext oldCtx = context.setContext(newCtx);
-        try {
-          return callImpl();
-        } finally {
-          context.setContext(oldCtx);
-        }
+        return callWithoutUser(this::callImpl);
       } catch (Exception e) {
         logger.atSevere().withCause(e).log("Failed to execute %s", this);
         throw e;
@@ -359,6 +438,68 @@ public class ChangeIndexer {
     }
   }
 
+  private <T> T callWithoutUser(Callable<T> task) throws Exception {
+    RequestContext newCtx =
+        () -> {
+          throw new OutOfScopeException("No user during ChangeIndexer");
+        };
+    RequestContext oldCtx = context.setContext(newCtx);
+    try {
+      return task.call();
+    } finally {
+      context.setContext(oldCtx);
+    }
+  }
+
+  private class BulkIndexTask implements Callable<Void> {
+    private final Project.NameKey project;
+    private final ImmutableList<Change.Id> ids;
+
+    private BulkIndexTask(Project.NameKey project, ImmutableList<Change.Id> ids) {
+      this.project = project;
+      this.ids = ids;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      try {
+        return callWithoutUser(this::callImpl);
+      } catch (Exception e) {
+        logger.atSevere().withCause(e).log("Failed to execute %s", this);
+        throw e;
+      }
+    }
+
+    private Void callImpl() {
+      List<ChangeData> changes = new ArrayList<>(ids.size());
+      for (Change.Id id : ids) {
+        changes.add(changeDataFactory.create(project, id));
+      }
+      notesLoader.load(changes);
+
+      List<ChangeData> existing = new ArrayList<>(changes.size());
+      for (ChangeData cd : changes) {
+        try {
+          cd.notes();
+          existing.add(cd);
+        } catch (NoSuchChangeException e) {
+          doDelete(cd.getId());
+        }
+      }
+      if (!existing.isEmpty()) {
+        indexImpl(existing);
+      }
+      // See doIndex for why this is needed.
+      existing.forEach(ChangeIndexer.this::autoReindexIfStale);
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "index-changes-" + project + "-" + ids.size();
+    }
+  }
+
   private class IndexTask extends AbstractIndexTask<Void> {
     private IndexTask(Project.NameKey project, Change.Id id) {
       super(project, id);
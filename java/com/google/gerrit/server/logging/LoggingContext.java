@@ -20,8 +20,10 @@ import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.flogger.backend.Tags;
+import com.google.gerrit.common.Nullable;
 import com.google.inject.Provider;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
 
@@ -44,6 +46,8 @@ public class LoggingContext extends com.google.common.flogger.backend.system.Log
   private static final ThreadLocal<Boolean> performanceLogging = new ThreadLocal<>();
   private static final ThreadLocal<MutablePerformanceLogRecords> performanceLogRecords =
       new ThreadLocal<>();
+  private static final ThreadLocal<ResourceUsage.Measurement> resourceUsageMeasurement =
+      new ThreadLocal<>();
 
   private LoggingContext() {}
 
@@ -62,8 +66,11 @@ public class LoggingContext extends com.google.common.flogger.backend.system.Log
     // added to this MutablePerformanceLogRecords instance. This is important since performance
     // log records are processed only at the end of the request and performance log records that
     // are created in another thread should not get lost.
+    //
+    // The same applies to the ResourceUsage instance: the resources that are consumed by the
+    // wrapped runnable in another thread are accounted to the request.
     return new LoggingContextAwareRunnable(
-        runnable, getInstance().getMutablePerformanceLogRecords());
+        runnable, getInstance().getMutablePerformanceLogRecords(), getResourceUsageToCopy());
   }
 
   public static <T> Callable<T> copy(Callable<T> callable) {
@@ -76,15 +83,19 @@ public class LoggingContext extends com.google.common.flogger.backend.system.Log
     // added to this MutablePerformanceLogRecords instance. This is important since performance
     // log records are processed only at the end of the request and performance log records that
     // are created in another thread should not get lost.
+    //
+    // The same applies to the ResourceUsage instance: the resources that are consumed by the
+    // wrapped callable in another thread are accounted to the request.
     return new LoggingContextAwareCallable<>(
-        callable, getInstance().getMutablePerformanceLogRecords());
+        callable, getInstance().getMutablePerformanceLogRecords(), getResourceUsageToCopy());
   }
 
   public boolean isEmpty() {
     return tags.get() == null
         && forceLogging.get() == null
         && performanceLogging.get() == null
-        && performanceLogRecords.get() == null;
+        && performanceLogRecords.get() == null
+        && resourceUsageMeasurement.get() == null;
   }
 
   public void clear() {
@@ -92,6 +103,7 @@ public class LoggingContext extends com.google.common.flogger.backend.system.Log
     forceLogging.remove();
     performanceLogging.remove();
     performanceLogRecords.remove();
+    stopResourceUsageMeasurement();
   }
 
   @Override
@@ -256,6 +268,71 @@ public class LoggingContext extends com.google.common.flogger.backend.system.Log
     return records;
   }
 
+  /**
+   * Returns the resource usage of the request that is processed by the current thread.
+   *
+   * <p>The returned {@link ResourceUsage} includes the resources that the current thread consumed
+   * up to now.
+   *
+   * @return the resource usage, empty if resource usage is not measured
+   */
+  public Optional<ResourceUsage> getResourceUsage() {
+    ResourceUsage.Measurement measurement = resourceUsageMeasurement.get();
+    if (measurement == null) {
+      return Optional.empty();
+    }
+    measurement.flush();
+    return Optional.of(measurement.resourceUsage());
+  }
+
+  /**
+   * Starts measuring the resource usage of the current thread for a new {@link ResourceUsage}.
+   *
+   * @return whether measuring was started, {@code false} if the resource usage was already measured
+   */
+  boolean measureResourceUsage() {
+    if (resourceUsageMeasurement.get() != null) {
+      return false;
+    }
+    resourceUsageMeasurement.set(new ResourceUsage().startMeasurement());
+    return true;
+  }
+
+  /**
+   * Starts measuring the resource usage of the current thread for the given {@link ResourceUsage}.
+   *
+   * <p>This method is intended to be only used when the logging context is copied to a new thread
+   * to ensure that the resources consumed by the new thread are accounted to the same request (see
+   * {@link LoggingContextAwareRunnable} and {@link LoggingContextAwareCallable}).
+   *
+   * @param resourceUsage the resource usage to which the resources consumed by the current thread
+   *     should be added, if {@code null} resource usage is not measured
+   */
+  void setResourceUsage(@Nullable ResourceUsage resourceUsage) {
+    stopResourceUsageMeasurement();
+    if (resourceUsage != null) {
+      resourceUsageMeasurement.set(resourceUsage.startMeasurement());
+    }
+  }
+
+  /**
+   * Stops measuring the resource usage of the current thread, after adding the resources that it
+   * consumed so far.
+   */
+  void stopResourceUsageMeasurement() {
+    ResourceUsage.Measurement measurement = resourceUsageMeasurement.get();
+    if (measurement != null) {
+      measurement.flush();
+      resourceUsageMeasurement.remove();
+    }
+  }
+
+  @Nullable
+  private static ResourceUsage getResourceUsageToCopy() {
+    ResourceUsage.Measurement measurement = resourceUsageMeasurement.get();
+    return measurement != null ? measurement.resourceUsage() : null;
+  }
+
   @Override
   public String toString() {
     return MoreObjects.toStringHelper(this)
@@ -263,6 +340,7 @@ public class LoggingContext extends com.google.common.flogger.backend.system.Log
         .add("forceLogging", forceLogging.get())
         .add("performanceLogging", performanceLogging.get())
         .add("performanceLogRecords", performanceLogRecords.get())
+        .add("resourceUsage", getResourceUsageToCopy())
         .toString();
   }
 }
@@ -16,6 +16,7 @@ package com.google.gerrit.server.logging;
 
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import java.util.concurrent.Callable;
 
 /**
@@ -40,6 +41,7 @@ class LoggingContextAwareCallable<T> implements Callable<T> {
   private final boolean forceLogging;
   private final boolean performanceLogging;
   private final MutablePerformanceLogRecords mutablePerformanceLogRecords;
+  @Nullable private final ResourceUsage resourceUsage;
 
   /**
    * Creates a LoggingContextAwareCallable that wraps the given {@link Callable}.
@@ -47,15 +49,20 @@ class LoggingContextAwareCallable<T> implements Callable<T> {
    * @param callable Callable that should be wrapped.
    * @param mutablePerformanceLogRecords instance of {@link MutablePerformanceLogRecords} to which
    *     performance log records that are created from the runnable are added
+   * @param resourceUsage instance of {@link ResourceUsage} to which the resources that are consumed
+   *     by the callable are added, {@code null} if resource usage is not measured
    */
   LoggingContextAwareCallable(
-      Callable<T> callable, MutablePerformanceLogRecords mutablePerformanceLogRecords) {
+      Callable<T> callable,
+      MutablePerformanceLogRecords mutablePerformanceLogRecords,
+      @Nullable ResourceUsage resourceUsage) {
     this.callable = callable;
     this.callingThread = Thread.currentThread();
     this.tags = LoggingContext.getInstance().getTagsAsMap();
     this.forceLogging = LoggingContext.getInstance().isLoggingForced();
     this.performanceLogging = LoggingContext.getInstance().isPerformanceLogging();
     this.mutablePerformanceLogRecords = mutablePerformanceLogRecords;
+    this.resourceUsage = resourceUsage;
   }
 
   @Override
@@ -83,10 +90,14 @@ class LoggingContextAwareCallable<T> implements Callable<T> {
     // only at the end of the request and performance log records that are created in another thread
     // should not get lost.
     loggingCtx.setMutablePerformanceLogRecords(mutablePerformanceLogRecords);
+
+    // Account the resources that are consumed by this thread to the request of the calling thread.
+    loggingCtx.setResourceUsage(resourceUsage);
     try {
       return callable.call();
     } finally {
-      // Cleanup logging context. This is important if the thread is pooled and reused.
+      // Cleanup logging context. This is important if the thread is pooled and reused. This also
+      // stops measuring the resource usage of this thread.
       loggingCtx.clear();
     }
   }
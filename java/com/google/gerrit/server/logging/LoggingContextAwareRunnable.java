@@ -16,6 +16,7 @@ package com.google.gerrit.server.logging;
 
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 
 /**
  * Wrapper for a {@link Runnable} that copies the {@link LoggingContext} from the current thread to
@@ -58,6 +59,7 @@ public class LoggingContextAwareRunnable implements Runnable {
   private final boolean forceLogging;
   private final boolean performanceLogging;
   private final MutablePerformanceLogRecords mutablePerformanceLogRecords;
+  @Nullable private final ResourceUsage resourceUsage;
 
   /**
    * Creates a LoggingContextAwareRunnable that wraps the given {@link Runnable}.
@@ -65,15 +67,20 @@ public class LoggingContextAwareRunnable implements Runnable {
    * @param runnable Runnable that should be wrapped.
    * @param mutablePerformanceLogRecords instance of {@link MutablePerformanceLogRecords} to which
    *     performance log records that are created from the runnable are added
+   * @param resourceUsage instance of {@link ResourceUsage} to which the resources that are consumed
+   *     by the runnable are added, {@code null} if resource usage is not measured
    */
   LoggingContextAwareRunnable(
-      Runnable runnable, MutablePerformanceLogRecords mutablePerformanceLogRecords) {
+      Runnable runnable,
+      MutablePerformanceLogRecords mutablePerformanceLogRecords,
+      @Nullable ResourceUsage resourceUsage) {
     this.runnable = runnable;
     this.callingThread = Thread.currentThread();
     this.tags = LoggingContext.getInstance().getTagsAsMap();
     this.forceLogging = LoggingContext.getInstance().isLoggingForced();
     this.performanceLogging = LoggingContext.getInstance().isPerformanceLogging();
     this.mutablePerformanceLogRecords = mutablePerformanceLogRecords;
+    this.resourceUsage = resourceUsage;
   }
 
   public Runnable unwrap() {
@@ -106,10 +113,14 @@ public class LoggingContextAwareRunnable implements Runnable {
     // only at the end of the request and performance log records that are created in another thread
     // should not get lost.
     loggingCtx.setMutablePerformanceLogRecords(mutablePerformanceLogRecords);
+
+    // Account the resources that are consumed by this thread to the request of the calling thread.
+    loggingCtx.setResourceUsage(resourceUsage);
     try {
       runnable.run();
     } finally {
-      // Cleanup logging context. This is important if the thread is pooled and reused.
+      // Cleanup logging context. This is important if the thread is pooled and reused. This also
+      // stops measuring the resource usage of this thread.
       loggingCtx.clear();
     }
   }
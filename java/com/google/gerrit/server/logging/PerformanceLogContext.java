@@ -19,11 +19,14 @@ import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.registration.Extension;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.lib.Config;
 
 /**
  * Context for capturing performance log records. When the context is closed the performance log
- * records are handed over to the registered {@link PerformanceLogger}s.
+ * records are handed over to the registered {@link PerformanceLogger}s, together with the resource
+ * usage of the request if it is measured (see {@link TraceContext#measureResourceUsage()}).
  *
  * <p>Capturing performance log records is disabled if there are no {@link PerformanceLogger}
  * registered (in this case the captured performance log records would never be used).
@@ -65,7 +68,10 @@ public class PerformanceLogContext implements AutoCloseable {
   @Override
   public void close() {
     if (LoggingContext.getInstance().isPerformanceLogging()) {
-      runEach(performanceLoggers, LoggingContext.getInstance().getPerformanceLogRecords());
+      runEach(
+          performanceLoggers,
+          LoggingContext.getInstance().getPerformanceLogRecords(),
+          LoggingContext.getInstance().getResourceUsage());
     }
 
     // Restore old state. Required to support nesting of PerformanceLogContext's.
@@ -82,16 +88,28 @@ public class PerformanceLogContext implements AutoCloseable {
    * @param performanceLoggers the performance loggers that should be invoked
    * @param performanceLogRecords the performance log records that should be handed over to the
    *     performance loggers
+   * @param resourceUsage the resource usage of the request that should be handed over to the
+   *     performance loggers, empty if it is not measured
    */
   private static void runEach(
       DynamicSet<PerformanceLogger> performanceLoggers,
-      ImmutableList<PerformanceLogRecord> performanceLogRecords) {
+      ImmutableList<PerformanceLogRecord> performanceLogRecords,
+      Optional<ResourceUsage> resourceUsage) {
+    long cpuTimeMs =
+        resourceUsage
+            .map(ResourceUsage::cpuTimeNanos)
+            .map(n -> n >= 0 ? TimeUnit.NANOSECONDS.toMillis(n) : -1)
+            .orElse(-1L);
+    long allocatedBytes = resourceUsage.map(ResourceUsage::allocatedBytes).orElse(-1L);
     performanceLoggers
         .entries()
         .forEach(
             p -> {
               try (TraceContext traceContext = newPluginTrace(p)) {
                 performanceLogRecords.forEach(r -> r.writeTo(p.get()));
+                if (resourceUsage.isPresent()) {
+                  p.get().logResourceUsage(cpuTimeMs, allocatedBytes);
+                }
               } catch (Throwable e) {
                 logger.atWarning().withCause(e).log(
                     "Failure in %s of plugin %s", p.get().getClass(), p.getPluginName());
@@ -47,4 +47,17 @@ public interface PerformanceLogger {
    * @param metadata metadata
    */
   void log(String operation, long durationMs, Metadata metadata);
+
+  /**
+   * Record the resources that a request consumed in a performance log.
+   *
+   * <p>Invoked once per request, after the execution times of its operations were logged, if the
+   * resource usage of the request was measured.
+   *
+   * @param cpuTimeMs CPU time that the request consumed in all threads that worked on it (in
+   *     milliseconds), {@code -1} if the JVM cannot measure it
+   * @param allocatedBytes bytes that the request allocated on the heap in all threads that worked
+   *     on it, {@code -1} if the JVM cannot measure it
+   */
+  default void logResourceUsage(long cpuTimeMs, long allocatedBytes) {}
 }
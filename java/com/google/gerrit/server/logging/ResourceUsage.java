@@ -0,0 +1,112 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.logging;
+
+import com.google.common.base.MoreObjects;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe store for the CPU time and the heap allocations of a request.
+ *
+ * <p>The thread that processes the request is measured while a {@link TraceContext} that measures
+ * resource usage is open (see {@link TraceContext#measureResourceUsage()}). When the logging
+ * context is copied to another thread (see {@link LoggingContextAwareRunnable} and {@link
+ * LoggingContextAwareCallable}) the resources that the other thread consumes while running the
+ * copied task are added to the same instance of this class.
+ *
+ * <p>The values are measured by the {@link ThreadMXBean} of the JVM. Values that the JVM cannot
+ * measure are reported as {@code -1}.
+ */
+public class ResourceUsage {
+  private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+  private static final boolean cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
+  private static final boolean allocatedBytesSupported =
+      threadMXBean instanceof com.sun.management.ThreadMXBean
+          && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported();
+
+  private final AtomicLong cpuTimeNanos = new AtomicLong();
+  private final AtomicLong allocatedBytes = new AtomicLong();
+
+  /** CPU time consumed so far (in nanoseconds), {@code -1} if the JVM cannot measure it. */
+  public long cpuTimeNanos() {
+    return cpuTimeSupported ? cpuTimeNanos.get() : -1;
+  }
+
+  /** Bytes allocated on the heap so far, {@code -1} if the JVM cannot measure it. */
+  public long allocatedBytes() {
+    return allocatedBytesSupported ? allocatedBytes.get() : -1;
+  }
+
+  /** Starts measuring the resources that the current thread consumes for this request. */
+  Measurement startMeasurement() {
+    return new Measurement();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("cpuTimeNanos", cpuTimeNanos())
+        .add("allocatedBytes", allocatedBytes())
+        .toString();
+  }
+
+  private static long currentThreadCpuTimeNanos() {
+    // -1 if CPU time measurement got disabled at runtime
+    return cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : -1;
+  }
+
+  private static long currentThreadAllocatedBytes() {
+    return allocatedBytesSupported
+        ? ((com.sun.management.ThreadMXBean) threadMXBean)
+            .getThreadAllocatedBytes(Thread.currentThread().getId())
+        : -1;
+  }
+
+  /**
+   * Measurement of the thread that started it.
+   *
+   * <p>Not thread-safe, must only be used by the thread that started the measurement.
+   */
+  class Measurement {
+    private long lastCpuTimeNanos;
+    private long lastAllocatedBytes;
+
+    private Measurement() {
+      lastCpuTimeNanos = currentThreadCpuTimeNanos();
+      lastAllocatedBytes = currentThreadAllocatedBytes();
+    }
+
+    ResourceUsage resourceUsage() {
+      return ResourceUsage.this;
+    }
+
+    /** Adds the resources that the current thread consumed since the last flush. */
+    void flush() {
+      long cpuTime = currentThreadCpuTimeNanos();
+      if (cpuTime >= 0 && lastCpuTimeNanos >= 0) {
+        cpuTimeNanos.addAndGet(cpuTime - lastCpuTimeNanos);
+      }
+      lastCpuTimeNanos = cpuTime;
+
+      long allocated = currentThreadAllocatedBytes();
+      if (allocated >= 0 && lastAllocatedBytes >= 0) {
+        allocatedBytes.addAndGet(allocated - lastAllocatedBytes);
+      }
+      lastAllocatedBytes = allocated;
+    }
+  }
+}
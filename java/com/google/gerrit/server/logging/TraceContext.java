@@ -223,6 +223,7 @@ public class TraceContext implements AutoCloseable {
   private final Table<String, String, Boolean> tags = HashBasedTable.create();
 
   private boolean stopForceLoggingOnClose;
+  private boolean stopResourceUsageMeasurementOnClose;
 
   private TraceContext() {}
 
@@ -256,6 +257,32 @@ public class TraceContext implements AutoCloseable {
     return this;
   }
 
+  /**
+   * Measures the CPU time and the heap allocations of the current thread while this trace context
+   * is open, and of the threads to which the logging context is copied.
+   *
+   * <p>No-op if the resource usage is already measured, e.g. by an outer trace context. In this
+   * case the resources are accounted to the resource usage of the outer trace context.
+   */
+  public TraceContext measureResourceUsage() {
+    if (stopResourceUsageMeasurementOnClose) {
+      return this;
+    }
+
+    stopResourceUsageMeasurementOnClose = LoggingContext.getInstance().measureResourceUsage();
+    return this;
+  }
+
+  /**
+   * Returns the resources that were consumed so far by the request that is processed in the current
+   * thread.
+   *
+   * @return the resource usage, empty if resource usage is not measured
+   */
+  public Optional<ResourceUsage> getResourceUsage() {
+    return LoggingContext.getInstance().getResourceUsage();
+  }
+
   public boolean isTracing() {
     return LoggingContext.getInstance().isLoggingForced();
   }
@@ -275,5 +302,8 @@ public class TraceContext implements AutoCloseable {
     if (stopForceLoggingOnClose) {
       LoggingContext.getInstance().forceLogging(false);
     }
+    if (stopResourceUsageMeasurementOnClose) {
+      LoggingContext.getInstance().stopResourceUsageMeasurement();
+    }
   }
 }
@@ -137,11 +137,30 @@ public abstract class AbstractChangeNotes<T> {
       return self();
     }
 
+    if (args.failOnLoadForTest.get()) {
+      throw new StorageException("Reading from NoteDb is disabled");
+    }
+    try (Repository repo = args.repoManager.openRepository(getProjectName())) {
+      return load(repo);
+    } catch (IOException e) {
+      throw new StorageException(e);
+    }
+  }
+
+  /**
+   * Load this entity from a repository that is already open.
+   *
+   * @param repo open repository of {@link #getProjectName()}; not closed by this method.
+   */
+  T load(Repository repo) {
+    if (loaded) {
+      return self();
+    }
+
     if (args.failOnLoadForTest.get()) {
       throw new StorageException("Reading from NoteDb is disabled");
     }
     try (Timer0.Context timer = args.metrics.readLatency.start();
-        Repository repo = args.repoManager.openRepository(getProjectName());
         // Call openHandle even if reading is disabled, to trigger
         // auto-rebuilding before this object may get passed to a ChangeUpdate.
         LoadHandle handle = openHandle(repo)) {
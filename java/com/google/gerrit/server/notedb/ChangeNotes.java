@@ -157,6 +157,28 @@ public class ChangeNotes extends AbstractChangeNotes<ChangeNotes> {
       return new ChangeNotes(args, change, true, refs).load();
     }
 
+    /**
+     * Create change notes from a repository that is already open, using a meta ref value that the
+     * caller already read, e.g. together with the meta refs of other changes.
+     *
+     * @param repo open repository of {@code project}; not closed by this method.
+     * @param project project of the change.
+     * @param changeId ID of the change.
+     * @param metaId value of the meta ref of the change, or null if the ref doesn't exist.
+     * @return loaded change notes.
+     * @throws NoSuchChangeException if {@code metaId} is null.
+     */
+    public ChangeNotes create(
+        Repository repo,
+        Project.NameKey project,
+        Change.Id changeId,
+        @Nullable ObjectId metaId) {
+      checkArgument(project != null, "project is required");
+      return new ChangeNotes(
+              args, newChange(project, changeId), true, refName -> Optional.ofNullable(metaId))
+          .load(repo);
+    }
+
     public List<ChangeNotes> create(Collection<Change.Id> changeIds) {
       List<ChangeNotes> notes = new ArrayList<>();
       for (Change.Id changeId : changeIds) {
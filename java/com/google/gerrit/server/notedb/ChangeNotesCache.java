@@ -39,12 +39,14 @@ import com.google.inject.name.Named;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Supplier;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
 
 @Singleton
 public class ChangeNotesCache {
@@ -52,6 +54,12 @@ public class ChangeNotesCache {
 
   @VisibleForTesting static final String CACHE_NAME = "change_notes";
 
+  /**
+   * Maximum number of commits to look back for a cached state that a cache miss can be parsed
+   * incrementally from.
+   */
+  private static final int MAX_INCREMENTAL_PARSE_COMMITS = 10;
+
   public static Module module() {
     return new CacheModule() {
       @Override
@@ -348,15 +356,47 @@ public class ChangeNotesCache {
     public ChangeNotesState call() throws ConfigInvalidException, IOException {
       logger.atFine().log(
           "Load change notes for change %s of project %s", key.changeId(), key.project());
-      ChangeNotesParser parser =
-          new ChangeNotesParser(
-              key.changeId(), key.id(), walkSupplier.get(), args.changeNoteJson, args.metrics);
+      ChangeNotesRevWalk walk = walkSupplier.get();
+      ChangeNotesState base = findCachedAncestor(walk);
+      if (base != null) {
+        ChangeNotesParser parser = newParser(walk);
+        Optional<ChangeNotesState> result = parser.parseIncrementally(base);
+        if (result.isPresent()) {
+          revisionNoteMap = parser.getRevisionNoteMap();
+          return result.get();
+        }
+        args.metrics.incrementalParseFallbacks.increment();
+      }
+      ChangeNotesParser parser = newParser(walk);
       ChangeNotesState result = parser.parseAll();
       // This assignment only happens if call() was actually called, which only
       // happens when Cache#get(K, Callable<V>) incurs a cache miss.
       revisionNoteMap = parser.getRevisionNoteMap();
       return result;
     }
+
+    private ChangeNotesParser newParser(ChangeNotesRevWalk walk) {
+      return new ChangeNotesParser(
+          key.changeId(), key.id(), walk, args.changeNoteJson, args.metrics);
+    }
+
+    /**
+     * Returns the cached state of the nearest ancestor of the requested meta commit, looking back
+     * at most {@link #MAX_INCREMENTAL_PARSE_COMMITS} commits.
+     */
+    @Nullable
+    private ChangeNotesState findCachedAncestor(ChangeNotesRevWalk walk) throws IOException {
+      RevCommit commit = walk.parseCommit(key.id());
+      for (int i = 0; i < MAX_INCREMENTAL_PARSE_COMMITS && commit.getParentCount() > 0; i++) {
+        commit = walk.parseCommit(commit.getParent(0));
+        ChangeNotesState state =
+            cache.getIfPresent(Key.create(key.project(), key.changeId(), commit.copy()));
+        if (state != null) {
+          return state;
+        }
+      }
+      return null;
+    }
   }
 
   private final Cache<Key, ChangeNotesState> cache;
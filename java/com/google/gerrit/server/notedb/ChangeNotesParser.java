@@ -44,6 +44,7 @@ import static java.util.stream.Collectors.joining;
 import com.google.common.base.Enums;
 import com.google.common.base.Splitter;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableTable;
 import com.google.common.collect.ListMultimap;
@@ -212,10 +213,122 @@ class ChangeNotesParser {
       updatePatchSetStates();
       checkMandatoryFooters();
     }
+    metrics.parsedCommits.record(updateCount);
 
     return buildState();
   }
 
+  /**
+   * Parses the commits that were added on top of a previously parsed state.
+   *
+   * <p>The commits between {@code base} and the tip are parsed like by {@link #parseAll()}, newest
+   * first, and then merged with {@code base}. This gives the same result as a full parse, since
+   * each field of the state is either taken from the newest commit that sets it, or is accumulated
+   * over all commits. Commits whose effect can't be derived from {@code base}, like commits that
+   * delete patch sets, are not parsed incrementally.
+   *
+   * @param base state of an ancestor of the tip.
+   * @return the state at the tip, or empty if the commits can't be parsed incrementally. The
+   *     parser can't be used anymore in that case; a new parser must be used for a full parse.
+   */
+  Optional<ChangeNotesState> parseIncrementally(ChangeNotesState base)
+      throws ConfigInvalidException, IOException {
+    ChangeNotesState.ChangeColumns baseColumns = base.columns();
+    if (baseColumns == null) {
+      return Optional.empty();
+    }
+    walk.reset();
+    ChangeNotesCommit tipCommit = walk.parseCommit(tip);
+    ChangeNotesCommit baseCommit = walk.parseCommit(base.metaId());
+    walk.markStart(tipCommit);
+    walk.markUninteresting(baseCommit);
+
+    ChangeNotesState result;
+    try (Timer0.Context timer = metrics.parseLatency.start()) {
+      ChangeNotesCommit commit;
+      while ((commit = walk.next()) != null) {
+        parse(commit);
+      }
+      if (!patchSetStates.isEmpty()) {
+        // Patch set states affect the parsing of older commits.
+        return Optional.empty();
+      }
+      if (status != null && baseColumns.status() == Change.Status.MERGED) {
+        // Approvals after the newest status footer of the base state are post-submit only as long
+        // as no newer status footer follows them.
+        return Optional.empty();
+      }
+
+      Map<PatchSet.Id, PatchSet> mergedPatchSets = new HashMap<>();
+      base.patchSets().forEach(e -> mergedPatchSets.put(e.getKey(), e.getValue()));
+      for (PatchSet.Id psId : patchSets.keySet()) {
+        if (!patchSetCommitParsed(psId) || mergedPatchSets.containsKey(psId)) {
+          // Fields of an older patch set, or a duplicate patch set.
+          return Optional.empty();
+        }
+      }
+
+      ListMultimap<ObjectId, Comment> mergedComments;
+      if (patchSets.isEmpty() && tipCommit.getTree().equals(baseCommit.getTree())) {
+        // No notes were added, updated or removed.
+        mergedComments = base.publishedComments();
+      } else {
+        parseNotes();
+        for (PatchSet ps : mergedPatchSets.values()) {
+          ChangeRevisionNote rn = revisionNoteMap.revisionNotes.get(ps.commitId());
+          String pushCert = rn != null ? rn.getPushCert() : null;
+          if (!ps.pushCertificate().equals(Optional.ofNullable(pushCert))) {
+            return Optional.empty();
+          }
+        }
+        mergedComments = comments;
+      }
+      mergedPatchSets.putAll(buildPatchSets());
+
+      if (!allOfPatchSets(mergedPatchSets, allChangeMessages, ChangeMessage::getPatchSetId)
+          || !allOfPatchSets(mergedPatchSets, approvals.values(), psa -> psa.key().patchSetId())
+          || !allOfPatchSets(
+              mergedPatchSets, mergedComments.values(), c -> PatchSet.id(id, c.key.patchSetId))) {
+        return Optional.empty();
+      }
+
+      Set<Account.Id> baseReviewers = base.reviewers().all();
+      for (Account.Id accountId : reviewers.rowKeySet()) {
+        if (!reviewers.contains(accountId, ReviewerStateInternal.REMOVED)
+            && !baseReviewers.contains(accountId)
+            && base.allPastReviewers().contains(accountId)) {
+          // The older approvals of a re-added reviewer were dropped from the base state.
+          return Optional.empty();
+        }
+      }
+      if (workInProgress == null) {
+        workInProgress = baseColumns.workInProgress();
+        if (workInProgress) {
+          // All reviewer updates since the base state are pending as well.
+          pendingReviewers =
+              ReviewerSet.fromTable(
+                  Tables.transpose(merge(reviewers, base.pendingReviewers().asTable())));
+          pendingReviewersByEmail =
+              ReviewerByEmailSet.fromTable(
+                  Tables.transpose(
+                      merge(reviewersByEmail, base.pendingReviewersByEmail().asTable())));
+        }
+      }
+
+      Set<Account.Id> mergedAllPastReviewers = new LinkedHashSet<>(reviewers.rowKeySet());
+      mergedAllPastReviewers.addAll(base.allPastReviewers());
+      allPastReviewers.addAll(mergedAllPastReviewers);
+      reviewers.putAll(merge(reviewers, base.reviewers().asTable()));
+      reviewersByEmail.putAll(merge(reviewersByEmail, base.reviewersByEmail().asTable()));
+      pruneReviewers();
+      pruneReviewersByEmail();
+
+      result = buildMergedState(base, mergedPatchSets, mergedComments);
+    }
+    metrics.parsedCommits.record(updateCount);
+    return Optional.of(result);
+  }
+
   RevisionNoteMap<ChangeRevisionNote> getRevisionNoteMap() {
     return revisionNoteMap;
   }
@@ -244,7 +357,7 @@ class ChangeNotesParser {
         pendingReviewers,
         pendingReviewersByEmail,
         allPastReviewers,
-        buildReviewerUpdates(),
+        buildReviewerUpdates(ImmutableList.of(), ownerId),
         ImmutableSet.copyOf(latestAttentionStatus.values()),
         assigneeUpdates,
         submitRecords,
@@ -258,6 +371,123 @@ class ChangeNotesParser {
         updateCount);
   }
 
+  private ChangeNotesState buildMergedState(
+      ChangeNotesState base,
+      Map<PatchSet.Id, PatchSet> mergedPatchSets,
+      ListMultimap<ObjectId, Comment> mergedComments) {
+    ChangeNotesState.ChangeColumns b = base.columns();
+
+    PatchSet.Id currentPatchSetId = b.currentPatchSetId();
+    for (PatchSet.Id psId : currentPatchSets) {
+      if (mergedPatchSets.containsKey(psId)) {
+        currentPatchSetId = psId;
+        break;
+      }
+    }
+
+    if (status == null && b.status() == Change.Status.MERGED) {
+      // Without a status footer in the new commits, all their approvals are followed by the status
+      // footer of the base state, see parseStatus.
+      for (PatchSetApproval.Builder psa : bufferedApprovals) {
+        if (!psa.key().isLegacySubmit()) {
+          psa.postSubmit(true);
+        }
+      }
+    }
+    ListMultimap<PatchSet.Id, PatchSetApproval> mergedApprovals =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (PatchSetApproval.Builder a : approvals.values()) {
+      if (!isRemovedReviewer(a.key().accountId())) {
+        mergedApprovals.put(a.key().patchSetId(), a.build());
+      }
+    }
+    for (Map.Entry<PatchSet.Id, PatchSetApproval> e : base.approvals()) {
+      PatchSetApproval a = e.getValue();
+      if (!approvals.containsKey(a.key()) && !isRemovedReviewer(a.key().accountId())) {
+        mergedApprovals.put(e.getKey(), a);
+      }
+    }
+    mergedApprovals.keySet().forEach(k -> mergedApprovals.get(k).sort(ChangeNotes.PSA_BY_TIME));
+
+    Map<Account.Id, AttentionSetUpdate> attentionSet = new HashMap<>(latestAttentionStatus);
+    for (AttentionSetUpdate u : base.attentionSet()) {
+      attentionSet.putIfAbsent(u.account(), u);
+    }
+
+    List<AssigneeStatusUpdate> mergedAssigneeUpdates = new ArrayList<>(assigneeUpdates);
+    mergedAssigneeUpdates.addAll(base.assigneeUpdates());
+
+    List<ChangeMessage> mergedMessages = new ArrayList<>(base.changeMessages());
+    mergedMessages.addAll(buildAllMessages());
+
+    Timestamp mergedLastUpdatedOn = b.lastUpdatedOn();
+    if (lastUpdatedOn != null && lastUpdatedOn.after(mergedLastUpdatedOn)) {
+      mergedLastUpdatedOn = lastUpdatedOn;
+    }
+
+    return ChangeNotesState.create(
+        tip.copy(),
+        id,
+        changeId != null ? Change.key(changeId) : b.changeKey(),
+        b.createdOn(),
+        mergedLastUpdatedOn,
+        b.owner(),
+        base.serverId(),
+        firstNonNull(branch, b.branch()),
+        currentPatchSetId,
+        firstNonNull(subject, b.subject()),
+        topic != null ? topic : b.topic(),
+        b.originalSubject(),
+        submissionId != null ? submissionId : b.submissionId(),
+        status != null ? status : b.status(),
+        hashtags != null ? hashtags : base.hashtags(),
+        mergedPatchSets,
+        mergedApprovals,
+        ReviewerSet.fromTable(Tables.transpose(reviewers)),
+        ReviewerByEmailSet.fromTable(Tables.transpose(reviewersByEmail)),
+        pendingReviewers,
+        pendingReviewersByEmail,
+        allPastReviewers,
+        buildReviewerUpdates(base.reviewerUpdates(), b.owner()),
+        ImmutableSet.copyOf(attentionSet.values()),
+        mergedAssigneeUpdates,
+        !submitRecords.isEmpty() ? submitRecords : base.submitRecords(),
+        mergedMessages,
+        mergedComments,
+        isPrivate != null ? isPrivate : b.isPrivate(),
+        workInProgress,
+        Boolean.TRUE.equals(hasReviewStarted) || b.reviewStarted(),
+        revertOf != null ? revertOf : b.revertOf(),
+        cherryPickOf != null ? cherryPickOf : b.cherryPickOf(),
+        base.updateCount() + updateCount);
+  }
+
+  private static <T> boolean allOfPatchSets(
+      Map<PatchSet.Id, PatchSet> patchSets, Iterable<T> ents, Function<T, PatchSet.Id> psIdFunc) {
+    for (T ent : ents) {
+      if (!patchSets.containsKey(psIdFunc.apply(ent))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the reviewer cells of a newer table, plus the cells of an older table for the reviewers
+   * that aren't in the newer one.
+   */
+  private static <R> Table<R, ReviewerStateInternal, Timestamp> merge(
+      Table<R, ReviewerStateInternal, Timestamp> newer,
+      Table<ReviewerStateInternal, R, Timestamp> older) {
+    Table<R, ReviewerStateInternal, Timestamp> result = HashBasedTable.create(newer);
+    for (Table.Cell<ReviewerStateInternal, R, Timestamp> c : older.cellSet()) {
+      if (!newer.containsRow(c.getColumnKey())) {
+        result.put(c.getColumnKey(), c.getRowKey(), c.getValue());
+      }
+    }
+    return result;
+  }
+
   private Map<PatchSet.Id, PatchSet> buildPatchSets() throws ConfigInvalidException {
     Map<PatchSet.Id, PatchSet> result = Maps.newHashMapWithExpectedSize(patchSets.size());
     for (Map.Entry<PatchSet.Id, PatchSet.Builder> e : patchSets.entrySet()) {
@@ -290,8 +520,7 @@ class ChangeNotesParser {
     for (PatchSetApproval.Builder a : approvals.values()) {
       if (!patchSetCommitParsed(a.key().patchSetId())) {
         continue; // Patch set deleted or missing.
-      } else if (allPastReviewers.contains(a.key().accountId())
-          && !reviewers.containsRow(a.key().accountId())) {
+      } else if (isRemovedReviewer(a.key().accountId())) {
         continue; // Reviewer was explicitly removed.
       }
       result.put(a.key().patchSetId(), a.build());
@@ -300,11 +529,25 @@ class ChangeNotesParser {
     return result;
   }
 
-  private List<ReviewerStatusUpdate> buildReviewerUpdates() {
-    List<ReviewerStatusUpdate> result = new ArrayList<>();
+  private boolean isRemovedReviewer(Account.Id accountId) {
+    return allPastReviewers.contains(accountId) && !reviewers.containsRow(accountId);
+  }
+
+  /**
+   * Returns the reviewer updates in chronological order.
+   *
+   * @param older updates of older commits, as returned by this method when parsing them.
+   * @param owner owner of the change.
+   */
+  private List<ReviewerStatusUpdate> buildReviewerUpdates(
+      List<ReviewerStatusUpdate> older, Account.Id owner) {
+    List<ReviewerStatusUpdate> result = new ArrayList<>(older);
     HashMap<Account.Id, ReviewerStateInternal> lastState = new HashMap<>();
+    for (ReviewerStatusUpdate u : older) {
+      lastState.put(u.reviewer(), u.state());
+    }
     for (ReviewerStatusUpdate u : Lists.reverse(reviewerUpdates)) {
-      if (!Objects.equals(ownerId, u.reviewer()) && lastState.get(u.reviewer()) != u.state()) {
+      if (!Objects.equals(owner, u.reviewer()) && lastState.get(u.reviewer()) != u.state()) {
         result.add(u);
         lastState.put(u.reviewer(), u.state());
       }
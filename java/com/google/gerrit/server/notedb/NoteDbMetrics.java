@@ -14,8 +14,10 @@
 
 package com.google.gerrit.server.notedb;
 
+import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Histogram0;
 import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer0;
 import com.google.inject.Inject;
@@ -43,6 +45,15 @@ class NoteDbMetrics {
    */
   final Timer0 parseLatency;
 
+  /**
+   * Number of commits parsed per load of a change, which is less than its number of meta commits if
+   * the change was parsed incrementally.
+   */
+  final Histogram0 parsedCommits;
+
+  /** Number of loads that found a cached ancestor state, but couldn't be parsed incrementally. */
+  final Counter0 incrementalParseFallbacks;
+
   @Inject
   NoteDbMetrics(MetricMaker metrics) {
     updateLatency =
@@ -72,5 +83,19 @@ class NoteDbMetrics {
             new Description("NoteDb parse latency for changes")
                 .setCumulative()
                 .setUnit(Units.MICROSECONDS));
+
+    parsedCommits =
+        metrics.newHistogram(
+            "notedb/parsed_commits_per_load",
+            new Description("Number of NoteDb commits parsed per load of a change")
+                .setCumulative()
+                .setUnit("commits"));
+
+    incrementalParseFallbacks =
+        metrics.newCounter(
+            "notedb/incremental_parse_fallback_count",
+            new Description(
+                    "Number of loads of changes that fell back to a full parse of NoteDb commits")
+                .setRate());
   }
 }
@@ -31,13 +31,21 @@ import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.InMemoryInserter;
 import com.google.gerrit.server.git.MergeUtil;
+import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.patch.EditTransformer.ContextAwareEdit;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -51,6 +59,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.DiffFormatter;
@@ -83,6 +93,36 @@ public class PatchListLoader implements Callable<PatchList> {
     PatchListLoader create(PatchListKey key, Project.NameKey project);
   }
 
+  @Singleton
+  static class Metrics {
+    final Timer1<String> fileDiffLatency;
+    final Counter1<String> fileDiffTimeouts;
+
+    @Inject
+    Metrics(MetricMaker metricMaker) {
+      Field<String> repositoryField =
+          Field.ofString("repository_name", Metadata.Builder::projectName)
+              .description("The name of the repository in which the diff was computed.")
+              .build();
+      fileDiffLatency =
+          metricMaker.newTimer(
+              "diff/file_diff_latency",
+              new Description("Latency for computing the diff of a single file")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS),
+              repositoryField);
+      fileDiffTimeouts =
+          metricMaker.newCounter(
+              "diff/file_diff_timeouts",
+              new Description(
+                      "Number of file diffs that fell back to a simpler diff algorithm due to a"
+                          + " timeout")
+                  .setRate()
+                  .setUnit("timeouts"),
+              repositoryField);
+    }
+  }
+
   private final GitRepositoryManager repoManager;
   private final PatchListCache patchListCache;
   private final ThreeWayMergeStrategy mergeStrategy;
@@ -91,7 +131,9 @@ public class PatchListLoader implements Callable<PatchList> {
   private final PatchListKey key;
   private final Project.NameKey project;
   private final long timeoutMillis;
+  private final int parallelism;
   private final boolean save;
+  private final Metrics metrics;
 
   @Inject
   PatchListLoader(
@@ -100,6 +142,7 @@ public class PatchListLoader implements Callable<PatchList> {
       @GerritServerConfig Config cfg,
       @DiffExecutor ExecutorService de,
       AutoMerger am,
+      Metrics metrics,
       @Assisted PatchListKey k,
       @Assisted Project.NameKey p) {
     repoManager = mgr;
@@ -117,7 +160,9 @@ public class PatchListLoader implements Callable<PatchList> {
             "timeout",
             TimeUnit.MILLISECONDS.convert(5, TimeUnit.SECONDS),
             TimeUnit.MILLISECONDS);
+    parallelism = Math.max(1, cfg.getInt("cache", PatchListCacheImpl.FILE_NAME, "parallelism", 1));
     save = AutoMerger.cacheAutomerge(cfg);
+    this.metrics = metrics;
   }
 
   @Override
@@ -205,11 +250,14 @@ public class PatchListLoader implements Callable<PatchList> {
                 b,
                 comparisonType));
       }
-      for (DiffEntry diffEntry : diffEntries) {
+      List<FileHeader> fileHeaders = toFileHeaders(repo, ins, cmp, df, diffEntries);
+      for (int i = 0; i < diffEntries.size(); i++) {
+        DiffEntry diffEntry = diffEntries.get(i);
         Set<ContextAwareEdit> editsDueToRebase =
             getEditsDueToRebase(editsDueToRebasePerFilePath, diffEntry);
         Optional<PatchListEntry> patchListEntry =
-            getPatchListEntry(reader, df, diffEntry, aTree, bTree, editsDueToRebase);
+            getPatchListEntry(
+                reader, fileHeaders.get(i), diffEntry, aTree, bTree, editsDueToRebase);
         patchListEntry.ifPresent(entries::add);
       }
       return new PatchList(
@@ -376,13 +424,12 @@ public class PatchListLoader implements Callable<PatchList> {
 
   private Optional<PatchListEntry> getPatchListEntry(
       ObjectReader objectReader,
-      DiffFormatter diffFormatter,
+      FileHeader fileHeader,
       DiffEntry diffEntry,
       RevTree treeA,
       RevTree treeB,
       Set<ContextAwareEdit> editsDueToRebase)
       throws IOException {
-    FileHeader fileHeader = toFileHeader(key.getNewId(), diffFormatter, diffEntry);
     long oldSize = getFileSize(objectReader, diffEntry.getOldMode(), diffEntry.getOldPath(), treeA);
     long newSize = getFileSize(objectReader, diffEntry.getNewMode(), diffEntry.getNewPath(), treeB);
     Set<Edit> contentEditsDueToRebase = getContentEdits(editsDueToRebase);
@@ -439,7 +486,7 @@ public class PatchListLoader implements Callable<PatchList> {
         diffExecutor.submit(
             () -> {
               synchronized (diffEntry) {
-                return diffFormatter.toFileHeader(diffEntry);
+                return computeFileHeader(diffFormatter, diffEntry);
               }
             });
 
@@ -456,6 +503,7 @@ public class PatchListLoader implements Callable<PatchList> {
           diffEntry.getOldId().name(),
           diffEntry.getNewId().name());
       result.cancel(true);
+      metrics.fileDiffTimeouts.increment(project.get());
       synchronized (diffEntry) {
         return toFileHeaderWithoutMyersDiff(diffFormatter, diffEntry);
       }
@@ -467,6 +515,98 @@ public class PatchListLoader implements Callable<PatchList> {
     }
   }
 
+  /**
+   * Computes the file headers for all given diff entries, in the order of the entries.
+   *
+   * <p>If {@code cache.diff.parallelism} is greater than 1, the file headers are computed
+   * concurrently on the {@link DiffExecutor}, each worker using its own {@link ObjectReader} and
+   * {@link DiffFormatter}. In this mode {@link #timeoutMillis} is an aggregate deadline for all
+   * files of the patch list: files whose diff was not computed by then fall back to {@link
+   * #toFileHeaderWithoutMyersDiff(DiffFormatter, DiffEntry)}.
+   *
+   * <p>Objects inserted by an {@link InMemoryInserter} can only be read through readers that share
+   * a single underlying repository reader, which is not thread-safe. In that case the file headers
+   * are always computed one at a time.
+   */
+  private List<FileHeader> toFileHeaders(
+      Repository repo,
+      ObjectInserter ins,
+      RawTextComparator cmp,
+      DiffFormatter df,
+      List<DiffEntry> diffEntries)
+      throws IOException {
+    if (parallelism <= 1 || diffEntries.size() <= 1 || ins instanceof InMemoryInserter) {
+      List<FileHeader> fileHeaders = new ArrayList<>(diffEntries.size());
+      for (DiffEntry diffEntry : diffEntries) {
+        fileHeaders.add(toFileHeader(key.getNewId(), df, diffEntry));
+      }
+      return fileHeaders;
+    }
+
+    int size = diffEntries.size();
+    int workers = Math.min(parallelism, size);
+    AtomicReferenceArray<FileHeader> results = new AtomicReferenceArray<>(size);
+    AtomicBoolean done = new AtomicBoolean();
+    List<Future<Void>> futures = new ArrayList<>(workers);
+    for (int w = 0; w < workers; w++) {
+      int first = w;
+      futures.add(
+          diffExecutor.submit(
+              () -> {
+                try (ObjectReader reader = ins.newReader();
+                    DiffFormatter workerDf = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+                  workerDf.setReader(reader, repo.getConfig());
+                  workerDf.setDiffComparator(cmp);
+                  for (int i = first; i < size && !done.get(); i += workers) {
+                    results.set(i, computeFileHeader(workerDf, diffEntries.get(i)));
+                  }
+                }
+                return null;
+              }));
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      for (Future<Void> f : futures) {
+        f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      }
+    } catch (InterruptedException | TimeoutException e) {
+      logger.atWarning().log(
+          "%s ms timeout reached for parallel Diff loader in project %s on commit %s"
+              + " comparing %s files",
+          timeoutMillis,
+          project,
+          key.getNewId().name(),
+          size);
+    } catch (ExecutionException e) {
+      // If there was an error computing the result, carry it
+      // up to the caller so the cache knows this key is invalid.
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      throw new IOException(e.getMessage(), e.getCause());
+    } finally {
+      done.set(true);
+      futures.forEach(f -> f.cancel(true));
+    }
+
+    List<FileHeader> fileHeaders = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      FileHeader fileHeader = results.get(i);
+      if (fileHeader == null) {
+        metrics.fileDiffTimeouts.increment(project.get());
+        fileHeader = toFileHeaderWithoutMyersDiff(df, diffEntries.get(i));
+      }
+      fileHeaders.add(fileHeader);
+    }
+    return fileHeaders;
+  }
+
+  private FileHeader computeFileHeader(DiffFormatter diffFormatter, DiffEntry diffEntry)
+      throws IOException {
+    try (Timer1.Context<String> ignored = metrics.fileDiffLatency.start(project.get())) {
+      return diffFormatter.toFileHeader(diffEntry);
+    }
+  }
+
   private FileHeader toFileHeaderWithoutMyersDiff(DiffFormatter diffFormatter, DiffEntry diffEntry)
       throws IOException {
     HistogramDiff histogramDiff = new HistogramDiff();
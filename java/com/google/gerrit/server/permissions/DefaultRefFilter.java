@@ -64,8 +64,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 
@@ -80,6 +82,7 @@ class DefaultRefFilter {
   private final ChangeNotes.Factory changeNotesFactory;
   @Nullable private final SearchingChangeCacheImpl changeCache;
   private final GroupCache groupCache;
+  private final RefVisibilityCache refVisibilityCache;
   private final PermissionBackend permissionBackend;
   private final ProjectControl projectControl;
   private final CurrentUser user;
@@ -91,12 +94,21 @@ class DefaultRefFilter {
 
   private Map<Change.Id, BranchNameKey> visibleChanges;
 
+  /**
+   * Whether the refs that are evaluated only changed since an earlier filtering. The visibility of
+   * their changes is then checked change by change, rather than for all changes of the project.
+   */
+  private boolean checkChangesSingly;
+
+  private final Map<Change.Id, Optional<BranchNameKey>> singlyCheckedChanges = new HashMap<>();
+
   @Inject
   DefaultRefFilter(
       TagCache tagCache,
       ChangeNotes.Factory changeNotesFactory,
       @Nullable SearchingChangeCacheImpl changeCache,
       GroupCache groupCache,
+      RefVisibilityCache refVisibilityCache,
       PermissionBackend permissionBackend,
       @GerritServerConfig Config config,
       MetricMaker metricMaker,
@@ -105,6 +117,7 @@ class DefaultRefFilter {
     this.changeNotesFactory = changeNotesFactory;
     this.changeCache = changeCache;
     this.groupCache = groupCache;
+    this.refVisibilityCache = refVisibilityCache;
     this.permissionBackend = permissionBackend;
     this.skipFullRefEvaluationIfAllRefsAreVisible =
         config.getBoolean("auth", "skipFullRefEvaluationIfAllRefsAreVisible", true);
@@ -226,6 +239,38 @@ class DefaultRefFilter {
     logger.atFinest().log("Doing full ref filtering");
     fullFilterCount.increment();
 
+    return refVisibilityCache.filter(
+        RefVisibilityCache.Key.create(
+            projectState.getNameKey(),
+            user.isIdentifiedUser() ? user.getAccountId() : null,
+            user.getEffectiveGroups().getKnownGroups(),
+            opts.filterMeta()),
+        configRevisions(),
+        refs,
+        repo.getRefDatabase(),
+        (unknownRefs, incremental) ->
+            evaluateRefs(unknownRefs, repo, opts, hasReadOnRefsStar, incremental));
+  }
+
+  /** Revisions of the project configurations that the permissions of the user derive from. */
+  private ImmutableList<ObjectId> configRevisions() {
+    ImmutableList.Builder<ObjectId> revisions = ImmutableList.builder();
+    for (ProjectState ps : projectState.tree()) {
+      ObjectId revision = ps.getConfig().getRevision();
+      revisions.add(revision != null ? revision : ObjectId.zeroId());
+    }
+    return revisions.build();
+  }
+
+  /** Evaluates the visibility of each ref. */
+  private Result evaluateRefs(
+      List<Ref> refs,
+      Repository repo,
+      RefFilterOptions opts,
+      boolean hasReadOnRefsStar,
+      boolean incremental)
+      throws PermissionBackendException {
+    checkChangesSingly = incremental && visibleChanges == null;
     boolean viewMetadata;
     boolean isAdmin;
     Account.Id userId;
@@ -396,6 +441,21 @@ class DefaultRefFilter {
   }
 
   private boolean visible(Repository repo, Change.Id changeId) throws PermissionBackendException {
+    return visibleChangeDest(repo, changeId) != null;
+  }
+
+  /** Returns the destination branch of the change, or null if the change isn't visible. */
+  @Nullable
+  private BranchNameKey visibleChangeDest(Repository repo, Change.Id changeId)
+      throws PermissionBackendException {
+    if (checkChangesSingly) {
+      Optional<BranchNameKey> dest = singlyCheckedChanges.get(changeId);
+      if (dest == null) {
+        dest = Optional.ofNullable(checkSingleChange(changeId));
+        singlyCheckedChanges.put(changeId, dest);
+      }
+      return dest.orElse(null);
+    }
     if (visibleChanges == null) {
       if (changeCache == null) {
         visibleChanges = visibleChangesByScan(repo);
@@ -404,7 +464,35 @@ class DefaultRefFilter {
       }
       logger.atFinest().log("Visible changes: %s", visibleChanges.keySet());
     }
-    return visibleChanges.containsKey(changeId);
+    return visibleChanges.get(changeId);
+  }
+
+  /**
+   * Checks the visibility of a single change, using NoteDb.
+   *
+   * @return the destination branch of the change, or null if the change isn't visible.
+   */
+  @Nullable
+  private BranchNameKey checkSingleChange(Change.Id changeId) throws PermissionBackendException {
+    if (!projectState.statePermitsRead()) {
+      return null;
+    }
+    ChangeNotes notes;
+    try {
+      notes = changeNotesFactory.create(projectState.getNameKey(), changeId);
+    } catch (StorageException e) {
+      logger.atWarning().withCause(e).log(
+          "Failed to load change %s in %s", changeId, projectState.getName());
+      return null;
+    }
+    try {
+      permissionBackendForProject.change(notes).check(ChangePermission.READ);
+      logger.atFinest().log("Change %s is visible", changeId);
+      return notes.getChange().getDest();
+    } catch (AuthException e) {
+      logger.atFinest().log("Change %s is not visible", changeId);
+      return null;
+    }
   }
 
   private boolean visibleEdit(Repository repo, String name) throws PermissionBackendException {
@@ -421,16 +509,11 @@ class DefaultRefFilter {
       return true;
     }
 
-    // Initialize visibleChanges if it wasn't initialized yet.
-    if (visibleChanges == null) {
-      visible(repo, id);
-    }
-    if (visibleChanges.containsKey(id)) {
+    BranchNameKey dest = visibleChangeDest(repo, id);
+    if (dest != null) {
       try {
         // Default to READ_PRIVATE_CHANGES as there is no special permission for reading edits.
-        permissionBackendForProject
-            .ref(visibleChanges.get(id).branch())
-            .check(RefPermission.READ_PRIVATE_CHANGES);
+        permissionBackendForProject.ref(dest.branch()).check(RefPermission.READ_PRIVATE_CHANGES);
         logger.atFinest().log("Foreign change edit ref is visible: %s", name);
         return true;
       } catch (AuthException e) {
@@ -0,0 +1,398 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static java.util.Comparator.comparing;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+
+/**
+ * Caches the outcome of full ref filtering in {@link DefaultRefFilter}.
+ *
+ * <p>Entries are keyed by project, account and the groups known to contain the user. An entry
+ * stores the names of the filtered refs, sorted, as a dictionary together with their values, and
+ * two bitmaps over the dictionary: refs that were visible, and tags whose visibility was deferred
+ * to a reachability check. A later filtering for the same key only evaluates refs that are new,
+ * whose value changed, or that belong to a change whose meta ref changed. All other refs take their
+ * visibility from the bitmaps.
+ *
+ * <p>An entry is only used as long as the revisions of the project configurations in the hierarchy
+ * of the project are unchanged, as these define the permissions. Entries are recomputed from
+ * scratch once {@code cache.ref_visibility.maxAge} has passed since their first computation, even
+ * if they were updated in between. This bounds how long group membership changes that are not
+ * reflected in the known groups of a user, e.g. of external groups, can go unnoticed.
+ *
+ * <p>Refs of an entry that are not part of a later filtering are kept, unless they were deleted.
+ */
+@Singleton
+class RefVisibilityCache {
+  static final String CACHE_NAME = "ref_visibility";
+  static final Duration DEFAULT_MAX_AGE = Duration.ofMinutes(10);
+
+  static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        cache(CACHE_NAME, Key.class, Snapshot.class)
+            .maximumWeight(64 << 20)
+            .expireAfterWrite(DEFAULT_MAX_AGE)
+            .weigher(SnapshotWeigher.class);
+        bind(RefVisibilityCache.class);
+      }
+    };
+  }
+
+  @AutoValue
+  abstract static class Key {
+    static Key create(
+        Project.NameKey project,
+        @Nullable Account.Id accountId,
+        Set<AccountGroup.UUID> groups,
+        boolean filterMeta) {
+      return new AutoValue_RefVisibilityCache_Key(
+          project, accountId, ImmutableSet.copyOf(groups), filterMeta);
+    }
+
+    abstract Project.NameKey project();
+
+    @Nullable
+    abstract Account.Id accountId();
+
+    abstract ImmutableSet<AccountGroup.UUID> groups();
+
+    abstract boolean filterMeta();
+  }
+
+  /** Visibility of the refs of a project, as seen by one user. */
+  static class Snapshot {
+    /** Time of the computation from scratch that this snapshot was derived from. */
+    private final Instant computed;
+
+    private final ImmutableList<ObjectId> configRevisions;
+    private final String[] names;
+    private final ObjectId[] ids;
+    private final BitSet visible;
+    private final BitSet deferred;
+
+    private Snapshot(
+        Instant computed,
+        ImmutableList<ObjectId> configRevisions,
+        String[] names,
+        ObjectId[] ids,
+        BitSet visible,
+        BitSet deferred) {
+      this.computed = computed;
+      this.configRevisions = configRevisions;
+      this.names = names;
+      this.ids = ids;
+      this.visible = visible;
+      this.deferred = deferred;
+    }
+
+    int size() {
+      return names.length;
+    }
+
+    /** Returns the position of the ref in the dictionary, or -1 if its value is unknown. */
+    private int indexOf(Ref ref) {
+      int i = Arrays.binarySearch(names, ref.getName());
+      return i >= 0 && Objects.equals(ids[i], ref.getObjectId()) ? i : -1;
+    }
+  }
+
+  /** Approximates the memory used by a snapshot, in bytes. */
+  static class SnapshotWeigher implements Weigher<Key, Snapshot> {
+    @Override
+    public int weigh(Key key, Snapshot value) {
+      long size = 0;
+      for (String name : value.names) {
+        // The name and the value of the ref, and their slots in the dictionary.
+        size += 96 + name.length();
+      }
+      return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+  }
+
+  /** Evaluates the visibility of refs that are not in the cache. */
+  interface Evaluator {
+    /**
+     * Evaluates the visibility of refs.
+     *
+     * @param refs refs to evaluate.
+     * @param incremental whether {@code refs} only holds the refs that changed since an earlier
+     *     filtering, rather than all refs that are filtered.
+     */
+    DefaultRefFilter.Result evaluate(List<Ref> refs, boolean incremental)
+        throws PermissionBackendException;
+  }
+
+  private final Cache<Key, Snapshot> cache;
+  private final Duration maxAge;
+
+  @Inject
+  RefVisibilityCache(
+      @Named(CACHE_NAME) Cache<Key, Snapshot> cache, @GerritServerConfig Config config) {
+    this(
+        cache,
+        Duration.ofSeconds(
+            ConfigUtil.getTimeUnit(
+                config, "cache", CACHE_NAME, "maxAge", DEFAULT_MAX_AGE.getSeconds(), SECONDS)));
+  }
+
+  @VisibleForTesting
+  RefVisibilityCache(Cache<Key, Snapshot> cache, Duration maxAge) {
+    this.cache = cache;
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * Filters refs, evaluating only those whose visibility isn't known from an earlier filtering.
+   *
+   * @param key key of the cache entry.
+   * @param configRevisions revisions of the project configurations the permissions are based on.
+   * @param refs refs to filter.
+   * @param refDb ref database of the project, used to drop deleted refs from the cache entry.
+   * @param evaluator evaluates the visibility of refs that are not in the cache.
+   * @return visible refs and deferred tags, in the order of {@code refs}.
+   */
+  DefaultRefFilter.Result filter(
+      Key key,
+      ImmutableList<ObjectId> configRevisions,
+      List<Ref> refs,
+      RefDatabase refDb,
+      Evaluator evaluator)
+      throws PermissionBackendException {
+    Instant now = TimeUtil.now();
+    Snapshot old = cache.getIfPresent(key);
+    if (old != null
+        && (!old.configRevisions.equals(configRevisions)
+            || Duration.between(old.computed, now).compareTo(maxAge) >= 0)) {
+      // Updating the entry resets its expiry in the cache, so the age of the visibility it holds
+      // is checked here.
+      old = null;
+    }
+
+    int[] known = new int[refs.size()];
+    List<Ref> unknown = new ArrayList<>();
+    Set<Change.Id> changesWithKnownMeta = old != null ? changesWithKnownMeta(old, refs) : null;
+    for (int i = 0; i < refs.size(); i++) {
+      Ref ref = refs.get(i);
+      known[i] = isCacheable(ref, changesWithKnownMeta) ? old.indexOf(ref) : -1;
+      if (known[i] < 0) {
+        unknown.add(ref);
+      }
+    }
+
+    DefaultRefFilter.Result evaluated =
+        unknown.isEmpty()
+            ? new AutoValue_DefaultRefFilter_Result(ImmutableList.of(), ImmutableList.of())
+            : evaluator.evaluate(unknown, old != null);
+    Set<Ref> visibleUnknown = Sets.newIdentityHashSet();
+    visibleUnknown.addAll(evaluated.visibleRefs());
+    Set<Ref> deferredUnknown = Sets.newIdentityHashSet();
+    deferredUnknown.addAll(evaluated.deferredTags());
+
+    List<Ref> visibleRefs = new ArrayList<>(refs.size());
+    List<Ref> deferredTags = new ArrayList<>();
+    for (int i = 0; i < refs.size(); i++) {
+      Ref ref = refs.get(i);
+      boolean isVisible;
+      boolean isDeferred;
+      if (known[i] >= 0) {
+        isVisible = old.visible.get(known[i]);
+        isDeferred = old.deferred.get(known[i]);
+      } else {
+        isVisible = visibleUnknown.contains(ref);
+        isDeferred = deferredUnknown.contains(ref);
+      }
+      if (isVisible) {
+        visibleRefs.add(ref);
+      } else if (isDeferred) {
+        deferredTags.add(ref);
+      }
+    }
+
+    if (!unknown.isEmpty()) {
+      cache.put(
+          key,
+          merge(
+              old,
+              now,
+              configRevisions,
+              refs,
+              known,
+              retained(old, refs, refDb),
+              visibleRefs,
+              deferredUnknown));
+    }
+    return new AutoValue_DefaultRefFilter_Result(visibleRefs, deferredTags);
+  }
+
+  /**
+   * Returns the changes whose meta ref is among {@code refs} with the same value as in the
+   * snapshot. The visibility of the other refs of these changes can't have changed.
+   */
+  private static Set<Change.Id> changesWithKnownMeta(Snapshot old, List<Ref> refs) {
+    Set<Change.Id> result = new HashSet<>();
+    for (Ref ref : refs) {
+      String name = ref.getName();
+      if (name.endsWith(RefNames.META_SUFFIX) && old.indexOf(ref) >= 0) {
+        Change.Id id = Change.Id.fromRef(name);
+        if (id != null) {
+          result.add(id);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static boolean isCacheable(Ref ref, @Nullable Set<Change.Id> changesWithKnownMeta) {
+    if (changesWithKnownMeta == null || ref.isSymbolic()) {
+      // The visibility of symbolic refs depends on their target.
+      return false;
+    }
+    String name = ref.getName();
+    if (RefNames.isRefsEdit(name)) {
+      // Edit refs are few, and their visibility depends on the state of their change.
+      return false;
+    }
+    Change.Id changeId = Change.Id.fromRef(name);
+    return changeId == null || changesWithKnownMeta.contains(changeId);
+  }
+
+  /**
+   * Returns the positions of the refs of the old snapshot that are not part of this filtering, but
+   * still exist.
+   */
+  private static List<Integer> retained(
+      @Nullable Snapshot old, List<Ref> refs, RefDatabase refDb)
+      throws PermissionBackendException {
+    List<Integer> retained = new ArrayList<>();
+    if (old == null) {
+      return retained;
+    }
+    Set<String> current = new HashSet<>(refs.size());
+    refs.forEach(r -> current.add(r.getName()));
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < old.names.length; i++) {
+      if (!current.contains(old.names[i])) {
+        retained.add(i);
+        names.add(old.names[i]);
+      }
+    }
+    if (names.isEmpty()) {
+      return retained;
+    }
+
+    Map<String, Ref> existing;
+    try {
+      existing = refDb.exactRef(names.toArray(new String[0]));
+    } catch (IOException e) {
+      throw new PermissionBackendException(e);
+    }
+    retained.removeIf(i -> !existing.containsKey(old.names[i]));
+    return retained;
+  }
+
+  /**
+   * Builds a new snapshot from the refs filtered now, and the retained refs of the old snapshot.
+   * The new snapshot keeps the computation time of the old one.
+   */
+  private static Snapshot merge(
+      @Nullable Snapshot old,
+      Instant now,
+      ImmutableList<ObjectId> configRevisions,
+      List<Ref> refs,
+      int[] known,
+      List<Integer> retained,
+      List<Ref> visibleRefs,
+      Set<Ref> deferredUnknown) {
+    Set<Ref> visibleNow = Sets.newIdentityHashSet();
+    visibleNow.addAll(visibleRefs);
+
+    Map<String, Integer> current = new HashMap<>(refs.size());
+    for (int i = 0; i < refs.size(); i++) {
+      current.put(refs.get(i).getName(), i);
+    }
+
+    Integer[] order = current.values().toArray(new Integer[0]);
+    Arrays.sort(order, comparing(i -> refs.get(i).getName()));
+
+    int size = order.length + retained.size();
+    String[] names = new String[size];
+    ObjectId[] ids = new ObjectId[size];
+    BitSet visible = new BitSet(size);
+    BitSet deferred = new BitSet(size);
+    int n = 0;
+    int r = 0;
+    for (int o = 0; o < order.length || r < retained.size(); n++) {
+      Ref ref = o < order.length ? refs.get(order[o]) : null;
+      int oldIndex = r < retained.size() ? retained.get(r) : -1;
+      if (ref != null && (oldIndex < 0 || ref.getName().compareTo(old.names[oldIndex]) < 0)) {
+        int i = order[o++];
+        names[n] = ref.getName();
+        ids[n] = ref.getObjectId();
+        visible.set(n, visibleNow.contains(ref));
+        deferred.set(
+            n, known[i] >= 0 ? old.deferred.get(known[i]) : deferredUnknown.contains(ref));
+      } else {
+        r++;
+        names[n] = old.names[oldIndex];
+        ids[n] = old.ids[oldIndex];
+        visible.set(n, old.visible.get(oldIndex));
+        deferred.set(n, old.deferred.get(oldIndex));
+      }
+    }
+    return new Snapshot(
+        old != null ? old.computed : now, configRevisions, names, ids, visible, deferred);
+  }
+}
@@ -93,6 +93,12 @@ public interface ProjectCache {
    */
   Set<AccountGroup.UUID> guessRelevantGroupUUIDs();
 
+  /**
+   * @return estimated set of projects whose access rules reference the given group. Like {@link
+   *     #guessRelevantGroupUUIDs()} this only considers projects that are in the cache.
+   */
+  Set<Project.NameKey> guessProjectsReferencingGroup(AccountGroup.UUID groupUuid);
+
   /**
    * Filter the set of registered project names by common prefix.
    *
@@ -14,15 +14,13 @@
 
 package com.google.gerrit.server.project;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.gerrit.server.project.ProjectCache.illegalState;
-import static java.util.stream.Collectors.toSet;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -32,6 +30,8 @@ import com.google.gerrit.entities.AccountGroup;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.index.project.ProjectIndexer;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.metrics.Counter2;
@@ -42,9 +42,13 @@ import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.CacheRefreshExecutor;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.CacheRemovalListener;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
 import com.google.gerrit.server.config.AllProjectsName;
 import com.google.gerrit.server.config.AllUsersName;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.logging.TraceContext;
 import com.google.gerrit.server.logging.TraceContext.TraceTimer;
@@ -52,16 +56,17 @@ import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
-import com.google.inject.TypeLiteral;
 import com.google.inject.name.Named;
 import java.io.IOException;
 import java.time.Duration;
-import java.util.Objects;
+import java.util.Collection;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -84,18 +89,23 @@ public class ProjectCacheImpl implements ProjectCache {
             .refreshAfterWrite(Duration.ofMinutes(15))
             .expireAfterWrite(Duration.ofHours(1));
 
-        cache(CACHE_LIST, ListKey.class, new TypeLiteral<ImmutableSortedSet<Project.NameKey>>() {})
+        persist(CACHE_LIST, ListKey.class, ProjectList.class)
+            .version(1)
             .maximumWeight(1)
+            .keySerializer(ListKey.Serializer.INSTANCE)
+            .valueSerializer(ProjectList.Serializer.INSTANCE)
             .loader(Lister.class);
 
         bind(ProjectCacheImpl.class);
         bind(ProjectCache.class).to(ProjectCacheImpl.class);
+        DynamicSet.bind(binder(), CacheRemovalListener.class).to(ProjectsByGroup.class);
 
         install(
             new LifecycleModule() {
               @Override
               protected void configure() {
                 listener().to(ProjectCacheWarmer.class);
+                listener().to(ListReconciler.class);
               }
             });
       }
@@ -105,9 +115,10 @@ public class ProjectCacheImpl implements ProjectCache {
   private final AllProjectsName allProjectsName;
   private final AllUsersName allUsersName;
   private final LoadingCache<Project.NameKey, ProjectState> byName;
-  private final LoadingCache<ListKey, ImmutableSortedSet<Project.NameKey>> list;
+  private final LoadingCache<ListKey, ProjectList> list;
   private final Lock listLock;
   private final Provider<ProjectIndexer> indexer;
+  private final ProjectsByGroup projectsByGroup;
   private final Timer0 guessRelevantGroupsLatency;
 
   @Inject
@@ -115,8 +126,9 @@ public class ProjectCacheImpl implements ProjectCache {
       final AllProjectsName allProjectsName,
       final AllUsersName allUsersName,
       @Named(CACHE_NAME) LoadingCache<Project.NameKey, ProjectState> byName,
-      @Named(CACHE_LIST) LoadingCache<ListKey, ImmutableSortedSet<Project.NameKey>> list,
+      @Named(CACHE_LIST) LoadingCache<ListKey, ProjectList> list,
       Provider<ProjectIndexer> indexer,
+      ProjectsByGroup projectsByGroup,
       MetricMaker metricMaker) {
     this.allProjectsName = allProjectsName;
     this.allUsersName = allUsersName;
@@ -124,6 +136,7 @@ public class ProjectCacheImpl implements ProjectCache {
     this.list = list;
     this.listLock = new ReentrantLock(true /* fair */);
     this.indexer = indexer;
+    this.projectsByGroup = projectsByGroup;
 
     this.guessRelevantGroupsLatency =
         metricMaker.newTimer(
@@ -182,39 +195,73 @@ public class ProjectCacheImpl implements ProjectCache {
 
   @Override
   public void remove(Project.NameKey name) {
-    listLock.lock();
     try {
-      list.put(
-          ListKey.ALL,
-          ImmutableSortedSet.copyOf(Sets.difference(list.get(ListKey.ALL), ImmutableSet.of(name))));
+      updateList(projects -> projects.remove(name));
     } catch (ExecutionException e) {
       logger.atWarning().withCause(e).log("Cannot list available projects");
-    } finally {
-      listLock.unlock();
     }
     evict(name);
   }
 
   @Override
   public void onCreateProject(Project.NameKey newProjectName) throws IOException {
-    listLock.lock();
     try {
-      list.put(
-          ListKey.ALL,
-          ImmutableSortedSet.copyOf(
-              Sets.union(list.get(ListKey.ALL), ImmutableSet.of(newProjectName))));
+      updateList(projects -> projects.add(newProjectName));
     } catch (ExecutionException e) {
       logger.atWarning().withCause(e).log("Cannot list available projects");
+    }
+    indexer.get().index(newProjectName);
+  }
+
+  /**
+   * Updates the cached project list in place and puts it back to have it written to the persistent
+   * cache.
+   *
+   * <p>The list isn't put back if it was invalidated in the meantime, as that would bring back the
+   * list from before the flush; the next read lists the repositories again instead.
+   */
+  private void updateList(Consumer<ProjectList> update) throws ExecutionException {
+    listLock.lock();
+    try {
+      ProjectList projects = list.get(ListKey.ALL);
+      update.accept(projects);
+      if (list.getIfPresent(ListKey.ALL) == projects) {
+        list.put(ListKey.ALL, projects);
+      }
+    } finally {
+      listLock.unlock();
+    }
+  }
+
+  /**
+   * Replaces the names in the cached project list by the scanned ones, see {@link
+   * ProjectList#reconcile(Collection, long)}.
+   *
+   * @return whether reconciling is done, i.e. the names were replaced or {@code projects} is no
+   *     longer cached; {@code false} if the list was modified since {@code expectedModCount} was
+   *     read.
+   */
+  private boolean reconcileList(
+      ProjectList projects, Collection<Project.NameKey> scanned, long expectedModCount) {
+    listLock.lock();
+    try {
+      if (list.getIfPresent(ListKey.ALL) != projects) {
+        return true;
+      }
+      if (!projects.reconcile(scanned, expectedModCount)) {
+        return false;
+      }
+      list.put(ListKey.ALL, projects);
+      return true;
     } finally {
       listLock.unlock();
     }
-    indexer.get().index(newProjectName);
   }
 
   @Override
   public ImmutableSortedSet<Project.NameKey> all() {
     try {
-      return list.get(ListKey.ALL);
+      return list.get(ListKey.ALL).all();
     } catch (ExecutionException e) {
       logger.atWarning().withCause(e).log("Cannot list available projects");
       return ImmutableSortedSet.of();
@@ -224,17 +271,15 @@ public class ProjectCacheImpl implements ProjectCache {
   @Override
   public Set<AccountGroup.UUID> guessRelevantGroupUUIDs() {
     try (Timer0.Context ignored = guessRelevantGroupsLatency.start()) {
-      return all().stream()
-          .map(n -> byName.getIfPresent(n))
-          .filter(Objects::nonNull)
-          .flatMap(p -> p.getConfig().getAllGroupUUIDs().stream())
-          // getAllGroupUUIDs shouldn't really return null UUIDs, but harden
-          // against them just in case there is a bug or corner case.
-          .filter(id -> id != null && id.get() != null)
-          .collect(toSet());
+      return projectsByGroup.allGroups();
     }
   }
 
+  @Override
+  public Set<Project.NameKey> guessProjectsReferencingGroup(AccountGroup.UUID groupUuid) {
+    return projectsByGroup.projects(groupUuid);
+  }
+
   @Override
   public ImmutableSortedSet<Project.NameKey> byName(String pfx) {
     Project.NameKey start = Project.nameKey(pfx);
@@ -254,6 +299,7 @@ public class ProjectCacheImpl implements ProjectCache {
     private final GitRepositoryManager mgr;
     private final ProjectConfig.Factory projectConfigFactory;
     private final ListeningExecutorService cacheRefreshExecutor;
+    private final ProjectsByGroup projectsByGroup;
     private final Counter2<String, Boolean> refreshCounter;
 
     @Inject
@@ -262,11 +308,13 @@ public class ProjectCacheImpl implements ProjectCache {
         GitRepositoryManager g,
         ProjectConfig.Factory projectConfigFactory,
         @CacheRefreshExecutor ListeningExecutorService cacheRefreshExecutor,
+        ProjectsByGroup projectsByGroup,
         MetricMaker metricMaker) {
       projectStateFactory = psf;
       mgr = g;
       this.projectConfigFactory = projectConfigFactory;
       this.cacheRefreshExecutor = cacheRefreshExecutor;
+      this.projectsByGroup = projectsByGroup;
       refreshCounter =
           metricMaker.newCounter(
               "caches/refresh_count",
@@ -283,7 +331,9 @@ public class ProjectCacheImpl implements ProjectCache {
         try (Repository git = mgr.openRepository(key)) {
           ProjectConfig cfg = projectConfigFactory.create(key);
           cfg.load(key, git);
-          return projectStateFactory.create(cfg);
+          ProjectState state = projectStateFactory.create(cfg);
+          projectsByGroup.update(key, state);
+          return state;
         }
       }
     }
@@ -315,9 +365,27 @@ public class ProjectCacheImpl implements ProjectCache {
     static final ListKey ALL = new ListKey();
 
     private ListKey() {}
+
+    enum Serializer implements CacheSerializer<ListKey> {
+      INSTANCE;
+
+      private static final String ALL_KEY = "all";
+
+      @Override
+      public byte[] serialize(ListKey object) {
+        return StringCacheSerializer.INSTANCE.serialize(ALL_KEY);
+      }
+
+      @Override
+      public ListKey deserialize(byte[] in) {
+        checkArgument(
+            ALL_KEY.equals(StringCacheSerializer.INSTANCE.deserialize(in)), "invalid list key");
+        return ALL;
+      }
+    }
   }
 
-  static class Lister extends CacheLoader<ListKey, ImmutableSortedSet<Project.NameKey>> {
+  static class Lister extends CacheLoader<ListKey, ProjectList> {
     private final GitRepositoryManager mgr;
 
     @Inject
@@ -326,11 +394,68 @@ public class ProjectCacheImpl implements ProjectCache {
     }
 
     @Override
-    public ImmutableSortedSet<Project.NameKey> load(ListKey key) throws Exception {
+    public ProjectList load(ListKey key) throws Exception {
       try (TraceTimer timer = TraceContext.newTimer("Loading project list")) {
-        return ImmutableSortedSet.copyOf(mgr.list());
+        return new ProjectList(mgr.list());
+      }
+    }
+  }
+
+  /**
+   * Reconciles a project list that was read from the persistent cache on startup with the
+   * repositories on disk, to pick up repositories that were created or deleted while the server was
+   * not running. Until then the list from the persistent cache is served.
+   *
+   * <p>If a project is created or deleted while the repositories are listed, the repositories are
+   * listed again after a delay.
+   */
+  @Singleton
+  static class ListReconciler implements LifecycleListener {
+    private static final long RETRY_DELAY_SECONDS = 10;
+
+    private final LoadingCache<ListKey, ProjectList> list;
+    private final ProjectCacheImpl projectCache;
+    private final GitRepositoryManager mgr;
+    private final WorkQueue workQueue;
+
+    @Inject
+    ListReconciler(
+        @Named(CACHE_LIST) LoadingCache<ListKey, ProjectList> list,
+        ProjectCacheImpl projectCache,
+        GitRepositoryManager mgr,
+        WorkQueue workQueue) {
+      this.list = list;
+      this.projectCache = projectCache;
+      this.mgr = mgr;
+      this.workQueue = workQueue;
+    }
+
+    @Override
+    public void start() {
+      ProjectList projects = list.getIfPresent(ListKey.ALL);
+      if (projects == null) {
+        // Not persisted, the list is loaded from disk when needed.
+        return;
       }
+      workQueue.getDefaultQueue().execute(() -> reconcile(projects));
     }
+
+    private void reconcile(ProjectList projects) {
+      try (TraceTimer timer = TraceContext.newTimer("Reconciling project list")) {
+        long modCount = projects.modCount();
+        if (!projectCache.reconcileList(projects, mgr.list(), modCount)) {
+          logger.atFine().log("Project list was modified while reconciling, retrying");
+          workQueue
+              .getDefaultQueue()
+              .schedule(() -> reconcile(projects), RETRY_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+      } catch (RuntimeException e) {
+        logger.atWarning().withCause(e).log("Cannot reconcile project list");
+      }
+    }
+
+    @Override
+    public void stop() {}
   }
 
   @VisibleForTesting
@@ -0,0 +1,131 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.proto.Protos;
+import com.google.gerrit.server.cache.proto.Cache.ProjectListProto;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Sorted names of all projects, as held by the {@code project_list} cache.
+ *
+ * <p>The names are kept in a concurrent sorted set that is updated in place when a project is
+ * created or deleted, so that these don't require listing all repositories again. Readers get an
+ * immutable snapshot that is rebuilt from the set on the first read after a modification.
+ */
+class ProjectList {
+  private final ConcurrentSkipListSet<Project.NameKey> names;
+
+  /** Number of modifications, guarded by {@code this}; read without lock by readers. */
+  private volatile long modCount;
+
+  private volatile Snapshot snapshot;
+
+  private static class Snapshot {
+    final long modCount;
+    final ImmutableSortedSet<Project.NameKey> names;
+
+    Snapshot(long modCount, ImmutableSortedSet<Project.NameKey> names) {
+      this.modCount = modCount;
+      this.names = names;
+    }
+  }
+
+  ProjectList(Collection<Project.NameKey> names) {
+    this.names = new ConcurrentSkipListSet<>(names);
+  }
+
+  /** Returns all project names. */
+  ImmutableSortedSet<Project.NameKey> all() {
+    long expected = modCount;
+    Snapshot s = snapshot;
+    if (s != null && s.modCount == expected) {
+      return s.names;
+    }
+    // A modification racing with the copy leaves a snapshot with an outdated modCount behind,
+    // which the next read replaces.
+    ImmutableSortedSet<Project.NameKey> copy = ImmutableSortedSet.copyOf(names);
+    snapshot = new Snapshot(expected, copy);
+    return copy;
+  }
+
+  /** Returns the project names in the range from {@code from} (inclusive) to {@code to}. */
+  ImmutableSortedSet<Project.NameKey> subSet(Project.NameKey from, Project.NameKey to) {
+    Snapshot s = snapshot;
+    if (s != null && s.modCount == modCount) {
+      return s.names.subSet(from, to);
+    }
+    return ImmutableSortedSet.copyOf(names.subSet(from, to));
+  }
+
+  long modCount() {
+    return modCount;
+  }
+
+  synchronized void add(Project.NameKey name) {
+    if (names.add(name)) {
+      modCount++;
+    }
+  }
+
+  synchronized void remove(Project.NameKey name) {
+    if (names.remove(name)) {
+      modCount++;
+    }
+  }
+
+  /**
+   * Replaces the names by the given ones, unless the list was modified since {@code
+   * expectedModCount} was read.
+   *
+   * @param scanned names of all projects, as found by listing the repositories.
+   * @param expectedModCount {@link #modCount()} as read before listing the repositories.
+   * @return whether the names were replaced.
+   */
+  synchronized boolean reconcile(Collection<Project.NameKey> scanned, long expectedModCount) {
+    if (modCount != expectedModCount) {
+      return false;
+    }
+    if (names.size() != scanned.size() || !names.containsAll(scanned)) {
+      names.retainAll(scanned);
+      names.addAll(scanned);
+      modCount++;
+    }
+    return true;
+  }
+
+  enum Serializer implements CacheSerializer<ProjectList> {
+    INSTANCE;
+
+    @Override
+    public byte[] serialize(ProjectList object) {
+      ProjectListProto.Builder b = ProjectListProto.newBuilder();
+      object.names.forEach(n -> b.addName(n.get()));
+      return Protos.toByteArray(b.build());
+    }
+
+    @Override
+    public ProjectList deserialize(byte[] in) {
+      ProjectListProto proto = Protos.parseUnchecked(ProjectListProto.parser(), in);
+      ImmutableSortedSet.Builder<Project.NameKey> names = ImmutableSortedSet.naturalOrder();
+      proto.getNameList().forEach(n -> names.add(Project.nameKey(n)));
+      return new ProjectList(names.build());
+    }
+  }
+}
@@ -0,0 +1,150 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.registration.PluginName;
+import com.google.gerrit.server.cache.CacheRemovalListener;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index from group UUIDs to the projects whose configuration references them.
+ *
+ * <p>Only projects whose {@link ProjectState} is in the {@code projects} cache are indexed. A
+ * project is added when its state is loaded, and dropped when the state is removed from the cache,
+ * unless it was replaced by a newer state in the meantime.
+ */
+@Singleton
+class ProjectsByGroup implements CacheRemovalListener<Project.NameKey, ProjectState> {
+  private static class Entry {
+    final ProjectState state;
+    final ImmutableSet<AccountGroup.UUID> groups;
+
+    Entry(ProjectState state, ImmutableSet<AccountGroup.UUID> groups) {
+      this.state = state;
+      this.groups = groups;
+    }
+  }
+
+  // Guarded by this.
+  private final Map<Project.NameKey, Entry> byProject = new HashMap<>();
+  private final Map<AccountGroup.UUID, Set<Project.NameKey>> byGroup = new HashMap<>();
+
+  /** All indexed groups, reset whenever a group is added to or dropped from the index. */
+  private volatile ImmutableSet<AccountGroup.UUID> groups = ImmutableSet.of();
+
+  /** Indexes the groups of a newly loaded project state. */
+  void update(Project.NameKey project, ProjectState state) {
+    ImmutableSet<AccountGroup.UUID> newGroups = groupsOf(state);
+    synchronized (this) {
+      Entry old = byProject.put(project, new Entry(state, newGroups));
+      if (old != null) {
+        unindex(project, old.groups, newGroups);
+      }
+      for (AccountGroup.UUID group : newGroups) {
+        Set<Project.NameKey> projects = byGroup.get(group);
+        if (projects == null) {
+          projects = new HashSet<>();
+          byGroup.put(group, projects);
+          groups = null;
+        }
+        projects.add(project);
+      }
+    }
+  }
+
+  /** Drops a project from the index if {@code state} is the state it was indexed with. */
+  synchronized void remove(Project.NameKey project, ProjectState state) {
+    Entry entry = byProject.get(project);
+    if (entry != null && entry.state == state) {
+      byProject.remove(project);
+      unindex(project, entry.groups, ImmutableSet.of());
+    }
+  }
+
+  /**
+   * Returns the groups referenced by the configuration of at least one project in the {@code
+   * projects} cache.
+   */
+  ImmutableSet<AccountGroup.UUID> allGroups() {
+    ImmutableSet<AccountGroup.UUID> result = groups;
+    if (result == null) {
+      synchronized (this) {
+        if (groups == null) {
+          groups = ImmutableSet.copyOf(byGroup.keySet());
+        }
+        result = groups;
+      }
+    }
+    return result;
+  }
+
+  /** Returns the projects in the {@code projects} cache whose configuration references a group. */
+  synchronized ImmutableSet<Project.NameKey> projects(AccountGroup.UUID group) {
+    Set<Project.NameKey> projects = byGroup.get(group);
+    return projects != null ? ImmutableSet.copyOf(projects) : ImmutableSet.of();
+  }
+
+  @Override
+  public void onRemoval(
+      String pluginName,
+      String cacheName,
+      RemovalNotification<Project.NameKey, ProjectState> notification) {
+    if (!PluginName.GERRIT.equals(pluginName)
+        || !ProjectCacheImpl.CACHE_NAME.equals(cacheName)
+        || notification.getKey() == null) {
+      return;
+    }
+    if (notification.getCause() == RemovalCause.REPLACED) {
+      // The replacing state was indexed by the loader already.
+      return;
+    }
+    remove(notification.getKey(), notification.getValue());
+  }
+
+  private void unindex(
+      Project.NameKey project,
+      Set<AccountGroup.UUID> oldGroups,
+      Set<AccountGroup.UUID> retainedGroups) {
+    for (AccountGroup.UUID group : oldGroups) {
+      if (retainedGroups.contains(group)) {
+        continue;
+      }
+      Set<Project.NameKey> projects = byGroup.get(group);
+      if (projects != null && projects.remove(project) && projects.isEmpty()) {
+        byGroup.remove(group);
+        groups = null;
+      }
+    }
+  }
+
+  private static ImmutableSet<AccountGroup.UUID> groupsOf(ProjectState state) {
+    return state.getConfig().getAllGroupUUIDs().stream()
+        // getAllGroupUUIDs shouldn't really return null UUIDs, but harden
+        // against them just in case there is a bug or corner case.
+        .filter(id -> id != null && id.get() != null)
+        .collect(toImmutableSet());
+  }
+}
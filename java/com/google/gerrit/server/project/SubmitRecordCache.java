@@ -0,0 +1,224 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.gerrit.server.project.ProjectCache.illegalState;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.common.Version;
+import com.google.gerrit.common.data.SubmitRecord;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.proto.Cache.SubmitRecordKeyProto;
+import com.google.gerrit.server.cache.proto.Cache.SubmitRecordsProto;
+import com.google.gerrit.server.cache.serialize.ObjectIdConverter;
+import com.google.gerrit.server.cache.serialize.ProtobufSerializer;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.index.change.ChangeField.StoredSubmitRecord;
+import com.google.gerrit.server.plugincontext.PluginSetContext;
+import com.google.gerrit.server.plugincontext.PluginSetEntryContext;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.rules.SubmitRule;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.List;
+import java.util.function.Supplier;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Caches the submit records of changes.
+ *
+ * <p>Records are keyed by the meta revision of the change, the {@code refs/meta/config} revisions
+ * of its project hierarchy, which hold the {@code rules.pl} files and the label definitions, the
+ * Gerrit version and the installed submit rules, including a checksum of the jar each is loaded
+ * from, so that the persisted records of upgraded rules aren't used. Submit rules must not depend
+ * on other state while the cache is enabled.
+ *
+ * <p>Only changes whose {@link ChangeData} reads the change and its current approvals from the
+ * notes use the cache, since the records of a change loaded from the index may be evaluated on
+ * stale fields.
+ */
+@Singleton
+public class SubmitRecordCache {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String CACHE_NAME = "submit_records";
+
+  /** Checksums of the jars that submit rule classes are loaded from. */
+  private static final ClassValue<String> JAR_CHECKSUMS =
+      new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+          return jarChecksum(type);
+        }
+      };
+
+  private static final Gson GSON = OutputFormat.JSON_COMPACT.newGson();
+
+  public static Module module() {
+    return new CacheModule() {
+      @Override
+      protected void configure() {
+        persist(CACHE_NAME, SubmitRecordKeyProto.class, SubmitRecordsProto.class)
+            .version(2)
+            .keySerializer(new ProtobufSerializer<>(SubmitRecordKeyProto.parser()))
+            .valueSerializer(new ProtobufSerializer<>(SubmitRecordsProto.parser()));
+        bind(SubmitRecordCache.class);
+      }
+    };
+  }
+
+  private final boolean enabled;
+  private final Cache<SubmitRecordKeyProto, SubmitRecordsProto> cache;
+  private final ProjectCache projectCache;
+  private final PluginSetContext<SubmitRule> submitRules;
+  private final Counter0 evaluationsAvoided;
+  private final Counter0 prologEvaluationsAvoided;
+
+  @Inject
+  SubmitRecordCache(
+      @GerritServerConfig Config config,
+      @Named(CACHE_NAME) Cache<SubmitRecordKeyProto, SubmitRecordsProto> cache,
+      ProjectCache projectCache,
+      PluginSetContext<SubmitRule> submitRules,
+      MetricMaker metricMaker) {
+    this.enabled = config.getBoolean("change", "cacheSubmitRecords", false);
+    this.cache = cache;
+    this.projectCache = projectCache;
+    this.submitRules = submitRules;
+    this.evaluationsAvoided =
+        metricMaker.newCounter(
+            "change/submit_rule_evaluations_cached",
+            new Description("Submit rule evaluations served from the submit_records cache")
+                .setRate());
+    this.prologEvaluationsAvoided =
+        metricMaker.newCounter(
+            "change/prolog_submit_rule_evaluations_cached",
+            new Description(
+                    "Submit rule evaluations of changes with Prolog rules served from the"
+                        + " submit_records cache")
+                .setRate());
+  }
+
+  /**
+   * Returns the submit records of a change.
+   *
+   * @param cd change to get the records for.
+   * @param evaluator evaluates the submit rules of the change if its records aren't cached.
+   *     Records with status {@link SubmitRecord.Status#RULE_ERROR} are not cached.
+   * @return the submit records; callers may modify them.
+   */
+  List<SubmitRecord> get(ChangeData cd, Supplier<List<SubmitRecord>> evaluator) {
+    if (!enabled) {
+      return evaluator.get();
+    }
+    ProjectState projectState =
+        projectCache.get(cd.project()).orElseThrow(illegalState(cd.project()));
+    SubmitRecordKeyProto key = key(cd, projectState);
+    if (key == null) {
+      return evaluator.get();
+    }
+
+    SubmitRecordsProto cached = cache.getIfPresent(key);
+    if (cached != null) {
+      evaluationsAvoided.increment();
+      if (projectState.hasPrologRules()) {
+        prologEvaluationsAvoided.increment();
+      }
+      return cached.getSubmitRecordList().stream()
+          .map(r -> GSON.fromJson(r, StoredSubmitRecord.class).toSubmitRecord())
+          .collect(toList());
+    }
+
+    List<SubmitRecord> records = evaluator.get();
+    if (records.stream().noneMatch(r -> r.status == SubmitRecord.Status.RULE_ERROR)) {
+      SubmitRecordsProto.Builder value = SubmitRecordsProto.newBuilder();
+      records.forEach(r -> value.addSubmitRecord(GSON.toJson(new StoredSubmitRecord(r))));
+      cache.put(key, value.build());
+    }
+    return records;
+  }
+
+  @Nullable
+  private SubmitRecordKeyProto key(ChangeData cd, ProjectState projectState) {
+    if (!cd.changeAndApprovalsFromNotes()) {
+      // The submit rules would read fields of an index document that may not match the meta
+      // revision of the key.
+      return null;
+    }
+    ObjectId metaId = cd.notes().getRevision();
+    if (metaId == null) {
+      return null;
+    }
+    ObjectIdConverter idConverter = ObjectIdConverter.create();
+    SubmitRecordKeyProto.Builder key =
+        SubmitRecordKeyProto.newBuilder()
+            .setProject(cd.project().get())
+            .setChangeId(cd.getId().get())
+            .setMetaId(idConverter.toByteString(metaId))
+            .setGerritVersion(Version.getVersion());
+    for (ProjectState s : projectState.tree()) {
+      ObjectId revision = s.getConfig().getRevision();
+      key.addConfigRevision(
+          revision != null ? idConverter.toByteString(revision) : ByteString.EMPTY);
+    }
+    for (PluginSetEntryContext<SubmitRule> rule : submitRules) {
+      Class<?> type = rule.get().getClass();
+      key.addSubmitRule(
+          rule.getPluginName() + ":" + type.getName() + ":" + JAR_CHECKSUMS.get(type));
+    }
+    return key.build();
+  }
+
+  /**
+   * Returns a checksum of the jar a class is loaded from, or its implementation version if it
+   * isn't loaded from a jar file.
+   */
+  private static String jarChecksum(Class<?> type) {
+    CodeSource source = type.getProtectionDomain().getCodeSource();
+    if (source != null && source.getLocation() != null) {
+      try {
+        Path jar = Paths.get(source.getLocation().toURI());
+        if (Files.isRegularFile(jar)) {
+          return MoreFiles.asByteSource(jar).hash(Hashing.murmur3_128()).toString();
+        }
+      } catch (URISyntaxException | IOException | RuntimeException e) {
+        logger.atWarning().withCause(e).log("Cannot compute checksum of jar of %s", type.getName());
+      }
+    }
+    Package pkg = type.getPackage();
+    return Strings.nullToEmpty(pkg != null ? pkg.getImplementationVersion() : null);
+  }
+}
@@ -50,6 +50,7 @@ public class SubmitRuleEvaluator {
   private final ProjectCache projectCache;
   private final PrologRule prologRule;
   private final PluginSetContext<SubmitRule> submitRules;
+  private final SubmitRecordCache submitRecordCache;
   private final Timer0 submitRuleEvaluationLatency;
   private final Timer0 submitTypeEvaluationLatency;
   private final SubmitRuleOptions opts;
@@ -64,11 +65,13 @@ public class SubmitRuleEvaluator {
       ProjectCache projectCache,
       PrologRule prologRule,
       PluginSetContext<SubmitRule> submitRules,
+      SubmitRecordCache submitRecordCache,
       MetricMaker metricMaker,
       @Assisted SubmitRuleOptions options) {
     this.projectCache = projectCache;
     this.prologRule = prologRule;
     this.submitRules = submitRules;
+    this.submitRecordCache = submitRecordCache;
     this.submitRuleEvaluationLatency =
         metricMaker.newTimer(
             "change/submit_rule_evaluation",
@@ -129,11 +132,14 @@ public class SubmitRuleEvaluator {
 
       // We evaluate all the plugin-defined evaluators,
       // and then we collect the results in one list.
-      return Streams.stream(submitRules)
-          .map(c -> c.call(s -> s.evaluate(cd)))
-          .filter(Optional::isPresent)
-          .map(Optional::get)
-          .collect(Collectors.toList());
+      return submitRecordCache.get(
+          cd,
+          () ->
+              Streams.stream(submitRules)
+                  .map(c -> c.call(s -> s.evaluate(cd)))
+                  .filter(Optional::isPresent)
+                  .map(Optional::get)
+                  .collect(Collectors.toList()));
     }
   }
 
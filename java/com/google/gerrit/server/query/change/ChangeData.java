@@ -275,6 +275,7 @@ public class ChangeData {
   private Collection<PatchSet> patchSets;
   private ListMultimap<PatchSet.Id, PatchSetApproval> allApprovals;
   private List<PatchSetApproval> currentApprovals;
+  private boolean currentApprovalsFromNotes = true;
   private List<String> currentFiles;
   private Optional<DiffSummary> diffSummary;
   private Collection<Comment> publishedComments;
@@ -492,6 +493,28 @@ public class ChangeData {
     return notes;
   }
 
+  /** Whether {@link #notes()} would still have to load the notes of this change. */
+  boolean needsNotes() {
+    return notes == null && lazyLoad;
+  }
+
+  /**
+   * Whether the change and its current approvals are read from the loaded notes of this change,
+   * rather than being set from stored fields of an index document that may be stale.
+   */
+  public boolean changeAndApprovalsFromNotes() {
+    return notes != null && change == notes.getChange() && currentApprovalsFromNotes;
+  }
+
+  /** Set notes loaded by {@link ChangeNotesBatchLoader}. */
+  void setNotes(ChangeNotes notes) {
+    this.notes = notes;
+    if (change == null) {
+      change = notes.getChange();
+      setPatchSets(null);
+    }
+  }
+
   public PatchSet currentPatchSet() {
     if (currentPatchSet == null) {
       Change c = change();
@@ -535,6 +558,7 @@ public class ChangeData {
 
   public void setCurrentApprovals(List<PatchSetApproval> approvals) {
     currentApprovals = approvals;
+    currentApprovalsFromNotes = false;
   }
 
   public String commitMessage() {
@@ -896,6 +920,11 @@ public class ChangeData {
     submitRecords.put(options, records);
   }
 
+  /** Drop all submit records, so that they are evaluated again when needed. */
+  public void clearSubmitRecords() {
+    submitRecords.clear();
+  }
+
   public SubmitTypeRecord submitTypeRecord() {
     if (submitTypeRecord == null) {
       submitTypeRecord =
@@ -0,0 +1,131 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.query.change;
+
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.server.FanOutExecutor;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Loads the {@link ChangeNotes} of many {@link ChangeData} at once.
+ *
+ * <p>Loading notes lazily opens the repository and reads the meta ref once per change. This loader
+ * groups the changes by project, opens each repository once, reads the meta refs of all changes
+ * of the project with a single ref database lookup, and parses the notes on the {@link
+ * FanOutExecutor}. Parsed notes are stored in the {@code ChangeNotesCache} as usual.
+ *
+ * <p>Changes whose notes can't be loaded are skipped, so that the error surfaces as before when the
+ * notes are loaded lazily.
+ */
+@Singleton
+public class ChangeNotesBatchLoader {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Maximum number of threads parsing the notes of one project, including the caller. */
+  private static final int MAX_THREADS_PER_PROJECT = 4;
+
+  private final GitRepositoryManager repoManager;
+  private final ChangeNotes.Factory notesFactory;
+  private final ExecutorService executor;
+
+  @Inject
+  ChangeNotesBatchLoader(
+      GitRepositoryManager repoManager,
+      ChangeNotes.Factory notesFactory,
+      @FanOutExecutor ExecutorService executor) {
+    this.repoManager = repoManager;
+    this.notesFactory = notesFactory;
+    this.executor = executor;
+  }
+
+  /** Load the notes of all changes that didn't load them yet and allow lazy loading. */
+  public void load(Iterable<ChangeData> changes) {
+    ListMultimap<Project.NameKey, ChangeData> byProject =
+        MultimapBuilder.hashKeys().arrayListValues().build();
+    for (ChangeData cd : changes) {
+      if (cd.needsNotes()) {
+        byProject.put(cd.project(), cd);
+      }
+    }
+    if (byProject.size() <= 1) {
+      // Nothing to gain over loading lazily.
+      return;
+    }
+    for (Project.NameKey project : byProject.keySet()) {
+      load(project, byProject.get(project));
+    }
+  }
+
+  private void load(Project.NameKey project, List<ChangeData> changes) {
+    try (Repository repo = repoManager.openRepository(project)) {
+      String[] refNames =
+          changes.stream().map(cd -> RefNames.changeMetaRef(cd.getId())).toArray(String[]::new);
+      Map<String, Ref> metaRefs = repo.getRefDatabase().exactRef(refNames);
+
+      // The caller works on the queue as well, so that progress doesn't depend on free threads in
+      // the executor. Each ChangeData is taken from the queue, and modified, by one thread only.
+      Queue<ChangeData> pending = new ConcurrentLinkedQueue<>(changes);
+      int helpers = Math.min(changes.size(), MAX_THREADS_PER_PROJECT) - 1;
+      List<Future<?>> futures = new ArrayList<>(helpers);
+      for (int i = 0; i < helpers; i++) {
+        futures.add(executor.submit(() -> load(repo, metaRefs, pending)));
+      }
+      load(repo, metaRefs, pending);
+      for (Future<?> f : futures) {
+        try {
+          // The repository must stay open until all helpers are done.
+          Uninterruptibles.getUninterruptibly(f);
+        } catch (ExecutionException e) {
+          logger.atWarning().withCause(e).log("Cannot load changes of project %s", project);
+        }
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot load changes of project %s", project);
+    }
+  }
+
+  private void load(Repository repo, Map<String, Ref> metaRefs, Queue<ChangeData> pending) {
+    ChangeData cd;
+    while ((cd = pending.poll()) != null) {
+      Ref metaRef = metaRefs.get(RefNames.changeMetaRef(cd.getId()));
+      try {
+        cd.setNotes(
+            notesFactory.create(
+                repo, cd.project(), cd.getId(), metaRef != null ? metaRef.getObjectId() : null));
+      } catch (RuntimeException e) {
+        logger.atFine().withCause(e).log("Deferring load of change %s", cd.getId());
+      }
+    }
+  }
+}
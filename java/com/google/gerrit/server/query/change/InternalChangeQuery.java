@@ -23,7 +23,9 @@ import static com.google.gerrit.server.query.change.ChangeStatusPredicate.open;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.collect.Sets;
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Change;
@@ -127,6 +129,40 @@ public class InternalChangeQuery extends InternalQuery<ChangeData, InternalChang
     return query(byBranchKeyPred(branch, key));
   }
 
+  /**
+   * Looks up changes on a branch by a batch of Change-Id keys.
+   *
+   * <p>The keys are matched by as few queries as the index allows, rather than by one query per
+   * key. Keys must be complete, since the index matches shorter keys by prefix.
+   *
+   * @param queryProvider provider of queries; one query is used per partition of keys.
+   * @param indexConfig config of the change index, to partition the keys.
+   * @param branch branch of the changes.
+   * @param keys complete Change-Id keys.
+   * @return changes on the branch by key; keys without matching changes are absent.
+   */
+  public static ListMultimap<Change.Key, ChangeData> byBranchKeys(
+      Provider<InternalChangeQuery> queryProvider,
+      IndexConfig indexConfig,
+      BranchNameKey branch,
+      Collection<Change.Key> keys) {
+    ListMultimap<Change.Key, ChangeData> result =
+        MultimapBuilder.hashKeys(keys.size()).arrayListValues(1).build();
+    // Account for all key predicates plus ref, project.
+    int batchSize = indexConfig.maxTerms() - 2;
+    for (List<Change.Key> part : Iterables.partition(keys, batchSize)) {
+      List<Predicate<ChangeData>> keyPredicates = new ArrayList<>(part.size());
+      for (Change.Key key : part) {
+        keyPredicates.add(change(key));
+      }
+      Predicate<ChangeData> p = and(ref(branch), project(branch.project()), or(keyPredicates));
+      for (ChangeData cd : queryProvider.get().query(p)) {
+        result.put(cd.change().getKey(), cd);
+      }
+    }
+    return result;
+  }
+
   public List<ChangeData> byBranchKeyOpen(Project.NameKey project, String branch, Change.Key key) {
     return query(and(byBranchKeyPred(BranchNameKey.create(project, branch), key), open()));
   }
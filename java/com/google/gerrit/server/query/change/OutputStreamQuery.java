@@ -17,6 +17,7 @@ package com.google.gerrit.server.query.change;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.data.LabelTypes;
 import com.google.gerrit.entities.PatchSet;
@@ -31,6 +32,7 @@ import com.google.gerrit.server.data.PatchSetAttribute;
 import com.google.gerrit.server.data.QueryStatsAttribute;
 import com.google.gerrit.server.events.EventFactory;
 import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.project.SubmitRuleEvaluator;
 import com.google.gerrit.server.project.SubmitRuleOptions;
 import com.google.gerrit.server.util.time.TimeUtil;
@@ -94,6 +96,7 @@ public class OutputStreamQuery {
   private boolean includeDependencies;
   private boolean includeSubmitRecords;
   private boolean includeAllReviewers;
+  private String searchAfter;
 
   private OutputStream outputStream = DisabledOutputStream.INSTANCE;
   private PrintWriter out;
@@ -126,6 +129,10 @@ public class OutputStreamQuery {
     queryProcessor.setStart(n);
   }
 
+  public void setSearchAfter(String cursor) {
+    searchAfter = cursor;
+  }
+
   public void setIncludePatchSets(boolean on) {
     includePatchSets = on;
   }
@@ -206,6 +213,9 @@ public class OutputStreamQuery {
 
         Map<Project.NameKey, Repository> repos = new HashMap<>();
         Map<Project.NameKey, RevWalk> revWalks = new HashMap<>();
+        if (searchAfter != null) {
+          queryProcessor.setSearchAfter(ChangeIndexCursor.decode(searchAfter));
+        }
         QueryResult<ChangeData> results = queryProcessor.query(queryBuilder.parse(queryString));
         try {
           for (ChangeData d : results.entities()) {
@@ -217,6 +227,9 @@ public class OutputStreamQuery {
 
         stats.rowCount = results.entities().size();
         stats.moreChanges = results.more();
+        if (results.more() && !results.entities().isEmpty()) {
+          stats.searchAfter = ChangeIndexCursor.of(Iterables.getLast(results.entities())).encode();
+        }
         stats.runTimeMilliseconds = TimeUtil.nowMs() - stats.runTimeMilliseconds;
         show(stats);
       } catch (StorageException err) {
@@ -29,6 +29,7 @@ import com.google.gerrit.index.query.QueryRequiresAuthException;
 import com.google.gerrit.index.query.QueryResult;
 import com.google.gerrit.server.DynamicOptions;
 import com.google.gerrit.server.change.ChangeJson;
+import com.google.gerrit.server.index.change.ChangeIndexCursor;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeQueryBuilder;
@@ -52,6 +53,7 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
   private EnumSet<ListChangesOption> options;
   private Integer limit;
   private Integer start;
+  private String searchAfter;
   private Boolean noLimit;
 
   @Option(
@@ -89,6 +91,14 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     this.start = start;
   }
 
+  @Option(
+      name = "--search-after",
+      metaVar = "CURSOR",
+      usage = "Continue after the last change of a previous page")
+  public void setSearchAfter(String searchAfter) {
+    this.searchAfter = searchAfter;
+  }
+
   @Option(name = "--no-limit", usage = "Return all results, overriding the default limit")
   public void setNoLimit(boolean on) {
     this.noLimit = on;
@@ -149,6 +159,13 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     if (start != null) {
       queryProcessor.setStart(start);
     }
+    if (searchAfter != null) {
+      if (queries != null && queries.size() > 1) {
+        // The cursor points after the last change of one query, it can't continue the others.
+        throw new QueryParseException("search-after cannot be used with more than one query");
+      }
+      queryProcessor.setSearchAfter(ChangeIndexCursor.decode(searchAfter));
+    }
     if (noLimit != null) {
       queryProcessor.setNoLimit(noLimit);
     }
@@ -169,7 +186,10 @@ public class QueryChanges implements RestReadView<TopLevelResource>, DynamicOpti
     for (int n = 0; n < cnt; n++) {
       List<ChangeInfo> info = res.get(n);
       if (results.get(n).more() && !info.isEmpty()) {
-        Iterables.getLast(info)._moreChanges = true;
+        ChangeInfo last = Iterables.getLast(info);
+        last._moreChanges = true;
+        last._searchAfter =
+            ChangeIndexCursor.of(Iterables.getLast(results.get(n).entities())).encode();
       }
     }
     return res;
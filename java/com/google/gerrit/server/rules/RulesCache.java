@@ -21,6 +21,13 @@ import com.google.common.cache.Cache;
 import com.google.common.collect.ImmutableList;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.lifecycle.LifecycleModule;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.cache.CacheModule;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.SitePaths;
@@ -55,6 +62,8 @@ import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Constants;
@@ -77,6 +86,14 @@ public class RulesCache {
       cache(RulesCache.CACHE_NAME, ObjectId.class, PrologMachineCopy.class)
           // This cache is auxiliary to the project cache, so size it the same.
           .configKey(ProjectCacheImpl.CACHE_NAME);
+
+      install(
+          new LifecycleModule() {
+            @Override
+            protected void configure() {
+              listener().to(RulesCacheWarmer.class);
+            }
+          });
     }
   }
 
@@ -96,6 +113,8 @@ public class RulesCache {
   private final ClassLoader systemLoader;
   private final PrologMachineCopy defaultMachine;
   private final Cache<ObjectId, PrologMachineCopy> machineCache;
+  private final Timer1<String> compileLatency;
+  private final Timer0 loadWaitLatency;
 
   @Inject
   protected RulesCache(
@@ -103,7 +122,8 @@ public class RulesCache {
       SitePaths site,
       GitRepositoryManager gm,
       PluginSetContext<PredicateProvider> predicateProviders,
-      @Named(CACHE_NAME) Cache<ObjectId, PrologMachineCopy> machineCache) {
+      @Named(CACHE_NAME) Cache<ObjectId, PrologMachineCopy> machineCache,
+      MetricMaker metricMaker) {
     maxDbSize = config.getInt("rules", null, "maxPrologDatabaseSize", 256);
     compileReductionLimit = RuleUtil.compileReductionLimit(config);
     maxSrcBytes = config.getInt("rules", null, "maxSourceBytes", 128 << 10);
@@ -113,6 +133,22 @@ public class RulesCache {
     gitMgr = gm;
     this.predicateProviders = predicateProviders;
     this.machineCache = machineCache;
+    this.compileLatency =
+        metricMaker.newTimer(
+            "prolog/rules_compile_latency",
+            new Description("Latency for loading the compiled rules.pl of a project")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            Field.ofString("source", Field.ignoreMetadata())
+                .description("Where the rules were loaded from: jar or consult.")
+                .build());
+    this.loadWaitLatency =
+        metricMaker.newTimer(
+            "prolog/rules_load_wait_latency",
+            new Description(
+                    "Time spent waiting for rules.pl that is being compiled by another request")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
 
     systemLoader = getClass().getClassLoader();
     defaultMachine = save(newEmptyMachine(systemLoader));
@@ -125,17 +161,36 @@ public class RulesCache {
   /**
    * Locate a cached Prolog machine state, or create one if not available.
    *
+   * <p>Rules are compiled at most once at a time: concurrent callers for the same rules wait for
+   * the compilation of the first one, while distinct rules are compiled concurrently.
+   *
    * @return a Prolog machine, after loading the specified rules.
    * @throws CompileException the machine cannot be created.
    */
-  public synchronized PrologMachineCopy loadMachine(Project.NameKey project, ObjectId rulesId)
+  public PrologMachineCopy loadMachine(Project.NameKey project, ObjectId rulesId)
       throws CompileException {
     if (!enableProjectRules || project == null || rulesId == null) {
       return defaultMachine;
     }
 
+    PrologMachineCopy pmc = machineCache.getIfPresent(rulesId);
+    if (pmc != null) {
+      return pmc;
+    }
+    AtomicBoolean created = new AtomicBoolean();
+    long start = System.nanoTime();
     try {
-      return machineCache.get(rulesId, () -> createMachine(project, rulesId));
+      pmc =
+          machineCache.get(
+              rulesId,
+              () -> {
+                created.set(true);
+                return createMachine(project, rulesId);
+              });
+      if (!created.get()) {
+        loadWaitLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+      return pmc;
     } catch (ExecutionException e) {
       if (e.getCause() instanceof CompileException) {
         throw new CompileException(e.getCause().getMessage(), e);
@@ -160,15 +215,20 @@ public class RulesCache {
     if (rulesDir != null) {
       Path jarPath = rulesDir.resolve("rules-" + rulesId.getName() + ".jar");
       if (Files.isRegularFile(jarPath)) {
-        URL[] cp = new URL[] {toURL(jarPath)};
-        return save(newEmptyMachine(URLClassLoader.newInstance(cp, systemLoader)));
+        try (Timer1.Context<String> ignored = compileLatency.start("jar")) {
+          URL[] cp = new URL[] {toURL(jarPath)};
+          return save(newEmptyMachine(URLClassLoader.newInstance(cp, systemLoader)));
+        }
       }
     }
 
     // Dynamically consult the rules into the machine's internal database.
     //
     String rules = read(project, rulesId);
-    PrologMachineCopy pmc = consultRules("rules.pl", new StringReader(rules));
+    PrologMachineCopy pmc;
+    try (Timer1.Context<String> ignored = compileLatency.start("consult")) {
+      pmc = consultRules("rules.pl", new StringReader(rules));
+    }
     if (pmc == null) {
       throw new CompileException("Cannot consult rules of " + project);
     }
@@ -0,0 +1,103 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.rules;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.exceptions.StorageException;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.logging.LoggingContextAwareExecutorService;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.server.project.ProjectState;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlecode.prolog_cafe.exceptions.CompileException;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ObjectId;
+
+/** Compiles the Prolog rules of all projects at server startup. */
+@Singleton
+public class RulesCacheWarmer implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Config config;
+  private final ProjectCache projectCache;
+  private final RulesCache rulesCache;
+
+  @Inject
+  RulesCacheWarmer(
+      @GerritServerConfig Config config, ProjectCache projectCache, RulesCache rulesCache) {
+    this.config = config;
+    this.projectCache = projectCache;
+    this.rulesCache = rulesCache;
+  }
+
+  @Override
+  public void start() {
+    if (!rulesCache.isProjectRulesEnabled()
+        || !config.getBoolean("rules", null, "loadOnStartup", false)) {
+      return;
+    }
+    int cpus = Runtime.getRuntime().availableProcessors();
+    ExecutorService pool =
+        new LoggingContextAwareExecutorService(
+            new ScheduledThreadPoolExecutor(
+                config.getInt("rules", null, "loadThreads", cpus),
+                new ThreadFactoryBuilder().setNameFormat("RulesCacheLoader-%d").build()));
+    Thread scheduler =
+        new Thread(
+            () -> {
+              for (Project.NameKey name : projectCache.all()) {
+                pool.execute(() -> load(name));
+              }
+              pool.shutdown();
+              try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                logger.atInfo().log("Finished loading rules cache");
+              } catch (InterruptedException e) {
+                logger.atWarning().log("Interrupted while waiting for rules cache to load");
+              }
+            });
+    scheduler.setName("RulesCacheWarmer");
+    scheduler.setDaemon(true);
+
+    logger.atInfo().log("Loading rules cache");
+    scheduler.start();
+  }
+
+  @Override
+  public void stop() {}
+
+  private void load(Project.NameKey name) {
+    try {
+      Optional<ProjectState> state = projectCache.get(name);
+      if (!state.isPresent()) {
+        return;
+      }
+      ObjectId rulesId = state.get().getConfig().getRulesId();
+      if (rulesId != null) {
+        rulesCache.loadMachine(name, rulesId);
+      }
+    } catch (CompileException | StorageException e) {
+      logger.atWarning().withCause(e).log("Cannot compile rules of project %s", name);
+    }
+  }
+}
@@ -17,11 +17,15 @@ package com.google.gerrit.server.submit;
 import static com.google.common.base.Preconditions.checkState;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gerrit.common.data.SubmitTypeRecord;
 import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Project;
@@ -30,6 +34,10 @@ import com.google.gerrit.extensions.client.SubmitType;
 import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.FanOutExecutor;
+import com.google.gerrit.server.logging.Metadata;
+import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
@@ -38,6 +46,7 @@ import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.server.query.change.ChangeIsVisibleToPredicate;
+import com.google.gerrit.server.query.change.ChangeNotesBatchLoader;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
 import com.google.gerrit.server.submit.MergeOpRepoManager.OpenRepo;
 import com.google.inject.AbstractModule;
@@ -49,17 +58,28 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevSort;
 
 /**
- * Default implementation of MergeSuperSet that does the computation of the merge super set
- * sequentially on the local Gerrit instance.
+ * Default implementation of MergeSuperSet that does the computation of the merge super set on the
+ * local Gerrit instance.
+ *
+ * <p>The commits of the changes are walked concurrently across projects, on the {@link
+ * FanOutExecutor}. Permission checks and index queries are done by the calling thread. Walks and
+ * queries are memoized, so that an instance that is reused while {@link MergeSuperSet} completes a
+ * change set with topics only recomputes the branches whose changes differ.
  */
 public class LocalMergeSuperSetComputation implements MergeSuperSetComputation {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
@@ -84,25 +104,63 @@ public class LocalMergeSuperSetComputation implements MergeSuperSetComputation {
     abstract ImmutableSet<String> hashes();
   }
 
+  @AutoValue
+  abstract static class WalkKey {
+    private static WalkKey create(
+        BranchNameKey branch,
+        Iterable<ObjectId> visibleCommits,
+        Iterable<ObjectId> nonVisibleCommits) {
+      return new AutoValue_LocalMergeSuperSetComputation_WalkKey(
+          branch, ImmutableSet.copyOf(visibleCommits), ImmutableSet.copyOf(nonVisibleCommits));
+    }
+
+    abstract BranchNameKey branch();
+
+    abstract ImmutableSet<ObjectId> visibleCommits();
+
+    abstract ImmutableSet<ObjectId> nonVisibleCommits();
+  }
+
+  @AutoValue
+  abstract static class WalkResult {
+    private static WalkResult create(Set<String> visibleHashes, Set<String> nonVisibleHashes) {
+      return new AutoValue_LocalMergeSuperSetComputation_WalkResult(
+          ImmutableSet.copyOf(visibleHashes), ImmutableSet.copyOf(nonVisibleHashes));
+    }
+
+    abstract ImmutableSet<String> visibleHashes();
+
+    abstract ImmutableSet<String> nonVisibleHashes();
+  }
+
   private final PermissionBackend permissionBackend;
   private final Provider<InternalChangeQuery> queryProvider;
   private final Map<QueryKey, ImmutableList<ChangeData>> queryCache;
+  private final Map<WalkKey, WalkResult> walkCache;
+  // Branches of different projects are walked concurrently.
   private final Map<BranchNameKey, Optional<RevCommit>> heads;
   private final ProjectCache projectCache;
   private final ChangeIsVisibleToPredicate.Factory changeIsVisibleToPredicateFactory;
+  private final ChangeNotesBatchLoader notesLoader;
+  private final ExecutorService executor;
 
   @Inject
   LocalMergeSuperSetComputation(
       PermissionBackend permissionBackend,
       Provider<InternalChangeQuery> queryProvider,
       ProjectCache projectCache,
-      ChangeIsVisibleToPredicate.Factory changeIsVisibleToPredicateFactory) {
+      ChangeIsVisibleToPredicate.Factory changeIsVisibleToPredicateFactory,
+      ChangeNotesBatchLoader notesLoader,
+      @FanOutExecutor ExecutorService executor) {
     this.projectCache = projectCache;
     this.permissionBackend = permissionBackend;
     this.queryProvider = queryProvider;
     this.queryCache = new HashMap<>();
-    this.heads = new HashMap<>();
+    this.walkCache = new HashMap<>();
+    this.heads = new ConcurrentHashMap<>();
     this.changeIsVisibleToPredicateFactory = changeIsVisibleToPredicateFactory;
+    this.notesLoader = notesLoader;
+    this.executor = executor;
   }
 
   @Override
@@ -116,44 +174,55 @@ public class LocalMergeSuperSetComputation implements MergeSuperSetComputation {
     // reachable from changes already in the merge super set.
     ImmutableListMultimap<BranchNameKey, ChangeData> bc =
         byBranch(Iterables.concat(changeSet.changes(), changeSet.nonVisibleChanges()));
-    for (BranchNameKey b : bc.keySet()) {
-      OpenRepo or = getRepo(orm, b.project());
-      List<RevCommit> visibleCommits = new ArrayList<>();
-      List<RevCommit> nonVisibleCommits = new ArrayList<>();
-      for (ChangeData cd : bc.get(b)) {
-        boolean visible = isVisible(changeSet, cd, user);
-
-        if (submitType(cd) == SubmitType.CHERRY_PICK) {
-          if (visible) {
-            visibleChanges.add(cd);
-          } else {
-            nonVisibleChanges.add(cd);
-          }
+    List<WalkKey> walks = new ArrayList<>(bc.keySet().size());
+    try (TraceTimer traceTimer =
+        TraceContext.newTimer(
+            "Checking visibility of changes in merge super set",
+            Metadata.builder().resourceCount(bc.size()).build())) {
+      notesLoader.load(bc.values());
+      for (BranchNameKey b : bc.keySet()) {
+        List<ObjectId> visibleCommits = new ArrayList<>();
+        List<ObjectId> nonVisibleCommits = new ArrayList<>();
+        for (ChangeData cd : bc.get(b)) {
+          boolean visible = isVisible(changeSet, cd, user);
 
-          continue;
-        }
+          if (submitType(cd) == SubmitType.CHERRY_PICK) {
+            if (visible) {
+              visibleChanges.add(cd);
+            } else {
+              nonVisibleChanges.add(cd);
+            }
 
-        // Get the underlying git commit object
-        RevCommit commit = or.rw.parseCommit(cd.currentPatchSet().commitId());
+            continue;
+          }
 
-        // Always include the input, even if merged. This allows
-        // SubmitStrategyOp to correct the situation later, assuming it gets
-        // returned by byCommitsOnBranchNotMerged below.
-        if (visible) {
-          visibleCommits.add(commit);
-        } else {
-          nonVisibleCommits.add(commit);
+          // Always include the input, even if merged. This allows
+          // SubmitStrategyOp to correct the situation later, assuming it gets
+          // returned by byCommitsOnBranchNotMerged below.
+          if (visible) {
+            visibleCommits.add(cd.currentPatchSet().commitId());
+          } else {
+            nonVisibleCommits.add(cd.currentPatchSet().commitId());
+          }
         }
+        walks.add(WalkKey.create(b, visibleCommits, nonVisibleCommits));
       }
+    }
 
-      Set<String> visibleHashes =
-          walkChangesByHashes(visibleCommits, Collections.emptySet(), or, b);
-      Set<String> nonVisibleHashes = walkChangesByHashes(nonVisibleCommits, visibleHashes, or, b);
-
-      ChangeSet partialSet =
-          byCommitsOnBranchNotMerged(or, b, visibleHashes, nonVisibleHashes, user);
-      Iterables.addAll(visibleChanges, partialSet.changes());
-      Iterables.addAll(nonVisibleChanges, partialSet.nonVisibleChanges());
+    Map<BranchNameKey, WalkResult> walked = walk(orm, walks);
+    try (TraceTimer traceTimer =
+        TraceContext.newTimer(
+            "Querying changes of walked commits",
+            Metadata.builder().resourceCount(walks.size()).build())) {
+      for (WalkKey walk : walks) {
+        BranchNameKey b = walk.branch();
+        WalkResult w = walked.get(b);
+        ChangeSet partialSet =
+            byCommitsOnBranchNotMerged(
+                getRepo(orm, b.project()), b, w.visibleHashes(), w.nonVisibleHashes(), user);
+        Iterables.addAll(visibleChanges, partialSet.changes());
+        Iterables.addAll(nonVisibleChanges, partialSet.nonVisibleChanges());
+      }
     }
 
     return new ChangeSet(visibleChanges, nonVisibleChanges);
@@ -169,6 +238,106 @@ public class LocalMergeSuperSetComputation implements MergeSuperSetComputation {
     return builder.build();
   }
 
+  /**
+   * Walks the commits of the given changes on their target branches.
+   *
+   * <p>Repositories are opened by the calling thread, since {@link MergeOpRepoManager} is not
+   * thread safe. The branches of one project share its {@link OpenRepo#rw} and are walked by one
+   * thread; different projects are walked concurrently.
+   */
+  private Map<BranchNameKey, WalkResult> walk(MergeOpRepoManager orm, List<WalkKey> walks)
+      throws IOException {
+    Map<BranchNameKey, WalkResult> results = new HashMap<>();
+    ListMultimap<Project.NameKey, WalkKey> byProject =
+        MultimapBuilder.linkedHashKeys().arrayListValues().build();
+    for (WalkKey walk : walks) {
+      WalkResult cached = walkCache.get(walk);
+      if (cached != null) {
+        results.put(walk.branch(), cached);
+      } else {
+        byProject.put(walk.branch().project(), walk);
+      }
+    }
+    if (byProject.isEmpty()) {
+      return results;
+    }
+
+    try (TraceTimer traceTimer =
+        TraceContext.newTimer(
+            "Walking commits of changes in merge super set",
+            Metadata.builder().resourceCount(byProject.keySet().size()).build())) {
+      Map<Project.NameKey, OpenRepo> repos = new LinkedHashMap<>();
+      for (Project.NameKey project : byProject.keySet()) {
+        repos.put(project, getRepo(orm, project));
+      }
+
+      // The calling thread walks the first project itself, so that progress doesn't depend on free
+      // threads in the executor.
+      List<Future<Map<WalkKey, WalkResult>>> futures = new ArrayList<>(repos.size() - 1);
+      Project.NameKey first = null;
+      for (Map.Entry<Project.NameKey, OpenRepo> e : repos.entrySet()) {
+        if (first == null) {
+          first = e.getKey();
+          continue;
+        }
+        List<WalkKey> projectWalks = byProject.get(e.getKey());
+        futures.add(executor.submit(() -> walk(e.getValue(), projectWalks)));
+      }
+
+      Throwable failure = null;
+      try {
+        add(results, walk(repos.get(first), byProject.get(first)));
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+      }
+      for (Future<Map<WalkKey, WalkResult>> f : futures) {
+        // Wait for all walks, so that no repository is closed while it's walked.
+        try {
+          add(results, Uninterruptibles.getUninterruptibly(f));
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+      if (failure != null) {
+        Throwables.throwIfInstanceOf(failure, IOException.class);
+        Throwables.throwIfUnchecked(failure);
+        throw new IOException(failure);
+      }
+    }
+    return results;
+  }
+
+  private void add(Map<BranchNameKey, WalkResult> results, Map<WalkKey, WalkResult> walked) {
+    walkCache.putAll(walked);
+    for (Map.Entry<WalkKey, WalkResult> e : walked.entrySet()) {
+      results.put(e.getKey().branch(), e.getValue());
+    }
+  }
+
+  private Map<WalkKey, WalkResult> walk(OpenRepo or, List<WalkKey> walks) throws IOException {
+    Map<WalkKey, WalkResult> results = new HashMap<>();
+    for (WalkKey walk : walks) {
+      BranchNameKey b = walk.branch();
+      Set<String> visibleHashes =
+          walkChangesByHashes(parse(or, walk.visibleCommits()), Collections.emptySet(), or, b);
+      Set<String> nonVisibleHashes =
+          walkChangesByHashes(parse(or, walk.nonVisibleCommits()), visibleHashes, or, b);
+      results.put(walk, WalkResult.create(visibleHashes, nonVisibleHashes));
+    }
+    return results;
+  }
+
+  private static List<RevCommit> parse(OpenRepo or, Collection<ObjectId> ids) throws IOException {
+    List<RevCommit> commits = new ArrayList<>(ids.size());
+    for (ObjectId id : ids) {
+      // Get the underlying git commit object
+      commits.add(or.rw.parseCommit(id));
+    }
+    return commits;
+  }
+
   private OpenRepo getRepo(MergeOpRepoManager orm, Project.NameKey project) throws IOException {
     try {
       OpenRepo or = orm.getRepo(project);
@@ -219,6 +388,7 @@ public class LocalMergeSuperSetComputation implements MergeSuperSetComputation {
     List<ChangeData> invisibleChanges =
         new ArrayList<>(byCommitsOnBranchNotMerged(or, branch, nonVisibleHashes));
     List<ChangeData> visibleChanges = new ArrayList<>(potentiallyVisibleChanges.size());
+    notesLoader.load(potentiallyVisibleChanges);
     ChangeIsVisibleToPredicate changeIsVisibleToPredicate =
         changeIsVisibleToPredicateFactory.forUser(user);
     for (ChangeData cd : potentiallyVisibleChanges) {
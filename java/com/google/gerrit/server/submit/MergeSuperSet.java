@@ -24,7 +24,9 @@ import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.gerrit.server.logging.Metadata;
 import com.google.gerrit.server.logging.TraceContext;
+import com.google.gerrit.server.logging.TraceContext.TraceTimer;
 import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.permissions.ChangePermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
@@ -34,6 +36,7 @@ import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.ChangeNotesBatchLoader;
 import com.google.gerrit.server.query.change.InternalChangeQuery;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
@@ -65,6 +68,7 @@ public class MergeSuperSet {
   private final Config cfg;
   private final ProjectCache projectCache;
   private final ChangeNotes.Factory notesFactory;
+  private final ChangeNotesBatchLoader notesLoader;
 
   private MergeOpRepoManager orm;
   private boolean closeOrm;
@@ -78,7 +82,8 @@ public class MergeSuperSet {
       DynamicItem<MergeSuperSetComputation> mergeSuperSetComputation,
       PermissionBackend permissionBackend,
       ProjectCache projectCache,
-      ChangeNotes.Factory notesFactory) {
+      ChangeNotes.Factory notesFactory,
+      ChangeNotesBatchLoader notesLoader) {
     this.cfg = cfg;
     this.changeDataFactory = changeDataFactory;
     this.queryProvider = queryProvider;
@@ -87,6 +92,7 @@ public class MergeSuperSet {
     this.permissionBackend = permissionBackend;
     this.projectCache = projectCache;
     this.notesFactory = notesFactory;
+    this.notesLoader = notesLoader;
   }
 
   public static boolean wholeTopicEnabled(Config config) {
@@ -159,7 +165,10 @@ public class MergeSuperSet {
       if (Strings.isNullOrEmpty(topic) || visibleTopicsSeen.contains(topic)) {
         continue;
       }
-      for (ChangeData topicCd : byTopicOpen(topic)) {
+      List<ChangeData> topicChanges = byTopicOpen(topic);
+      // Load the notes for the permission checks at once, rather than one change at a time.
+      notesLoader.load(topicChanges);
+      for (ChangeData topicCd : topicChanges) {
         if (canRead(user, topicCd)) {
           visibleChanges.add(topicCd);
         } else {
@@ -190,20 +199,33 @@ public class MergeSuperSet {
     int oldSeen;
     int seen;
 
-    changeSet = topicClosure(changeSet, user, topicsSeen, visibleTopicsSeen);
+    // Use the same computation for all iterations, so that it can reuse its results for branches
+    // whose changes are the same as in the previous iteration.
+    MergeSuperSetComputation computation = mergeSuperSetComputation.get();
+    try (TraceTimer traceTimer = newTimer("Completing topic closure", changeSet)) {
+      changeSet = topicClosure(changeSet, user, topicsSeen, visibleTopicsSeen);
+    }
     seen = topicsSeen.size() + visibleTopicsSeen.size();
 
     do {
       oldSeen = seen;
-      try (TraceContext traceContext = PluginContext.newTrace(mergeSuperSetComputation)) {
-        changeSet = mergeSuperSetComputation.get().completeWithoutTopic(orm, changeSet, user);
+      try (TraceContext traceContext = PluginContext.newTrace(mergeSuperSetComputation);
+          TraceTimer traceTimer = newTimer("Completing change set without topics", changeSet)) {
+        changeSet = computation.completeWithoutTopic(orm, changeSet, user);
+      }
+      try (TraceTimer traceTimer = newTimer("Completing topic closure", changeSet)) {
+        changeSet = topicClosure(changeSet, user, topicsSeen, visibleTopicsSeen);
       }
-      changeSet = topicClosure(changeSet, user, topicsSeen, visibleTopicsSeen);
       seen = topicsSeen.size() + visibleTopicsSeen.size();
     } while (seen != oldSeen);
     return changeSet;
   }
 
+  private static TraceTimer newTimer(String operation, ChangeSet changeSet) {
+    return TraceContext.newTimer(
+        operation, Metadata.builder().resourceCount(changeSet.size()).build());
+  }
+
   private List<ChangeData> byTopicOpen(String topic) {
     return queryProvider.get().byTopicOpen(topic);
   }
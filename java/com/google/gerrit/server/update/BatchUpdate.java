@@ -20,6 +20,7 @@ import static com.google.common.collect.ImmutableMultiset.toImmutableMultiset;
 import static com.google.common.flogger.LazyArgs.lazy;
 import static java.util.Comparator.comparing;
 import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
 import com.google.common.base.Throwables;
@@ -32,11 +33,13 @@ import com.google.common.collect.Multiset;
 import com.google.common.flogger.FluentLogger;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.PatchSet;
 import com.google.gerrit.entities.PatchSet.Id;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.extensions.api.changes.NotifyHandling;
 import com.google.gerrit.extensions.config.FactoryModule;
 import com.google.gerrit.extensions.restapi.BadRequestException;
@@ -44,9 +47,11 @@ import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.FanOutExecutor;
 import com.google.gerrit.server.GerritPersonIdent;
 import com.google.gerrit.server.account.AccountState;
 import com.google.gerrit.server.change.NotifyResolver;
+import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.validators.OnSubmitValidators;
@@ -73,11 +78,20 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.PushCertificate;
@@ -107,6 +121,9 @@ import org.eclipse.jgit.transport.ReceiveCommand;
 public class BatchUpdate implements AutoCloseable {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  /** Maximum number of threads loading the change notes of one batch, including the caller. */
+  private static final int MAX_NOTES_LOADING_THREADS = 4;
+
   public static Module module() {
     return new FactoryModule() {
       @Override
@@ -332,6 +349,8 @@ public class BatchUpdate implements AutoCloseable {
   private final NoteDbUpdateManager.Factory updateManagerFactory;
   private final ChangeIndexer indexer;
   private final GitReferenceUpdated gitRefUpdated;
+  private final ExecutorService fanOutExecutor;
+  private final int bulkIndexThreshold;
 
   private final Project.NameKey project;
   private final CurrentUser user;
@@ -353,6 +372,7 @@ public class BatchUpdate implements AutoCloseable {
 
   @Inject
   BatchUpdate(
+      @GerritServerConfig Config cfg,
       GitRepositoryManager repoManager,
       @GerritPersonIdent PersonIdent serverIdent,
       ChangeNotes.Factory changeNotesFactory,
@@ -360,6 +380,7 @@ public class BatchUpdate implements AutoCloseable {
       NoteDbUpdateManager.Factory updateManagerFactory,
       ChangeIndexer indexer,
       GitReferenceUpdated gitRefUpdated,
+      @FanOutExecutor ExecutorService fanOutExecutor,
       @Assisted Project.NameKey project,
       @Assisted CurrentUser user,
       @Assisted Timestamp when) {
@@ -369,6 +390,8 @@ public class BatchUpdate implements AutoCloseable {
     this.updateManagerFactory = updateManagerFactory;
     this.indexer = indexer;
     this.gitRefUpdated = gitRefUpdated;
+    this.fanOutExecutor = fanOutExecutor;
+    this.bulkIndexThreshold = cfg.getInt("index", null, "bulkIndexThreshold", 10);
     this.project = project;
     this.user = user;
     this.when = when;
@@ -547,11 +570,22 @@ public class BatchUpdate implements AutoCloseable {
       }
       logDebug("Reindexing %d changes", results.size());
       List<ListenableFuture<?>> indexFutures = new ArrayList<>(results.size());
+      List<Change.Id> upserted =
+          results.entrySet().stream()
+              .filter(e -> e.getValue() == ChangeResult.UPSERTED)
+              .map(Map.Entry::getKey)
+              .collect(toList());
+      boolean bulk = bulkIndexThreshold > 0 && upserted.size() >= bulkIndexThreshold;
+      if (bulk) {
+        indexFutures.add(indexer.indexAllAsync(project, upserted));
+      }
       for (Map.Entry<Change.Id, ChangeResult> e : results.entrySet()) {
         Change.Id id = e.getKey();
         switch (e.getValue()) {
           case UPSERTED:
-            indexFutures.add(indexer.indexAsync(project, id));
+            if (!bulk) {
+              indexFutures.add(indexer.indexAsync(project, id));
+            }
             break;
           case DELETED:
             indexFutures.add(indexer.deleteAsync(id));
@@ -587,9 +621,11 @@ public class BatchUpdate implements AutoCloseable {
     }
     handle.manager.setRefLogMessage(refLogMessage);
     handle.manager.setPushCertificate(pushCert);
+    Map<Change.Id, ChangeNotes> preloadedNotes = preloadNotes(repo);
     for (Map.Entry<Change.Id, Collection<BatchUpdateOp>> e : ops.asMap().entrySet()) {
       Change.Id id = e.getKey();
-      ChangeContextImpl ctx = newChangeContext(id);
+      ChangeNotes notes = preloadedNotes.get(id);
+      ChangeContextImpl ctx = notes != null ? new ChangeContextImpl(notes) : newChangeContext(id);
       boolean dirty = false;
       logDebug(
           "Applying %d ops for change %s: %s",
@@ -621,6 +657,76 @@ public class BatchUpdate implements AutoCloseable {
     return handle;
   }
 
+  /**
+   * Loads the notes of the existing changes of this batch concurrently.
+   *
+   * <p>The meta refs of all changes are read with a single ref database lookup. Changes whose notes
+   * can't be loaded are missing from the result; their notes are loaded again when their ops are
+   * applied, so that errors surface in the same order as without preloading.
+   */
+  private Map<Change.Id, ChangeNotes> preloadNotes(Repository repo) throws IOException {
+    List<Change.Id> ids =
+        ops.keySet().stream().filter(id -> !newChanges.containsKey(id)).collect(toList());
+    if (ids.size() <= 1) {
+      return ImmutableMap.of();
+    }
+    logDebug("Preloading notes of %d changes", ids.size());
+    Map<String, Ref> metaRefs =
+        repo.getRefDatabase()
+            .exactRef(ids.stream().map(RefNames::changeMetaRef).toArray(String[]::new));
+
+    // The caller works on the queue as well, so that progress doesn't depend on free threads in
+    // the executor.
+    Map<Change.Id, ChangeNotes> notes = new ConcurrentHashMap<>();
+    Queue<Change.Id> pending = new ConcurrentLinkedQueue<>(ids);
+    Runnable loader =
+        () -> {
+          Change.Id id;
+          while ((id = pending.poll()) != null) {
+            Ref metaRef = metaRefs.get(RefNames.changeMetaRef(id));
+            if (metaRef == null) {
+              continue;
+            }
+            try {
+              notes.put(id, changeNotesFactory.create(repo, project, id, metaRef.getObjectId()));
+            } catch (RuntimeException e) {
+              logDebug("Deferring load of change %s", id);
+            }
+          }
+        };
+    int helpers = Math.min(ids.size(), MAX_NOTES_LOADING_THREADS) - 1;
+    List<AtomicBoolean> claimed = new ArrayList<>(helpers);
+    List<Future<?>> futures = new ArrayList<>(helpers);
+    for (int i = 0; i < helpers; i++) {
+      AtomicBoolean c = new AtomicBoolean();
+      claimed.add(c);
+      futures.add(
+          fanOutExecutor.submit(
+              () -> {
+                if (c.compareAndSet(false, true)) {
+                  loader.run();
+                }
+              }));
+    }
+    loader.run();
+
+    // The queue is drained now. Helpers that didn't start yet are skipped, only the ones that are
+    // still loading a change are waited for.
+    for (int i = 0; i < helpers; i++) {
+      Future<?> f = futures.get(i);
+      if (claimed.get(i).compareAndSet(false, true)) {
+        f.cancel(false);
+        continue;
+      }
+      try {
+        Uninterruptibles.getUninterruptibly(f);
+      } catch (ExecutionException e) {
+        logger.atWarning().withCause(e).log("Cannot preload changes of project %s", project);
+      }
+    }
+    return notes;
+  }
+
   private ChangeContextImpl newChangeContext(Change.Id id) {
     logDebug("Opening change %s for update", id);
     Change c = newChanges.get(id);
@@ -31,6 +31,7 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.RequestCleanup;
 import com.google.gerrit.server.git.ProjectRunnable;
 import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
+import com.google.gerrit.server.logging.TraceContext;
 import com.google.gerrit.server.permissions.GlobalPermission;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
@@ -456,6 +457,8 @@ public abstract class BaseCommand implements Command {
         int rc = 0;
         context.getSession().setAccessPath(accessPath);
         final Context old = sshScope.set(context);
+        // Kept open until onExit, so that the resource usage of the command can be logged.
+        TraceContext resourceUsageContext = TraceContext.open().measureResourceUsage();
         try {
           context.started = TimeUtil.nowMs();
           thisThread.setName("SSH " + taskName);
@@ -491,6 +494,7 @@ public abstract class BaseCommand implements Command {
           try {
             onExit(rc);
           } finally {
+            resourceUsageContext.close();
             sshScope.set(old);
             thisThread.setName(thisName);
           }
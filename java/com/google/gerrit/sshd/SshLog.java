@@ -30,12 +30,16 @@ import com.google.gerrit.server.config.GerritConfigListener;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.group.GroupAuditService;
 import com.google.gerrit.server.ioutil.HexFormat;
+import com.google.gerrit.server.logging.LoggingContext;
+import com.google.gerrit.server.logging.ResourceUsage;
 import com.google.gerrit.server.util.SystemLog;
 import com.google.gerrit.server.util.time.TimeUtil;
 import com.google.gerrit.sshd.SshScope.Context;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.AsyncAppender;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -57,6 +61,8 @@ class SshLog implements LifecycleListener, GerritConfigListener {
   protected static final String P_STATUS = "status";
   protected static final String P_AGENT = "agent";
   protected static final String P_MESSAGE = "message";
+  protected static final String P_CPU = "cpuTime";
+  protected static final String P_ALLOCATED = "allocatedBytes";
 
   private final Provider<SshSession> session;
   private final Provider<Context> context;
@@ -207,6 +213,19 @@ class SshLog implements LifecycleListener, GerritConfigListener {
       event.setProperty(P_MESSAGE, message);
     }
 
+    // Only available if the command is logged from the thread that executed it.
+    Optional<ResourceUsage> resourceUsage = LoggingContext.getInstance().getResourceUsage();
+    if (resourceUsage.isPresent()) {
+      long cpuTimeNanos = resourceUsage.get().cpuTimeNanos();
+      if (cpuTimeNanos >= 0) {
+        event.setProperty(P_CPU, TimeUnit.NANOSECONDS.toMillis(cpuTimeNanos) + "ms");
+      }
+      long allocatedBytes = resourceUsage.get().allocatedBytes();
+      if (allocatedBytes >= 0) {
+        event.setProperty(P_ALLOCATED, allocatedBytes + "B");
+      }
+    }
+
     if (async != null) {
       async.append(event);
     }
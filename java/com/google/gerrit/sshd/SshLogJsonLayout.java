@@ -16,6 +16,8 @@ package com.google.gerrit.sshd;
 
 import static com.google.gerrit.sshd.SshLog.P_ACCOUNT_ID;
 import static com.google.gerrit.sshd.SshLog.P_AGENT;
+import static com.google.gerrit.sshd.SshLog.P_ALLOCATED;
+import static com.google.gerrit.sshd.SshLog.P_CPU;
 import static com.google.gerrit.sshd.SshLog.P_EXEC;
 import static com.google.gerrit.sshd.SshLog.P_MESSAGE;
 import static com.google.gerrit.sshd.SshLog.P_SESSION;
@@ -46,6 +48,8 @@ public class SshLogJsonLayout extends JsonLayout {
     public String execTime;
     public String status;
     public String agent;
+    public String cpuTime;
+    public String allocatedBytes;
     public String timeNegotiating;
     public String timeSearchReuse;
     public String timeSearchSizes;
@@ -69,6 +73,8 @@ public class SshLogJsonLayout extends JsonLayout {
       this.execTime = getMdcString(event, P_EXEC);
       this.status = getMdcString(event, P_STATUS);
       this.agent = getMdcString(event, P_AGENT);
+      this.cpuTime = getMdcString(event, P_CPU);
+      this.allocatedBytes = getMdcString(event, P_ALLOCATED);
 
       String metricString = getMdcString(event, P_MESSAGE);
       if (metricString != null && !metricString.isEmpty()) {
@@ -16,6 +16,8 @@ package com.google.gerrit.sshd;
 
 import static com.google.gerrit.sshd.SshLog.P_ACCOUNT_ID;
 import static com.google.gerrit.sshd.SshLog.P_AGENT;
+import static com.google.gerrit.sshd.SshLog.P_ALLOCATED;
+import static com.google.gerrit.sshd.SshLog.P_CPU;
 import static com.google.gerrit.sshd.SshLog.P_EXEC;
 import static com.google.gerrit.sshd.SshLog.P_MESSAGE;
 import static com.google.gerrit.sshd.SshLog.P_SESSION;
@@ -61,6 +63,8 @@ public final class SshLogLayout extends Layout {
     opt(P_MESSAGE, buf, event);
     opt(P_STATUS, buf, event);
     opt(P_AGENT, buf, event);
+    opt(P_CPU, buf, event);
+    opt(P_ALLOCATED, buf, event);
 
     buf.append('\n');
     return buf.toString();
@@ -91,6 +91,14 @@ public class Query extends SshCommand implements DynamicOptions.BeanReceiver {
     processor.setStart(start);
   }
 
+  @Option(
+      name = "--search-after",
+      metaVar = "CURSOR",
+      usage = "Continue after the last change of a previous page")
+  void setSearchAfter(String cursor) {
+    processor.setSearchAfter(cursor);
+  }
+
   @Option(name = "--no-limit", usage = "Return all results, overriding the default limit")
   void setNoLimit(boolean on) {
     processor.setNoLimit(on);
@@ -23,6 +23,8 @@ import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.registration.RegistrationHandle;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.events.EncodedEvent;
+import com.google.gerrit.server.events.EncodedEventListener;
 import com.google.gerrit.server.events.Event;
 import com.google.gerrit.server.events.EventGson;
 import com.google.gerrit.server.events.EventTypes;
@@ -33,8 +35,9 @@ import com.google.gerrit.sshd.CommandMetaData;
 import com.google.gerrit.sshd.StreamCommandExecutor;
 import com.google.gson.Gson;
 import com.google.inject.Inject;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
@@ -70,8 +73,10 @@ public final class StreamEvents extends BaseCommand {
 
   @Inject @EventGson private Gson gson;
 
+  @Inject private StreamEventsMetrics metrics;
+
   /** Queue of events to stream to the connected user. */
-  private final LinkedBlockingQueue<Event> queue = new LinkedBlockingQueue<>(MAX_EVENTS);
+  private final LinkedBlockingQueue<EncodedEvent> queue = new LinkedBlockingQueue<>(MAX_EVENTS);
 
   private RegistrationHandle eventListenerRegistration;
 
@@ -120,7 +125,9 @@ public final class StreamEvents extends BaseCommand {
       return;
     }
 
-    PrintWriter stdout = toPrintWriter(out);
+    // Events are already encoded as UTF-8, and PrintStream never throws on write errors, just like
+    // the PrintWriter used by other commands.
+    PrintStream stdout = new PrintStream(new BufferedOutputStream(out));
     CancelableRunnable writer =
         new CancelableRunnable() {
           @Override
@@ -147,14 +154,21 @@ public final class StreamEvents extends BaseCommand {
     eventListenerRegistration =
         eventListeners.add(
             "gerrit",
-            new UserScopedEventListener() {
+            new EncodedEventListener() {
               @Override
-              public void onEvent(Event event) {
-                if (subscribedToEvents.isEmpty() || subscribedToEvents.contains(event.getType())) {
+              public void onEvent(EncodedEvent event) {
+                if (subscribedToEvents.isEmpty()
+                    || subscribedToEvents.contains(event.getEvent().getType())) {
                   offer(writer, event);
                 }
               }
 
+              @Override
+              public void onEvent(Event event) {
+                // Only called by event dispatchers that don't share the encoding between listeners.
+                onEvent(EncodedEvent.create(event, gson));
+              }
+
               @Override
               public CurrentUser getUser() {
                 return currentUser;
@@ -198,11 +212,12 @@ public final class StreamEvents extends BaseCommand {
     }
   }
 
-  private void offer(CancelableRunnable writer, Event event) {
+  private void offer(CancelableRunnable writer, EncodedEvent event) {
     synchronized (taskLock) {
       if (!queue.offer(event)) {
         dropped = true;
       }
+      metrics.queueDepth.record(queue.size());
 
       if (task == null && !done) {
         task = pool.submit(writer);
@@ -210,9 +225,9 @@ public final class StreamEvents extends BaseCommand {
     }
   }
 
-  private Event poll() {
+  private EncodedEvent poll() {
     synchronized (taskLock) {
-      Event event = queue.poll();
+      EncodedEvent event = queue.poll();
       if (event == null) {
         task = null;
       }
@@ -220,7 +235,7 @@ public final class StreamEvents extends BaseCommand {
     }
   }
 
-  private void writeEvents(CancelableRunnable writer, PrintWriter stdout) {
+  private void writeEvents(CancelableRunnable writer, PrintStream stdout) {
     int processed = 0;
 
     while (processed < BATCH_SIZE) {
@@ -236,11 +251,11 @@ public final class StreamEvents extends BaseCommand {
       }
 
       if (dropped) {
-        write(stdout, new DroppedOutputEvent());
+        write(stdout, EncodedEvent.create(new DroppedOutputEvent(), gson));
         dropped = false;
       }
 
-      final Event event = poll();
+      final EncodedEvent event = poll();
       if (event == null) {
         break;
       }
@@ -262,21 +277,19 @@ public final class StreamEvents extends BaseCommand {
     }
   }
 
-  private void write(PrintWriter stdout, Object message) {
-    String msg = null;
-    try {
-      msg = gson.toJson(message) + "\n";
-    } catch (Exception e) {
-      logger.atWarning().withCause(e).log("Could not deserialize the msg");
-    }
-    if (msg != null) {
-      synchronized (stdout) {
-        stdout.print(msg);
+  private void write(PrintStream stdout, EncodedEvent event) {
+    synchronized (stdout) {
+      try {
+        event.writeTo(stdout);
+      } catch (IOException e) {
+        // Not thrown by PrintStream, write errors are detected by checkError().
+      } catch (Exception e) {
+        logger.atWarning().withCause(e).log("Could not serialize the event");
       }
     }
   }
 
-  private void flush(PrintWriter stdout) {
+  private void flush(PrintStream stdout) {
     synchronized (stdout) {
       stdout.flush();
     }
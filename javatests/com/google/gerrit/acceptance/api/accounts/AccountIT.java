@@ -1711,6 +1711,20 @@ public class AccountIT extends AbstractDaemonTest {
     assertThat(accountQueryProvider.get().byDefault(admin.id().toString())).isEmpty();
   }
 
+  @Test
+  public void getSeveralAccountsFromAccountCache() throws Exception {
+    Account.Id foo = accountOperations.newAccount().fullname("Foo").create();
+    Account.Id bar = accountOperations.newAccount().fullname("Bar").create();
+    Account.Id missing = Account.id(seq.nextAccountId());
+
+    Map<Account.Id, AccountState> accounts =
+        accountCache.get(ImmutableSet.of(admin.id(), foo, bar, missing));
+    assertThat(accounts.keySet()).containsExactly(admin.id(), foo, bar);
+    assertThat(accounts.get(foo).account().fullName()).isEqualTo("Foo");
+    assertThat(accounts.get(bar).account().fullName()).isEqualTo("Bar");
+    assertThat(accounts.get(admin.id()).account().id()).isEqualTo(admin.id());
+  }
+
   @Test
   public void addGpgKey() throws Exception {
     TestKey key = validKeyWithoutExpiration();
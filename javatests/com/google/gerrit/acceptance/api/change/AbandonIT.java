@@ -26,6 +26,8 @@ import static org.eclipse.jgit.lib.Constants.HEAD;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.ExtensionRegistry;
+import com.google.gerrit.acceptance.ExtensionRegistry.Registration;
 import com.google.gerrit.acceptance.PushOneCommit;
 import com.google.gerrit.acceptance.UseClockStep;
 import com.google.gerrit.acceptance.config.GerritConfig;
@@ -36,15 +38,19 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.api.changes.ReviewInput;
 import com.google.gerrit.extensions.client.ChangeStatus;
 import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.change.AbandonUtil;
 import com.google.gerrit.server.config.ChangeCleanupConfig;
+import com.google.gerrit.server.logging.PerformanceLogContext;
+import com.google.gerrit.server.logging.PerformanceLogger;
 import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gerrit.testing.TestTimeUtil;
 import com.google.inject.Inject;
+import java.util.ArrayList;
 import java.util.List;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
@@ -54,6 +60,8 @@ import org.junit.Test;
 public class AbandonIT extends AbstractDaemonTest {
   @Inject private AbandonUtil abandonUtil;
   @Inject private ChangeCleanupConfig cleanupConfig;
+  @Inject private DynamicSet<PerformanceLogger> performanceLoggers;
+  @Inject private ExtensionRegistry extensionRegistry;
   @Inject private ProjectOperations projectOperations;
   @Inject private RequestScopeOperations requestScopeOperations;
 
@@ -91,6 +99,36 @@ public class AbandonIT extends AbstractDaemonTest {
     assertThat(Iterables.getLast(info.messages).message.toLowerCase()).contains("deadbeef");
   }
 
+  @Test
+  @GerritConfig(name = "index.bulkIndexThreshold", value = "2")
+  public void batchAbandonIndexesChangesInBulk() throws Exception {
+    CurrentUser user = atrScope.get().getUser();
+    PushOneCommit.Result a = createChange();
+    PushOneCommit.Result b = createChange();
+    List<ChangeData> list = ImmutableList.of(a.getChange(), b.getChange());
+    List<Integer> bulkReplaceCounts = new ArrayList<>();
+    PerformanceLogger performanceLogger =
+        (operation, durationMs, metadata) -> {
+          if (operation.equals("Replacing changes in index")) {
+            bulkReplaceCounts.add(metadata.resourceCount().get());
+          }
+        };
+    try (Registration registration = extensionRegistry.newRegistration().add(performanceLogger);
+        PerformanceLogContext performanceLogContext =
+            new PerformanceLogContext(cfg, performanceLoggers)) {
+      batchAbandon.batchAbandon(batchUpdateFactory, a.getChange().project(), user, list);
+    }
+
+    // Both changes were written to the change index with a single bulk replace.
+    assertThat(bulkReplaceCounts).containsExactly(2);
+    assertThat(
+            gApi.changes().query("status:abandoned project:" + project.get()).get().stream()
+                .map(c -> c.changeId)
+                .collect(toList()))
+        .containsExactly(a.getChangeId(), b.getChangeId());
+    assertThat(gApi.changes().query("status:open project:" + project.get()).get()).isEmpty();
+  }
+
   @Test
   public void batchAbandonChangeProject() throws Exception {
     String project1Name = name("Project1");
@@ -19,6 +19,7 @@ import static com.google.common.truth.Truth.assertThat;
 import com.google.common.collect.ImmutableList;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
 import com.google.gerrit.acceptance.PushOneCommit;
+import com.google.gerrit.acceptance.config.GerritConfig;
 import com.google.gerrit.common.data.SubmitRecord;
 import com.google.gerrit.common.data.SubmitRequirement;
 import com.google.gerrit.extensions.annotations.Exports;
@@ -93,6 +94,26 @@ public class ChangeSubmitRequirementIT extends AbstractDaemonTest {
     assertThat(result.get(0).requirements).containsExactly(reqInfo);
   }
 
+  @Test
+  @GerritConfig(name = "change.cacheSubmitRecords", value = "true")
+  public void submitRecordsAreCachedUntilChangeIsUpdated() throws Exception {
+    rule.block(false);
+    PushOneCommit.Result r = createChange();
+
+    ChangeInfo result = gApi.changes().id(r.getChangeId()).get();
+    assertThat(result.requirements).isEmpty();
+
+    // Submit rule behavior is changed, but the change is unchanged, so its
+    // records are served from the cache.
+    rule.block(true);
+    result = gApi.changes().id(r.getChangeId()).get();
+    assertThat(result.requirements).isEmpty();
+
+    gApi.changes().id(r.getChangeId()).topic("topic");
+    result = gApi.changes().id(r.getChangeId()).get();
+    assertThat(result.requirements).containsExactly(reqInfo);
+  }
+
   @Singleton
   private static class CustomSubmitRule implements SubmitRule {
     private final AtomicBoolean block = new AtomicBoolean(true);
@@ -34,6 +34,7 @@ import com.google.gerrit.entities.Account;
 import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.client.ListChangesOption;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
@@ -191,6 +192,49 @@ public class QueryChangesIT extends AbstractDaemonTest {
         .containsExactly(changeId3, changeId4);
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void withMessagesOfChangesInSeveralProjects() throws Exception {
+    int changeId1 = createChange(testRepo).getChange().getId().get();
+    int changeId2 = createChange(testRepo).getChange().getId().get();
+    Project.NameKey otherProject = projectOperations.newProject().create();
+    int changeId3 = createChange(cloneProject(otherProject, admin)).getChange().getId().get();
+
+    QueryChanges queryChanges = queryChangesProvider.get();
+    queryChanges.addQuery("branch:master");
+    queryChanges.addOption(ListChangesOption.MESSAGES);
+
+    List<ChangeInfo> result =
+        (List<ChangeInfo>) queryChanges.apply(TopLevelResource.INSTANCE).value();
+    assertThat(result.stream().map(i -> i._number).collect(toList()))
+        .containsExactly(changeId1, changeId2, changeId3);
+    for (ChangeInfo info : result) {
+      assertThat(info.messages).hasSize(1);
+    }
+  }
+
+  @Test
+  @GerritConfig(name = "change.verifyIndexedSubmitRecords", value = "true")
+  @SuppressWarnings("unchecked")
+  public void staleSubmitRecordsFromIndexAreNotUsed() throws Exception {
+    String changeId = createChange().getChangeId();
+    disableChangeIndexWrites();
+    try {
+      gApi.changes().id(changeId).current().review(ReviewInput.approve());
+    } finally {
+      enableChangeIndexWrites();
+    }
+
+    QueryChanges queryChanges = queryChangesProvider.get();
+    queryChanges.addQuery("change:" + changeId);
+    queryChanges.addOption(ListChangesOption.SUBMITTABLE);
+
+    List<ChangeInfo> result =
+        (List<ChangeInfo>) queryChanges.apply(TopLevelResource.INSTANCE).value();
+    assertThat(result).hasSize(1);
+    assertThat(result.get(0).submittable).isTrue();
+  }
+
   @Test
   public void usingOutOfRangeLabelValuesDoesNotCauseError() throws Exception {
     for (String operator : ImmutableList.of("=", ">", ">=", "<", "<=")) {
@@ -230,6 +274,31 @@ public class QueryChangesIT extends AbstractDaemonTest {
     assertThat(queryChanges.apply(TopLevelResource.INSTANCE).statusCode()).isEqualTo(SC_OK);
   }
 
+  @Test
+  public void searchAfterWithMultipleQueriesIsRejected() throws Exception {
+    createChange();
+    createChange();
+    QueryChanges firstPage = queryChangesProvider.get();
+    firstPage.addQuery("project:" + project.get());
+    firstPage.setLimit(1);
+    @SuppressWarnings("unchecked")
+    List<ChangeInfo> changes =
+        (List<ChangeInfo>) firstPage.apply(TopLevelResource.INSTANCE).value();
+    String cursor = changes.get(0)._searchAfter;
+    assertThat(cursor).isNotNull();
+
+    QueryChanges queryChanges = queryChangesProvider.get();
+    queryChanges.addQuery("project:" + project.get());
+    queryChanges.addQuery("is:open");
+    queryChanges.setSearchAfter(cursor);
+    BadRequestException e =
+        assertThrows(
+            BadRequestException.class, () -> queryChanges.apply(TopLevelResource.INSTANCE));
+    assertThat(e)
+        .hasMessageThat()
+        .isEqualTo("search-after cannot be used with more than one query");
+  }
+
   @Test
   public void defaultQueryCannotBeParsedDueToInvalidRegEx() throws Exception {
     QueryChanges queryChanges = queryChangesProvider.get();
@@ -1478,6 +1478,35 @@ public abstract class AbstractPushForReview extends AbstractDaemonTest {
         "commit(s) already exists (as current patchset)");
   }
 
+  @Test
+  public void pushSeriesUpdatesAllChangesByChangeId() throws Exception {
+    ObjectId initial = testRepo.getRepository().resolve("HEAD");
+    List<String> changeIds = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      RevCommit c =
+          testRepo.branch("HEAD").commit().message("Change " + i).insertChangeId().create();
+      changeIds.add(GitUtil.getChangeId(testRepo, c).get());
+    }
+    assertPushOk(pushHead(testRepo, "refs/for/master", false), "refs/for/master");
+
+    testRepo.reset(initial);
+    for (int i = 0; i < 3; i++) {
+      testRepo
+          .branch("HEAD")
+          .commit()
+          .message("Change " + i + " amended")
+          .insertChangeId(changeIds.get(i).substring(1))
+          .create();
+    }
+    assertPushOk(pushHead(testRepo, "refs/for/master", false), "refs/for/master");
+
+    for (String changeId : changeIds) {
+      ChangeInfo info = gApi.changes().id(project.get(), "master", changeId).get(ALL_REVISIONS);
+      assertThat(info.revisions).hasSize(2);
+    }
+    assertThat(gApi.changes().query("project:" + project.get()).get()).hasSize(3);
+  }
+
   private void assertTwoChangesWithSameRevision(PushOneCommit.Result result) throws Exception {
     List<ChangeInfo> changes = query(result.getCommit().name());
     assertThat(changes).hasSize(2);
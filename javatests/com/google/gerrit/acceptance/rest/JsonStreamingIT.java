@@ -0,0 +1,76 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.rest;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.RestResponse;
+import com.google.gerrit.acceptance.config.GerritConfig;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gson.reflect.TypeToken;
+import java.util.List;
+import org.junit.Test;
+
+public class JsonStreamingIT extends AbstractDaemonTest {
+  @Test
+  @GerritConfig(name = "httpd.jsonStreamingThreshold", value = "2")
+  public void streamedList() throws Exception {
+    String changeId1 = createChange().getChangeId();
+    String changeId2 = createChange().getChangeId();
+
+    RestResponse response = adminRestSession.get("/changes/?q=project:" + project.get());
+    response.assertOK();
+    assertThat(response.getContentType()).startsWith("application/json");
+    List<ChangeInfo> changes =
+        newGson().fromJson(response.getReader(), new TypeToken<List<ChangeInfo>>() {}.getType());
+    assertThat(changes.stream().map(c -> c.changeId).collect(toImmutableList()))
+        .containsExactly(changeId2, changeId1)
+        .inOrder();
+  }
+
+  @Test
+  @GerritConfig(name = "httpd.jsonStreamingThreshold", value = "2")
+  public void streamedListWithPrettyPrinting() throws Exception {
+    createChange();
+    createChange();
+
+    RestResponse response =
+        adminRestSession.get("/changes/?pp=1&o=DETAILED_ACCOUNTS&q=project:" + project.get());
+    response.assertOK();
+    String content = response.getEntityContent();
+    assertThat(content).startsWith(")]}'\n[\n  {\n");
+    assertThat(content).endsWith("\n]");
+  }
+
+  @Test
+  @GerritConfig(name = "httpd.jsonStreamingThreshold", value = "2")
+  public void streamedListWithFields() throws Exception {
+    createChange();
+    createChange();
+
+    RestResponse response =
+        adminRestSession.get("/changes/?fields=change_id&q=project:" + project.get());
+    response.assertOK();
+    List<ChangeInfo> changes =
+        newGson().fromJson(response.getReader(), new TypeToken<List<ChangeInfo>>() {}.getType());
+    assertThat(changes).hasSize(2);
+    for (ChangeInfo change : changes) {
+      assertThat(change.changeId).isNotNull();
+      assertThat(change.project).isNull();
+    }
+  }
+}
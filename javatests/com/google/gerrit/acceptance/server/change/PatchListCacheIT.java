@@ -25,6 +25,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
 import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.acceptance.config.GerritConfig;
 import com.google.gerrit.entities.Patch;
 import com.google.gerrit.entities.Patch.ChangeType;
 import com.google.gerrit.extensions.client.DiffPreferencesInfo.Whitespace;
@@ -117,6 +118,34 @@ public class PatchListCacheIT extends AbstractDaemonTest {
     assertDeleted(FILE_D, entries.get(3));
   }
 
+  @Test
+  @GerritConfig(name = "cache.diff.parallelism", value = "2")
+  public void listPatchesAgainstBaseInParallel() throws Exception {
+    commitBuilder().add(FILE_C, "3").add(FILE_D, "4").message(SUBJECT_1).create();
+    pushHead(testRepo, "refs/heads/master", false);
+
+    RevCommit c =
+        commitBuilder()
+            .add(FILE_A, "1")
+            .add(FILE_B, "2")
+            .add(FILE_C, "3 modified")
+            .rm(FILE_D)
+            .message(SUBJECT_2)
+            .insertChangeId()
+            .create();
+    String id = getChangeId(testRepo, c).get();
+    pushHead(testRepo, "refs/for/master", false);
+
+    List<PatchListEntry> entries = getCurrentPatches(id);
+    assertThat(entries).hasSize(5);
+    assertAdded(Patch.COMMIT_MSG, entries.get(0));
+    assertAdded(FILE_A, entries.get(1));
+    assertAdded(FILE_B, entries.get(2));
+    assertModified(FILE_C, entries.get(3));
+    assertThat(entries.get(3).getEdits()).containsExactly(new Edit(0, 1, 0, 1));
+    assertDeleted(FILE_D, entries.get(4));
+  }
+
   @Test
   public void listPatchesAgainstBaseWithRebase() throws Exception {
     commitBuilder().add(FILE_D, "4").message(SUBJECT_1).create();
@@ -17,12 +17,17 @@ package com.google.gerrit.acceptance.server.change;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.acceptance.GitUtil.pushHead;
 import static com.google.gerrit.extensions.api.changes.SubmittedTogetherOption.NON_VISIBLE_CHANGES;
+import static java.util.stream.Collectors.toList;
 
+import com.google.common.collect.ImmutableList;
 import com.google.gerrit.acceptance.AbstractDaemonTest;
 import com.google.gerrit.acceptance.GitUtil;
+import com.google.gerrit.acceptance.PushOneCommit;
 import com.google.gerrit.acceptance.TestProjectInput;
+import com.google.gerrit.acceptance.config.GerritConfig;
 import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
 import com.google.gerrit.acceptance.testsuite.request.RequestScopeOperations;
+import com.google.gerrit.entities.BranchNameKey;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.api.changes.SubmittedTogetherInfo;
 import com.google.gerrit.extensions.client.ChangeStatus;
@@ -32,7 +37,10 @@ import com.google.gerrit.extensions.common.FileInfo;
 import com.google.gerrit.extensions.common.RevisionInfo;
 import com.google.gerrit.testing.ConfigSuite;
 import com.google.inject.Inject;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -300,6 +308,57 @@ public class SubmittedTogetherIT extends AbstractDaemonTest {
     assertSubmittedTogether(id2, id2, id1);
   }
 
+  @Test
+  public void changesAcrossProjectsAndBranches() throws Exception {
+    assertSubmittedTogetherAcrossProjectsAndBranches();
+  }
+
+  @Test
+  @GerritConfig(name = "execution.fanOutThreadPoolSize", value = "0")
+  public void changesAcrossProjectsAndBranchesWalkedSequentially() throws Exception {
+    // Without fan-out threads all projects are walked by the calling thread, which must give the
+    // same result as walking them concurrently.
+    assertSubmittedTogetherAcrossProjectsAndBranches();
+  }
+
+  private void assertSubmittedTogetherAcrossProjectsAndBranches() throws Exception {
+    List<List<String>> chains = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Project.NameKey p = projectOperations.newProject().create();
+      createBranch(BranchNameKey.create(p, "stable"));
+      RevCommit initialHead = projectOperations.project(p).getHead("master");
+      TestRepository<InMemoryRepository> repo = cloneProject(p);
+      for (String branch : ImmutableList.of("master", "stable")) {
+        repo.reset(initialHead);
+        List<String> chain = new ArrayList<>();
+        for (int j = 0; j < 2; j++) {
+          PushOneCommit.Result r =
+              createChange(repo, branch, "change " + j, "file" + j, branch, "sharedTopic");
+          r.assertOkStatus();
+          chain.add(r.getChangeId());
+        }
+        chains.add(chain);
+      }
+    }
+
+    List<String> all = chains.stream().flatMap(List::stream).collect(toList());
+    for (List<String> chain : chains) {
+      for (int j = 0; j < chain.size(); j++) {
+        List<String> expected;
+        if (isSubmitWholeTopicEnabled()) {
+          expected = all;
+        } else {
+          expected = j == 0 ? ImmutableList.of() : chain.subList(0, j + 1);
+        }
+        assertThat(
+                gApi.changes().id(chain.get(j)).submittedTogether().stream()
+                    .map(c -> c.changeId)
+                    .collect(toList()))
+            .containsExactlyElementsIn(expected);
+      }
+    }
+  }
+
   private String getChangeId(RevCommit c) throws Exception {
     return GitUtil.getChangeId(testRepo, c).get();
   }
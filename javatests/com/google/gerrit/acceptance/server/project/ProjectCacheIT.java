@@ -0,0 +1,85 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.acceptance.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.allow;
+import static com.google.gerrit.acceptance.testsuite.project.TestProjectUpdate.permissionKey;
+
+import com.google.gerrit.acceptance.AbstractDaemonTest;
+import com.google.gerrit.acceptance.NoHttpd;
+import com.google.gerrit.acceptance.testsuite.group.GroupOperations;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.common.data.Permission;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.server.project.ProjectCacheImpl;
+import com.google.inject.Inject;
+import org.junit.Test;
+
+@NoHttpd
+public class ProjectCacheIT extends AbstractDaemonTest {
+  @Inject private GroupOperations groupOperations;
+  @Inject private ProjectOperations projectOperations;
+  @Inject private ProjectCacheImpl projectCacheImpl;
+
+  @Test
+  public void groupsOfCachedProjectsAreRelevant() throws Exception {
+    AccountGroup.UUID group = groupOperations.newGroup().create();
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .add(allow(Permission.READ).ref("refs/heads/*").group(group))
+        .update();
+
+    projectCache.get(project);
+    assertThat(projectCache.guessRelevantGroupUUIDs()).contains(group);
+    assertThat(projectCache.guessProjectsReferencingGroup(group)).containsExactly(project);
+  }
+
+  @Test
+  public void groupsOfEvictedProjectsAreNotRelevant() throws Exception {
+    AccountGroup.UUID group = groupOperations.newGroup().create();
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .add(allow(Permission.READ).ref("refs/heads/*").group(group))
+        .update();
+    projectCache.get(project);
+
+    projectCacheImpl.evictAllByName();
+    assertThat(projectCache.guessRelevantGroupUUIDs()).doesNotContain(group);
+    assertThat(projectCache.guessProjectsReferencingGroup(group)).isEmpty();
+  }
+
+  @Test
+  public void groupsNoLongerReferencedAreNotRelevant() throws Exception {
+    AccountGroup.UUID group = groupOperations.newGroup().create();
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .add(allow(Permission.READ).ref("refs/heads/*").group(group))
+        .update();
+    projectCache.get(project);
+
+    projectOperations
+        .project(project)
+        .forUpdate()
+        .remove(permissionKey(Permission.READ).ref("refs/heads/*").group(group))
+        .update();
+    projectCache.get(project);
+    assertThat(projectCache.guessRelevantGroupUUIDs()).doesNotContain(group);
+    assertThat(projectCache.guessProjectsReferencingGroup(group)).isEmpty();
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.metrics.dropwizard;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class CellIndexTest {
+  @Test
+  public void twoFields() throws Exception {
+    CellIndex<String> index = new CellIndex<>();
+    assertThat(index.get("a", 1)).isNull();
+
+    index.put("a", 1, "a/1");
+    index.put("a", 2, "a/2");
+    index.put("b", 1, "b/1");
+    assertThat(index.get("a", 1)).isEqualTo("a/1");
+    assertThat(index.get("a", 2)).isEqualTo("a/2");
+    assertThat(index.get("b", 1)).isEqualTo("b/1");
+    assertThat(index.get("b", 2)).isNull();
+  }
+
+  @Test
+  public void threeFields() throws Exception {
+    CellIndex<String> index = new CellIndex<>();
+    assertThat(index.get("a", 1, true)).isNull();
+
+    index.put("a", 1, true, "a/1/true");
+    index.put("a", 1, false, "a/1/false");
+    index.put("a", 2, true, "a/2/true");
+    assertThat(index.get("a", 1, true)).isEqualTo("a/1/true");
+    assertThat(index.get("a", 1, false)).isEqualTo("a/1/false");
+    assertThat(index.get("a", 2, true)).isEqualTo("a/2/true");
+    assertThat(index.get("a", 2, false)).isNull();
+    assertThat(index.get("b", 1, true)).isNull();
+  }
+}
@@ -28,22 +28,38 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.cache.AbstractPersistentCache;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
 import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore;
-import com.google.gerrit.server.cache.h2.H2CacheImpl.ValueHolder;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore.BloomFilterSettings;
+import com.google.gerrit.server.cache.h2.H2CacheImpl.SqlStore.WriteBehind;
+import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.gerrit.server.cache.serialize.IntegerCacheSerializer;
 import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
 import com.google.gerrit.server.util.time.TimeUtil;
 import com.google.inject.TypeLiteral;
+import java.nio.file.Files;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class H2CacheTest {
   private static final TypeLiteral<String> KEY_TYPE = new TypeLiteral<String>() {};
   private static final int DEFAULT_VERSION = 1234;
   private static int dbCnt;
 
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   private static int nextDbId() {
     return ++dbCnt;
   }
@@ -144,6 +160,131 @@ public class H2CacheTest {
     assertThat(oldImpl.getIfPresent("key")).isNull();
   }
 
+  @Test
+  public void writeBehind() {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    try {
+      SqlStore<String, String> store =
+          new SqlStore<>(
+              "jdbc:h2:mem:Test_" + nextDbId(),
+              KEY_TYPE,
+              StringCacheSerializer.INSTANCE,
+              StringCacheSerializer.INSTANCE,
+              DEFAULT_VERSION,
+              1 << 20,
+              null,
+              null,
+              new WriteBehind(
+                  "test",
+                  100,
+                  100,
+                  Duration.ofHours(1),
+                  executor,
+                  new H2CacheMetrics(new DisabledMetricMaker())),
+              null);
+      H2CacheImpl<String, String> impl = newH2CacheImpl(store, disableMemCache());
+
+      impl.put("foo", "bar");
+      impl.put("foo", "baz");
+      impl.put("bar", "foo");
+      assertWithMessage("buffered value").that(impl.getIfPresent("foo")).isEqualTo("baz");
+      assertThat(impl.diskStats().size()).isEqualTo(0);
+
+      impl.invalidate("bar");
+      store.flush();
+      assertWithMessage("coalesced entries").that(impl.diskStats().size()).isEqualTo(1);
+      assertWithMessage("persistent value").that(impl.getIfPresent("foo")).isEqualTo("baz");
+      assertThat(impl.getIfPresent("bar")).isNull();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void bloomFilterIsPersisted() throws Exception {
+    BloomFilterSettings settings =
+        new BloomFilterSettings(
+            "test",
+            temporaryFolder.getRoot().toPath().resolve("test.bloom"),
+            0.1,
+            MoreExecutors.directExecutor(),
+            new H2CacheMetrics(new DisabledMetricMaker()));
+    SqlStore<String, String> store = newStore(settings);
+    store.open();
+    store.put("foo", new ValueHolder<>("bar", TimeUtil.now()));
+    store.close();
+    assertThat(Files.exists(settings.file)).isTrue();
+
+    store = newStore(settings);
+    assertWithMessage("not opened yet").that(store.mightContain("bar")).isTrue();
+    store.open();
+    assertWithMessage("read once").that(Files.exists(settings.file)).isFalse();
+    assertThat(store.mightContain("foo")).isTrue();
+    assertThat(store.mightContain("bar")).isFalse();
+  }
+
+  @Test
+  public void bloomFilterRebuildKeepsKeysPutDuringRebuild() throws Exception {
+    AtomicReference<Runnable> duringScan = new AtomicReference<>();
+    CacheSerializer<Integer> keySerializer =
+        new CacheSerializer<Integer>() {
+          @Override
+          public byte[] serialize(Integer object) {
+            return IntegerCacheSerializer.INSTANCE.serialize(object);
+          }
+
+          @Override
+          public Integer deserialize(byte[] in) {
+            Runnable r = duringScan.getAndSet(null);
+            if (r != null) {
+              r.run();
+            }
+            return IntegerCacheSerializer.INSTANCE.deserialize(in);
+          }
+        };
+    List<Runnable> rebuilds = new ArrayList<>();
+    SqlStore<Integer, String> store =
+        new SqlStore<>(
+            "jdbc:h2:mem:Test_" + nextDbId(),
+            new TypeLiteral<Integer>() {},
+            keySerializer,
+            StringCacheSerializer.INSTANCE,
+            DEFAULT_VERSION,
+            1 << 20,
+            null,
+            null,
+            null,
+            new BloomFilterSettings(
+                "test",
+                temporaryFolder.getRoot().toPath().resolve("test.bloom"),
+                0,
+                rebuilds::add,
+                new H2CacheMetrics(new DisabledMetricMaker())));
+    store.open();
+    store.put(1, new ValueHolder<>("one", TimeUtil.now()));
+    assertThat(rebuilds).hasSize(1);
+
+    duringScan.set(() -> store.put(2, new ValueHolder<>("two", TimeUtil.now())));
+    rebuilds.remove(0).run();
+    assertWithMessage("scan ran").that(duringScan.get()).isNull();
+    assertThat(store.mightContain(1)).isTrue();
+    assertThat(store.mightContain(2)).isTrue();
+  }
+
+  private static SqlStore<String, String> newStore(BloomFilterSettings settings) {
+    return new SqlStore<>(
+        "jdbc:h2:mem:Test_" + nextDbId(),
+        KEY_TYPE,
+        StringCacheSerializer.INSTANCE,
+        StringCacheSerializer.INSTANCE,
+        DEFAULT_VERSION,
+        1 << 20,
+        null,
+        null,
+        null,
+        settings);
+  }
+
   @Test
   public void refreshAfterWrite_triggeredWhenConfigured() throws Exception {
     SqlStore<String, String> store =
@@ -156,8 +297,8 @@ public class H2CacheTest {
 
     // We wrap baseLoader just like H2CacheFactory is wrapping it. The wrapped version will call out
     // to the store for refreshing values.
-    H2CacheImpl.Loader<String, String> wrappedLoader =
-        new H2CacheImpl.Loader<>(MoreExecutors.directExecutor(), store, baseLoader);
+    AbstractPersistentCache.Loader<String, String> wrappedLoader =
+        new AbstractPersistentCache.Loader<>(MoreExecutors.directExecutor(), store, baseLoader);
     // memCache is the in-memory variant of the cache. Its loader is wrappedLoader which will call
     // out to the store to save or delete cached values.
     LoadingCache<String, ValueHolder<String>> memCache =
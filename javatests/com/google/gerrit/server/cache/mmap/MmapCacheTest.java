@@ -0,0 +1,241 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.cache.mmap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.server.cache.AbstractPersistentCache.ValueHolder;
+import com.google.gerrit.server.cache.serialize.StringCacheSerializer;
+import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.inject.TypeLiteral;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MmapCacheTest {
+  private static final TypeLiteral<String> KEY_TYPE = new TypeLiteral<String>() {};
+  private static final int DEFAULT_VERSION = 1234;
+
+  // Small regions, so that tests cover both mapped and positional reads.
+  private static final int REGION_SIZE = 64;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @After
+  public void resetTime() {
+    TimeUtil.resetCurrentMillisSupplier();
+  }
+
+  private Path file() {
+    return temporaryFolder.getRoot().toPath().resolve("test" + MmapCacheFactory.FILE_SUFFIX);
+  }
+
+  private static MmapCacheImpl<String, String> newMmapCacheImpl(
+      LogStore<String, String> store, Cache<String, ValueHolder<String>> mem) {
+    return new MmapCacheImpl<>(MoreExecutors.directExecutor(), store, KEY_TYPE, mem);
+  }
+
+  private LogStore<String, String> newStore(
+      int version, long maxSize, @Nullable Duration expireAfterWrite) {
+    return new LogStore<>(
+        file(),
+        StringCacheSerializer.INSTANCE,
+        StringCacheSerializer.INSTANCE,
+        version,
+        maxSize,
+        REGION_SIZE,
+        expireAfterWrite,
+        null);
+  }
+
+  private LogStore<String, String> newStore() {
+    return newStore(DEFAULT_VERSION, 1 << 20, null);
+  }
+
+  @Test
+  public void get() throws ExecutionException {
+    Cache<String, ValueHolder<String>> mem = CacheBuilder.newBuilder().build();
+    MmapCacheImpl<String, String> impl = newMmapCacheImpl(newStore(), mem);
+
+    assertThat(impl.getIfPresent("foo")).isNull();
+
+    AtomicBoolean called = new AtomicBoolean();
+    assertThat(
+            impl.get(
+                "foo",
+                () -> {
+                  called.set(true);
+                  return "bar";
+                }))
+        .isEqualTo("bar");
+    assertWithMessage("Callable was called").that(called.get()).isTrue();
+    assertWithMessage("in-memory value").that(impl.getIfPresent("foo")).isEqualTo("bar");
+    mem.invalidate("foo");
+    assertWithMessage("persistent value").that(impl.getIfPresent("foo")).isEqualTo("bar");
+
+    called.set(false);
+    assertWithMessage("cached value")
+        .that(
+            impl.get(
+                "foo",
+                () -> {
+                  called.set(true);
+                  return "baz";
+                }))
+        .isEqualTo("bar");
+    assertWithMessage("Callable was called").that(called.get()).isFalse();
+  }
+
+  @Test
+  public void valuesSurviveRestart() {
+    LogStore<String, String> store = newStore();
+    MmapCacheImpl<String, String> impl = newMmapCacheImpl(store, disableMemCache());
+    for (int i = 0; i < 20; i++) {
+      impl.put("key" + i, "value" + i);
+    }
+    impl.put("key1", "updated");
+    impl.invalidate("key2");
+    impl.stop();
+
+    impl = newMmapCacheImpl(newStore(), disableMemCache());
+    assertThat(impl.getIfPresent("key0")).isEqualTo("value0");
+    assertThat(impl.getIfPresent("key1")).isEqualTo("updated");
+    assertThat(impl.getIfPresent("key2")).isNull();
+    assertThat(impl.getIfPresent("key19")).isEqualTo("value19");
+    assertThat(impl.diskStats().size()).isEqualTo(19);
+  }
+
+  @Test
+  public void version() {
+    MmapCacheImpl<String, String> oldImpl =
+        newMmapCacheImpl(newStore(DEFAULT_VERSION, 1 << 20, null), disableMemCache());
+    oldImpl.put("key", "val");
+    assertThat(oldImpl.getIfPresent("key")).isEqualTo("val");
+    assertThat(oldImpl.diskStats().hitCount()).isEqualTo(1);
+    oldImpl.stop();
+
+    // Can't find key in cache with wrong version, but the data is still there.
+    LogStore<String, String> newStore = newStore(DEFAULT_VERSION + 1, 1 << 20, null);
+    MmapCacheImpl<String, String> newImpl = newMmapCacheImpl(newStore, disableMemCache());
+    assertThat(newImpl.getIfPresent("key")).isNull();
+    assertThat(newImpl.diskStats().space()).isGreaterThan(8L);
+
+    // Compaction drops the record of the old version.
+    newStore.compact(disableMemCache());
+    assertThat(newImpl.diskStats().space()).isEqualTo(8);
+  }
+
+  @Test
+  public void corruptTailIsTruncated() throws Exception {
+    MmapCacheImpl<String, String> impl = newMmapCacheImpl(newStore(), disableMemCache());
+    impl.put("key1", "value1");
+    impl.put("key2", "value2");
+    impl.stop();
+
+    long size = Files.size(file());
+    try (FileChannel ch = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+      // Flip a byte in the value of the last record.
+      ch.write(ByteBuffer.wrap(new byte[] {'X'}), size - 6);
+    }
+
+    impl = newMmapCacheImpl(newStore(), disableMemCache());
+    assertThat(impl.getIfPresent("key1")).isEqualTo("value1");
+    assertThat(impl.getIfPresent("key2")).isNull();
+    assertThat(impl.diskStats().space()).isLessThan(size);
+  }
+
+  @Test
+  public void compactEvictsLeastRecentlyAccessedEntries() {
+    LogStore<String, String> store = newStore(DEFAULT_VERSION, 1 << 20, null);
+    MmapCacheImpl<String, String> impl = newMmapCacheImpl(store, disableMemCache());
+    TimeUtil.setCurrentMillisSupplier(() -> 1000);
+    impl.put("old", "value");
+    TimeUtil.setCurrentMillisSupplier(() -> 2000);
+    impl.put("new", "value");
+    long oneEntry = store.liveBytes() / 2;
+    impl.stop();
+
+    store = newStore(DEFAULT_VERSION, oneEntry, null);
+    impl = newMmapCacheImpl(store, disableMemCache());
+    store.compact(disableMemCache());
+    assertThat(impl.getIfPresent("old")).isNull();
+    assertThat(impl.getIfPresent("new")).isEqualTo("value");
+    assertThat(impl.diskStats().space()).isEqualTo(8 + oneEntry);
+  }
+
+  @Test
+  public void accessTimesSurviveRestart() {
+    LogStore<String, String> store = newStore(DEFAULT_VERSION, 1 << 20, null);
+    MmapCacheImpl<String, String> impl = newMmapCacheImpl(store, disableMemCache());
+    TimeUtil.setCurrentMillisSupplier(() -> 1000);
+    impl.put("old", "value");
+    TimeUtil.setCurrentMillisSupplier(() -> 2000);
+    impl.put("new", "value");
+    long oneEntry = store.liveBytes() / 2;
+    TimeUtil.setCurrentMillisSupplier(() -> 3000);
+    assertThat(impl.getIfPresent("old")).isEqualTo("value");
+    impl.stop();
+
+    store = newStore(DEFAULT_VERSION, oneEntry, null);
+    impl = newMmapCacheImpl(store, disableMemCache());
+    store.compact(disableMemCache());
+    assertThat(impl.getIfPresent("new")).isNull();
+    assertThat(impl.getIfPresent("old")).isEqualTo("value");
+    assertThat(impl.diskStats().space()).isEqualTo(8 + oneEntry);
+  }
+
+  @Test
+  public void expiredEntriesAreNotReturned() {
+    LogStore<String, String> store = newStore(DEFAULT_VERSION, 1 << 20, Duration.ofMillis(10));
+    MmapCacheImpl<String, String> impl = newMmapCacheImpl(store, disableMemCache());
+    TimeUtil.setCurrentMillisSupplier(() -> 0);
+    impl.put("key", "value");
+    assertThat(impl.getIfPresent("key")).isEqualTo("value");
+    TimeUtil.setCurrentMillisSupplier(() -> 11);
+    assertThat(impl.getIfPresent("key")).isNull();
+  }
+
+  @Test
+  public void invalidateAll() {
+    MmapCacheImpl<String, String> impl = newMmapCacheImpl(newStore(), disableMemCache());
+    impl.put("key1", "value1");
+    impl.put("key2", "value2");
+    impl.invalidateAll();
+    assertThat(impl.getIfPresent("key1")).isNull();
+    assertThat(impl.diskStats().size()).isEqualTo(0);
+    impl.stop();
+
+    impl = newMmapCacheImpl(newStore(), disableMemCache());
+    assertThat(impl.getIfPresent("key2")).isNull();
+  }
+
+  private static <K, V> Cache<K, ValueHolder<V>> disableMemCache() {
+    return CacheBuilder.newBuilder().maximumSize(0).build();
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.events;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import java.io.ByteArrayOutputStream;
+import org.junit.Test;
+
+public class EncodedEventTest {
+  private final Gson gson = new EventGsonProvider().get();
+
+  @Test
+  public void writesJsonTerminatedByNewline() throws Exception {
+    RefUpdatedEvent event = new RefUpdatedEvent();
+    EncodedEvent encoded = EncodedEvent.create(event, gson);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoded.writeTo(out);
+
+    assertThat(out.toString(UTF_8.name())).isEqualTo(gson.toJson(event) + "\n");
+    assertThat(encoded.getEvent()).isSameInstanceAs(event);
+  }
+
+  @Test
+  public void encodesOnlyOnce() throws Exception {
+    RefUpdatedEvent event = new RefUpdatedEvent();
+    EncodedEvent encoded = EncodedEvent.create(event, gson);
+
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    encoded.writeTo(first);
+    event.eventCreatedOn++;
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    encoded.writeTo(second);
+
+    assertThat(second.toByteArray()).isEqualTo(first.toByteArray());
+  }
+}
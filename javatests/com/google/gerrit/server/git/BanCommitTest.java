@@ -0,0 +1,71 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.RefNames;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BanCommitTest {
+  private TestRepository<InMemoryRepository> tr;
+
+  @Before
+  public void setUp() throws Exception {
+    tr = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("repo")));
+  }
+
+  @Test
+  public void loadRejectCommitsMapInMemoryWithoutBannedCommits() throws Exception {
+    RevCommit c = tr.commit().create();
+
+    NoteMap rejectCommits;
+    try (RevWalk walk = new RevWalk(tr.getRepository())) {
+      rejectCommits = BanCommit.loadRejectCommitsMapInMemory(tr.getRepository(), walk);
+    }
+
+    assertThat(rejectCommits.iterator().hasNext()).isFalse();
+    assertThat(rejectCommits.contains(c)).isFalse();
+  }
+
+  @Test
+  public void loadRejectCommitsMapInMemoryReadsAllNotes() throws Exception {
+    RevCommit banned1 = tr.commit().message("banned 1").create();
+    RevCommit banned2 = tr.commit().message("banned 2").create();
+    RevCommit allowed = tr.commit().message("allowed").create();
+    tr.branch(RefNames.REFS_REJECT_COMMITS)
+        .commit()
+        .add(banned1.name(), "")
+        .add(banned2.name(), "")
+        .create();
+
+    NoteMap rejectCommits;
+    try (RevWalk walk = new RevWalk(tr.getRepository())) {
+      rejectCommits = BanCommit.loadRejectCommitsMapInMemory(tr.getRepository(), walk);
+    }
+
+    // The walk, and with it its reader, is closed, so all notes must have been read.
+    assertThat(rejectCommits.contains(banned1)).isTrue();
+    assertThat(rejectCommits.contains(banned2)).isTrue();
+    assertThat(rejectCommits.contains(allowed)).isFalse();
+  }
+}
@@ -0,0 +1,316 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.git.receive;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.testing.GerritJUnit.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gerrit.server.git.validators.CommitValidationMessage;
+import com.google.gerrit.server.git.validators.ValidationMessage;
+import com.google.gerrit.server.util.RequestContext;
+import com.google.gerrit.server.util.RequestScopePropagator;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.inject.Guice;
+import com.google.inject.Scopes;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Tests for {@link CommitValidationPipeline}. */
+public class CommitValidationPipelineTest {
+  private InMemoryRepository repo;
+  private ObjectReader reader;
+  private ReceiveCommand cmd;
+  private QueueingExecutor executor;
+  private ThreadLocalRequestContext local;
+  private RequestContext oldContext;
+  private List<String> consumed;
+
+  @Before
+  public void setUp() throws Exception {
+    repo = new InMemoryRepository(new DfsRepositoryDescription("repo"));
+    reader = repo.newObjectReader();
+    cmd =
+        new ReceiveCommand(
+            ObjectId.zeroId(),
+            ObjectId.fromString("badc0feebadc0feebadc0feebadc0feebadc0fee"),
+            "refs/heads/master");
+    executor = new QueueingExecutor();
+    local = Guice.createInjector().getInstance(ThreadLocalRequestContext.class);
+    oldContext = local.setContext(() -> null);
+    consumed = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    local.setContext(oldContext);
+    reader.close();
+    repo.close();
+  }
+
+  @Test
+  public void resultsAreConsumedInSubmissionOrder() throws Exception {
+    try (CommitValidationPipeline pipeline = newPipeline(3)) {
+      assertThat(pipeline.submit(valid("a"))).isTrue();
+      assertThat(pipeline.submit(valid("b"))).isTrue();
+      assertThat(pipeline.submit(valid("c"))).isTrue();
+      assertThat(consumed).isEmpty();
+
+      executor.runAllInReverseOrder();
+      assertThat(pipeline.finish()).isTrue();
+    }
+    assertThat(consumed).containsExactly("a", "b", "c").inOrder();
+    assertThat(cmd.getResult()).isEqualTo(ReceiveCommand.Result.NOT_ATTEMPTED);
+  }
+
+  @Test
+  public void stopsAtFirstInvalidCommit() throws Exception {
+    AtomicBoolean ranAfterInvalid = new AtomicBoolean();
+    try (CommitValidationPipeline pipeline = newPipeline(2)) {
+      assertThat(pipeline.submit(valid("a"))).isTrue();
+      assertThat(pipeline.submit(invalid("b", "b is banned"))).isTrue();
+      executor.runAll();
+
+      assertThat(pipeline.submit(valid("c", ranAfterInvalid))).isFalse();
+      assertThat(pipeline.submit(valid("d", ranAfterInvalid))).isFalse();
+      assertThat(pipeline.finish()).isFalse();
+      executor.runAll();
+    }
+    assertThat(consumed).containsExactly("a", "b").inOrder();
+    assertThat(ranAfterInvalid.get()).isFalse();
+  }
+
+  @Test
+  public void outstandingValidationsAreCancelled() throws Exception {
+    AtomicBoolean ranAfterInvalid = new AtomicBoolean();
+    try (CommitValidationPipeline pipeline = newPipeline(3)) {
+      assertThat(pipeline.submit(invalid("a", "a is banned"))).isTrue();
+      assertThat(pipeline.submit(valid("b", ranAfterInvalid))).isTrue();
+      assertThat(pipeline.submit(valid("c", ranAfterInvalid))).isTrue();
+
+      executor.runNext();
+      assertThat(pipeline.finish()).isFalse();
+      executor.runAll();
+    }
+    assertThat(consumed).containsExactly("a");
+    assertThat(ranAfterInvalid.get()).isFalse();
+  }
+
+  @Test
+  public void closeCancelsOutstandingValidations() throws Exception {
+    AtomicBoolean ran = new AtomicBoolean();
+    try (CommitValidationPipeline pipeline = newPipeline(3)) {
+      assertThat(pipeline.submit(valid("a", ran))).isTrue();
+      assertThat(pipeline.submit(valid("b", ran))).isTrue();
+    }
+    executor.runAll();
+    assertThat(ran.get()).isFalse();
+    assertThat(consumed).isEmpty();
+  }
+
+  @Test
+  public void rejectionOfCopiedCommandIsAppliedToCommand() throws Exception {
+    AtomicReference<ReceiveCommand> validated = new AtomicReference<>();
+    try (CommitValidationPipeline pipeline = newPipeline(2)) {
+      assertThat(
+              pipeline.submit(
+                  (r, c) -> {
+                    validated.set(c);
+                    return invalid("a", "a is banned").validate(r, c);
+                  }))
+          .isTrue();
+      executor.runAll();
+      assertThat(cmd.getResult()).isEqualTo(ReceiveCommand.Result.NOT_ATTEMPTED);
+      assertThat(pipeline.finish()).isFalse();
+    }
+    assertThat(validated.get()).isNotSameInstanceAs(cmd);
+    assertThat(validated.get().getRefName()).isEqualTo(cmd.getRefName());
+    assertThat(validated.get().getNewId()).isEqualTo(cmd.getNewId());
+    assertThat(cmd.getResult()).isEqualTo(ReceiveCommand.Result.REJECTED_OTHER_REASON);
+    assertThat(cmd.getMessage()).isEqualTo("a is banned");
+  }
+
+  @Test
+  public void ioExceptionIsRethrown() throws Exception {
+    IOException cause = new IOException("broken");
+    try (CommitValidationPipeline pipeline = newPipeline(2)) {
+      assertThat(
+              pipeline.submit(
+                  (r, c) -> {
+                    throw cause;
+                  }))
+          .isTrue();
+      executor.runAll();
+      IOException thrown = assertThrows(IOException.class, () -> pipeline.finish());
+      assertThat(thrown).isSameInstanceAs(cause);
+    }
+  }
+
+  @Test
+  public void uncheckedExceptionIsRethrown() throws Exception {
+    IllegalStateException cause = new IllegalStateException("broken");
+    try (CommitValidationPipeline pipeline = newPipeline(2)) {
+      assertThat(
+              pipeline.submit(
+                  (r, c) -> {
+                    throw cause;
+                  }))
+          .isTrue();
+      executor.runAll();
+      IllegalStateException thrown =
+          assertThrows(IllegalStateException.class, () -> pipeline.finish());
+      assertThat(thrown).isSameInstanceAs(cause);
+    }
+  }
+
+  @Test
+  public void parallelismOfOneValidatesInCallingThread() throws Exception {
+    AtomicReference<ObjectReader> usedReader = new AtomicReference<>();
+    AtomicReference<ReceiveCommand> validated = new AtomicReference<>();
+    AtomicBoolean ranAfterInvalid = new AtomicBoolean();
+    try (CommitValidationPipeline pipeline = newPipeline(1)) {
+      assertThat(pipeline.submit(valid("a"))).isTrue();
+      assertThat(consumed).containsExactly("a");
+
+      assertThat(
+              pipeline.submit(
+                  (r, c) -> {
+                    usedReader.set(r);
+                    validated.set(c);
+                    return invalid("b", "b is banned").validate(r, c);
+                  }))
+          .isFalse();
+      assertThat(pipeline.submit(valid("c", ranAfterInvalid))).isFalse();
+      assertThat(pipeline.finish()).isFalse();
+    }
+    assertThat(executor.tasks).isEmpty();
+    assertThat(consumed).containsExactly("a", "b").inOrder();
+    assertThat(ranAfterInvalid.get()).isFalse();
+    assertThat(usedReader.get()).isSameInstanceAs(reader);
+    assertThat(validated.get()).isSameInstanceAs(cmd);
+    assertThat(cmd.getResult()).isEqualTo(ReceiveCommand.Result.REJECTED_OTHER_REASON);
+    assertThat(cmd.getMessage()).isEqualTo("b is banned");
+  }
+
+  private CommitValidationPipeline newPipeline(int parallelism) {
+    return new CommitValidationPipeline(
+        repo,
+        reader,
+        cmd,
+        executor,
+        new TestRequestScopePropagator(local),
+        parallelism,
+        r -> r.messages().forEach(m -> consumed.add(m.getMessage())));
+  }
+
+  private static CommitValidationPipeline.Validation valid(String name) {
+    return valid(name, new AtomicBoolean());
+  }
+
+  private static CommitValidationPipeline.Validation valid(String name, AtomicBoolean ran) {
+    return (r, c) -> {
+      ran.set(true);
+      return BranchCommitValidator.Result.create(true, messages(name));
+    };
+  }
+
+  private static CommitValidationPipeline.Validation invalid(String name, String reason) {
+    return (r, c) -> {
+      c.setResult(ReceiveCommand.Result.REJECTED_OTHER_REASON, reason);
+      return BranchCommitValidator.Result.create(false, messages(name));
+    };
+  }
+
+  private static ImmutableList<CommitValidationMessage> messages(String name) {
+    return ImmutableList.of(new CommitValidationMessage(name, ValidationMessage.Type.OTHER));
+  }
+
+  /** Runs the request scoped validations in the test thread, which is in the request scope. */
+  private static class TestRequestScopePropagator extends RequestScopePropagator {
+    TestRequestScopePropagator(ThreadLocalRequestContext local) {
+      super(Scopes.NO_SCOPE, local);
+    }
+
+    @Override
+    protected <T> Callable<T> wrapImpl(Callable<T> callable) {
+      return callable;
+    }
+  }
+
+  /** Queues submitted tasks until the test runs them. */
+  private static class QueueingExecutor extends AbstractExecutorService {
+    final Deque<Runnable> tasks = new ArrayDeque<>();
+
+    void runNext() {
+      tasks.removeFirst().run();
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        runNext();
+      }
+    }
+
+    void runAllInReverseOrder() {
+      while (!tasks.isEmpty()) {
+        tasks.removeLast().run();
+      }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.addLast(command);
+    }
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return true;
+    }
+  }
+}
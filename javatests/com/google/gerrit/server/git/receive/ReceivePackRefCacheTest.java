@@ -128,6 +128,146 @@ public class ReceivePackRefCacheTest {
         .isEmpty();
   }
 
+  @Test
+  public void sharedIndex_tipsFromObjectId() throws Exception {
+    Map<String, Ref> refs = setupTwoChanges();
+    ReceivePackRefCache cache =
+        ReceivePackRefCache.withSharedIndex(() -> refs, r -> new SharedRefIndex().sync(r));
+
+    assertThat(
+            cache.tipsFromObjectId(
+                ObjectId.fromString("badc0feebadc0feebadc0feebadc0feebadc0fee"),
+                RefNames.REFS_CHANGES))
+        .containsExactly(refs.get("refs/changes/01/1/1"));
+  }
+
+  @Test
+  public void sharedIndex_prefixScansChangeId() throws Exception {
+    Map<String, Ref> refs = setupTwoChanges();
+    ReceivePackRefCache cache =
+        ReceivePackRefCache.withSharedIndex(() -> refs, r -> new SharedRefIndex().sync(r));
+
+    assertThat(cache.byPrefix(RefNames.changeRefPrefix(Change.id(2))))
+        .containsExactly(refs.get("refs/changes/02/2/1"));
+  }
+
+  @Test
+  public void sharedIndex_onlyReturnsRefsOfOwnAdvertisement() throws Exception {
+    SharedRefIndex index = new SharedRefIndex();
+    Map<String, Ref> oldRefs = setupTwoChanges();
+    Ref ref3 = newRef("refs/changes/03/3/1", "badc0feebadc0feebadc0feebadc0feebadc0fee");
+    ReceivePackRefCache cache = ReceivePackRefCache.withSharedIndex(() -> oldRefs, index::sync);
+    assertThat(cache.byPrefix(RefNames.changeRefPrefix(Change.id(1)))).hasSize(1);
+    index.sync(
+        ImmutableMap.<String, Ref>builder().putAll(oldRefs).put(ref3.getName(), ref3).build());
+
+    assertThat(
+            cache.tipsFromObjectId(
+                ObjectId.fromString("badc0feebadc0feebadc0feebadc0feebadc0fee"), null))
+        .containsExactly(oldRefs.get("refs/changes/01/1/1"));
+    assertThat(cache.byPrefix(RefNames.changeRefPrefix(Change.id(3)))).isEmpty();
+  }
+
+  @Test
+  public void sharedIndex_findsRefsOfOwnAdvertisementAfterConcurrentSync() throws Exception {
+    SharedRefIndex index = new SharedRefIndex();
+    Map<String, Ref> oldRefs = setupTwoChanges();
+    Ref ref3 = newRef("refs/changes/03/3/1", "badc0feebadc0feebadc0feebadc0feebadc0fee");
+    Map<String, Ref> newRefs =
+        ImmutableMap.<String, Ref>builder().putAll(oldRefs).put(ref3.getName(), ref3).build();
+    ReceivePackRefCache cache = ReceivePackRefCache.withSharedIndex(() -> newRefs, index::sync);
+    assertThat(cache.byPrefix(RefNames.changeRefPrefix(Change.id(3)))).containsExactly(ref3);
+
+    // A concurrent push with an older advertisement syncs the shared index.
+    index.sync(oldRefs);
+
+    assertThat(
+            cache.tipsFromObjectId(
+                ObjectId.fromString("badc0feebadc0feebadc0feebadc0feebadc0fee"), null))
+        .containsExactly(newRefs.get("refs/changes/01/1/1"), ref3);
+    assertThat(cache.byPrefix(RefNames.changeRefPrefix(Change.id(3)))).containsExactly(ref3);
+  }
+
+  @Test
+  public void sharedIndex_viewStaysValidWhenSyncDoesNotModifyIndex() throws Exception {
+    SharedRefIndex index = new SharedRefIndex();
+    Map<String, Ref> refs = setupTwoChanges();
+    SharedRefIndex.View view = index.sync(refs);
+    assertThat(index.sync(refs).modified()).isEqualTo(0);
+
+    assertThat(view.namesByChange(Change.id(1))).containsExactly("refs/changes/01/1/1");
+  }
+
+  @Test
+  public void sharedIndex_syncOnlyUpdatesModifiedRefs() throws Exception {
+    SharedRefIndex index = new SharedRefIndex();
+    Map<String, Ref> refs = setupTwoChanges();
+    assertThat(index.sync(refs).modified()).isEqualTo(2);
+    assertThat(index.sync(refs).modified()).isEqualTo(0);
+
+    Ref updated = newRef("refs/changes/01/1/1", "deadbeefdeadbeefdeadbeefdeadbeefdeadbeef");
+    Ref added = newRef("refs/heads/master", "badc0feebadc0feebadc0feebadc0feebadc0fee");
+    SharedRefIndex.View view =
+        index.sync(ImmutableMap.of(updated.getName(), updated, added.getName(), added));
+    assertThat(view.modified()).isEqualTo(3);
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(
+            view.namesByObjectId(ObjectId.fromString("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef")))
+        .containsExactly("refs/changes/01/1/1");
+    assertThat(
+            view.namesByObjectId(ObjectId.fromString("badc0feebadc0feebadc0feebadc0feebadc0fee")))
+        .containsExactly("refs/heads/master");
+    assertThat(view.namesByChange(Change.id(1))).containsExactly("refs/changes/01/1/1");
+    assertThat(view.namesByChange(Change.id(2))).isEmpty();
+  }
+
+  @Test
+  public void sharedIndex_overlappingPushesSeeOwnAdvertisement() throws Exception {
+    SharedRefIndex index = new SharedRefIndex();
+    Map<String, Ref> firstRefs = setupTwoChanges();
+    SharedRefIndex.View first = index.sync(firstRefs);
+
+    // A second push starts after change 1 was updated, change 2 deleted and change 3 created.
+    Ref updated = newRef("refs/changes/01/1/1", "deadbeefdeadbeefdeadbeefdeadbeefdeadbeef");
+    Ref created = newRef("refs/changes/03/3/1", "badc0feebadc0feebadc0feebadc0feebadc0fee");
+    SharedRefIndex.View second =
+        index.sync(ImmutableMap.of(updated.getName(), updated, created.getName(), created));
+
+    // A third push starts with the advertisement of the first one.
+    SharedRefIndex.View third = index.sync(firstRefs);
+
+    ObjectId badc0fee = ObjectId.fromString("badc0feebadc0feebadc0feebadc0feebadc0fee");
+    ObjectId deadbeef = ObjectId.fromString("deadbeefdeadbeefdeadbeefdeadbeefdeadbeef");
+    for (SharedRefIndex.View view : ImmutableList.of(first, third)) {
+      assertThat(view.namesByObjectId(badc0fee)).containsExactly("refs/changes/01/1/1");
+      assertThat(view.namesByObjectId(deadbeef)).containsExactly("refs/changes/02/2/1");
+      assertThat(view.namesByChange(Change.id(1))).containsExactly("refs/changes/01/1/1");
+      assertThat(view.namesByChange(Change.id(2))).containsExactly("refs/changes/02/2/1");
+      assertThat(view.namesByChange(Change.id(3))).isEmpty();
+    }
+    assertThat(second.namesByObjectId(badc0fee)).containsExactly("refs/changes/03/3/1");
+    assertThat(second.namesByObjectId(deadbeef)).containsExactly("refs/changes/01/1/1");
+    assertThat(second.namesByChange(Change.id(1))).containsExactly("refs/changes/01/1/1");
+    assertThat(second.namesByChange(Change.id(2))).isEmpty();
+    assertThat(second.namesByChange(Change.id(3))).containsExactly("refs/changes/03/3/1");
+  }
+
+  @Test
+  public void sharedIndex_viewFallsBackWhenTooManyRefsWereUpdatedSince() throws Exception {
+    SharedRefIndex index = new SharedRefIndex();
+    SharedRefIndex.View view = index.sync(setupTwoChanges());
+
+    ImmutableMap.Builder<String, Ref> refs = ImmutableMap.builder();
+    for (int i = 0; i < SharedRefIndex.MAX_RETAINED_UPDATES; i++) {
+      Ref ref = newRef("refs/heads/branch" + i, "badc0feebadc0feebadc0feebadc0feebadc0fee");
+      refs.put(ref.getName(), ref);
+    }
+    SharedRefIndex.View later = index.sync(refs.build());
+
+    assertThat(view.namesByChange(Change.id(1))).isNull();
+    assertThat(later.namesByChange(Change.id(1))).isEmpty();
+  }
+
   private static Ref newRef(String name, String sha1) {
     return new ObjectIdRef.Unpeeled(Ref.Storage.NEW, name, ObjectId.fromString(sha1), 1);
   }
@@ -125,6 +125,36 @@ public class LoggingContextAwareExecutorServiceTest {
     assertThat(LoggingContext.getInstance().getPerformanceLogRecords()).isEmpty();
   }
 
+  @Test
+  public void resourceUsageOfExecutorThreadIsAccountedToRequest() throws Exception {
+    assertThat(LoggingContext.getInstance().getResourceUsage().isPresent()).isFalse();
+
+    try (TraceContext traceContext = TraceContext.open().measureResourceUsage()) {
+      ResourceUsage resourceUsage = traceContext.getResourceUsage().get();
+      long allocatedBefore = resourceUsage.allocatedBytes();
+
+      ExecutorService executor =
+          new LoggingContextAwareExecutorService(Executors.newFixedThreadPool(1));
+      long allocatedInThread =
+          executor
+              .submit(
+                  () -> {
+                    // Verify that the resource usage has been propagated to the new thread.
+                    expect
+                        .that(LoggingContext.getInstance().getResourceUsage().orElse(null))
+                        .isSameInstanceAs(resourceUsage);
+                    return new byte[1024 * 1024].length;
+                  })
+              .get();
+
+      if (allocatedBefore >= 0) {
+        assertThat(resourceUsage.allocatedBytes() - allocatedBefore).isAtLeast(allocatedInThread);
+      }
+    }
+
+    assertThat(LoggingContext.getInstance().getResourceUsage().isPresent()).isFalse();
+  }
+
   private void assertForceLogging(boolean expected) {
     assertThat(LoggingContext.getInstance().shouldForceLogging(null, null, false))
         .isEqualTo(expected);
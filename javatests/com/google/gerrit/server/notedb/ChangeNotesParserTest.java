@@ -15,11 +15,22 @@
 package com.google.gerrit.server.notedb;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import com.google.gerrit.entities.AttentionSetUpdate;
+import com.google.gerrit.entities.AttentionSetUpdate.Operation;
 import com.google.gerrit.entities.Change;
+import com.google.gerrit.entities.Comment;
+import com.google.gerrit.entities.CommentRange;
+import com.google.gerrit.entities.SubmissionId;
 import com.google.gerrit.server.notedb.ChangeNotesCommit.ChangeNotesRevWalk;
 import com.google.gerrit.server.util.time.TimeUtil;
+import com.google.gerrit.testing.TestChanges;
+import java.util.Optional;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
@@ -515,6 +526,251 @@ public class ChangeNotesParserTest extends AbstractChangeNotesTest {
     assertParseFails("Update change\n\nPatch-set: 1\nCurrent: blah");
   }
 
+  @Test
+  public void parseIncrementallyMatchesFullParse() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), ReviewerStateInternal.REVIEWER);
+    update.putApproval("Code-Review", (short) 1);
+    update.setChangeMessage("first review");
+    update.setAssignee(otherUser.getAccountId());
+    update.setAttentionSetUpdates(
+        ImmutableSet.of(
+            AttentionSetUpdate.createForWrite(otherUser.getAccountId(), Operation.ADD, "review")));
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 2);
+    update.setChangeMessage("second review");
+    update.setAttentionSetUpdates(
+        ImmutableSet.of(
+            AttentionSetUpdate.createForWrite(
+                otherUser.getAccountId(), Operation.REMOVE, "reviewed"),
+            AttentionSetUpdate.createForWrite(changeOwner.getAccountId(), Operation.ADD, "reply")));
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.setTopic("topic");
+    update.setAssignee(changeOwner.getAccountId());
+    update.commit();
+
+    assertParseIncrementallyMatchesFullParse(c, base);
+  }
+
+  @Test
+  public void parseIncrementallyMatchesFullParseForApprovalsAfterMerge() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.merge(
+        new SubmissionId(c),
+        ImmutableList.of(
+            submitRecord(
+                "OK", null, submitLabel("Code-Review", "OK", changeOwner.getAccountId()))));
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 2);
+    update.commit();
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+
+    ChangeNotesState state = assertParseIncrementallyMatchesFullParse(c, base);
+    assertThat(state.approvals().stream().filter(e -> e.getValue().postSubmit())).hasSize(2);
+  }
+
+  @Test
+  public void parseIncrementallyMatchesFullParseForApprovalsBeforeMerge() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 2);
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.merge(
+        new SubmissionId(c),
+        ImmutableList.of(
+            submitRecord(
+                "OK", null, submitLabel("Code-Review", "OK", changeOwner.getAccountId()))));
+    update.commit();
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+
+    assertParseIncrementallyMatchesFullParse(c, base);
+  }
+
+  @Test
+  public void parseIncrementallyFallsBackForStatusAfterMerge() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.merge(
+        new SubmissionId(c),
+        ImmutableList.of(
+            submitRecord(
+                "OK", null, submitLabel("Code-Review", "OK", changeOwner.getAccountId()))));
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 2);
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, changeOwner);
+    update.setStatus(Change.Status.MERGED);
+    update.commit();
+    ObjectId tip = newNotes(c).load().getRevision();
+
+    assertThat(newParser(c.getId(), tip).parseIncrementally(base)).isEmpty();
+  }
+
+  @Test
+  public void parseIncrementallyMatchesFullParseForNewPatchSetWithComments() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    TestChanges.incrementPatchSet(c);
+    RevCommit commit = tr.commit().message("PS2").create();
+    update = newUpdate(c, changeOwner);
+    update.setCommit(rw, commit);
+    update.setChangeMessage("new patch set");
+    update.commit();
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.setChangeMessage("comment on new patch set");
+    update.putComment(
+        Comment.Status.PUBLISHED,
+        newComment(
+            c.currentPatchSetId(),
+            "a.txt",
+            "uuid1",
+            new CommentRange(1, 2, 3, 4),
+            1,
+            otherUser,
+            null,
+            TimeUtil.nowTs(),
+            "comment",
+            (short) 1,
+            commit,
+            false));
+    update.commit();
+
+    ChangeNotesState state = assertParseIncrementallyMatchesFullParse(c, base);
+    assertThat(state.publishedComments()).hasSize(1);
+  }
+
+  @Test
+  public void parseIncrementallyMatchesFullParseForWorkInProgressToggles() throws Exception {
+    Change c = newWorkInProgressChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), ReviewerStateInternal.REVIEWER);
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, changeOwner);
+    update.putReviewer(changeOwner.getAccountId(), ReviewerStateInternal.CC);
+    update.commit();
+    assertThat(assertParseIncrementallyMatchesFullParse(c, base).pendingReviewers().all())
+        .isNotEmpty();
+
+    update = newUpdate(c, changeOwner);
+    update.setWorkInProgress(false);
+    update.commit();
+    ChangeNotesState ready = assertParseIncrementallyMatchesFullParse(c, base);
+
+    update = newUpdate(c, changeOwner);
+    update.setWorkInProgress(true);
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), ReviewerStateInternal.CC);
+    update.commit();
+    assertParseIncrementallyMatchesFullParse(c, ready);
+  }
+
+  @Test
+  public void parseIncrementallyMatchesFullParseForRemovedReviewer() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), ReviewerStateInternal.REVIEWER);
+    update.commit();
+    update = newUpdate(c, otherUser);
+    update.putApproval("Code-Review", (short) 1);
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, changeOwner);
+    update.removeReviewer(otherUser.getAccountId());
+    update.commit();
+
+    ChangeNotesState state = assertParseIncrementallyMatchesFullParse(c, base);
+    assertThat(state.approvals()).isEmpty();
+  }
+
+  @Test
+  public void parseIncrementallyFallsBackForReaddedReviewer() throws Exception {
+    Change c = newChange();
+    ChangeUpdate update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), ReviewerStateInternal.REVIEWER);
+    update.commit();
+    update = newUpdate(c, changeOwner);
+    update.removeReviewer(otherUser.getAccountId());
+    update.commit();
+    ChangeNotesState base = parseAll(c);
+
+    update = newUpdate(c, changeOwner);
+    update.putReviewer(otherUser.getAccountId(), ReviewerStateInternal.REVIEWER);
+    update.commit();
+    ObjectId tip = newNotes(c).load().getRevision();
+
+    assertThat(newParser(c.getId(), tip).parseIncrementally(base)).isEmpty();
+  }
+
+  private ChangeNotesState parseAll(Change c) throws Exception {
+    return newParser(c.getId(), newNotes(c).load().getRevision()).parseAll();
+  }
+
+  /**
+   * Asserts that parsing the notes of a change incrementally from {@code base} gives the same state
+   * as a full parse.
+   */
+  @CanIgnoreReturnValue
+  private ChangeNotesState assertParseIncrementallyMatchesFullParse(
+      Change c, ChangeNotesState base) throws Exception {
+    ObjectId tip = newNotes(c).load().getRevision();
+    ChangeNotesState full = newParser(c.getId(), tip).parseAll();
+    Optional<ChangeNotesState> incremental = newParser(c.getId(), tip).parseIncrementally(base);
+    assertThat(incremental).isPresent();
+    ChangeNotesState state = incremental.get();
+    assertThat(state.metaId()).isEqualTo(full.metaId());
+    assertThat(state.columns()).isEqualTo(full.columns());
+    assertThat(state.hashtags()).isEqualTo(full.hashtags());
+    assertThat(state.patchSets()).isEqualTo(full.patchSets());
+    assertThat(state.approvals()).isEqualTo(full.approvals());
+    assertThat(state.reviewers()).isEqualTo(full.reviewers());
+    assertThat(state.reviewersByEmail()).isEqualTo(full.reviewersByEmail());
+    assertThat(state.pendingReviewers()).isEqualTo(full.pendingReviewers());
+    assertThat(state.pendingReviewersByEmail()).isEqualTo(full.pendingReviewersByEmail());
+    assertThat(state.allPastReviewers()).containsExactlyElementsIn(full.allPastReviewers());
+    assertThat(state.reviewerUpdates()).isEqualTo(full.reviewerUpdates());
+    assertThat(state.attentionSet()).containsExactlyElementsIn(full.attentionSet());
+    assertThat(state.assigneeUpdates()).isEqualTo(full.assigneeUpdates());
+    assertThat(state.submitRecords()).isEqualTo(full.submitRecords());
+    assertThat(state.changeMessages()).isEqualTo(full.changeMessages());
+    assertThat(state.publishedComments()).isEqualTo(full.publishedComments());
+    assertThat(state.updateCount()).isEqualTo(full.updateCount());
+    return state;
+  }
+
   private RevCommit writeCommit(String body) throws Exception {
     ChangeNoteUtil noteUtil = injector.getInstance(ChangeNoteUtil.class);
     return writeCommit(
@@ -571,8 +827,12 @@ public class ChangeNotesParserTest extends AbstractChangeNotesTest {
   }
 
   private ChangeNotesParser newParser(ObjectId tip) throws Exception {
+    return newParser(newChange().getId(), tip);
+  }
+
+  private ChangeNotesParser newParser(Change.Id changeId, ObjectId tip) {
     walk.reset();
     ChangeNoteJson changeNoteJson = injector.getInstance(ChangeNoteJson.class);
-    return new ChangeNotesParser(newChange().getId(), tip, walk, changeNoteJson, args.metrics);
+    return new ChangeNotesParser(changeId, tip, walk, changeNoteJson, args.metrics);
   }
 }
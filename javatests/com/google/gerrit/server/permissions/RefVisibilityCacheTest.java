@@ -0,0 +1,221 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.permissions;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.testing.TestTimeUtil;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RefVisibilityCacheTest {
+  private static final RefVisibilityCache.Key KEY =
+      RefVisibilityCache.Key.create(
+          Project.nameKey("project"),
+          Account.id(1000),
+          ImmutableSet.of(AccountGroup.uuid("group")),
+          false);
+  private static final ImmutableList<ObjectId> CONFIG = ImmutableList.of(id(100));
+
+  private TestRepository<InMemoryRepository> tr;
+  private Cache<RefVisibilityCache.Key, RefVisibilityCache.Snapshot> snapshots;
+  private RefVisibilityCache cache;
+  private List<String> evaluated;
+  private List<Boolean> incremental;
+  private Set<String> hidden;
+
+  @Before
+  public void setUp() throws Exception {
+    TestTimeUtil.resetWithClockStep(0, TimeUnit.SECONDS);
+    tr = new TestRepository<>(new InMemoryRepository(new DfsRepositoryDescription("project")));
+    snapshots = CacheBuilder.newBuilder().build();
+    cache = new RefVisibilityCache(snapshots, Duration.ofMinutes(10));
+    evaluated = new ArrayList<>();
+    incremental = new ArrayList<>();
+    hidden = new HashSet<>();
+    hidden.add("refs/heads/secret");
+  }
+
+  @After
+  public void tearDown() {
+    TestTimeUtil.useSystemTime();
+  }
+
+  @Test
+  public void unchangedRefsAreNotEvaluatedAgain() throws Exception {
+    ImmutableList<Ref> refs =
+        ImmutableList.of(ref("refs/heads/master", 1), ref("refs/heads/secret", 2));
+    assertThat(names(filter(CONFIG, refs))).containsExactly("refs/heads/master");
+    assertThat(evaluated).containsExactly("refs/heads/master", "refs/heads/secret");
+
+    evaluated.clear();
+    assertThat(names(filter(CONFIG, refs))).containsExactly("refs/heads/master");
+    assertThat(evaluated).isEmpty();
+  }
+
+  @Test
+  public void updatedAndNewRefsAreEvaluated() throws Exception {
+    filter(CONFIG, ImmutableList.of(ref("refs/heads/master", 1), ref("refs/heads/secret", 2)));
+
+    evaluated.clear();
+    List<Ref> visible =
+        filter(
+            CONFIG,
+            ImmutableList.of(
+                ref("refs/heads/a", 3), ref("refs/heads/master", 4), ref("refs/heads/secret", 2)));
+    assertThat(names(visible)).containsExactly("refs/heads/a", "refs/heads/master").inOrder();
+    assertThat(evaluated).containsExactly("refs/heads/a", "refs/heads/master");
+    assertThat(incremental).containsExactly(false, true).inOrder();
+  }
+
+  @Test
+  public void changeRefsAreEvaluatedWhenMetaRefIsUpdated() throws Exception {
+    Ref ps1 = ref("refs/changes/01/1/1", 1);
+    Ref otherPs1 = ref("refs/changes/02/2/1", 3);
+    Ref otherMeta = ref("refs/changes/02/2/meta", 4);
+    filter(CONFIG, ImmutableList.of(ps1, ref("refs/changes/01/1/meta", 2), otherPs1, otherMeta));
+
+    evaluated.clear();
+    filter(CONFIG, ImmutableList.of(ps1, ref("refs/changes/01/1/meta", 5), otherPs1, otherMeta));
+    assertThat(evaluated).containsExactly("refs/changes/01/1/1", "refs/changes/01/1/meta");
+  }
+
+  @Test
+  public void configChangeDropsCachedVisibility() throws Exception {
+    ImmutableList<Ref> refs = ImmutableList.of(ref("refs/heads/master", 1));
+    filter(CONFIG, refs);
+
+    evaluated.clear();
+    filter(ImmutableList.of(id(101)), refs);
+    assertThat(evaluated).containsExactly("refs/heads/master");
+    assertThat(incremental).containsExactly(false, false);
+  }
+
+  @Test
+  public void refsNotFilteredAgainStayCached() throws Exception {
+    Ref master = ref("refs/heads/master", 1);
+    Ref stable = ref("refs/heads/stable", 2);
+    createRefs("refs/heads/master", "refs/heads/stable");
+    filter(CONFIG, ImmutableList.of(master, stable));
+    filter(CONFIG, ImmutableList.of(ref("refs/heads/new", 3)));
+
+    evaluated.clear();
+    assertThat(names(filter(CONFIG, ImmutableList.of(stable, master))))
+        .containsExactly("refs/heads/stable", "refs/heads/master")
+        .inOrder();
+    assertThat(evaluated).isEmpty();
+  }
+
+  @Test
+  public void deletedRefsAreDroppedWhenEntryIsUpdated() throws Exception {
+    Ref master = ref("refs/heads/master", 1);
+    Ref stable = ref("refs/heads/stable", 2);
+    createRefs("refs/heads/master");
+    filter(CONFIG, ImmutableList.of(master, stable));
+    assertThat(snapshots.getIfPresent(KEY).size()).isEqualTo(2);
+
+    filter(CONFIG, ImmutableList.of(ref("refs/heads/new", 3)));
+    assertThat(snapshots.getIfPresent(KEY).size()).isEqualTo(2);
+
+    evaluated.clear();
+    filter(CONFIG, ImmutableList.of(master, stable));
+    assertThat(evaluated).containsExactly("refs/heads/stable");
+  }
+
+  @Test
+  public void visibilityIsRecomputedAfterMaxAgeWhileRefsAreAdded() throws Exception {
+    List<Ref> refs = new ArrayList<>();
+    refs.add(ref("refs/heads/master", 1));
+    assertThat(names(filter(CONFIG, refs))).containsExactly("refs/heads/master");
+
+    // Access is revoked without a change of the project configuration, e.g. by removing the user
+    // from an external group.
+    hidden.add("refs/heads/master");
+    for (int i = 1; i < 10; i++) {
+      TestTimeUtil.incrementClock(1, TimeUnit.MINUTES);
+      refs.add(ref("refs/heads/branch" + i, 100 + i));
+      assertThat(names(filter(CONFIG, refs))).contains("refs/heads/master");
+    }
+
+    TestTimeUtil.incrementClock(1, TimeUnit.MINUTES);
+    refs.add(ref("refs/heads/branch10", 110));
+    evaluated.clear();
+    assertThat(names(filter(CONFIG, refs))).doesNotContain("refs/heads/master");
+    assertThat(evaluated).hasSize(refs.size());
+  }
+
+  private List<Ref> filter(ImmutableList<ObjectId> configRevisions, List<Ref> refs)
+      throws PermissionBackendException {
+    return cache
+        .filter(
+            KEY,
+            configRevisions,
+            refs,
+            tr.getRepository().getRefDatabase(),
+            (unknown, isIncremental) -> {
+              unknown.forEach(r -> evaluated.add(r.getName()));
+              incremental.add(isIncremental);
+              List<Ref> visible = new ArrayList<>();
+              for (Ref r : unknown) {
+                if (!hidden.contains(r.getName())) {
+                  visible.add(r);
+                }
+              }
+              return new AutoValue_DefaultRefFilter_Result(visible, ImmutableList.of());
+            })
+        .visibleRefs();
+  }
+
+  private void createRefs(String... names) throws Exception {
+    RevCommit c = tr.commit().create();
+    for (String name : names) {
+      tr.update(name, c);
+    }
+  }
+
+  private static ImmutableList<String> names(List<Ref> refs) {
+    return refs.stream().map(Ref::getName).collect(toImmutableList());
+  }
+
+  private static Ref ref(String name, int id) {
+    return new ObjectIdRef.PeeledNonTag(Ref.Storage.LOOSE, name, id(id));
+  }
+
+  private static ObjectId id(int id) {
+    return ObjectId.fromRaw(new int[] {id, 0, 0, 0, 0});
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.project;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.extensions.proto.ProtoTruth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.cache.proto.Cache.ProjectListProto;
+import org.junit.Test;
+
+public class ProjectListTest {
+  private static final Project.NameKey FOO = Project.nameKey("foo");
+  private static final Project.NameKey FOO_BAR = Project.nameKey("foo/bar");
+  private static final Project.NameKey QUX = Project.nameKey("qux");
+
+  @Test
+  public void addAndRemove() {
+    ProjectList list = new ProjectList(ImmutableList.of(QUX, FOO));
+    ImmutableSortedSet<Project.NameKey> before = list.all();
+    assertThat(before).containsExactly(FOO, QUX).inOrder();
+    assertThat(list.all()).isSameInstanceAs(before);
+
+    list.add(FOO_BAR);
+    assertThat(list.all()).containsExactly(FOO, FOO_BAR, QUX).inOrder();
+    assertThat(before).containsExactly(FOO, QUX).inOrder();
+
+    list.remove(FOO);
+    assertThat(list.all()).containsExactly(FOO_BAR, QUX).inOrder();
+  }
+
+  @Test
+  public void addOfExistingProjectKeepsSnapshot() {
+    ProjectList list = new ProjectList(ImmutableList.of(FOO));
+    ImmutableSortedSet<Project.NameKey> before = list.all();
+    long modCount = list.modCount();
+
+    list.add(FOO);
+    list.remove(QUX);
+    assertThat(list.modCount()).isEqualTo(modCount);
+    assertThat(list.all()).isSameInstanceAs(before);
+  }
+
+  @Test
+  public void subSet() {
+    ProjectList list = new ProjectList(ImmutableList.of(FOO, FOO_BAR, QUX));
+    assertThat(list.subSet(FOO, Project.nameKey("foo" + Character.MAX_VALUE)))
+        .containsExactly(FOO, FOO_BAR)
+        .inOrder();
+
+    list.all();
+    list.remove(FOO_BAR);
+    assertThat(list.subSet(FOO, Project.nameKey("foo" + Character.MAX_VALUE)))
+        .containsExactly(FOO);
+  }
+
+  @Test
+  public void reconcile() {
+    ProjectList list = new ProjectList(ImmutableList.of(FOO, FOO_BAR));
+    assertThat(list.reconcile(ImmutableList.of(FOO, QUX), list.modCount())).isTrue();
+    assertThat(list.all()).containsExactly(FOO, QUX).inOrder();
+  }
+
+  @Test
+  public void reconcileIsSkippedIfListWasModified() {
+    ProjectList list = new ProjectList(ImmutableList.of(FOO));
+    long modCount = list.modCount();
+    list.add(QUX);
+
+    assertThat(list.reconcile(ImmutableList.of(FOO), modCount)).isFalse();
+    assertThat(list.all()).containsExactly(FOO, QUX).inOrder();
+  }
+
+  @Test
+  public void serializer() throws Exception {
+    ProjectList list = new ProjectList(ImmutableList.of(QUX, FOO));
+
+    byte[] serialized = ProjectList.Serializer.INSTANCE.serialize(list);
+    assertThat(ProjectListProto.parseFrom(serialized))
+        .isEqualTo(ProjectListProto.newBuilder().addName("foo").addName("qux").build());
+    assertThat(ProjectList.Serializer.INSTANCE.deserialize(serialized).all())
+        .containsExactly(FOO, QUX)
+        .inOrder();
+  }
+}
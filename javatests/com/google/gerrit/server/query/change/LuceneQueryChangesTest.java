@@ -18,11 +18,14 @@ import static com.google.common.truth.Truth.assertThat;
 import static com.google.gerrit.testing.GerritJUnit.assertThrows;
 
 import com.google.gerrit.entities.Change;
+import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.testing.InMemoryModule;
 import com.google.gerrit.testing.InMemoryRepositoryManager.Repo;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import java.util.ArrayList;
+import java.util.List;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -66,4 +69,90 @@ public abstract class LuceneQueryChangesTest extends AbstractQueryChangesTest {
             () -> assertQuery("owner: \"" + nameEmail + "\"\\", change1));
     assertThat(thrown).hasMessageThat().contains("Cannot create full-text query with value: \\");
   }
+
+  @Test
+  public void mergesResultsOfOpenAndClosedSubIndexes() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      // Alternate between the open and the closed sub-index.
+      changes.add(
+          insert(
+              repo,
+              i % 2 == 0 ? newChange(repo) : newChangeWithStatus(repo, Change.Status.MERGED)));
+    }
+
+    assertQuery(
+        "project:repo",
+        changes.get(5),
+        changes.get(4),
+        changes.get(3),
+        changes.get(2),
+        changes.get(1),
+        changes.get(0));
+    assertQuery("project:repo status:open", changes.get(4), changes.get(2), changes.get(0));
+    assertQuery("project:repo status:closed", changes.get(5), changes.get(3), changes.get(1));
+
+    List<ChangeInfo> limited =
+        assertQuery(
+            newQuery("project:repo").withLimit(3), changes.get(5), changes.get(4), changes.get(3));
+    assertThat(limited.get(2)._moreChanges).isTrue();
+
+    List<ChangeInfo> started =
+        assertQuery(
+            newQuery("project:repo").withStart(2).withLimit(3),
+            changes.get(3),
+            changes.get(2),
+            changes.get(1));
+    assertThat(started.get(2)._moreChanges).isTrue();
+
+    List<ChangeInfo> last =
+        assertQuery(
+            newQuery("project:repo").withStart(4).withLimit(3), changes.get(1), changes.get(0));
+    assertThat(last.get(1)._moreChanges).isNull();
+  }
+
+  @Test
+  public void searchAfter() throws Exception {
+    TestRepository<Repo> repo = createProject("repo");
+    List<Change> changes = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      changes.add(insert(repo, newChange(repo)));
+    }
+
+    List<ChangeInfo> page1 =
+        assertQuery(newQuery("project:repo").withLimit(2), changes.get(4), changes.get(3));
+    String cursor = page1.get(1)._searchAfter;
+    assertThat(cursor).isNotNull();
+    assertThat(page1.get(0)._searchAfter).isNull();
+
+    List<ChangeInfo> page2 =
+        assertQuery(
+            newQuery("project:repo").withLimit(2).withSearchAfter(cursor),
+            changes.get(2),
+            changes.get(1));
+    cursor = page2.get(1)._searchAfter;
+    assertThat(cursor).isNotNull();
+
+    List<ChangeInfo> page3 =
+        assertQuery(
+            newQuery("project:repo").withLimit(2).withSearchAfter(cursor), changes.get(0));
+    assertThat(page3.get(0)._searchAfter).isNull();
+    assertThat(page3.get(0)._moreChanges).isNull();
+
+    assertQuery(
+        newQuery("project:repo")
+            .withLimit(2)
+            .withStart(1)
+            .withSearchAfter(page1.get(1)._searchAfter),
+        changes.get(1),
+        changes.get(0));
+  }
+
+  @Test
+  public void searchAfterInvalidCursor() throws Exception {
+    assertThatQueryException(newQuery("status:new").withSearchAfter("not-a-cursor"))
+        .hasMessageThat()
+        .isEqualTo("Invalid search-after cursor: not-a-cursor");
+  }
 }
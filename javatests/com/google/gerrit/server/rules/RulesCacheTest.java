@@ -0,0 +1,132 @@
+// Copyright (C) 2020 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.gerrit.server.rules;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.registration.DynamicSet;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.plugincontext.PluginContext.PluginMetrics;
+import com.google.gerrit.server.plugincontext.PluginSetContext;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import com.googlecode.prolog_cafe.lang.PrologMachineCopy;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RulesCacheTest {
+  private static final int THREADS = 8;
+
+  private final Project.NameKey project = Project.nameKey("project");
+
+  private InMemoryRepositoryManager repoManager;
+  private RulesCache rulesCache;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    repoManager.createRepository(project).close();
+    rulesCache =
+        new RulesCache(
+            new Config(),
+            new SitePaths(Paths.get(".")),
+            repoManager,
+            new PluginSetContext<>(new DynamicSet<>(), PluginMetrics.DISABLED_INSTANCE),
+            CacheBuilder.newBuilder().build(),
+            new DisabledMetricMaker());
+    executor = Executors.newFixedThreadPool(THREADS);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void concurrentLoadsOfSameRulesShareMachine() throws Exception {
+    ObjectId rulesId = insertRules("foo(1).\n");
+
+    List<PrologMachineCopy> machines = loadConcurrently(rulesId, rulesId);
+
+    assertThat(machines).hasSize(THREADS);
+    for (PrologMachineCopy machine : machines) {
+      assertThat(machine).isSameInstanceAs(machines.get(0));
+    }
+    assertThat(rulesCache.loadMachine(project, rulesId)).isSameInstanceAs(machines.get(0));
+  }
+
+  @Test
+  public void concurrentLoadsOfDistinctRulesGetOwnMachines() throws Exception {
+    ObjectId rulesId1 = insertRules("foo(1).\n");
+    ObjectId rulesId2 = insertRules("foo(2).\n");
+
+    List<PrologMachineCopy> machines = loadConcurrently(rulesId1, rulesId2);
+
+    for (int i = 0; i < THREADS; i++) {
+      assertThat(machines.get(i)).isSameInstanceAs(machines.get(i % 2));
+    }
+    assertThat(machines.get(0)).isNotSameInstanceAs(machines.get(1));
+    assertThat(rulesCache.loadMachine(project, rulesId1)).isSameInstanceAs(machines.get(0));
+    assertThat(rulesCache.loadMachine(project, rulesId2)).isSameInstanceAs(machines.get(1));
+  }
+
+  /** Loads the rules from {@code THREADS} threads at once, alternating between the two ids. */
+  private List<PrologMachineCopy> loadConcurrently(ObjectId rulesId1, ObjectId rulesId2)
+      throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<PrologMachineCopy>> futures = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      ObjectId rulesId = i % 2 == 0 ? rulesId1 : rulesId2;
+      futures.add(
+          executor.submit(
+              () -> {
+                start.await();
+                return rulesCache.loadMachine(project, rulesId);
+              }));
+    }
+    start.countDown();
+    List<PrologMachineCopy> machines = new ArrayList<>();
+    for (Future<PrologMachineCopy> future : futures) {
+      machines.add(future.get());
+    }
+    return machines;
+  }
+
+  private ObjectId insertRules(String rules) throws Exception {
+    try (Repository repo = repoManager.openRepository(project);
+        ObjectInserter ins = repo.newObjectInserter()) {
+      ObjectId id = ins.insert(Constants.OBJ_BLOB, rules.getBytes(UTF_8));
+      ins.flush();
+      return id;
+    }
+  }
+}
@@ -29,6 +29,7 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.entities.SubmissionId;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.change.ChangeInserter;
 import com.google.gerrit.server.change.PatchSetInserter;
@@ -304,6 +305,36 @@ public class BatchUpdateTest {
     assertThat(diffSummaryCache.asMap()).hasSize(cacheSizeBefore + 1);
   }
 
+  @Test
+  public void updateSeveralChangesInOneBatch() throws Exception {
+    ImmutableList<Change.Id> ids =
+        ImmutableList.of(
+            createChangeWithUpdates(1), createChangeWithUpdates(2), createChangeWithUpdates(1));
+    try (BatchUpdate bu = batchUpdateFactory.create(project, user.get(), TimeUtil.nowTs())) {
+      for (Change.Id id : ids) {
+        bu.addOp(id, new AddMessageOp("First update of " + id));
+        bu.addOp(id, new AddMessageOp("Second update of " + id));
+      }
+      bu.execute();
+    }
+    assertThat(getUpdateCount(ids.get(0))).isEqualTo(2);
+    assertThat(getUpdateCount(ids.get(1))).isEqualTo(3);
+    assertThat(getUpdateCount(ids.get(2))).isEqualTo(2);
+  }
+
+  @Test
+  public void updateOfMissingChangeInBatchFails() throws Exception {
+    Change.Id id = createChangeWithUpdates(1);
+    Change.Id missingId = Change.id(sequences.nextChangeId());
+    ObjectId oldMetaId = getMetaId(id);
+    try (BatchUpdate bu = batchUpdateFactory.create(project, user.get(), TimeUtil.nowTs())) {
+      bu.addOp(id, new AddMessageOp("Update"));
+      bu.addOp(missingId, new AddMessageOp("Update"));
+      assertThrows(ResourceNotFoundException.class, bu::execute);
+    }
+    assertThat(getMetaId(id)).isEqualTo(oldMetaId);
+  }
+
   private Change.Id createChangeWithUpdates(int totalUpdates) throws Exception {
     checkArgument(totalUpdates > 0);
     checkArgument(totalUpdates <= MAX_UPDATES);